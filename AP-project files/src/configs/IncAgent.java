@@ -1,14 +1,23 @@
 package configs;
 
 import graph.Agent;
+import graph.AgentFactory;
+import graph.ColumnarAgent;
 import graph.Message;
+import graph.Snapshot;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.UnaryAgent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * The IncAgent class implements the Agent interface,It subscribes to a topic, increments the received value, and publishes the result to another topic.
  */
-public class IncAgent implements Agent {
+public class IncAgent implements StatefulAgent, UnaryAgent, ColumnarAgent {
     /** The current value held by the agent. */
     private double value = 0;
 
@@ -70,13 +79,84 @@ public class IncAgent implements Agent {
             msgFromFirstTopic = msg;
         }
 
+        Message result = increment();
+        if (result != null) {
+            // publish the new value
+            TopicManagerSingleton.get().getTopic(resultTopicName).publish(result);
+        }
+    }
+
+    /**
+     * Stores a message of the subscribed topic and returns the incremented value, as the callback does,
+     * without publishing it.
+     *
+     * @param msg The received message.
+     * @return The message to publish, or null if the value is not a number.
+     */
+    @Override
+    public Message evaluate(Message msg) {
+        msgFromFirstTopic = msg;
+        return increment();
+    }
+
+    /**
+     * Increments the last value received.
+     *
+     * @return The incremented value, or null if no number was received.
+     */
+    private Message increment() {
         if (msgFromFirstTopic != null && !Double.isNaN(msgFromFirstTopic.asDouble)) {
             // get the value from the message
             value = msgFromFirstTopic.asDouble;
             // increment the value
             value++;
-            // publish the new value
-            TopicManagerSingleton.get().getTopic(resultTopicName).publish(new Message(value));
+            return new Message(value);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the topic this agent subscribes to.
+     *
+     * @return The name of the topic.
+     */
+    @Override
+    public String getInputTopic() {
+        return firstTopicName;
+    }
+
+    /**
+     * Gets the topic this agent publishes results to.
+     *
+     * @return The name of the topic.
+     */
+    @Override
+    public String getOutputTopic() {
+        return resultTopicName;
+    }
+
+    /**
+     * Gets the topics this agent subscribes to.
+     *
+     * @return The name of the subscribed topic.
+     */
+    @Override
+    public String[] getInputTopics() {
+        return new String[] {firstTopicName};
+    }
+
+    /**
+     * Computes the incremented value of the subscribed topic for each row, NaN propagating as a missing result.
+     *
+     * @param inputs The column of the subscribed topic.
+     * @param output The column to write the results to.
+     * @param rows The number of rows to compute.
+     */
+    @Override
+    public void evaluate(double[][] inputs, double[] output, int rows) {
+        double[] first = inputs[0];
+        for (int i = 0; i < rows; i++) {
+            output[i] = first[i] + 1;
         }
     }
 
@@ -93,4 +173,44 @@ public class IncAgent implements Agent {
         Topic resultTopic = tm.getTopic(resultTopicName);
         resultTopic.removePublisher(this);
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Writes the current value and the last message received from the subscribed topic.
+     *
+     * @param out The output to write the state to.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeDouble(value);
+        Snapshot.writeMessage(out, msgFromFirstTopic);
+    }
+
+    /**
+     * Restores the current value and the last message received from the subscribed topic.
+     *
+     * @param in The input to read the state from.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        value = in.readDouble();
+        msgFromFirstTopic = Snapshot.readMessage(in);
+    }
+
+    /**
+     * Creates IncAgent instances for configuration files with a direct constructor call.
+     */
+    public static class Factory implements AgentFactory {
+        @Override
+        public String getAgentClassName() {
+            return IncAgent.class.getName();
+        }
+
+        @Override
+        public Agent create(String[] subs, String[] pubs) {
+            return new IncAgent(subs, pubs);
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package configs;
 
 import graph.Agent;
+import graph.AgentFactory;
+import graph.ColumnarAgent;
 import graph.Message;
+import graph.Snapshot;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The MulAgent class implements the Agent interface and performs multiplication operations
  * on messages received from two subscribed topics, publishing the result to a third topic.
  */
-public class MulAgent implements Agent {
+public class MulAgent implements StatefulAgent, ColumnarAgent {
     /** The first operand for addition. */
     private double x = 0;
     /** The second operand for addition. */
@@ -101,6 +109,42 @@ public class MulAgent implements Agent {
     }
 
      /**
+     * Gets the topics this agent subscribes to.
+     *
+     * @return The names of the first and second topics.
+     */
+    @Override
+    public String[] getInputTopics() {
+        return new String[] {firstTopicName, secondTopicName};
+    }
+
+    /**
+     * Gets the topic this agent publishes results to.
+     *
+     * @return The name of the topic.
+     */
+    @Override
+    public String getOutputTopic() {
+        return resultTopicName;
+    }
+
+    /**
+     * Computes the product of the values of both topics for each row, NaN propagating as a missing result.
+     *
+     * @param inputs The columns of the first and second topics.
+     * @param output The column to write the results to.
+     * @param rows The number of rows to compute.
+     */
+    @Override
+    public void evaluate(double[][] inputs, double[] output, int rows) {
+        double[] first = inputs[0];
+        double[] second = inputs[1];
+        for (int i = 0; i < rows; i++) {
+            output[i] = first[i] * second[i];
+        }
+    }
+
+    /**
      * Closes the agent, unsubscribing from topics and removing itself as a publisher.
      */
     @Override
@@ -116,4 +160,48 @@ public class MulAgent implements Agent {
         Topic resultTopic = tm.getTopic(resultTopicName);
         resultTopic.removePublisher(this);
     }
+
+
+    /**
+     * Writes the operands and the last messages received from both topics.
+     *
+     * @param out The output to write the state to.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeDouble(x);
+        out.writeDouble(y);
+        Snapshot.writeMessage(out, msgFromFirstTopic);
+        Snapshot.writeMessage(out, msgFromSecondTopic);
+    }
+
+    /**
+     * Restores the operands and the last messages received from both topics.
+     *
+     * @param in The input to read the state from.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        x = in.readDouble();
+        y = in.readDouble();
+        msgFromFirstTopic = Snapshot.readMessage(in);
+        msgFromSecondTopic = Snapshot.readMessage(in);
+    }
+
+    /**
+     * Creates MulAgent instances for configuration files with a direct constructor call.
+     */
+    public static class Factory implements AgentFactory {
+        @Override
+        public String getAgentClassName() {
+            return MulAgent.class.getName();
+        }
+
+        @Override
+        public Agent create(String[] subs, String[] pubs) {
+            return new MulAgent(subs, pubs);
+        }
+    }
 }
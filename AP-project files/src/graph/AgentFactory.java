@@ -0,0 +1,30 @@
+package graph;
+
+/**
+ * The AgentFactory interface creates agents of a single class from the subscriptions and
+ * publications of a configuration entry.
+ * <p>
+ * Factories are found through {@link java.util.ServiceLoader} (listed in
+ * {@code META-INF/services/graph.AgentFactory}) or registered directly with the
+ * {@link AgentFactoryRegistry}, so that configurations can instantiate agents with a direct call.
+ * </p>
+ */
+public interface AgentFactory {
+
+    /**
+     * Retrieves the fully qualified class name of the agents created by this factory,
+     * as written in configuration files.
+     *
+     * @return The agent class name.
+     */
+    String getAgentClassName();
+
+    /**
+     * Creates a new agent that subscribes and publishes to the given topics.
+     *
+     * @param subs An array of topic names to subscribe to.
+     * @param pubs An array of topic names to publish to.
+     * @return The created agent.
+     */
+    Agent create(String[] subs, String[] pubs);
+}
@@ -0,0 +1,149 @@
+package graph;
+
+import configs.IncAgent;
+import configs.MulAgent;
+import configs.PlusAgent;
+import configs.SubAgent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of {@link AgentFactory} objects keyed by agent class name.
+ * <p>
+ * The factories of the built-in agents are registered when the registry is first used, along with the factories
+ * found through {@link ServiceLoader} for the class names not registered yet; other factories are registered
+ * with {@link #register(AgentFactory)}. Classes without a registered factory fall back to their {@code (String[], String[])} constructor,
+ * which is looked up once and cached as a {@link MethodHandle}, so the reflective lookup is paid
+ * once per class name instead of once per configuration entry.
+ * </p>
+ */
+public class AgentFactoryRegistry {
+
+    /** The type of the {@code (String[], String[])} agent constructor. */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class, String[].class, String[].class);
+
+    /** The type the constructor handles are adapted to, so they can be invoked exactly. */
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Agent.class, String[].class, String[].class);
+
+    /** The factories by agent class name, including the cached constructor fallbacks. */
+    private static final ConcurrentHashMap<String, AgentFactory> factories = new ConcurrentHashMap<>();
+
+    static {
+        // register the factories of the built-in agents
+        register(new IncAgent.Factory());
+        register(new PlusAgent.Factory());
+        register(new SubAgent.Factory());
+        register(new MulAgent.Factory());
+
+        // then the factories declared as services, such as the ones of third-party agents
+        for (AgentFactory factory : ServiceLoader.load(AgentFactory.class)) {
+            factories.putIfAbsent(factory.getAgentClassName(), factory);
+        }
+    }
+
+    /** Private constructor to prevent instantiation. */
+    private AgentFactoryRegistry() {}
+
+    /**
+     * Registers a factory, replacing any factory registered for the same class name.
+     *
+     * @param factory The factory to register.
+     */
+    public static void register(AgentFactory factory) {
+        factories.put(factory.getAgentClassName(), factory);
+    }
+
+    /**
+     * Gets the factory for the given agent class name, creating and caching a constructor based
+     * factory if none was registered.
+     * <p>
+     * If the class cannot be used as an agent, the returned factory throws an
+     * {@link IllegalArgumentException} describing why each time it is called.
+     * </p>
+     *
+     * @param className The fully qualified class name of the agent.
+     * @return The factory for the class.
+     */
+    public static AgentFactory get(String className) {
+        return factories.computeIfAbsent(className, AgentFactoryRegistry::constructorFactory);
+    }
+
+    /**
+     * Creates a factory that calls the {@code (String[], String[])} constructor of the given class.
+     *
+     * @param className The fully qualified class name of the agent.
+     * @return A factory calling the constructor, or a factory reporting why the constructor is unusable.
+     */
+    private static AgentFactory constructorFactory(String className) {
+        String error;
+        try {
+            Class<?> agentClass = Class.forName(className);
+            if (Agent.class.isAssignableFrom(agentClass)) {
+                MethodHandle constructor = MethodHandles.publicLookup()
+                        .findConstructor(agentClass, CONSTRUCTOR_TYPE)
+                        .asType(FACTORY_TYPE);
+                return new ConstructorFactory(className, constructor);
+            }
+            error = className + " does not implement " + Agent.class.getName();
+        } catch (ClassNotFoundException e) {
+            error = "class " + className + " was not found";
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            error = className + " has no public (String[], String[]) constructor";
+        }
+
+        // remember the failure so the class is not looked up again for every entry
+        String message = error;
+        return new AgentFactory() {
+            @Override
+            public String getAgentClassName() {
+                return className;
+            }
+
+            @Override
+            public Agent create(String[] subs, String[] pubs) {
+                throw new IllegalArgumentException(message);
+            }
+        };
+    }
+
+    /**
+     * A factory invoking a cached constructor handle.
+     */
+    private static class ConstructorFactory implements AgentFactory {
+        /** The agent class name. */
+        private final String className;
+        /** The constructor, adapted to {@code (String[], String[])Agent}. */
+        private final MethodHandle constructor;
+
+        /**
+         * Constructs a ConstructorFactory.
+         *
+         * @param className The agent class name.
+         * @param constructor The constructor handle.
+         */
+        ConstructorFactory(String className, MethodHandle constructor) {
+            this.className = className;
+            this.constructor = constructor;
+        }
+
+        @Override
+        public String getAgentClassName() {
+            return className;
+        }
+
+        @Override
+        public Agent create(String[] subs, String[] pubs) {
+            try {
+                return (Agent) constructor.invokeExact(subs, pubs);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the queues of the {@link ParallelAgent}s of a configuration on a few worker threads, one partition
+ * of the graph per worker, instead of a thread per agent.
+ */
+public class AgentScheduler {
+
+    /** The workers. */
+    private final Worker[] workers;
+
+    /**
+     * Constructs an AgentScheduler and starts its workers.
+     *
+     * @param workerCount The number of workers, such as the number of cores.
+     */
+    public AgentScheduler(int workerCount) {
+        this.workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("AgentWorker-" + i);
+        }
+    }
+
+    /**
+     * Gets the number of workers.
+     *
+     * @return The number of workers.
+     */
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Places the entries of a configuration on the workers. The workers of the agents already running are
+     * read from the topics of the graph.
+     *
+     * @param specs The entries.
+     * @return The worker of every entry.
+     */
+    synchronized Map<AgentSpec, Worker> assign(Collection<AgentSpec> specs) {
+        List<AgentSpec> entries = new ArrayList<>(specs);
+        int total = entries.size();
+        for (Worker worker : workers) {
+            total += worker.agents.get();
+        }
+        int share = Math.max(1, (total + workers.length - 1) / workers.length);
+
+        // The entries of every topic, to go from an entry to the ones it shares a topic with
+        Map<String, List<Integer>> byTopic = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            for (String topic : topicsOf(entries.get(i))) {
+                byTopic.computeIfAbsent(topic, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Cut the graph into connected parts no larger than a share
+        List<List<Integer>> parts = new ArrayList<>();
+        boolean[] inComponent = new boolean[entries.size()];
+        boolean[] inPart = new boolean[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            if (inComponent[i]) {
+                continue;
+            }
+            List<Integer> component = connected(entries, byTopic, i, inComponent, Integer.MAX_VALUE);
+            if (component.size() <= share) {
+                parts.add(component);
+                continue;
+            }
+            for (int seed : component) {
+                if (!inPart[seed]) {
+                    parts.add(connected(entries, byTopic, seed, inPart, share));
+                }
+            }
+        }
+
+        // Place the largest parts first, each on the worker running most of its topics if it fits there,
+        // or else on the worker with the fewest agents
+        parts.sort((a, b) -> Integer.compare(b.size(), a.size()));
+        int[] load = new int[workers.length];
+        List<Set<String>> plannedTopics = new ArrayList<>();
+        for (int w = 0; w < workers.length; w++) {
+            load[w] = workers[w].agents.get();
+            plannedTopics.add(new HashSet<>());
+        }
+        Map<String, Set<Worker>> running = runningWorkers(byTopic.keySet());
+        Map<AgentSpec, Worker> assigned = new HashMap<>();
+        for (List<Integer> part : parts) {
+            Set<String> topics = new HashSet<>();
+            for (int i : part) {
+                topics.addAll(topicsOf(entries.get(i)));
+            }
+            int index = 0;
+            int bestShared = 0;
+            for (int w = 0; w < workers.length; w++) {
+                if (load[w] < load[index]) {
+                    index = w;
+                }
+            }
+            for (int w = 0; w < workers.length; w++) {
+                if (load[w] + part.size() > share) {
+                    continue;
+                }
+                int shared = 0;
+                for (String topic : topics) {
+                    Set<Worker> holders = running.get(topic);
+                    if (plannedTopics.get(w).contains(topic) || (holders != null && holders.contains(workers[w]))) {
+                        shared++;
+                    }
+                }
+                if (shared > bestShared) {
+                    bestShared = shared;
+                    index = w;
+                }
+            }
+            load[index] += part.size();
+            plannedTopics.get(index).addAll(topics);
+            for (int i : part) {
+                assigned.put(entries.get(i), workers[index]);
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Collects the entries connected to an entry through their topics, breadth first, skipping and marking the
+     * entries already taken.
+     *
+     * @param entries The entries.
+     * @param byTopic The entries of every topic, by index.
+     * @param seed The index of the first entry.
+     * @param taken The entries already taken, the collected ones are marked.
+     * @param limit The most entries to collect.
+     * @return The indexes of the collected entries, in the order they were reached.
+     */
+    private static List<Integer> connected(List<AgentSpec> entries, Map<String, List<Integer>> byTopic, int seed,
+                                           boolean[] taken, int limit) {
+        List<Integer> collected = new ArrayList<>();
+        Set<String> expanded = new HashSet<>();
+        taken[seed] = true;
+        collected.add(seed);
+        for (int next = 0; next < collected.size() && collected.size() < limit; next++) {
+            for (String topic : topicsOf(entries.get(collected.get(next)))) {
+                if (!expanded.add(topic)) {
+                    continue;
+                }
+                for (int neighbour : byTopic.get(topic)) {
+                    if (collected.size() == limit) {
+                        break;
+                    }
+                    if (!taken[neighbour]) {
+                        taken[neighbour] = true;
+                        collected.add(neighbour);
+                    }
+                }
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Finds the workers running the parallel agents already subscribed or publishing to some topics.
+     *
+     * @param topics The names of the topics.
+     * @return The workers of every topic that has any, by topic name.
+     */
+    private Map<String, Set<Worker>> runningWorkers(Collection<String> topics) {
+        Map<String, Set<Worker>> running = new HashMap<>();
+        Map<String, Topic> graph = TopicManagerSingleton.get().getTopics();
+        for (String name : topics) {
+            Topic topic = graph.get(name);
+            if (topic == null) {
+                continue;
+            }
+            for (List<Agent> members : Arrays.asList(topic.getSubscribers(), topic.getPublishers())) {
+                for (Agent agent : members) {
+                    if (agent instanceof ParallelAgent && ((ParallelAgent) agent).getWorker() != null) {
+                        running.computeIfAbsent(name, k -> new HashSet<>()).add(((ParallelAgent) agent).getWorker());
+                    }
+                }
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Gets the topics an entry subscribes and publishes to.
+     *
+     * @param spec The entry.
+     * @return The topic names.
+     */
+    private static List<String> topicsOf(AgentSpec spec) {
+        List<String> topics = new ArrayList<>(spec.getSubs().length + spec.getPubs().length);
+        for (String topic : spec.getSubs()) {
+            topics.add(topic);
+        }
+        for (String topic : spec.getPubs()) {
+            topics.add(topic);
+        }
+        return topics;
+    }
+
+    /**
+     * Stops the workers once they ran the tasks already given to them. Close the configurations using the
+     * scheduler first.
+     */
+    public void close() {
+        for (Worker worker : workers) {
+            worker.execute(worker::stop);
+        }
+    }
+
+    /**
+     * A worker thread running the queues of the parallel agents of a partition, one task after the other.
+     */
+    static final class Worker implements Executor {
+        /** The worker of the current thread, or null if it is not a worker. */
+        private static final ThreadLocal<Worker> current = new ThreadLocal<>();
+        /** The tasks to run. */
+        private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        /** The number of parallel agents using the worker. */
+        final AtomicInteger agents = new AtomicInteger();
+        /** The thread of the worker. */
+        private final Thread thread;
+        /** Whether the worker was stopped. */
+        private volatile boolean stopped;
+
+        /**
+         * Constructs a Worker and starts its thread.
+         *
+         * @param name The name of the thread.
+         */
+        Worker(String name) {
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Runs the tasks until the worker is stopped.
+         */
+        private void run() {
+            current.set(this);
+            while (!stopped) {
+                try {
+                    tasks.take().run();
+                } catch (InterruptedException e) {
+                    // Only stopping matters, look at the flag again
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Stops the worker, from its own thread.
+         */
+        private void stop() {
+            stopped = true;
+        }
+
+        /**
+         * Gives the worker a task to run.
+         *
+         * @param task The task.
+         */
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        /**
+         * Gets the worker of the current thread.
+         *
+         * @return The worker, or null if the current thread is not the thread of a worker.
+         */
+        static Worker current() {
+            return current.get();
+        }
+
+        /**
+         * Tells whether the current thread is the thread of this worker.
+         *
+         * @return true if it is.
+         */
+        boolean isCurrent() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Gets the name of the thread of the worker.
+         *
+         * @return The name of the thread.
+         */
+        String getName() {
+            return thread.getName();
+        }
+    }
+}
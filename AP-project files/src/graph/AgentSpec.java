@@ -0,0 +1,99 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The AgentSpec class describes a single agent entry of a configuration file:
+ * the agent class name, the topics it subscribes to and the topics it publishes to.
+ * <p>
+ * Two specs are equal when they describe the same class with the same subscriptions and
+ * publications, regardless of the line they were read from. This is what allows a reloaded
+ * configuration to be matched against the agents that are already running.
+ * </p>
+ */
+public final class AgentSpec {
+    /** The fully qualified class name of the agent. */
+    private final String className;
+    /** The names of the topics the agent subscribes to. */
+    private final String[] subs;
+    /** The names of the topics the agent publishes to. */
+    private final String[] pubs;
+    /** The line (1-based) of the configuration file where this entry starts. */
+    private final int lineNumber;
+
+    /**
+     * Constructs a new AgentSpec.
+     *
+     * @param className The fully qualified class name of the agent.
+     * @param subs The names of the topics the agent subscribes to.
+     * @param pubs The names of the topics the agent publishes to.
+     * @param lineNumber The line of the configuration file where this entry starts.
+     */
+    public AgentSpec(String className, String[] subs, String[] pubs, int lineNumber) {
+        this.className = className;
+        this.subs = subs;
+        this.pubs = pubs;
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Gets the fully qualified class name of the agent.
+     *
+     * @return The class name.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the names of the topics the agent subscribes to.
+     *
+     * @return The subscribed topic names.
+     */
+    public String[] getSubs() {
+        return subs;
+    }
+
+    /**
+     * Gets the names of the topics the agent publishes to.
+     *
+     * @return The published topic names.
+     */
+    public String[] getPubs() {
+        return pubs;
+    }
+
+    /**
+     * Gets the line of the configuration file where this entry starts.
+     *
+     * @return The 1-based line number.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AgentSpec)) {
+            return false;
+        }
+        AgentSpec other = (AgentSpec) o;
+        return className.equals(other.className)
+                && Arrays.equals(subs, other.subs)
+                && Arrays.equals(pubs, other.pubs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(className, Arrays.hashCode(subs), Arrays.hashCode(pubs));
+    }
+
+    @Override
+    public String toString() {
+        return className + " " + Arrays.toString(subs) + " -> " + Arrays.toString(pubs);
+    }
+}
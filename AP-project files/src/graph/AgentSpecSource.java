@@ -0,0 +1,26 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of configuration entries, read one at a time.
+ */
+interface AgentSpecSource extends Closeable {
+
+    /**
+     * Reads the next entry.
+     *
+     * @return The next entry, or null when there are no more entries.
+     * @throws IOException If an I/O error occurs or the source is corrupted.
+     */
+    AgentSpec next() throws IOException;
+
+    /**
+     * Checks whether the source was made of full entries only.
+     * Only meaningful once {@link #next()} returned null.
+     *
+     * @return true if no partial entry was found at the end of the source.
+     */
+    boolean isComplete();
+}
@@ -1,5 +1,8 @@
 package graph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.function.BinaryOperator;
 import graph.TopicManagerSingleton.TopicManager;
 
@@ -7,7 +10,7 @@ import graph.TopicManagerSingleton.TopicManager;
  * The BinOpAgent class implements the Agent interface to perform binary operations
  * on messages received from two subscribed topics and publish the result to a third topic.
  */
-public class BinOpAgent implements Agent {
+public class BinOpAgent implements StatefulAgent, ColumnarAgent {
     /** The name of the agent. */
     private final String name;
     /** The binary operator to be applied to the received messages. */
@@ -111,6 +114,47 @@ public class BinOpAgent implements Agent {
         }
     }
 
+    /**
+     * Gets the topics this agent subscribes to.
+     *
+     * @return The names of the first and second topics.
+     */
+    @Override
+    public String[] getInputTopics() {
+        return new String[] {firstTopicName, secondTopicName};
+    }
+
+    /**
+     * Gets the topic this agent publishes results to.
+     *
+     * @return The name of the topic.
+     */
+    @Override
+    public String getOutputTopic() {
+        return resultTopicName;
+    }
+
+    /**
+     * Applies the binary operator to the values of both topics for each row, giving NaN where a value is not
+     * a number, as the callback publishes nothing then.
+     *
+     * @param inputs The columns of the first and second topics.
+     * @param output The column to write the results to.
+     * @param rows The number of rows to compute.
+     */
+    @Override
+    public void evaluate(double[][] inputs, double[] output, int rows) {
+        double[] first = inputs[0];
+        double[] second = inputs[1];
+        for (int i = 0; i < rows; i++) {
+            if (Double.isNaN(first[i]) || Double.isNaN(second[i])) {
+                output[i] = Double.NaN;
+            } else {
+                output[i] = operator.apply(first[i], second[i]);
+            }
+        }
+    }
+
     /**
      * Closes the agent, unsubscribing from topics and removing itself as a publisher.
      */
@@ -127,4 +171,28 @@ public class BinOpAgent implements Agent {
         Topic resultTopic = tm.getTopic(resultTopicName);
         resultTopic.removePublisher(this);
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the last messages received from both topics.
+     *
+     * @param out The output to write the state to.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        Snapshot.writeMessage(out, msgFromFirstTopic);
+        Snapshot.writeMessage(out, msgFromSecondTopic);
+    }
+
+    /**
+     * Restores the last messages received from both topics.
+     *
+     * @param in The input to read the state from.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        msgFromFirstTopic = Snapshot.readMessage(in);
+        msgFromSecondTopic = Snapshot.readMessage(in);
+    }
+}
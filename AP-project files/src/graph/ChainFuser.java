@@ -0,0 +1,249 @@
+package graph;
+
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fuses the linear chains of {@link UnaryAgent}s of the graph, where each inner topic has a single
+ * publisher and a single subscriber, into single operators run in one call.
+ * A fused chain is dropped when the topology under it changes.
+ */
+final class ChainFuser {
+
+    /** The number of fused chains dropped because the topology changed under them. */
+    private static final LongAdder invalidated = MetricsRegistry.get().counter("fused_chains_invalidated_total");
+
+    /** Private constructor to prevent instantiation. */
+    private ChainFuser() {}
+
+    /**
+     * Finds the chains of the graph and hands each one to the topic it starts from, replacing the chains
+     * found before. Call it under the write lock of the graph, so the topology does not change meanwhile.
+     *
+     * @param tm The topic manager.
+     * @return The number of chains fused.
+     */
+    static int fuse(TopicManager tm) {
+        long version = tm.getTopologyVersion();
+        Map<String, Topic> topics = tm.getTopics();
+        int fused = 0;
+        for (Topic head : topics.values()) {
+            // A topic inside a chain is not where a chain starts
+            Map<Agent, Chain> chains = null;
+            if (nextLink(head) == null) {
+                for (Agent first : head.getSubscribers()) {
+                    Chain chain = unaryOf(first) != null ? follow(first, topics, version) : null;
+                    if (chain != null) {
+                        if (chains == null) {
+                            chains = new IdentityHashMap<>();
+                        }
+                        chains.put(first, chain);
+                        fused++;
+                    }
+                }
+            }
+            head.setFusedChains(chains);
+        }
+        return fused;
+    }
+
+    /**
+     * Follows the chain starting at an agent.
+     *
+     * @param first The first agent, as subscribed to its topic.
+     * @param topics The topics, by name.
+     * @param version The topology version the chain is found in.
+     * @return The chain, or null if the agent is not followed by another one.
+     */
+    private static Chain follow(Agent first, Map<String, Topic> topics, long version) {
+        List<Agent> links = new ArrayList<>();
+        List<Topic> inner = new ArrayList<>();
+        links.add(first);
+        Topic out = topics.get(unaryOf(first).getOutputTopic());
+        Agent next;
+        // A chain never has more agents than there are topics, which stops a cycle of unary agents
+        while (out != null && links.size() <= topics.size() && (next = nextLink(out)) != null
+                && out.getPublishers().get(0) == links.get(links.size() - 1) && next != first) {
+            inner.add(out);
+            links.add(next);
+            out = topics.get(unaryOf(next).getOutputTopic());
+        }
+        if (links.size() < 2 || out == null) {
+            return null;
+        }
+        return new Chain(version, links.toArray(new Agent[0]), inner.toArray(new Topic[0]), out);
+    }
+
+    /**
+     * Gets the agent a topic passes its messages to, if the topic can be inside a chain: a single unary agent
+     * publishes to it, and a single unary agent run by the same worker, if any, subscribes to it.
+     *
+     * @param topic The topic.
+     * @return The agent subscribed to the topic, or null if the topic cannot be inside a chain.
+     */
+    private static Agent nextLink(Topic topic) {
+        List<Agent> pubs = topic.getPublishers();
+        List<Agent> subs = topic.getSubscribers();
+        if (pubs.size() != 1 || subs.size() != 1) {
+            return null;
+        }
+        UnaryAgent publisher = unaryOf(pubs.get(0));
+        UnaryAgent subscriber = unaryOf(subs.get(0));
+        if (publisher == null || subscriber == null || workerOf(pubs.get(0)) != workerOf(subs.get(0))
+                || !publisher.getOutputTopic().equals(topic.getName())
+                || !subscriber.getInputTopic().equals(topic.getName())) {
+            return null;
+        }
+        return subs.get(0);
+    }
+
+    /**
+     * Gets the unary agent a topic member runs, if it can be a link of a chain: a unary agent, or a parallel
+     * agent run by a worker wrapping one. A parallel agent with a thread of its own is never a link.
+     *
+     * @param agent The subscriber or publisher of a topic.
+     * @return The unary agent, or null if the member cannot be a link.
+     */
+    private static UnaryAgent unaryOf(Agent agent) {
+        if (agent instanceof ParallelAgent && ((ParallelAgent) agent).getWorker() == null) {
+            return null;
+        }
+        Agent runs = ParallelAgent.unwrap(agent);
+        return runs instanceof UnaryAgent ? (UnaryAgent) runs : null;
+    }
+
+    /**
+     * Gets the worker running a topic member.
+     *
+     * @param agent The subscriber or publisher of a topic.
+     * @return The worker, or null if it is not a parallel agent.
+     */
+    private static AgentScheduler.Worker workerOf(Agent agent) {
+        return agent instanceof ParallelAgent ? ((ParallelAgent) agent).getWorker() : null;
+    }
+
+    /**
+     * A fused chain of unary agents.
+     */
+    static final class Chain {
+        /** The topology version the chain was last found valid in. */
+        private volatile long version;
+        /** Whether the chain no longer matches the topology. */
+        private volatile boolean broken;
+        /** The agents, in order, as subscribed to their topics. */
+        private final Agent[] links;
+        /** The unary agents the links run, in order. */
+        private final UnaryAgent[] agents;
+        /** The worker running the links, or null if they are not parallel agents. */
+        private final AgentScheduler.Worker worker;
+        /** The topics between the agents, {@code inner[i]} is the output of {@code agents[i]}. */
+        private final Topic[] inner;
+        /** The topic the last agent publishes to. */
+        private final Topic output;
+
+        /**
+         * Constructs a Chain.
+         *
+         * @param version The topology version the chain was found in.
+         * @param links The agents, in order, as subscribed to their topics.
+         * @param inner The topics between the agents.
+         * @param output The topic the last agent publishes to.
+         */
+        Chain(long version, Agent[] links, Topic[] inner, Topic output) {
+            this.version = version;
+            this.links = links;
+            this.agents = new UnaryAgent[links.length];
+            for (int i = 0; i < links.length; i++) {
+                agents[i] = unaryOf(links[i]);
+            }
+            this.worker = workerOf(links[0]);
+            this.inner = inner;
+            this.output = output;
+        }
+
+        /**
+         * Passes a message of the topic the chain starts from through all its agents.
+         *
+         * @param msg The message.
+         * @return false if the topology changed since the chain was found, or the chain cannot run on this
+         *         thread now, in which case nothing was done and the first agent must be called instead.
+         */
+        boolean run(Message msg) {
+            return run(msg, 0);
+        }
+
+        /**
+         * Passes a message the worker took out of the queue of the first agent through all the agents.
+         *
+         * @param msg The message.
+         * @return false if the chain cannot run, in which case the wrapped first agent must be called instead.
+         */
+        boolean runQueued(Message msg) {
+            return run(msg, 1);
+        }
+
+        /**
+         * Passes a message through all the agents, if the links from the given one on have nothing queued.
+         *
+         * @param msg The message.
+         * @param firstIdle The first link whose queue must be empty.
+         * @return false if nothing was done.
+         */
+        private boolean run(Message msg, int firstIdle) {
+            if (broken || (TopicManagerSingleton.get().getTopologyVersion() != version && !revalidate())) {
+                return false;
+            }
+            if (worker != null) {
+                if (!worker.isCurrent()) {
+                    return false;
+                }
+                for (int i = firstIdle; i < links.length; i++) {
+                    if (!((ParallelAgent) links[i]).isIdle()) {
+                        return false;
+                    }
+                }
+            }
+            Message current = msg;
+            for (int i = 0; i < agents.length; i++) {
+                current = agents[i].evaluate(current);
+                if (current == null) {
+                    return true;
+                }
+                if (i < inner.length) {
+                    inner[i].setValue(current);
+                }
+            }
+            output.publish(current);
+            return true;
+        }
+
+        /**
+         * Checks whether the topics still form this chain after the topology changed, dropping the chain if not.
+         *
+         * @return true if the chain is still valid.
+         */
+        private boolean revalidate() {
+            TopicManager tm = TopicManagerSingleton.get();
+            long current = tm.getTopologyVersion();
+            Map<String, Topic> topics = tm.getTopics();
+            boolean valid = topics.get(output.getName()) == output;
+            for (int i = 0; valid && i < inner.length; i++) {
+                valid = topics.get(inner[i].getName()) == inner[i] && nextLink(inner[i]) == links[i + 1]
+                        && inner[i].getPublishers().get(0) == links[i];
+            }
+            if (!valid) {
+                broken = true;
+                invalidated.increment();
+                return false;
+            }
+            version = current;
+            return true;
+        }
+    }
+}
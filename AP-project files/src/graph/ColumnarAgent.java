@@ -0,0 +1,34 @@
+package graph;
+
+/**
+ * The ColumnarAgent interface is implemented by numeric agents that can compute many values at once, a column
+ * of values per topic, so the graph can be evaluated over many rows of inputs without publishing any message,
+ * see {@link BatchEvaluator}.
+ */
+public interface ColumnarAgent extends Agent {
+
+    /**
+     * Gets the topics the agent subscribes to, in the order of the columns given to
+     * {@link #evaluate(double[][], double[], int)}.
+     *
+     * @return The names of the topics.
+     */
+    String[] getInputTopics();
+
+    /**
+     * Gets the topic the agent publishes to.
+     *
+     * @return The name of the topic.
+     */
+    String getOutputTopic();
+
+    /**
+     * Computes the value the agent would publish for each row of its inputs. A row whose inputs are not all
+     * numbers, for which the agent would publish nothing, gives NaN. The state of the agent is not changed.
+     *
+     * @param inputs A column per input topic, in the order of {@link #getInputTopics()}.
+     * @param output The column to write the results to.
+     * @param rows The number of rows to compute, from the first one.
+     */
+    void evaluate(double[][] inputs, double[] output, int rows);
+}
@@ -0,0 +1,386 @@
+package graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of a {@link GenericConfig} file that can be loaded without parsing text.
+ * <p>
+ * A compiled configuration holds a table of the distinct topic names, a table of the distinct agent
+ * class names, and for every agent its class index, its source line and the indices of the topics it
+ * subscribes and publishes to, stored as offset/edge arrays. Loading it memory-maps the file, decodes
+ * each name once, and hands out entries whose topic arrays point into the shared name table.
+ * </p>
+ * <p>
+ * A configuration is compiled with {@code java graph.CompiledConfig <in.conf> <out.confc>}, and
+ * {@link GenericConfig#setConfFile(String)} loads any file starting with its magic number, whatever its name,
+ * so an uploaded compiled configuration is recognized too. The counts and indices of a file are checked
+ * against its size and tables before any entry is read, so a corrupted file fails with an IOException.
+ * </p>
+ *
+ * <pre>
+ * int    magic, int version
+ * int    topicCount,  topicCount  x (int length, UTF-8 bytes)
+ * int    classCount,  classCount  x (int length, UTF-8 bytes)
+ * int    agentCount
+ * int[]  agentClass[agentCount], agentLine[agentCount]
+ * int[]  subOffsets[agentCount + 1], int subCount, int[] subTopics[subCount]
+ * int[]  pubOffsets[agentCount + 1], int pubCount, int[] pubTopics[pubCount]
+ * </pre>
+ */
+public class CompiledConfig {
+
+    /** The usual file name extension of compiled configurations. */
+    public static final String EXTENSION = ".confc";
+
+    /** The first bytes of every compiled configuration ("APCF"). */
+    private static final int MAGIC = 0x41504346;
+
+    /** The version of the binary format. */
+    private static final int VERSION = 1;
+
+    /** Private constructor to prevent instantiation. */
+    private CompiledConfig() {}
+
+    /**
+     * Compiles a text configuration file into its binary form.
+     *
+     * @param confFile The path of the text configuration file.
+     * @param compiledFile The path of the compiled file to write.
+     * @throws IOException If a file cannot be read or written, or the configuration is malformed.
+     */
+    public static void compile(Path confFile, Path compiledFile) throws IOException {
+        Map<String, Integer> topics = new LinkedHashMap<>();
+        Map<String, Integer> classes = new LinkedHashMap<>();
+        List<int[]> agents = new ArrayList<>();
+        int subCount = 0;
+        int pubCount = 0;
+
+        // intern every name and turn every entry into indices
+        try (ConfParser parser = new ConfParser(Files.newBufferedReader(confFile))) {
+            AgentSpec spec;
+            while ((spec = parser.next()) != null) {
+                int[] agent = new int[4 + spec.getSubs().length + spec.getPubs().length];
+                agent[0] = classes.computeIfAbsent(spec.getClassName(), k -> classes.size());
+                agent[1] = spec.getLineNumber();
+                agent[2] = spec.getSubs().length;
+                agent[3] = spec.getPubs().length;
+                int i = 4;
+                for (String sub : spec.getSubs()) {
+                    agent[i++] = topics.computeIfAbsent(sub, k -> topics.size());
+                }
+                for (String pub : spec.getPubs()) {
+                    agent[i++] = topics.computeIfAbsent(pub, k -> topics.size());
+                }
+                subCount += spec.getSubs().length;
+                pubCount += spec.getPubs().length;
+                agents.add(agent);
+            }
+            if (!parser.isComplete()) {
+                throw new IOException(confFile + ": the number of non-empty lines is not a multiple of 3");
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compiledFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeTable(out, topics);
+            writeTable(out, classes);
+
+            out.writeInt(agents.size());
+            for (int[] agent : agents) {
+                out.writeInt(agent[0]);
+            }
+            for (int[] agent : agents) {
+                out.writeInt(agent[1]);
+            }
+
+            // subscriptions edge arrays
+            int offset = 0;
+            out.writeInt(offset);
+            for (int[] agent : agents) {
+                offset += agent[2];
+                out.writeInt(offset);
+            }
+            out.writeInt(subCount);
+            for (int[] agent : agents) {
+                for (int i = 0; i < agent[2]; i++) {
+                    out.writeInt(agent[4 + i]);
+                }
+            }
+
+            // publications edge arrays
+            offset = 0;
+            out.writeInt(offset);
+            for (int[] agent : agents) {
+                offset += agent[3];
+                out.writeInt(offset);
+            }
+            out.writeInt(pubCount);
+            for (int[] agent : agents) {
+                for (int i = 0; i < agent[3]; i++) {
+                    out.writeInt(agent[4 + agent[2] + i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether a file is a compiled configuration, by its magic number.
+     *
+     * @param file The path of the file.
+     * @return true if the file starts with the magic number of compiled configurations.
+     * @throws IOException If the file cannot be read.
+     */
+    static boolean isCompiled(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // read until the magic number is in or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Opens a compiled configuration for reading its entries.
+     *
+     * @param compiledFile The path of the compiled file.
+     * @return The source of the entries of the file.
+     * @throws IOException If the file cannot be read or is not a compiled configuration.
+     */
+    static AgentSpecSource open(Path compiledFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(compiledFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new CompiledSource(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(compiledFile + " is truncated or corrupted", e);
+        }
+    }
+
+    /**
+     * Writes a table of names ordered by index.
+     *
+     * @param out The output to write to.
+     * @param table The names and their indices, in index order.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeTable(DataOutputStream out, Map<String, Integer> table) throws IOException {
+        out.writeInt(table.size());
+        for (String name : table.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a table of names written by {@link #writeTable(DataOutputStream, Map)}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The names ordered by index.
+     * @throws IOException If a count or a length does not fit in the rest of the buffer.
+     */
+    private static String[] readTable(ByteBuffer buffer) throws IOException {
+        // every name takes at least its length
+        String[] table = new String[checkCount(buffer, buffer.getInt(), Integer.BYTES)];
+        for (int i = 0; i < table.length; i++) {
+            byte[] bytes = new byte[checkCount(buffer, buffer.getInt(), 1)];
+            buffer.get(bytes);
+            table[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return table;
+    }
+
+    /**
+     * Checks a count read from a buffer against the bytes left in it.
+     *
+     * @param buffer The buffer.
+     * @param count The count.
+     * @param bytesEach The fewest bytes each counted item takes.
+     * @return The count.
+     * @throws IOException If the count is negative or the items cannot fit in the rest of the buffer.
+     */
+    private static int checkCount(ByteBuffer buffer, int count, int bytesEach) throws IOException {
+        if (count < 0 || count > buffer.remaining() / bytesEach) {
+            throw new IOException("count " + count + " does not fit in the " + buffer.remaining() + " bytes left");
+        }
+        return count;
+    }
+
+    /**
+     * Checks that every int of an array is an index into a table.
+     *
+     * @param array The array.
+     * @param size The size of the table.
+     * @param what What the indices refer to, for the error message.
+     * @throws IOException If an index is out of the table.
+     */
+    private static void checkIndices(ByteBuffer array, int size, String what) throws IOException {
+        for (int i = 0; i < array.limit(); i += Integer.BYTES) {
+            int index = array.getInt(i);
+            if (index < 0 || index >= size) {
+                throw new IOException(what + " index " + index + " out of " + size);
+            }
+        }
+    }
+
+    /**
+     * Checks that an offset array starts at 0, never decreases and ends at the size of its edge array.
+     *
+     * @param offsets The offsets.
+     * @param edges The edge array.
+     * @throws IOException If the offsets do not delimit the edges.
+     */
+    private static void checkOffsets(ByteBuffer offsets, ByteBuffer edges) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < offsets.limit(); i += Integer.BYTES) {
+            int offset = offsets.getInt(i);
+            if (offset < previous || (i == 0 && offset != 0)) {
+                throw new IOException("offset " + offset + " out of order");
+            }
+            previous = offset;
+        }
+        if (previous != edges.limit() / Integer.BYTES) {
+            throw new IOException("offsets end at " + previous + " of " + edges.limit() / Integer.BYTES + " edges");
+        }
+    }
+
+    /**
+     * Reads the entries of a memory-mapped compiled configuration.
+     */
+    private static class CompiledSource implements AgentSpecSource {
+        /** The topic names by index. */
+        private final String[] topics;
+        /** The agent class names by index. */
+        private final String[] classes;
+        /** The number of agents. */
+        private final int agentCount;
+        /** The views of the per agent arrays and of the edge arrays. */
+        private final ByteBuffer agentClass, agentLine, subOffsets, subTopics, pubOffsets, pubTopics;
+        /** The index of the next agent to read. */
+        private int next = 0;
+
+        /**
+         * Decodes the tables of a compiled configuration and positions views on its arrays.
+         *
+         * @param buffer The mapped file.
+         * @throws IOException If the file is not a compiled configuration of a supported version, or its
+         *                     counts and indices do not match its size and tables.
+         */
+        CompiledSource(ByteBuffer buffer) throws IOException {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a compiled configuration");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported compiled configuration version " + version);
+            }
+            topics = readTable(buffer);
+            classes = readTable(buffer);
+            // the agents take at least their class, line and two offsets each
+            agentCount = checkCount(buffer, buffer.getInt(), 4 * Integer.BYTES);
+
+            agentClass = slice(buffer, agentCount);
+            agentLine = slice(buffer, agentCount);
+            subOffsets = slice(buffer, agentCount + 1);
+            subTopics = slice(buffer, buffer.getInt());
+            pubOffsets = slice(buffer, agentCount + 1);
+            pubTopics = slice(buffer, buffer.getInt());
+
+            // check every index once, so reading the entries cannot fail
+            checkIndices(agentClass, classes.length, "class");
+            checkOffsets(subOffsets, subTopics);
+            checkIndices(subTopics, topics.length, "topic");
+            checkOffsets(pubOffsets, pubTopics);
+            checkIndices(pubTopics, topics.length, "topic");
+        }
+
+        /**
+         * Takes a view on the next ints of a buffer and skips them.
+         *
+         * @param buffer The buffer.
+         * @param count The number of ints.
+         * @return The view, positioned at its first int.
+         * @throws IOException If the ints do not fit in the rest of the buffer.
+         */
+        private static ByteBuffer slice(ByteBuffer buffer, int count) throws IOException {
+            checkCount(buffer, count, Integer.BYTES);
+            ByteBuffer view = buffer.slice();
+            view.limit(count * Integer.BYTES);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            return view;
+        }
+
+        @Override
+        public AgentSpec next() throws IOException {
+            if (next == agentCount) {
+                return null;
+            }
+            int i = next++;
+            String[] subs = names(subOffsets, subTopics, i);
+            String[] pubs = names(pubOffsets, pubTopics, i);
+            return new AgentSpec(classes[agentClass.getInt(i * Integer.BYTES)], subs, pubs,
+                    agentLine.getInt(i * Integer.BYTES));
+        }
+
+        /**
+         * Gets the topic names of an agent from a pair of offset/edge arrays.
+         *
+         * @param offsets The offsets of the edges of every agent.
+         * @param edges The topic indices of the edges.
+         * @param agent The index of the agent.
+         * @return The topic names.
+         */
+        private String[] names(ByteBuffer offsets, ByteBuffer edges, int agent) {
+            int from = offsets.getInt(agent * Integer.BYTES);
+            int to = offsets.getInt((agent + 1) * Integer.BYTES);
+            String[] names = new String[to - from];
+            for (int j = from; j < to; j++) {
+                names[j - from] = topics[edges.getInt(j * Integer.BYTES)];
+            }
+            return names;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the mapping is released when the buffer is garbage collected
+        }
+    }
+
+    /**
+     * Compiles a configuration file from the command line.
+     *
+     * @param args The path of the text configuration file and the path of the compiled file.
+     * @throws IOException If a file cannot be read or written, or the configuration is malformed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: java graph.CompiledConfig <in.conf> <out" + EXTENSION + ">");
+            return;
+        }
+        compile(Paths.get(args[0]), Paths.get(args[1]));
+    }
+}
@@ -0,0 +1,96 @@
+package graph;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the entries of a configuration file one at a time.
+ * <p>
+ * Each entry is made of three consecutive non-empty lines: the agent class name, the comma separated
+ * topics it subscribes to, and the comma separated topics it publishes to. Empty lines are skipped.
+ * Only the lines of the current entry are held in memory.
+ * </p>
+ */
+class ConfParser implements AgentSpecSource {
+    /** The reader of the configuration file. */
+    private final BufferedReader reader;
+    /** The number of lines read so far. */
+    private int lineNumber = 0;
+    /** The number of non-empty lines left at the end of the file that do not form a full entry. */
+    private int trailingLines = 0;
+
+    /**
+     * Constructs a ConfParser reading from the given reader.
+     *
+     * @param reader The reader of the configuration file.
+     */
+    ConfParser(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next entry of the configuration file.
+     *
+     * @return The next entry, or null when the end of the file is reached.
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    @Override
+    public AgentSpec next() throws IOException {
+        // first line is agent full name
+        String agentName = nextNonEmptyLine();
+        if (agentName == null) {
+            return null;
+        }
+        int startLine = lineNumber;
+        // second line is agent subscriptions
+        String subs = nextNonEmptyLine();
+        if (subs == null) {
+            trailingLines = 1;
+            return null;
+        }
+        // third line is agent publications
+        String pubs = nextNonEmptyLine();
+        if (pubs == null) {
+            trailingLines = 2;
+            return null;
+        }
+        return new AgentSpec(agentName, subs.split(","), pubs.split(","), startLine);
+    }
+
+    /**
+     * Checks whether the file read so far is made of full entries only.
+     *
+     * @return true if the number of non-empty lines is a multiple of 3.
+     */
+    @Override
+    public boolean isComplete() {
+        return trailingLines == 0;
+    }
+
+    /**
+     * Closes the reader of the configuration file.
+     *
+     * @throws IOException If an I/O error occurs while closing the reader.
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Reads the next non-empty line.
+     *
+     * @return The line, or null when the end of the file is reached.
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    private String nextNonEmptyLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.isEmpty()) {
+                return line;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package graph;
+
+/**
+ * The ConfigError class describes a configuration entry that could not be turned into an agent.
+ */
+public final class ConfigError {
+    /** The line (1-based) of the configuration file where the failing entry starts, or 0 for the whole file. */
+    private final int lineNumber;
+    /** The agent class name of the failing entry, or null for the whole file. */
+    private final String className;
+    /** The reason of the failure. */
+    private final String message;
+
+    /**
+     * Constructs a new ConfigError.
+     *
+     * @param lineNumber The line where the failing entry starts, or 0 for the whole file.
+     * @param className The agent class name of the failing entry, or null for the whole file.
+     * @param message The reason of the failure.
+     */
+    public ConfigError(int lineNumber, String className, String message) {
+        this.lineNumber = lineNumber;
+        this.className = className;
+        this.message = message;
+    }
+
+    /**
+     * Gets the line where the failing entry starts.
+     *
+     * @return The 1-based line number, or 0 if the error concerns the whole file.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Gets the agent class name of the failing entry.
+     *
+     * @return The class name, or null if the error concerns the whole file.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the reason of the failure.
+     *
+     * @return The error message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        if (className == null) {
+            return "configuration file: " + message;
+        }
+        return "line " + lineNumber + ": " + className + ": " + message;
+    }
+}
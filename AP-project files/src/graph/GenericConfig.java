@@ -2,77 +2,427 @@ package graph;
 
 import configs.Config;
 
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.MetricsRegistry;
+
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The GenericConfig class implements the Config interface to create and manage
  * a configuration of agents based on a configuration file.
  */
 public class GenericConfig implements Config {
-    /** List to store lines read from the configuration file. */
-    private List<String> lines;
-    /** List to store created agents. */
-    private List<Agent> agents = new ArrayList<>();
+    /** The number of entries constructed together by a single task. */
+    private static final int BATCH_SIZE = 256;
+
+    /** The path of the configuration file. */
+    private String confFile;
+    /** Created agents grouped by the entry that created them, in creation order. */
+    private Map<AgentSpec, List<Agent>> agents = new LinkedHashMap<>();
+    /** Errors found while reading the configuration file and creating its agents. */
+    private final List<ConfigError> errors = new ArrayList<>();
+    /** The scheduler running the parallel agents, or null to give each parallel agent a thread of its own. */
+    private AgentScheduler scheduler;
 
     /**
-     * Sets the configuration file path and reads its contents.
+     * Sets the scheduler that runs the parallel agents created from now on, see {@link AgentScheduler}.
+     *
+     * @param scheduler The scheduler, or null to give each parallel agent a thread of its own.
+     */
+    public void setScheduler(AgentScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the configuration file path. The file is read when the agents are created.
      *
      * @param file_path The path to the configuration file.
      */
     public void setConfFile(String file_path) {
-        try {
-            // read all the lines from the file
-            lines = Files.readAllLines(Paths.get(file_path));
-        } catch (IOException e) {
-            // e.printStackTrace();
-        }
-
-        // clear empty lines from the list
-        lines.removeIf(String::isEmpty);
+        this.confFile = file_path;
     }
 
     /**
      * Creates agents based on the configuration file contents.
      * Each agent is defined by three consecutive lines in the file:
      * agent name, subscriptions, and publications.
+     * If the number of non-empty lines is not a multiple of 3, no agent is created.
      */
     @Override
     public void create() {
-
-        // if the length of the lines is not divisible by 3 do nothing
-        if (lines.size() % 3 != 0) {
+        Loaded loaded = load(new HashMap<>(), new ConcurrentHashMap<>());
+        if (loaded == null) {
             return;
         }
+        Map<AgentSpec, List<Agent>> merged = new LinkedHashMap<>(agents);
+        for (Map.Entry<AgentSpec, List<Agent>> entry : loaded.agents.entrySet()) {
+            merged.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+        }
+        commit(merged, loaded.wiring, new HashSet<>());
+    }
 
-        // iterate over the lines and for each 3 lines, create the proper agent
-        for (int i = 0; i < lines.size(); i += 3) {
-            // first line is agent full name
-            String agentName = lines.get(i);
-            // filter out the project name --> note: [this line might be necessary if the code does not run]
-            // agentName = agentName.substring(agentName.indexOf('.') + 1);
-            // second line is agent subscriptions
-            String[] subs = lines.get(i + 1).split(",");
-            // third line is agent publications
-            String[] pubs = lines.get(i + 2).split(",");
+    /**
+     * Reloads the configuration from a new file, reconciling it with the agents that are already running.
+     * <p>
+     * Entries that appear in both the running configuration and the new file keep their agents (and the
+     * last values of their topics) untouched. Only the entries that were added get new agents, and only
+     * the agents of entries that were removed are closed. Topics that are left without any subscriber or
+     * publisher after the removal are dropped from the {@link TopicManagerSingleton.TopicManager}.
+     * If the new file is malformed, the running configuration is left as is.
+     * </p>
+     * <p>
+     * The new agents are constructed off to the side, with their topic changes recorded, and the agents of the
+     * removed entries are unwired from their topics along with them. The changes are then committed at once
+     * under the write lock of the {@link TopicManager#getGraphLock() graph lock}, so messages published from
+     * outside the graph see either the old or the new configuration, and the removed agents are closed last,
+     * once nothing can give them a message anymore.
+     * </p>
+     *
+     * @param file_path The path to the new configuration file.
+     * @return true if the new configuration was deployed, false if it was unreadable or malformed.
+     */
+    public boolean reload(String file_path) {
+        setConfFile(file_path);
 
-            // use Class<?> to create the agent
-            Agent temp = null;
-            try {
-                Class<?> agentClass = Class.forName(agentName);
-                // call the right constructor using the agent class name
-                temp = (Agent) agentClass.getConstructor(String[].class, String[].class).newInstance((Object) subs, (Object) pubs);
-            } catch (Exception e) {
-                //e.printStackTrace();
+        // the running agents that entries of the new file may take over
+        Map<AgentSpec, ArrayDeque<Agent>> available = new HashMap<>();
+        for (Map.Entry<AgentSpec, List<Agent>> entry : agents.entrySet()) {
+            available.put(entry.getKey(), new ArrayDeque<>(entry.getValue()));
+        }
+
+        Map<String, Topic> staged = new ConcurrentHashMap<>();
+        Loaded loaded = load(available, staged);
+        if (loaded == null) {
+            return false;
+        }
+
+        // unwire the agents whose entries were removed with the new configuration, and close them once it is in
+        Set<String> touchedTopics = new HashSet<>();
+        List<Agent> closed = new ArrayList<>();
+        for (Map.Entry<AgentSpec, ArrayDeque<Agent>> entry : available.entrySet()) {
+            for (Agent agent : entry.getValue()) {
+                closed.add(agent);
+                touchedTopics.addAll(Arrays.asList(entry.getKey().getSubs()));
+                touchedTopics.addAll(Arrays.asList(entry.getKey().getPubs()));
+                unwire(agent, entry.getKey(), loaded.wiring);
             }
+        }
+
+        commit(loaded.agents, loaded.wiring, touchedTopics);
 
-            // wrap it with parallel agent and add the agent to the list of agents
-            if (temp != null) {
-                agents.add(new ParallelAgent(temp, 10));
+        // the agents unsubscribe from their close() too: record it and drop it, so the topics dropped
+        // with them are not created again
+        TopicWiring.startRecording(new HashMap<>());
+        try {
+            closeAgents(closed);
+        } finally {
+            TopicWiring.stopRecording();
+        }
+
+        // the messages left in their queues may have been published to the topics dropped with them
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.getGraphLock().writeLock().lock();
+        try {
+            for (String topicName : touchedTopics) {
+                tm.removeTopicIfUnused(topicName);
             }
+        } finally {
+            tm.getGraphLock().writeLock().unlock();
+        }
+
+        // drop the callback metrics of the closed agents
+        for (Agent agent : closed) {
+            MetricsRegistry.get().forget(ParallelAgent.unwrap(agent));
+        }
+        return true;
+    }
+
+    /**
+     * Records the changes removing an agent from the topics of its entry.
+     *
+     * @param agent The agent, as subscribed to and publishing to its topics.
+     * @param spec The entry of the agent.
+     * @param wiring The changes to add to.
+     */
+    private static void unwire(Agent agent, AgentSpec spec, List<TopicWiring.Change> wiring) {
+        Map<String, Topic> topics = TopicManagerSingleton.get().getTopics();
+        Set<String> names = new LinkedHashSet<>(Arrays.asList(spec.getSubs()));
+        names.addAll(Arrays.asList(spec.getPubs()));
+        for (String name : names) {
+            Topic topic = topics.get(name);
+            if (topic == null) {
+                continue;
+            }
+            for (Agent subscriber : topic.getSubscribers()) {
+                if (subscriber == agent) {
+                    wiring.add(new TopicWiring.Change(name, agent, TopicWiring.Kind.UNSUBSCRIBE));
+                }
+            }
+            for (Agent publisher : topic.getPublishers()) {
+                if (publisher == agent) {
+                    wiring.add(new TopicWiring.Change(name, agent, TopicWiring.Kind.REMOVE_PUBLISHER));
+                }
+            }
+        }
+    }
+
+    /**
+     * Swaps a loaded configuration in: applies its recorded topic changes, replaces the agents, drops the
+     * topics that nobody uses anymore and fuses the chains of the new graph, see {@link ChainFuser}, all under
+     * the write lock of the graph lock.
+     *
+     * @param loaded The agents of the configuration.
+     * @param wiring The recorded topic changes.
+     * @param touchedTopics The topics that may be left unused.
+     */
+    private void commit(Map<AgentSpec, List<Agent>> loaded, List<TopicWiring.Change> wiring, Set<String> touchedTopics) {
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.getGraphLock().writeLock().lock();
+        try {
+            TopicWiring.commit(wiring);
+            agents = loaded;
+            for (String topicName : touchedTopics) {
+                tm.removeTopicIfUnused(topicName);
+            }
+            ChainFuser.fuse(tm);
+        } finally {
+            tm.getGraphLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the configuration file and creates the agents of its entries.
+     * <p>
+     * The file is read incrementally, whether it is a text or a compiled configuration. Entries are grouped in
+     * batches of {@value #BATCH_SIZE}; once a file turns out to have more than one batch, the full batches are
+     * constructed in parallel by threads of this load while the rest of the file is still being read, and the
+     * last batch is constructed by the calling thread. A file of a single batch is constructed by the calling
+     * thread alone. The threads of the load are stopped before it returns. The subscriptions and publishers
+     * registered by the agent constructors are recorded and collected batch after batch in file order, so
+     * once committed the resulting topics are the same as with a sequential load. Nothing is applied to the
+     * topics here.
+     * </p>
+     *
+     * @param available Running agents that entries equal to theirs take over instead of creating a new
+     *                  agent. The agents taken over are removed from this map.
+     * @param staged The topics staged while constructing the new agents.
+     * @return The agents of every entry grouped by entry with their recorded topic changes,
+     *         or null if the file is unreadable or malformed.
+     */
+    private Loaded load(Map<AgentSpec, ArrayDeque<Agent>> available, Map<String, Topic> staged) {
+        synchronized (errors) {
+            errors.clear();
+        }
+
+        // read the entries and construct them in batches while reading
+        List<Future<Batch>> batches = new ArrayList<>();
+        Map<AgentSpec, ArrayDeque<Agent>> taken = new HashMap<>();
+        ExecutorService constructors = null;
+        boolean complete;
+        boolean readable = true;
+        boolean constructedAll = true;
+        List<Batch> constructed = new ArrayList<>();
+        try {
+            try (AgentSpecSource parser = openConfFile()) {
+                Batch batch = new Batch(staged);
+                AgentSpec spec;
+                while ((spec = parser.next()) != null) {
+                    if (batch.size() == BATCH_SIZE) {
+                        // another batch starts, construct the full one in parallel
+                        if (constructors == null) {
+                            constructors = newConstructors();
+                        }
+                        batches.add(constructors.submit(batch::construct));
+                        batch = new Batch(staged);
+                    }
+                    // unchanged entries keep the running agent
+                    ArrayDeque<Agent> candidates = available.get(spec);
+                    Agent existing = candidates != null ? candidates.poll() : null;
+                    if (existing != null) {
+                        taken.computeIfAbsent(spec, k -> new ArrayDeque<>()).add(existing);
+                    }
+                    batch.add(spec, existing);
+                }
+                if (batch.size() > 0) {
+                    FutureTask<Batch> last = new FutureTask<>(batch::construct);
+                    last.run();
+                    batches.add(last);
+                }
+                complete = parser.isComplete();
+            } catch (IOException | InvalidPathException e) {
+                addError(new ConfigError(0, null, "cannot read " + confFile + ": " + e));
+                readable = false;
+                complete = false;
+            }
+
+            // wait for all the batches even if the file is malformed, so no construction is left running
+            for (Future<Batch> future : batches) {
+                try {
+                    constructed.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    addError(new ConfigError(0, null, "interrupted while constructing the agents"));
+                    constructedAll = false;
+                } catch (ExecutionException e) {
+                    addError(new ConfigError(0, null, "agent construction failed: " + e.getCause()));
+                    constructedAll = false;
+                }
+            }
+        } finally {
+            stopConstructors(constructors);
+        }
+
+        if (!complete || !constructedAll) {
+            // give the running agents back, the new agents were never wired to any topic
+            for (Map.Entry<AgentSpec, ArrayDeque<Agent>> entry : taken.entrySet()) {
+                available.get(entry.getKey()).addAll(entry.getValue());
+            }
+            if (readable && !complete) {
+                addError(new ConfigError(0, null, "the number of non-empty lines is not a multiple of 3"));
+            }
+            return null;
+        }
+
+        // place the new agents on the workers of the scheduler, if any
+        Map<AgentSpec, AgentScheduler.Worker> workers = new HashMap<>();
+        if (scheduler != null) {
+            List<AgentSpec> freshSpecs = new ArrayList<>();
+            for (Batch batch : constructed) {
+                for (int i = batch.fresh.nextSetBit(0); i >= 0; i = batch.fresh.nextSetBit(i + 1)) {
+                    freshSpecs.add(batch.specs.get(i));
+                }
+            }
+            workers = scheduler.assign(freshSpecs);
+        }
+
+        // collect the wiring of the new agents in file order, made by the parallel agents wrapping them
+        Loaded loaded = new Loaded();
+        for (Batch batch : constructed) {
+            for (int i = 0; i < batch.size(); i++) {
+                Agent agent = batch.agents.get(i);
+                if (batch.fresh.get(i)) {
+                    // wrap it with parallel agent
+                    agent = new ParallelAgent(agent, 10, workers.get(batch.specs.get(i)));
+                }
+                if (agent != null) {
+                    loaded.agents.computeIfAbsent(batch.specs.get(i), k -> new ArrayList<>()).add(agent);
+                }
+            }
+            loaded.wiring.addAll(TopicWiring.resolveAll(batch.wiring));
+        }
+        synchronized (errors) {
+            errors.sort(Comparator.comparingInt(ConfigError::getLineNumber));
+        }
+        return loaded;
+    }
+
+    /**
+     * Starts the threads constructing the batches of a load, one per core.
+     *
+     * @return The executor of the threads.
+     */
+    private static ExecutorService newConstructors() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "ConfigLoader-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the threads constructing the batches of a load, waiting for them to end.
+     *
+     * @param constructors The executor of the threads, or null if the load did not start any.
+     */
+    private static void stopConstructors(ExecutorService constructors) {
+        if (constructors == null) {
+            return;
+        }
+        constructors.shutdown();
+        try {
+            constructors.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Opens the configuration file, either as a text file or as a compiled configuration
+     * if it starts with the magic number of compiled configurations.
+     *
+     * @return The source of the entries of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private AgentSpecSource openConfFile() throws IOException {
+        Path path = Paths.get(confFile);
+        if (CompiledConfig.isCompiled(path)) {
+            return CompiledConfig.open(path);
+        }
+        return new ConfParser(Files.newBufferedReader(path));
+    }
+
+    /**
+     * Creates a single agent from a configuration entry.
+     * If the agent cannot be created, the failure is recorded in the errors of this configuration.
+     *
+     * @param spec The configuration entry.
+     * @return The created agent, or null if the agent could not be created.
+     */
+    private Agent createAgent(AgentSpec spec) {
+        // use the factory registered for the agent class to create the agent
+        try {
+            return AgentFactoryRegistry.get(spec.getClassName()).create(spec.getSubs(), spec.getPubs());
+        } catch (Exception e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.toString();
+            addError(new ConfigError(spec.getLineNumber(), spec.getClassName(), reason));
+            return null;
+        }
+    }
+
+    /**
+     * Records an error of this configuration.
+     *
+     * @param error The error to record.
+     */
+    private void addError(ConfigError error) {
+        synchronized (errors) {
+            errors.add(error);
+        }
+    }
+
+    /**
+     * Gets the errors found while reading the last configuration file and creating its agents.
+     *
+     * @return The list of errors, empty if every entry was created.
+     */
+    public List<ConfigError> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
         }
     }
 
@@ -86,6 +436,19 @@ public class GenericConfig implements Config {
         return "GenericConfig";
     }
 
+    /**
+     * Gets the agents of this configuration, in the order of the entries of its file.
+     *
+     * @return The agents.
+     */
+    public List<Agent> getAgents() {
+        List<Agent> all = new ArrayList<>();
+        for (List<Agent> list : agents.values()) {
+            all.addAll(list);
+        }
+        return all;
+    }
+
     /**
      * Returns the version of this configuration.
      *
@@ -102,8 +465,101 @@ public class GenericConfig implements Config {
     @Override
     public void close() {
         // close all the agents
-        for (Agent agent : agents) {
-            agent.close();
+        List<Agent> all = new ArrayList<>();
+        for (List<Agent> list : agents.values()) {
+            all.addAll(list);
+        }
+        closeAgents(all);
+        agents.clear();
+    }
+
+    /**
+     * Closes agents all at once, letting the parallel agents finish the messages left in their queues. The
+     * threads that do not stop in time are reported by {@link ParallelAgent#getLeakedThreads()}.
+     *
+     * @param toClose The agents to close.
+     */
+    private void closeAgents(List<Agent> toClose) {
+        ParallelAgent.closeAll(toClose, ParallelAgent.ClosePolicy.DRAIN,
+                ParallelAgent.CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A group of consecutive entries of the configuration file, constructed by a single task.
+     */
+    private class Batch {
+        /** The entries of the batch, in file order. */
+        private final List<AgentSpec> specs = new ArrayList<>(BATCH_SIZE);
+        /** The agent of every entry: a running agent taken over, a new agent, or null on failure. */
+        private final List<Agent> agents = new ArrayList<>(BATCH_SIZE);
+        /** The indices of the agents constructed by this batch rather than taken over. */
+        private final BitSet fresh = new BitSet();
+        /** The topics staged while constructing the new agents, shared by all batches. */
+        private final Map<String, Topic> staged;
+        /** The topic changes recorded while constructing the new agents, in construction order. */
+        private List<TopicWiring.Change> wiring = new ArrayList<>();
+
+        /**
+         * Constructs an empty batch.
+         *
+         * @param staged The topics staged while constructing the new agents, shared by all batches.
+         */
+        Batch(Map<String, Topic> staged) {
+            this.staged = staged;
         }
+
+        /**
+         * Adds an entry to the batch.
+         *
+         * @param spec The entry.
+         * @param existing The running agent taken over by the entry, or null to create a new one.
+         */
+        void add(AgentSpec spec, Agent existing) {
+            specs.add(spec);
+            agents.add(existing);
+        }
+
+        /**
+         * Gets the number of entries in the batch.
+         *
+         * @return The number of entries.
+         */
+        int size() {
+            return specs.size();
+        }
+
+        /**
+         * Constructs the new agents of the batch, recording their topic changes instead of applying them.
+         *
+         * @return This batch.
+         */
+        Batch construct() {
+            List<Agent> created = new ArrayList<>(specs.size());
+            TopicWiring.startRecording(staged);
+            try {
+                for (int i = 0; i < specs.size(); i++) {
+                    created.add(agents.get(i) == null ? createAgent(specs.get(i)) : null);
+                }
+            } finally {
+                wiring = TopicWiring.stopRecording();
+            }
+            for (int i = 0; i < specs.size(); i++) {
+                if (created.get(i) != null) {
+                    agents.set(i, created.get(i));
+                    fresh.set(i);
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * A configuration read and constructed, but not committed yet.
+     */
+    private static class Loaded {
+        /** The agents of every entry, grouped by entry in file order. */
+        private final Map<AgentSpec, List<Agent>> agents = new LinkedHashMap<>();
+        /** The topic changes to commit, in the order they were made. */
+        private final List<TopicWiring.Change> wiring = new ArrayList<>();
     }
-}
\ No newline at end of file
+}
@@ -70,7 +70,7 @@ public class Graph extends ArrayList<Node> {
         // get the subscribers
         for (Agent agent : curTopic.getSubscribers()) {
             // create a unique identifier for the agent
-            String agentKey = "A" + agent.getName() + "_" + System.identityHashCode(agent);
+            String agentKey = "A" + Topic.metricsName(agent);
             // get the node
             Node subNode = nodes.get(agentKey);
             if (subNode == null) {
@@ -88,7 +88,7 @@ public class Graph extends ArrayList<Node> {
         // get the publishers
         for (Agent agent : curTopic.getPublishers()) {
             // create a unique identifier for the agent
-            String agentKey = "A" + agent.getName() + "_" + System.identityHashCode(agent);
+            String agentKey = "A" + Topic.metricsName(agent);
             // get the node
             Node pubNode = nodes.get(agentKey);
             if (pubNode == null) {
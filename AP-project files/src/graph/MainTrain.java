@@ -2,16 +2,62 @@ package graph;
 import server.*;
 import servlet.*;
 
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
 public class MainTrain {
     public static void main(String[] args) throws Exception {
+        ConfLoader confLoader = new ConfLoader();
+        // run the parallel agents on a worker per core, a partition of the graph each
+        AgentScheduler scheduler = new AgentScheduler(Runtime.getRuntime().availableProcessors());
+        confLoader.setScheduler(scheduler);
+
+        // keep the recent values of every topic for the history view
+        TopicManagerSingleton.get().enableHistory(1024, TimeUnit.MINUTES.toMillis(10));
+
+        // restore the last deployed configuration and its values before accepting requests
+        Snapshot snapshot = new Snapshot(Paths.get(System.getProperty("user.dir") + "/snapshots/graph.snapshot"));
+        snapshot.setAgentOrder(confLoader::getActiveAgents);
+        String configPath = snapshot.getConfigPath();
+        if (configPath != null) {
+            confLoader.deploy(configPath);
+            snapshot.restore();
+        }
+        snapshot.startPeriodic(30, TimeUnit.SECONDS, confLoader::getActiveConfigPath);
+
+        // journal every published message if a journal directory is given (-Djournal.dir=...)
+        String journalDir = System.getProperty("journal.dir");
+        if (journalDir != null) {
+            TopicManagerSingleton.get().setJournal(new MessageJournal(Paths.get(journalDir), 64 << 20, 16));
+        }
+
+        // keep one of the server threads free of publishes, whatever the graph does
+        TopicManagerSingleton.get().setPublishCredits(4);
+
         HTTPServer server = new MyHTTPServer(8080, 5);
         server.addServlet("GET", "/publish", new TopicDisplayer());
-        server.addServlet("POST", "/upload", new ConfLoader());
+        server.addServlet("POST", "/upload", confLoader);
+        server.addServlet("POST", "/publish/batch", new TopicBatchServlet());
+        server.addServlet("POST", "/evaluate", new EvaluateServlet());
+        server.addServlet("GET", "/topics", new TopicValuesServlet());
+        server.addServlet("GET", "/graph", new GraphServlet());
+        server.addServlet("GET", "/graph/layout", new GraphLayoutServlet());
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        server.addServlet("GET", "/metrics", new MetricsServlet());
+        server.addServlet("GET", "/trace", new TraceServlet());
+        server.addServlet("GET", "/events", new TopicEventsServlet());
+        server.addServlet("GET", "/ws", new TopicSocketServlet());
         server.addServlet("GET", "/app/", new HtmlLoader(System.getProperty("user.dir") + "/html_files"));
 
         server.start();
         System.in.read();
         server.close();
+        if (TopicManagerSingleton.get().getJournal() != null) {
+            TopicManagerSingleton.get().getJournal().close();
+        }
+        snapshot.stopPeriodic();
+        snapshot.save(confLoader.getActiveConfigPath());
+        scheduler.close();
         System.out.println("done");
 
     }
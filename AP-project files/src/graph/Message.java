@@ -6,6 +6,10 @@ import java.util.Date;
  * The Message class represents a message in the system.
  * It can be initialized with a string, double, or byte array,
  * and provides different representations of the data.
+ * <p>
+ * A message belongs to a {@link Trace}: the one being delivered by the thread creating it, such as when an
+ * agent publishes a result from its callback, or a new one.
+ * </p>
  */
 public class Message {
     /** The raw byte data of the message. */
@@ -16,6 +20,12 @@ public class Message {
     public final double asDouble;
     /** The creation timestamp of the message. */
     public final Date date;
+    /** The trace the message belongs to. */
+    public final Trace trace;
+    /** The topic whose delivery created the message, or null if it started its trace. */
+    public final String parentTopic;
+    /** The time of the delivery that created the message, or 0 if not known. */
+    public final long parentNanos;
 
     /**
      * Constructs a Message object from a string.
@@ -23,20 +33,28 @@ public class Message {
      * @param txt The string content of the message.
      */
     public Message(String txt) {
-        double temp;
+        this(txt, parse(txt));
+    }
+
+    /**
+     * Constructs a Message object from a string and the number it holds.
+     *
+     * @param txt The string content of the message.
+     * @param value The number the string holds, or NaN if it is not a number.
+     */
+    private Message(String txt, double value) {
         this.asText = txt;
         this.data = txt.getBytes();
-
-        // in case the string is not a valid double number, asDouble will be NaN
-        try {
-            temp = Double.parseDouble(txt);
-        } catch (NumberFormatException e) {
-            temp = Double.NaN;
-        }
-        this.asDouble = temp;
+        this.asDouble = value;
 
         // set date object to current date and time
         this.date = new Date();
+
+        // join the trace being delivered by this thread, if any
+        Trace.Context context = Trace.context();
+        this.trace = context.traceOfNewMessage();
+        this.parentTopic = context.trace != null ? context.topic : null;
+        this.parentNanos = context.trace != null ? context.nanos : 0;
     }
 
     /**
@@ -45,7 +63,8 @@ public class Message {
      * @param d The double value to be stored in the message.
      */
     public Message(double d) {
-        this(Double.toString(d));
+        // the string of a double parses back to the same double, no need to parse it
+        this(Double.toString(d), d);
     }
 
     /**
@@ -57,6 +76,20 @@ public class Message {
         this(new String(data));
     }
 
+    /**
+     * Reads the number a string holds.
+     *
+     * @param txt The string.
+     * @return The number, or NaN if the string is not a valid double number.
+     */
+    private static double parse(String txt) {
+        try {
+            return Double.parseDouble(txt);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
     /**
      * Retrieves the content of the message as a string.
      *
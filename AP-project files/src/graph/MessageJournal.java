@@ -0,0 +1,461 @@
+package graph;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * An append-only log of every message published to every topic, stored in memory-mapped segment files.
+ * Enabled with {@link TopicManagerSingleton.TopicManager#setJournal(MessageJournal)}.
+ */
+public class MessageJournal implements Closeable {
+
+    /** The type of the records defining a topic id. */
+    private static final byte TOPIC_RECORD = 1;
+
+    /** The type of the records holding a message. */
+    private static final byte MESSAGE_RECORD = 2;
+
+    /** The size of the header of every record: its length and its type. */
+    private static final int RECORD_HEADER = Integer.BYTES + 1;
+
+    /** The size of a message record without its payload. */
+    private static final int MESSAGE_HEADER = RECORD_HEADER + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    /** The file name extension of segment files. */
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    /** The messages appended but not written yet. */
+    private final LinkedBlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    /** The number of messages appended. */
+    private final AtomicLong appended = new AtomicLong();
+    /** The thread writing the appended messages. */
+    private final Thread writer;
+
+    /** The directory of the segment files. */
+    private final Path directory;
+    /** The size of a new segment file. */
+    private final int segmentSize;
+    /** The maximum number of segment files kept. */
+    private final int maxSegments;
+
+    /** The segment files, oldest first. */
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    /** The ids of the topics. */
+    private final Map<String, Integer> topicIds = new HashMap<>();
+    /** The topic ids defined in the current segment. */
+    private final BitSet definedInSegment = new BitSet();
+    /** The memory mapping of the current segment, or null before the first append. */
+    private MappedByteBuffer current;
+    /** The sequence number of the next message. */
+    private long nextSeq = 0;
+    /** The number of appended messages the writer is done with. */
+    private long written = 0;
+    /** Whether the journal was closed. */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a journal in the given directory, continuing the sequence numbers of the existing segments.
+     *
+     * @param directory The directory of the segment files.
+     * @param segmentSize The size of a segment file, in bytes.
+     * @param maxSegments The maximum number of segment files kept.
+     * @throws IOException If the directory or the existing segments cannot be read.
+     */
+    public MessageJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        segments.addAll(listSegments());
+
+        // continue after the last message of the existing segments
+        if (!segments.isEmpty()) {
+            long[] last = {firstSeqOf(segments.getLast()) - 1};
+            readSegment(segments.getLast(), 0, (seq, topic, data) -> last[0] = seq);
+            nextSeq = last[0] + 1;
+        }
+
+        writer = new Thread(this::runWriter, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends a message published to a topic. The message is only queued, the writer thread writes it.
+     * Messages of the {@link Trace#replayed traces started by a replay} are not appended.
+     *
+     * @param topic The name of the topic.
+     * @param msg The published message.
+     */
+    public void append(String topic, Message msg) {
+        if (closed || msg.trace.replayed) {
+            return;
+        }
+        pending.add(new Pending(topic, msg));
+        appended.incrementAndGet();
+    }
+
+    /**
+     * Gets the sequence number the next appended message will get, once the messages appended so far are written.
+     *
+     * @return The next sequence number.
+     */
+    public synchronized long getNextSeq() {
+        awaitWritten(appended.get());
+        return nextSeq;
+    }
+
+    /**
+     * Reads the journaled messages in order, starting from a sequence number.
+     *
+     * @param fromSeq The sequence number of the first message to read.
+     * @param consumer Receives the topic name and the message of every record.
+     * @return The sequence number of the last message read, or fromSeq - 1 if none was read.
+     * @throws IOException If a segment cannot be read.
+     */
+    public long read(long fromSeq, BiConsumer<String, Message> consumer) throws IOException {
+        return readRecords(fromSeq, (topic, data) -> consumer.accept(topic, new Message(data)));
+    }
+
+    /**
+     * Replays the journaled messages of the source topics (topics no agent publishes to) into the
+     * topics of the {@link TopicManager}, starting from a sequence number, under the read lock of the graph.
+     * The agents recompute the other topics; the messages of the replay and the ones derived from them,
+     * on any thread, belong to {@link Trace#replayed replayed traces} and are not journaled again.
+     *
+     * @param fromSeq The sequence number of the first message to replay.
+     * @return The sequence number of the last message read, or fromSeq - 1 if none was read.
+     * @throws IOException If a segment cannot be read.
+     */
+    public long replay(long fromSeq) throws IOException {
+        TopicManager tm = TopicManagerSingleton.get();
+        Trace.Context context = Trace.context();
+        tm.getGraphLock().readLock().lock();
+        try {
+            return readRecords(fromSeq, (topicName, data) -> {
+                Topic topic = tm.getTopics().get(topicName);
+                if (topic == null || !topic.getPublishers().isEmpty()) {
+                    return;
+                }
+                // the message joins a replayed trace, as do the messages the agents derive from it
+                Trace outerTrace = context.trace;
+                String outerTopic = context.topic;
+                long outerNanos = context.nanos;
+                context.set(Trace.replay(), null, 0);
+                Message msg;
+                try {
+                    msg = new Message(data);
+                } finally {
+                    context.set(outerTrace, outerTopic, outerNanos);
+                }
+                topic.publish(msg);
+            });
+        } finally {
+            tm.getGraphLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the payloads of the journaled messages in order, starting from a sequence number.
+     *
+     * @param fromSeq The sequence number of the first message to read.
+     * @param consumer Receives the topic name and the payload of every record.
+     * @return The sequence number of the last message read, or fromSeq - 1 if none was read.
+     * @throws IOException If a segment cannot be read.
+     */
+    private long readRecords(long fromSeq, BiConsumer<String, byte[]> consumer) throws IOException {
+        List<Path> files;
+        synchronized (this) {
+            flush();
+            files = new ArrayList<>(segments);
+        }
+
+        long[] last = {fromSeq - 1};
+        for (int i = 0; i < files.size(); i++) {
+            // skip the segments that end before the first requested message
+            if (i + 1 < files.size() && firstSeqOf(files.get(i + 1)) <= fromSeq) {
+                continue;
+            }
+            readSegment(files.get(i), fromSeq, (seq, topic, data) -> {
+                consumer.accept(topic, data);
+                last[0] = seq;
+            });
+        }
+        return last[0];
+    }
+
+    /**
+     * Waits for the messages appended so far to be written, and writes the records of the current segment to the disk.
+     */
+    public synchronized void flush() {
+        awaitWritten(appended.get());
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the journal. Messages appended afterwards are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        flush();
+        writer.interrupt();
+        current = null;
+    }
+
+    /**
+     * Writes the appended messages, as many as are queued at once, until the journal is closed.
+     */
+    private void runWriter() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            pending.drainTo(batch);
+            synchronized (this) {
+                for (Pending p : batch) {
+                    write(p.topic, p.msg);
+                }
+                written += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits until the writer is done with a number of appended messages. Called holding the lock of the journal.
+     *
+     * @param count The number of appended messages.
+     */
+    private void awaitWritten(long count) {
+        boolean interrupted = false;
+        while (written < count && writer.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a message to the current segment, starting a new segment if it does not fit.
+     *
+     * @param topic The name of the topic.
+     * @param msg The message.
+     */
+    private void write(String topic, Message msg) {
+        if (current == null && closed) {
+            return;
+        }
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        try {
+            // room for a topic record, the message record and the end marker
+            int needed = RECORD_HEADER + Integer.BYTES + name.length + MESSAGE_HEADER + msg.data.length + Integer.BYTES;
+            if (current == null || current.remaining() < needed) {
+                roll(needed);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Integer id = topicIds.get(topic);
+        if (id == null) {
+            id = topicIds.size();
+            topicIds.put(topic, id);
+        }
+        if (!definedInSegment.get(id)) {
+            int start = beginRecord(TOPIC_RECORD);
+            current.putInt(id);
+            current.put(name);
+            endRecord(start);
+            definedInSegment.set(id);
+        }
+
+        int start = beginRecord(MESSAGE_RECORD);
+        current.putLong(nextSeq++);
+        current.putLong(msg.date.getTime());
+        current.putInt(id);
+        current.put(msg.data);
+        endRecord(start);
+    }
+
+    /**
+     * Starts a record in the current segment, leaving its length out until it is complete.
+     *
+     * @param type The type of the record.
+     * @return The position of the record.
+     */
+    private int beginRecord(byte type) {
+        int start = current.position();
+        current.position(start + Integer.BYTES);
+        current.put(type);
+        return start;
+    }
+
+    /**
+     * Completes a record by writing its length, which makes it visible to the readers.
+     *
+     * @param start The position of the record.
+     */
+    private void endRecord(int start) {
+        current.putInt(start, current.position() - start);
+    }
+
+    /**
+     * Starts a new segment and deletes the oldest segments beyond the retention limit.
+     *
+     * @param needed The number of bytes the new segment must at least hold.
+     * @throws IOException If the segment cannot be created.
+     */
+    private void roll(int needed) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        Path file = directory.resolve(String.format("%020d%s", nextSeq, SEGMENT_EXTENSION));
+        // truncated, so the length after the last record is zero even if the file was left from an earlier run
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, needed));
+        }
+        segments.remove(file);
+        segments.addLast(file);
+        definedInSegment.clear();
+
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.removeFirst());
+        }
+    }
+
+    /**
+     * Lists the segment files of the directory, oldest first.
+     *
+     * @return The segment files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private List<Path> listSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        // the names are zero padded sequence numbers, so they sort in order
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Gets the sequence number of the first message of a segment from its file name.
+     *
+     * @param file The segment file.
+     * @return The first sequence number.
+     */
+    private static long firstSeqOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    /**
+     * Reads the message records of a segment, up to the last complete record.
+     *
+     * @param file The segment file.
+     * @param fromSeq The sequence number of the first message to read.
+     * @param consumer Receives the records.
+     * @throws IOException If the segment cannot be read.
+     */
+    private static void readSegment(Path file, long fromSeq, RecordConsumer consumer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Map<Integer, String> names = new HashMap<>();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            // a zero length marks the end of the complete records, the length being written last
+            if (length < RECORD_HEADER || length > buffer.remaining() + Integer.BYTES) {
+                break;
+            }
+            byte type = buffer.get();
+            if (type == MESSAGE_RECORD ? length < MESSAGE_HEADER : type != TOPIC_RECORD) {
+                break;
+            }
+            if (type == TOPIC_RECORD) {
+                int id = buffer.getInt();
+                byte[] name = new byte[length - RECORD_HEADER - Integer.BYTES];
+                buffer.get(name);
+                names.put(id, new String(name, StandardCharsets.UTF_8));
+            } else {
+                long seq = buffer.getLong();
+                buffer.getLong();
+                int id = buffer.getInt();
+                if (seq >= fromSeq) {
+                    byte[] data = new byte[length - MESSAGE_HEADER];
+                    buffer.get(data);
+                    consumer.accept(seq, names.get(id), data);
+                }
+            }
+            buffer.position(start + length);
+        }
+    }
+
+    /**
+     * A message appended but not written yet.
+     */
+    private static final class Pending {
+        /** The name of the topic. */
+        final String topic;
+        /** The message. */
+        final Message msg;
+
+        Pending(String topic, Message msg) {
+            this.topic = topic;
+            this.msg = msg;
+        }
+    }
+
+    /**
+     * Receives the message records read from a segment.
+     */
+    private interface RecordConsumer {
+        /**
+         * Receives a message record.
+         *
+         * @param seq The sequence number of the message.
+         * @param topic The name of the topic.
+         * @param data The payload of the message.
+         */
+        void accept(long seq, String topic, byte[] data);
+    }
+}
@@ -1,25 +1,102 @@
 package graph;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A parallel agent that wraps another agent and processes messages in a separate thread.
+ * A parallel agent that wraps another agent and processes messages in a separate thread,
+ * or on a worker of an {@link AgentScheduler}.
  */
 public class ParallelAgent implements Agent {
 
+    /** What a closed parallel agent does with the messages left in its queue. */
+    public enum ClosePolicy {
+        /** Pass the messages left to the wrapped agent before stopping. */
+        DRAIN,
+        /** Drop the messages left and stop right away. */
+        DISCARD
+    }
+
+    /** The time {@link #close()} waits for the thread of the agent to stop, in milliseconds. */
+    public static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /** The number of parallel agent threads running. */
+    private static final AtomicInteger runningThreads = new AtomicInteger();
+
+    /** The most messages a worker takes from a queue before running the other queues it was given. */
+    private static final int WORKER_BATCH = 64;
+
+    /** The agents whose queues are still run, closed or not. */
+    private static final Set<ParallelAgent> live = ConcurrentHashMap.newKeySet();
+
+    /** Put in the queue on close, so a thread waiting for a message wakes up without being interrupted. */
+    private static final Queued STOP = new Queued(null, null, null, false);
+
+    static {
+        MetricsRegistry.get().gauge("parallel_agent_threads", runningThreads::get);
+        MetricsRegistry.get().gauge("parallel_agent_leaked_threads", () -> getLeakedThreads().size());
+    }
+
     /** The agent being wrapped. */
     private Agent agent;
 
     /** The queue for storing messages. */
-    private BlockingQueue<Message> queue;
+    private final LinkedBlockingQueue<Queued> queue = new LinkedBlockingQueue<>();
 
-    /** Flag indicating whether the thread is running. */
-    private volatile boolean running = true;
+    /** The room left in the queue, taken by every message put in it by a thread that may wait for room. */
+    private final Semaphore room;
 
-    /** The thread that processes messages from the queue. */
+    /** What to do with the messages left in the queue once closed, or null while the agent is open. */
+    private final AtomicReference<ClosePolicy> closing = new AtomicReference<>();
+
+    /** The thread that processes messages from the queue, or null if the queue is run by a worker. */
     private Thread readingFromQueueThread;
 
+    /** The worker that runs the queue, or null if the agent has a thread of its own. */
+    private final AgentScheduler.Worker worker;
+
+    /** Whether the queue was given to the worker to run, and the worker did not find it empty since. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** Counted down once the queue is no longer run. */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** The name of the queue depth series. */
+    private final String depthSeries;
+
+    /** The name of the put counter series. */
+    private final String putsSeries;
+
+    /** The name of the blocked put latency series. */
+    private final String blockedPutSeries;
+
+    /** The name of the dropped message counter series. */
+    private final String droppedSeries;
+
+    /** The number of messages put in the queue. */
+    private final LongAdder puts;
+
+    /** The time publishers waited for room in the queue, only recorded when it was full. */
+    private final LatencyHistogram blockedPuts;
+
+    /** The number of messages dropped because the queue stayed full past the deadline of their publisher. */
+    private final LongAdder dropped;
+
     /**
      * Constructs a ParallelAgent with the specified agent and queue capacity.
      *
@@ -27,36 +104,180 @@ public class ParallelAgent implements Agent {
      * @param capacity The capacity of the message queue.
      */
     ParallelAgent(Agent agent, int capacity) {
+        this(agent, capacity, null);
+    }
+
+    /**
+     * Constructs a ParallelAgent with the specified agent and queue capacity, run by a worker.
+     *
+     * @param agent The agent to be wrapped.
+     * @param capacity The capacity of the message queue.
+     * @param worker The worker that runs the queue, or null to run it on a thread of its own.
+     */
+    ParallelAgent(Agent agent, int capacity, AgentScheduler.Worker worker) {
         this.agent = agent;
-        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = worker;
+        this.room = new Semaphore(capacity);
+        // stand for the wrapped agent in the topics from now on
+        TopicWiring.wrap(agent, this);
+
+        // Register the metrics of the queue
+        MetricsRegistry metrics = MetricsRegistry.get();
+        String name = Topic.metricsName(this);
+        this.depthSeries = MetricsRegistry.series("parallel_agent_queue_depth", "agent", name);
+        this.putsSeries = MetricsRegistry.series("parallel_agent_puts_total", "agent", name);
+        this.blockedPutSeries = MetricsRegistry.series("parallel_agent_blocked_put_seconds", "agent", name);
+        this.droppedSeries = MetricsRegistry.series("parallel_agent_dropped_total", "agent", name);
+        metrics.gauge(depthSeries, this.queue::size);
+        this.puts = metrics.counter(putsSeries);
+        this.blockedPuts = metrics.histogram(blockedPutSeries);
+        this.dropped = metrics.counter(droppedSeries);
+
+        live.add(this);
+        if (worker != null) {
+            worker.agents.incrementAndGet();
+            return;
+        }
 
         // Run a thread that will take messages from the queue
         // and activate the callback method of the agent:
         this.readingFromQueueThread = new Thread(() -> {
-            // While running is true, the thread will keep running
-            while (this.running) {
+            try {
+                runQueue();
+            } finally {
+                finishQueue();
+                runningThreads.decrementAndGet();
+            }
+        }, "ParallelAgent-" + agent.getName());
+        runningThreads.incrementAndGet();
+        // Start the thread
+        this.readingFromQueueThread.start();
+    }
+
+    /**
+     * Takes messages from the queue and passes them to the wrapped agent until the agent is closed, then
+     * passes the messages left or stops right away, depending on the {@link ClosePolicy}.
+     */
+    private void runQueue() {
+        while (true) {
+            Queued msgFromQueue;
+            ClosePolicy policy = this.closing.get();
+            if (policy == null) {
                 try {
                     // Thread will sleep until a message is available in the queue
-                    Message msgFromQueue = queue.take();
-                    // Split the topic from the message using the ":" separator
-                    String topic = msgFromQueue.asText.split(":")[0];
-                    String message = "";
-                    // If the message is not empty
-                    if (msgFromQueue.asText.split(":").length > 1) {
-                        // Get the message from the message (if it exists)
-                        message = msgFromQueue.asText.split(":")[1];
-                    }
-
-                    // Call the callback method of the agent
-                    agent.callback(topic, new Message(message));
+                    msgFromQueue = queue.take();
                 } catch (InterruptedException e) {
-                    // No need to print the exception message
-                    // e.printStackTrace();
+                    // Only a close interrupts the thread, look at the policy again
+                    continue;
+                }
+            } else if (policy == ClosePolicy.DRAIN) {
+                msgFromQueue = queue.poll();
+                if (msgFromQueue == null) {
+                    return;
                 }
+            } else {
+                return;
             }
-        });
-        // Start the thread
-        this.readingFromQueueThread.start();
+            if (msgFromQueue != STOP) {
+                process(msgFromQueue);
+            }
+        }
+    }
+
+    /**
+     * Runs a batch of messages of the queue on the worker, giving the queue back to the worker if more are left,
+     * until the agent is closed, then passes the messages left or stops right away, depending on the
+     * {@link ClosePolicy}.
+     */
+    private void runOnWorker() {
+        for (int taken = 0; taken < WORKER_BATCH; taken++) {
+            ClosePolicy policy = this.closing.get();
+            if (policy == ClosePolicy.DISCARD) {
+                finishQueue();
+                return;
+            }
+            Queued msgFromQueue = queue.poll();
+            if (msgFromQueue == null) {
+                if (policy == ClosePolicy.DRAIN) {
+                    finishQueue();
+                    return;
+                }
+                // Let the next message schedule the queue again, unless one came in meanwhile or it was closed
+                scheduled.set(false);
+                if ((queue.isEmpty() && this.closing.get() == null) || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            process(msgFromQueue);
+        }
+        worker.execute(this::runOnWorker);
+    }
+
+    /**
+     * Gives the queue to the worker to run, unless it already was.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            worker.execute(this::runOnWorker);
+        }
+    }
+
+    /**
+     * Drops whatever is left in the queue once it is no longer run, and lets {@link #closeAll} know.
+     * Only the first call does anything.
+     */
+    private void finishQueue() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        Queued left;
+        while ((left = queue.poll()) != null) {
+            if (left != STOP) {
+                dropped.increment();
+                left.done();
+            }
+            if (left.holdsRoom) {
+                room.release();
+            }
+        }
+        live.remove(this);
+        if (worker != null) {
+            worker.agents.decrementAndGet();
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Passes a message from the queue to the wrapped agent, or runs the fused chain it starts on the worker,
+     * see {@link ChainFuser}.
+     *
+     * @param msgFromQueue The message with its topic.
+     */
+    private void process(Queued msgFromQueue) {
+        if (msgFromQueue.holdsRoom) {
+            room.release();
+        }
+
+        // Call the callback method of the agent, within the delivery the message was queued from,
+        // then go back to the delivery of the caller, which may be draining the queue from its own
+        Trace.Context context = Trace.context();
+        Trace outerTrace = context.trace;
+        String outerTopic = context.topic;
+        long outerNanos = context.nanos;
+        context.set(msgFromQueue.trace, msgFromQueue.traceTopic, msgFromQueue.traceNanos);
+        try {
+            Topic topic = worker != null ? TopicManagerSingleton.get().getTopics().get(msgFromQueue.topic) : null;
+            if (topic == null || !topic.runQueuedChain(this, msgFromQueue.msg)) {
+                agent.callback(msgFromQueue.topic, msgFromQueue.msg);
+            }
+        } catch (RuntimeException e) {
+            // A failing message must not stop the thread
+            e.printStackTrace();
+        } finally {
+            context.set(outerTrace, outerTopic, outerNanos);
+            msgFromQueue.done();
+        }
     }
 
     /**
@@ -69,6 +290,43 @@ public class ParallelAgent implements Agent {
         return agent.getName();
     }
 
+    /**
+     * Gets the agent wrapped by this parallel agent.
+     *
+     * @return The wrapped agent.
+     */
+    Agent getWrappedAgent() {
+        return agent;
+    }
+
+    /**
+     * Gets the agent a topic member runs: the agent wrapped by a parallel agent, or the agent itself.
+     *
+     * @param agent The subscriber or publisher of a topic.
+     * @return The agent it runs.
+     */
+    static Agent unwrap(Agent agent) {
+        return agent instanceof ParallelAgent ? ((ParallelAgent) agent).agent : agent;
+    }
+
+    /**
+     * Gets the worker that runs the queue.
+     *
+     * @return The worker, or null if the agent has a thread of its own.
+     */
+    AgentScheduler.Worker getWorker() {
+        return worker;
+    }
+
+    /**
+     * Tells whether the queue is empty, so a message given now would be the next one passed to the wrapped agent.
+     *
+     * @return true if no message is waiting in the queue.
+     */
+    boolean isIdle() {
+        return queue.isEmpty();
+    }
+
     /**
      * Resets the agent.
      */
@@ -79,30 +337,246 @@ public class ParallelAgent implements Agent {
 
     /**
      * Adds a message to the queue to be processed by the agent.
+     * <p>
+     * If the queue is full, this waits for room in it, but only until the deadline of the
+     * {@link Topic#tryPublish(Message, long, java.util.concurrent.TimeUnit)} being made by this thread, if any.
+     * A message that finds no room in time, or whose wait is interrupted, is dropped and counted, and the
+     * tried publish reports {@link PublishStatus#OVERLOADED}. Messages given to a closed agent are dropped too.
+     * A worker of the scheduler never waits for the queue of another worker: it drops the message right away.
+     * </p>
      *
      * @param topic The topic of the message.
      * @param msg The message to be processed.
      */
     @Override
     public void callback(String topic, Message msg) {
-        try {
-            // Add a message and the topic to the queue
-            this.queue.put(new Message(topic + ":" + msg.asText));
-        } catch (InterruptedException e) {
-            // No need to print the exception message
-            // e.printStackTrace();
+        if (this.closing.get() != null) {
+            dropped.increment();
+            return;
         }
+        if (worker != null && worker.isCurrent()) {
+            // Within the partition of the worker: pass the messages already queued first, then this one,
+            // rather than wait for room in a queue only this thread empties
+            Queued msgFromQueue;
+            while ((msgFromQueue = queue.poll()) != null) {
+                process(msgFromQueue);
+            }
+            agent.callback(topic, msg);
+            return;
+        }
+        puts.increment();
+        if (worker != null && AgentScheduler.Worker.current() != null) {
+            // From another partition: waiting for room could wait for a worker waiting for this one,
+            // so a full queue drops the message and fails the publish as a deadline would
+            if (!room.tryAcquire()) {
+                dropped.increment();
+                PublishDeadline.current().missed = true;
+                return;
+            }
+            enqueue(topic, msg);
+            return;
+        }
+        // Take room in the queue, timing the wait if the queue is full
+        if (!room.tryAcquire()) {
+            PublishDeadline deadline = PublishDeadline.current();
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                if (deadline.nanos == 0) {
+                    room.acquire();
+                    acquired = true;
+                } else {
+                    acquired = room.tryAcquire(deadline.nanos - start, TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                // Keep the interrupt for the caller to see
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            blockedPuts.record(System.nanoTime() - start);
+            if (!acquired) {
+                dropped.increment();
+                deadline.missed = true;
+                return;
+            }
+        }
+        enqueue(topic, msg);
     }
 
     /**
-     * Closes the agent and stops the processing thread.
+     * Adds a message that took room in the queue, with its topic and the delivery it is given in, and has the queue run.
+     *
+     * @param topic The topic of the message.
+     * @param msg The message.
+     */
+    private void enqueue(String topic, Message msg) {
+        queue.add(new Queued(topic, msg, Trace.context(), true));
+        if (worker != null) {
+            schedule();
+        }
+    }
+
+    /**
+     * Closes the agent: passes the messages left in its queue to the wrapped agent, waits up to
+     * {@link #CLOSE_TIMEOUT_MILLIS} for its thread to stop, then closes the wrapped agent. A thread that does
+     * not stop in time is reported by {@link #getLeakedThreads()}.
      */
     @Override
     public void close() {
-        // Change the running flag to false
-        this.running = false;
-        // Stop the thread from the constructor
-        this.readingFromQueueThread.interrupt();
-        agent.close();
+        closeAll(Collections.singletonList(this), ClosePolicy.DRAIN, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes many agents at once.
+     * <p>
+     * Every parallel agent is told to stop first, so their threads drain or discard their queues at the same
+     * time, and they are all waited for until a single deadline. The threads still running then are told to
+     * discard what is left and interrupted, and reported as leaked. The wrapped agents, and the agents that
+     * are not parallel agents, are closed last, on the calling thread.
+     * Parallel agents that were already closed are skipped.
+     * </p>
+     *
+     * @param agents The agents to close, parallel agents or not.
+     * @param policy What to do with the messages left in the queues.
+     * @param timeout The longest time to wait for all the threads to stop.
+     * @param unit The unit of the timeout.
+     * @return The names of the threads that did not stop in time, empty if all of them did.
+     */
+    public static List<String> closeAll(Collection<? extends Agent> agents, ClosePolicy policy, long timeout, TimeUnit unit) {
+        // Tell every thread to stop, waking up the ones waiting for a message
+        List<ParallelAgent> stopping = new ArrayList<>();
+        List<Agent> others = new ArrayList<>();
+        for (Agent agent : agents) {
+            if (!(agent instanceof ParallelAgent)) {
+                others.add(agent);
+                continue;
+            }
+            ParallelAgent parallel = (ParallelAgent) agent;
+            // Only the first of the threads closing an agent at once tells it to stop
+            if (parallel.closing.compareAndSet(null, policy)) {
+                if (parallel.worker != null) {
+                    // Closed before the worker ran the queue, or after it found it empty
+                    parallel.scheduled.set(true);
+                    parallel.worker.execute(parallel::runOnWorker);
+                } else {
+                    parallel.queue.offer(STOP);
+                }
+                stopping.add(parallel);
+            }
+        }
+
+        // Wait for all of them until the same deadline
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<String> leaked = new ArrayList<>();
+        boolean interrupted = false;
+        for (ParallelAgent parallel : stopping) {
+            long left = deadline - System.nanoTime();
+            if (!interrupted && left > 0) {
+                try {
+                    parallel.stopped.await(left, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (parallel.stopped.getCount() > 0) {
+                // A worker runs other queues too, it is never interrupted
+                parallel.closing.set(ClosePolicy.DISCARD);
+                if (parallel.readingFromQueueThread != null) {
+                    parallel.readingFromQueueThread.interrupt();
+                }
+                leaked.add(parallel.getThreadName());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Close the wrapped agents and drop the metrics of the queues
+        MetricsRegistry metrics = MetricsRegistry.get();
+        for (ParallelAgent parallel : stopping) {
+            parallel.agent.close();
+            TopicWiring.unwrap(parallel.agent);
+            metrics.remove(parallel.depthSeries);
+            metrics.remove(parallel.putsSeries);
+            metrics.remove(parallel.blockedPutSeries);
+            metrics.remove(parallel.droppedSeries);
+        }
+        for (Agent agent : others) {
+            agent.close();
+        }
+        return leaked;
+    }
+
+    /**
+     * Gets the threads of the closed agents that are still running, such as threads stuck in the callback of
+     * their agent.
+     *
+     * @return The names of the threads.
+     */
+    public static List<String> getLeakedThreads() {
+        List<String> leaked = new ArrayList<>();
+        for (ParallelAgent parallel : live) {
+            if (parallel.closing.get() != null && parallel.stopped.getCount() > 0) {
+                leaked.add(parallel.getThreadName());
+            }
+        }
+        return leaked;
+    }
+
+    /**
+     * Gets the name of the thread that runs the queue.
+     *
+     * @return The name of the thread, followed by the name of the agent if it is a worker.
+     */
+    private String getThreadName() {
+        return readingFromQueueThread != null ? readingFromQueueThread.getName()
+                : worker.getName() + "/" + agent.getName();
+    }
+
+    /**
+     * A message in the queue, with its topic and the delivery it was given in.
+     */
+    private static final class Queued {
+        /** The topic of the message. */
+        final String topic;
+        /** The message. */
+        final Message msg;
+        /** The trace being delivered when the message was queued, or null outside of any delivery. */
+        final Trace trace;
+        /** The topic delivering the trace. */
+        final String traceTopic;
+        /** The time of the delivery. */
+        final long traceNanos;
+        /** Whether the message took room in the queue. */
+        final boolean holdsRoom;
+
+        /**
+         * Constructs a Queued.
+         *
+         * @param topic The topic of the message.
+         * @param msg The message.
+         * @param context The delivery the message is given in, or null.
+         * @param holdsRoom Whether the message took room in the queue.
+         */
+        Queued(String topic, Message msg, Trace.Context context, boolean holdsRoom) {
+            this.topic = topic;
+            this.msg = msg;
+            this.trace = context != null ? context.trace : null;
+            this.traceTopic = context != null ? context.topic : null;
+            this.traceNanos = context != null ? context.nanos : 0;
+            this.holdsRoom = holdsRoom;
+            if (trace != null && trace.batch != null) {
+                trace.batch.enter();
+            }
+        }
+
+        /**
+         * Lets the batch of the message, if any, know it was passed to the agent or dropped.
+         */
+        void done() {
+            if (trace != null && trace.batch != null) {
+                trace.batch.exit();
+            }
+        }
     }
 }
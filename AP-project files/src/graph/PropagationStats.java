@@ -0,0 +1,310 @@
+package graph;
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies of the values flowing through the graph, aggregated from the sampled {@link Trace}s.
+ * <p>
+ * Whenever a topic delivers a message of a sampled trace, two latencies are recorded: the time since the trace
+ * started, by source topic (the first topic the trace was delivered on), and the time since the delivery that
+ * created the message, by upstream topic. The first is the end-to-end latency of a path, and is also exposed
+ * as {@code trace_propagation_seconds} by the {@link MetricsRegistry}. The second is the latency of a single hop,
+ * an agent (with its queue, for a {@link ParallelAgent}) between two topics, from which
+ * {@link #criticalPath(String, String)} finds the slowest path between two topics.
+ * </p>
+ * <p>
+ * Both are recorded {@link Trace#SAMPLE_RATE} times, so counts estimate the number of messages.
+ * </p>
+ */
+public final class PropagationStats {
+
+    /** The statistics of every topic, by topic name. */
+    private static final ConcurrentHashMap<String, TopicStats> topics = new ConcurrentHashMap<>();
+
+    /** Private constructor to prevent instantiation. */
+    private PropagationStats() {}
+
+    /**
+     * Records the delivery of a message of a sampled trace on a topic.
+     *
+     * @param msg The message.
+     * @param topic The topic delivering it.
+     * @param now The time of the delivery, in {@link System#nanoTime()} nanoseconds.
+     */
+    static void record(Message msg, String topic, long now) {
+        Trace trace = msg.trace;
+        String source = trace.originTopic(topic);
+        if (msg.parentTopic == null) {
+            // The message starts its trace here, there is no path yet
+            return;
+        }
+        TopicStats stats = topics.computeIfAbsent(topic, TopicStats::new);
+        stats.fromSource(source).record(now - trace.originNanos, Trace.SAMPLE_RATE);
+        if (msg.parentNanos != 0) {
+            stats.hop(msg.parentTopic).record(now - msg.parentNanos);
+        }
+    }
+
+    /**
+     * Gets the end-to-end latencies of the values reaching a topic.
+     *
+     * @param topic The topic name.
+     * @return The latencies by source topic, empty if nothing was recorded.
+     */
+    public static Map<String, LatencyHistogram> getPropagation(String topic) {
+        TopicStats stats = topics.get(topic);
+        return stats != null ? Collections.unmodifiableMap(stats.sources) : Collections.emptyMap();
+    }
+
+    /**
+     * Gets the hops into a topic.
+     *
+     * @param topic The topic name.
+     * @return The hops by upstream topic, empty if nothing was recorded.
+     */
+    public static Map<String, Hop> getHops(String topic) {
+        TopicStats stats = topics.get(topic);
+        return stats != null ? Collections.unmodifiableMap(stats.hops) : Collections.emptyMap();
+    }
+
+    /**
+     * Finds the critical path to a topic: the path with the highest total mean hop latency.
+     *
+     * @param source The topic the path starts from, or null for any topic no recorded hop leads to.
+     * @param topic The topic the path ends at.
+     * @return The hops of the path, in order, or an empty list if no path was recorded.
+     */
+    public static List<Hop> criticalPath(String source, String topic) {
+        Map<String, Double> longest = new HashMap<>();
+        Map<String, Hop> via = new HashMap<>();
+        if (longest(topic, source, longest, via, new HashSet<>()) == Double.NEGATIVE_INFINITY) {
+            return new ArrayList<>();
+        }
+        List<Hop> path = new ArrayList<>();
+        for (Hop hop = via.get(topic); hop != null; hop = via.get(hop.from)) {
+            path.add(hop);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Computes the highest total mean latency of the recorded paths from a source to a topic.
+     *
+     * @param topic The topic.
+     * @param source The source, or null for any topic no recorded hop leads to.
+     * @param longest The latencies computed so far, by topic.
+     * @param via The last hop of the longest path to each topic.
+     * @param visiting The topics on the current path, a hop back to them closes a cycle and is skipped.
+     * @return The latency in nanoseconds, or negative infinity if no path leads from the source.
+     */
+    private static double longest(String topic, String source, Map<String, Double> longest,
+                                  Map<String, Hop> via, Set<String> visiting) {
+        if (topic.equals(source)) {
+            return 0;
+        }
+        Double known = longest.get(topic);
+        if (known != null) {
+            return known;
+        }
+        TopicStats stats = topics.get(topic);
+        if (stats == null || stats.hops.isEmpty()) {
+            return source == null ? 0 : Double.NEGATIVE_INFINITY;
+        }
+
+        visiting.add(topic);
+        double best = Double.NEGATIVE_INFINITY;
+        for (Hop hop : stats.hops.values()) {
+            if (visiting.contains(hop.from)) {
+                continue;
+            }
+            double upstream = longest(hop.from, source, longest, via, visiting);
+            if (upstream != Double.NEGATIVE_INFINITY && upstream + hop.getMeanNanos() > best) {
+                best = upstream + hop.getMeanNanos();
+                via.put(topic, hop);
+            }
+        }
+        visiting.remove(topic);
+        longest.put(topic, best);
+        return best;
+    }
+
+    /**
+     * Forgets the statistics of a topic, such as when it is removed.
+     *
+     * @param topic The topic name.
+     */
+    static void remove(String topic) {
+        TopicStats stats = topics.remove(topic);
+        if (stats != null) {
+            for (String source : stats.sources.keySet()) {
+                MetricsRegistry.get().remove(propagationSeries(source, topic));
+            }
+        }
+    }
+
+    /**
+     * Forgets the statistics of every topic.
+     */
+    static void clear() {
+        for (String topic : new ArrayList<>(topics.keySet())) {
+            remove(topic);
+        }
+    }
+
+    /**
+     * Gets the name of the propagation series from a source to a topic.
+     *
+     * @param source The source topic name.
+     * @param topic The topic name.
+     * @return The name of the series.
+     */
+    private static String propagationSeries(String source, String topic) {
+        return MetricsRegistry.series("trace_propagation_seconds", "source", source, "topic", topic);
+    }
+
+    /**
+     * The latency of the hop from a topic to another.
+     */
+    public static final class Hop {
+        /** The upstream topic. */
+        private final String from;
+        /** The downstream topic. */
+        private final String to;
+        /** The estimated number of messages. */
+        private final LongAdder count = new LongAdder();
+        /** The sum of the sampled latencies, in nanoseconds. */
+        private final LongAdder sum = new LongAdder();
+        /** The number of sampled latencies. */
+        private final LongAdder samples = new LongAdder();
+        /** The highest sampled latency, in nanoseconds. */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Constructs a Hop.
+         *
+         * @param from The upstream topic.
+         * @param to The downstream topic.
+         */
+        Hop(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Records a sampled latency.
+         *
+         * @param nanos The latency, in nanoseconds.
+         */
+        void record(long nanos) {
+            count.add(Trace.SAMPLE_RATE);
+            samples.increment();
+            sum.add(nanos);
+            if (nanos > max.get()) {
+                max.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        /**
+         * Gets the upstream topic.
+         *
+         * @return The topic name.
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        /**
+         * Gets the downstream topic.
+         *
+         * @return The topic name.
+         */
+        public String getTo() {
+            return to;
+        }
+
+        /**
+         * Gets the estimated number of messages that made the hop.
+         *
+         * @return The number of messages.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Gets the mean latency of the hop.
+         *
+         * @return The latency in nanoseconds, or 0 if nothing was recorded.
+         */
+        public double getMeanNanos() {
+            long n = samples.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * Gets the highest sampled latency of the hop.
+         *
+         * @return The latency in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return max.get();
+        }
+    }
+
+    /**
+     * The latencies of the values reaching a topic.
+     */
+    private static final class TopicStats {
+        /** The topic name. */
+        final String topic;
+        /** The end-to-end latencies, by source topic. */
+        final ConcurrentHashMap<String, LatencyHistogram> sources = new ConcurrentHashMap<>();
+        /** The hops into the topic, by upstream topic. */
+        final ConcurrentHashMap<String, Hop> hops = new ConcurrentHashMap<>();
+
+        /**
+         * Constructs a TopicStats.
+         *
+         * @param topic The topic name.
+         */
+        TopicStats(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Gets the end-to-end latencies from a source, registering them if needed.
+         *
+         * @param source The source topic name.
+         * @return The histogram.
+         */
+        LatencyHistogram fromSource(String source) {
+            LatencyHistogram histogram = sources.get(source);
+            return histogram != null ? histogram : sources.computeIfAbsent(source,
+                    s -> MetricsRegistry.get().histogram(propagationSeries(s, topic)));
+        }
+
+        /**
+         * Gets the hop from an upstream topic, creating it if needed.
+         *
+         * @param from The upstream topic name.
+         * @return The hop.
+         */
+        Hop hop(String from) {
+            Hop hop = hops.get(from);
+            return hop != null ? hop : hops.computeIfAbsent(from, f -> new Hop(f, topic));
+        }
+    }
+}
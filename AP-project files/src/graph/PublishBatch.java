@@ -0,0 +1,326 @@
+package graph;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes many messages as a single pass over the graph, so every topic, downstream topics included,
+ * publishes at most once.
+ */
+public final class PublishBatch {
+
+    /** The topic ranks, cached for the topology version they were computed for. */
+    private static volatile Ranks ranks;
+
+    /** The ranks used to order the deliveries. */
+    private final Ranks batchRanks;
+
+    /** The trace of the messages of the batch, and of the messages the agents derive from them on any thread. */
+    private final Trace trace;
+
+    /** The latest message held back for each topic. */
+    private final Map<Topic, Message> pending = new HashMap<>();
+
+    /** The topics with a held back message, lowest rank first. */
+    private final PriorityQueue<Topic> order;
+
+    /** The messages of the batch queued for a {@link ParallelAgent} and not passed to its agent yet. */
+    private int inFlight = 0;
+
+    /** Whether the batch was delivered, so the messages of its trace are now published as usual. */
+    private volatile boolean done = false;
+
+    /**
+     * Private constructor, batches are applied with {@link #apply(Runnable, long, TimeUnit)}.
+     *
+     * @param batchRanks The topic ranks used to order the deliveries.
+     */
+    private PublishBatch(Ranks batchRanks) {
+        this.batchRanks = batchRanks;
+        this.trace = Trace.batch(this);
+        this.order = new PriorityQueue<>((a, b) -> Integer.compare(batchRanks.rankOf(a), batchRanks.rankOf(b)));
+    }
+
+    /**
+     * Runs an action that publishes messages, and delivers the messages it creates as a single batch, a rank at
+     * a time: the agents called for a rank are waited for, and the messages they publish are held back for the
+     * next ranks, so a topic fed by several changed topics is delivered once, with its last value. Every delivery
+     * is tried within the timeout. If the current thread already applies a batch, the messages join that batch.
+     *
+     * @param publishes The action publishing the messages.
+     * @param timeout The longest time to take to deliver the batch.
+     * @param unit The unit of the timeout.
+     * @return The outcome of the deliveries.
+     */
+    public static Result apply(Runnable publishes, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (current() != null) {
+            publishes.run();
+            return new Result(PublishStatus.ACCEPTED, 0);
+        }
+        PublishBatch batch = new PublishBatch(ranks());
+        Trace.Context context = Trace.context();
+        Trace outerTrace = context.trace;
+        String outerTopic = context.topic;
+        long outerNanos = context.nanos;
+        context.set(batch.trace, null, 0);
+        try {
+            publishes.run();
+        } finally {
+            context.set(outerTrace, outerTopic, outerNanos);
+        }
+        return batch.flush(deadline);
+    }
+
+    /**
+     * Gets the batch the current thread publishes to: the batch of the trace being delivered, if not delivered yet.
+     *
+     * @return The batch, or null if the current thread publishes as usual.
+     */
+    static PublishBatch current() {
+        Trace trace = Trace.context().trace;
+        PublishBatch batch = trace != null ? trace.batch : null;
+        return batch != null && !batch.done ? batch : null;
+    }
+
+    /**
+     * Holds back a message until its rank is delivered. A later message to the same topic replaces it.
+     *
+     * @param topic The topic the message was published to.
+     * @param msg The message.
+     * @return false if the batch was already delivered, in which case the message must be published as usual.
+     */
+    synchronized boolean defer(Topic topic, Message msg) {
+        if (done) {
+            return false;
+        }
+        if (pending.put(topic, msg) == null) {
+            order.add(topic);
+        }
+        return true;
+    }
+
+    /**
+     * Counts a message of the batch queued for a {@link ParallelAgent}.
+     */
+    synchronized void enter() {
+        inFlight++;
+    }
+
+    /**
+     * Counts a message of the batch passed to the agent of a {@link ParallelAgent}, or dropped by it.
+     */
+    synchronized void exit() {
+        if (--inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Delivers the held back messages a rank at a time, lowest first, waiting for the agents in between.
+     *
+     * @param deadline The deadline of the batch, in {@link System#nanoTime()} nanoseconds.
+     * @return The outcome of the deliveries.
+     */
+    private Result flush(long deadline) {
+        PublishStatus status = PublishStatus.ACCEPTED;
+        int published = 0;
+        List<Topic> topics = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        while (true) {
+            boolean last;
+            synchronized (this) {
+                // Past the deadline, deliver whatever is held back and let the late agents publish as usual
+                last = !awaitAgents(deadline);
+                if (last) {
+                    status = PublishStatus.OVERLOADED;
+                }
+                if (order.isEmpty()) {
+                    done = true;
+                    return new Result(status, published);
+                }
+                int rank = batchRanks.rankOf(order.peek());
+                while (!order.isEmpty() && (last || batchRanks.rankOf(order.peek()) == rank)) {
+                    Topic topic = order.poll();
+                    topics.add(topic);
+                    messages.add(pending.remove(topic));
+                }
+                done = last;
+            }
+            for (int i = 0; i < topics.size(); i++) {
+                long left = Math.max(0, deadline - System.nanoTime());
+                PublishStatus delivered = topics.get(i).tryPublish(messages.get(i), left, TimeUnit.NANOSECONDS);
+                if (delivered != PublishStatus.REJECTED) {
+                    published++;
+                }
+                if (delivered.compareTo(status) > 0) {
+                    status = delivered;
+                }
+            }
+            topics.clear();
+            messages.clear();
+            if (last) {
+                return new Result(status, published);
+            }
+        }
+    }
+
+    /**
+     * Waits for the messages of the batch queued for parallel agents to be passed to their agents.
+     * Called holding the lock of the batch.
+     *
+     * @param deadline The deadline of the batch, in {@link System#nanoTime()} nanoseconds.
+     * @return false if some are still queued at the deadline, or the wait was interrupted.
+     */
+    private boolean awaitAgents(long deadline) {
+        while (inFlight > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the topic ranks for the current topology, computing them if the topology changed.
+     *
+     * @return The ranks.
+     */
+    private static Ranks ranks() {
+        TopicManager tm = TopicManagerSingleton.get();
+        long version = tm.getTopologyVersion();
+        Ranks cached = ranks;
+        if (cached == null || cached.version != version) {
+            cached = new Ranks(version, tm.getTopics().values());
+            ranks = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Result {
+        /** The worst outcome of the deliveries, {@link PublishStatus#ACCEPTED} if all of them were made in time. */
+        public final PublishStatus status;
+        /** The number of topics published, downstream topics included. */
+        public final int published;
+
+        /**
+         * Constructs a Result.
+         *
+         * @param status The worst outcome of the deliveries.
+         * @param published The number of topics published.
+         */
+        Result(PublishStatus status, int published) {
+            this.status = status;
+            this.published = published;
+        }
+    }
+
+    /**
+     * The topological rank of every topic: source topics have rank 0, and every other topic has a
+     * rank above the ranks of all the topics feeding it. Topics on a cycle are ranked after the rest.
+     */
+    private static final class Ranks {
+        /** The topology version these ranks were computed for. */
+        final long version;
+        /** The rank of each topic. */
+        private final Map<Topic, Integer> rank = new IdentityHashMap<>();
+        /** The rank given to topics created after these ranks were computed. */
+        private final int unknownRank;
+
+        /**
+         * Computes the ranks of the given topics with Kahn's algorithm over the
+         * topic &rarr; agent &rarr; topic edges.
+         *
+         * @param version The topology version.
+         * @param topics The topics.
+         */
+        Ranks(long version, Collection<Topic> topics) {
+            this.version = version;
+
+            // The topics each agent subscribes to
+            Map<Agent, List<Topic>> inputs = new IdentityHashMap<>();
+            for (Topic topic : topics) {
+                for (Agent agent : topic.getSubscribers()) {
+                    inputs.computeIfAbsent(agent, a -> new ArrayList<>()).add(topic);
+                }
+            }
+
+            // The topics feeding each topic, through the agents publishing to it
+            Map<Topic, Set<Topic>> feeds = new LinkedHashMap<>();
+            Map<Topic, List<Topic>> feeding = new IdentityHashMap<>();
+            for (Topic topic : topics) {
+                Set<Topic> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Agent agent : topic.getPublishers()) {
+                    sources.addAll(inputs.getOrDefault(agent, Collections.emptyList()));
+                }
+                feeds.put(topic, sources);
+                for (Topic source : sources) {
+                    feeding.computeIfAbsent(source, t -> new ArrayList<>()).add(topic);
+                }
+            }
+
+            // Remove the topics in order, each one ranked above the topics feeding it
+            Map<Topic, Integer> remaining = new IdentityHashMap<>();
+            ArrayDeque<Topic> ready = new ArrayDeque<>();
+            for (Map.Entry<Topic, Set<Topic>> entry : feeds.entrySet()) {
+                remaining.put(entry.getKey(), entry.getValue().size());
+                if (entry.getValue().isEmpty()) {
+                    ready.add(entry.getKey());
+                    rank.put(entry.getKey(), 0);
+                }
+            }
+            int maxRank = 0;
+            while (!ready.isEmpty()) {
+                Topic topic = ready.poll();
+                int next = rank.get(topic) + 1;
+                for (Topic target : feeding.getOrDefault(topic, Collections.emptyList())) {
+                    rank.merge(target, next, Math::max);
+                    if (remaining.merge(target, -1, Integer::sum) == 0) {
+                        ready.add(target);
+                        maxRank = Math.max(maxRank, rank.get(target));
+                    }
+                }
+            }
+
+            // Topics on a cycle never become ready, rank them after everything else
+            for (Topic topic : feeds.keySet()) {
+                if (remaining.get(topic) > 0) {
+                    rank.put(topic, maxRank + 1);
+                }
+            }
+            this.unknownRank = maxRank + 2;
+        }
+
+        /**
+         * Gets the rank of a topic.
+         *
+         * @param topic The topic.
+         * @return The rank.
+         */
+        int rankOf(Topic topic) {
+            return rank.getOrDefault(topic, unknownRank);
+        }
+    }
+}
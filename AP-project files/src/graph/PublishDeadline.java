@@ -0,0 +1,31 @@
+package graph;
+
+/**
+ * The deadline of the {@link Topic#tryPublish(Message, long, java.util.concurrent.TimeUnit)} being made by a thread.
+ * <p>
+ * Agents publish from their callbacks on the thread that delivered to them, so every publish made while a
+ * message is being tried is bound by its deadline without any change to the agents. A {@link ParallelAgent}
+ * whose queue is full waits for room only until the deadline, then drops the message and marks the deadline
+ * as missed. A thread outside of any tried publish has no deadline and waits as long as needed.
+ * </p>
+ */
+final class PublishDeadline {
+
+    /** The deadline of the current thread. */
+    private static final ThreadLocal<PublishDeadline> current = ThreadLocal.withInitial(PublishDeadline::new);
+
+    /** The deadline, in {@link System#nanoTime()} nanoseconds, or 0 if there is none. */
+    long nanos;
+
+    /** Whether a message was dropped because of the deadline. */
+    boolean missed;
+
+    /**
+     * Gets the deadline of the current thread.
+     *
+     * @return The deadline, its {@link #nanos} is 0 outside of any tried publish.
+     */
+    static PublishDeadline current() {
+        return current.get();
+    }
+}
@@ -0,0 +1,19 @@
+package graph;
+
+/**
+ * The outcome of {@link Topic#tryPublish(Message, long, java.util.concurrent.TimeUnit)}.
+ */
+public enum PublishStatus {
+
+    /** The message was delivered, and every message it led to was handed to its subscribers in time. */
+    ACCEPTED,
+
+    /**
+     * The message was delivered, but the queue of a {@link ParallelAgent} downstream stayed full until the
+     * timeout, so the message, or one it led to, was dropped by that agent.
+     */
+    OVERLOADED,
+
+    /** No publish credit became available before the timeout, so the message was not published at all. */
+    REJECTED
+}
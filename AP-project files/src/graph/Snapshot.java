@@ -0,0 +1,337 @@
+package graph;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Saves the last message of every topic and the internal state of every {@link StatefulAgent}
+ * to a file, with the path of the deployed configuration, and restores them after a restart.
+ */
+public class Snapshot {
+
+    /** The first bytes of every snapshot file ("APSS"). */
+    private static final int MAGIC = 0x41505353;
+
+    /** The version of the snapshot format. */
+    private static final int VERSION = 1;
+
+    /** The path of the snapshot file. */
+    private final Path file;
+
+    /** The scheduler of the periodic snapshots, or null if none are taken. */
+    private ScheduledExecutorService scheduler;
+
+    /** Supplies the agents of the deployed configuration in the order of its file. */
+    private Supplier<List<Agent>> agentOrder = Collections::emptyList;
+
+    /**
+     * Constructs a Snapshot stored in the given file.
+     *
+     * @param file The path of the snapshot file.
+     */
+    public Snapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Sets where the agents of the deployed configuration are taken from, in the order of its file. Agents
+     * with the same name and topics are saved and restored in that order, so each one gets its own state back.
+     *
+     * @param agentOrder Supplies the agents in the order of the configuration file.
+     */
+    public synchronized void setAgentOrder(Supplier<List<Agent>> agentOrder) {
+        this.agentOrder = agentOrder;
+    }
+
+    /**
+     * Writes the last message of every topic and the state of every stateful agent to the snapshot file.
+     * The file is replaced atomically, so a crash while saving leaves the previous snapshot intact.
+     *
+     * @param configPath The path of the deployed configuration, or null if none is deployed.
+     * @throws IOException If the snapshot file cannot be written.
+     */
+    public synchronized void save(String configPath) throws IOException {
+        TopicManager tm = TopicManagerSingleton.get();
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, configPath);
+
+            // the last message of every topic
+            List<Topic> topics = new ArrayList<>(tm.getTopics().values());
+            out.writeInt(topics.size());
+            for (Topic topic : topics) {
+                writeString(out, topic.getName());
+                writeMessage(out, topic.getLastMessage());
+            }
+
+            // the state of every stateful agent, each one length prefixed so it can be skipped
+            Map<String, StatefulAgent> agents = findStatefulAgents();
+            out.writeInt(agents.size());
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            for (Map.Entry<String, StatefulAgent> entry : agents.entrySet()) {
+                state.reset();
+                entry.getValue().saveState(new DataOutputStream(state));
+                writeString(out, entry.getKey());
+                out.writeInt(state.size());
+                state.writeTo(out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the path of the configuration that was deployed when the snapshot was taken.
+     *
+     * @return The configuration path, or null if there is no snapshot or no configuration was deployed.
+     * @throws IOException If the snapshot file cannot be read.
+     */
+    public String getConfigPath() throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = open()) {
+            in.readLong();
+            return readString(in);
+        }
+    }
+
+    /**
+     * Restores the last messages of the existing topics and the state of the stateful agents
+     * found in the snapshot. Topics and agents that do not exist anymore are skipped.
+     *
+     * @return true if a snapshot was restored, false if there is no snapshot file.
+     * @throws IOException If the snapshot file cannot be read.
+     */
+    public synchronized boolean restore() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        TopicManager tm = TopicManagerSingleton.get();
+        try (DataInputStream in = open()) {
+            in.readLong();
+            readString(in);
+
+            int topicCount = in.readInt();
+            for (int i = 0; i < topicCount; i++) {
+                String name = readString(in);
+                Message msg = readMessage(in);
+                Topic topic = tm.getTopics().get(name);
+                if (topic != null) {
+                    topic.restoreLastMessage(msg);
+                }
+            }
+
+            Map<String, StatefulAgent> agents = findStatefulAgents();
+            int agentCount = in.readInt();
+            for (int i = 0; i < agentCount; i++) {
+                String key = readString(in);
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                StatefulAgent agent = agents.get(key);
+                if (agent != null) {
+                    agent.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts saving a snapshot periodically in a background thread.
+     *
+     * @param period The time between two snapshots.
+     * @param unit The unit of the period.
+     * @param configPath Supplies the path of the deployed configuration at the time of each snapshot.
+     */
+    public synchronized void startPeriodic(long period, TimeUnit unit, Supplier<String> configPath) {
+        stopPeriodic();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                save(configPath.get());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic snapshots, if they were started.
+     */
+    public synchronized void stopPeriodic() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Opens the snapshot file and checks its header.
+     *
+     * @return The input positioned after the header.
+     * @throws IOException If the file cannot be read or is not a snapshot.
+     */
+    private DataInputStream open() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            in.close();
+            throw new IOException(file + " is not a snapshot of a supported version");
+        }
+        return in;
+    }
+
+    /**
+     * Finds the stateful agents of the graph through the topics they subscribe and publish to.
+     * Each agent is keyed by its name and its sorted subscriptions and publications; agents with
+     * the same key are told apart by their order in the configuration, and agents that are not in it
+     * come last, by their names and topics only if they are alone.
+     *
+     * @return The stateful agents by key.
+     */
+    private Map<String, StatefulAgent> findStatefulAgents() {
+        Map<Agent, List<TreeSet<String>>> topicsOfAgents = new IdentityHashMap<>();
+        for (Topic topic : TopicManagerSingleton.get().getTopics().values()) {
+            for (Agent agent : topic.getSubscribers()) {
+                topicsOf(topicsOfAgents, agent).get(0).add(topic.getName());
+            }
+            for (Agent agent : topic.getPublishers()) {
+                topicsOf(topicsOfAgents, agent).get(1).add(topic.getName());
+            }
+        }
+
+        // take the agents in the order of the configuration, the same from one run to the next
+        Map<Agent, Integer> order = new IdentityHashMap<>();
+        for (Agent agent : agentOrder.get()) {
+            order.putIfAbsent(ParallelAgent.unwrap(agent), order.size());
+        }
+        List<Agent> found = new ArrayList<>();
+        for (Agent agent : topicsOfAgents.keySet()) {
+            if (ParallelAgent.unwrap(agent) instanceof StatefulAgent) {
+                found.add(agent);
+            }
+        }
+        found.sort(Comparator.comparingInt(
+                agent -> order.getOrDefault(ParallelAgent.unwrap(agent), Integer.MAX_VALUE)));
+
+        Map<String, StatefulAgent> agents = new HashMap<>();
+        for (Agent wrapper : found) {
+            Agent agent = ParallelAgent.unwrap(wrapper);
+            List<TreeSet<String>> topics = topicsOfAgents.get(wrapper);
+            String key = agent.getName() + "|" + String.join(",", topics.get(0))
+                    + "|" + String.join(",", topics.get(1));
+            int occurrence = 0;
+            while (agents.containsKey(key + "#" + occurrence)) {
+                occurrence++;
+            }
+            agents.put(key + "#" + occurrence, (StatefulAgent) agent);
+        }
+        return agents;
+    }
+
+    /**
+     * Gets the subscriptions and publications collected for an agent, creating them if needed.
+     *
+     * @param topicsOfAgents The collected topics by agent.
+     * @param agent The agent.
+     * @return The subscribed topic names at index 0 and the published topic names at index 1.
+     */
+    private static List<TreeSet<String>> topicsOf(Map<Agent, List<TreeSet<String>>> topicsOfAgents, Agent agent) {
+        return topicsOfAgents.computeIfAbsent(agent, k -> Arrays.asList(new TreeSet<>(), new TreeSet<>()));
+    }
+
+    /**
+     * Writes a message, or its absence, to a snapshot.
+     *
+     * @param out The output to write to.
+     * @param msg The message, or null.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void writeMessage(DataOutput out, Message msg) throws IOException {
+        if (msg == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(msg.data.length);
+        out.write(msg.data);
+    }
+
+    /**
+     * Reads a message written by {@link #writeMessage(DataOutput, Message)}.
+     *
+     * @param in The input to read from.
+     * @return The message, or null if no message was written.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static Message readMessage(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new Message(data);
+    }
+
+    /**
+     * Writes a string, or its absence.
+     *
+     * @param out The output to write to.
+     * @param s The string, or null.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in The input to read from.
+     * @return The string, or null.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,28 @@
+package graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The StatefulAgent interface is implemented by agents whose internal state, such as the last
+ * operands they received, should survive a restart through a {@link Snapshot}.
+ */
+public interface StatefulAgent extends Agent {
+
+    /**
+     * Writes the internal state of the agent.
+     *
+     * @param out The output to write the state to.
+     * @throws IOException If an I/O error occurs.
+     */
+    void saveState(DataOutput out) throws IOException;
+
+    /**
+     * Restores the internal state of the agent, as written by {@link #saveState(DataOutput)}.
+     *
+     * @param in The input to read the state from.
+     * @throws IOException If an I/O error occurs.
+     */
+    void restoreState(DataInput in) throws IOException;
+}
@@ -1,23 +1,86 @@
 package graph;
 
-import java.util.ArrayList;
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Represents a topic that agents can subscribe to or publish messages on.
+ * <p>
+ * Every message published is counted, and the time each subscriber spends in its callback is sampled
+ * once every {@link #CALLBACK_SAMPLE_RATE} messages, see {@link MetricsRegistry}: the histograms count the timed
+ * callbacks only, and the rate is the {@code agent_callback_sample_rate} gauge. Reading the clock costs more than
+ * most callbacks, so timing every one of them would slow the graph down. The time of a callback is the time
+ * until it returns, so it includes whatever runs on the same thread before: the agents downstream it publishes
+ * to that run right away, such as the rest of a fused chain or the agents of the same worker, and the wait for
+ * room in a full queue of a {@link ParallelAgent}. A subscriber that is a parallel agent is timed as the agent
+ * it wraps, under the same name as its queue metrics, see {@link #metricsName(Agent)}.
+ * Subscribers are called within the {@link Trace} of the message, so the messages they publish join it.
+ * A subscriber that starts a chain of unary agents may run the whole chain at once, see {@link ChainFuser}.
+ * </p>
  */
 public class Topic {
 
+    /** One message in this many has the callbacks of its subscribers timed, must be a power of two. */
+    static final int CALLBACK_SAMPLE_RATE = 8;
+
+    /** Builds the name of the callback latency series of an agent. */
+    private static final Function<Object, String> CALLBACK_SERIES =
+            agent -> MetricsRegistry.series("agent_callback_seconds", "agent", metricsName((Agent) agent));
+
+    /** The number of tried publishes that overloaded a queue downstream. */
+    private static final LongAdder overloadedPublishes =
+            MetricsRegistry.get().counter(MetricsRegistry.series("publish_backpressure_total", "status", "overloaded"));
+
+    /** The number of tried publishes rejected for want of a credit. */
+    private static final LongAdder rejectedPublishes =
+            MetricsRegistry.get().counter(MetricsRegistry.series("publish_backpressure_total", "status", "rejected"));
+
+    static {
+        MetricsRegistry.get().gauge("agent_callback_sample_rate", () -> CALLBACK_SAMPLE_RATE);
+    }
+
     /** The name of the topic. */
     public final String name;
 
-    /** List of subscribers to the topic. */
-    private ArrayList<Agent> subs;
+    /** List of subscribers to the topic, safe to modify while messages are being published. */
+    private final List<Agent> subs;
 
-    /** List of publishers to the topic. */
-    private ArrayList<Agent> pubs;
+    /** List of publishers to the topic, safe to modify while messages are being published. */
+    private final List<Agent> pubs;
 
     /** The last message published to the topic. */
-    private Message lastMessage = new Message(0);
+    private volatile Message lastMessage = new Message(0);
+
+    /** The values version of the topic manager when the last message was set, see {@link #getValueVersion()}. */
+    private volatile long valueVersion;
+
+    /** The history of the numeric values published to the topic, or null if it is not kept. */
+    private volatile TopicHistory history;
+
+    /** The number of messages published to the topic. */
+    private final LongAdder publishes;
+
+    /** The number of messages delivered, only used to pick the ones that are timed, so updates may be lost. */
+    private int deliveries;
+
+    /** Incremented whenever the subscribers change, so {@link #callbackTargets} is rebuilt. */
+    private final AtomicLong subsVersion = new AtomicLong();
+
+    /** The subscribers with their callback histograms, or null if not built yet. */
+    private volatile CallbackTargets callbackTargets;
+
+    /** The fused chains starting at subscribers of this topic, by first agent, or null if there are none. */
+    private volatile Map<Agent, ChainFuser.Chain> fusedChains;
 
     /**
      * Constructs a Topic with the specified name.
@@ -25,9 +88,44 @@ public class Topic {
      * @param name The name of the topic.
      */
     Topic(String name) {
+        this(name, false);
+    }
+
+    /**
+     * Constructs a Topic with the specified name, possibly only staged for a configuration being loaded.
+     * A staged topic counts its publishes apart from the metrics, so a load that is given up on leaves no
+     * series behind.
+     *
+     * @param name The name of the topic.
+     * @param staged Whether the topic is staged, see {@link TopicWiring#stage(String)}.
+     */
+    Topic(String name, boolean staged) {
         this.name = name;
-        this.subs = new ArrayList<>();
-        this.pubs = new ArrayList<>();
+        this.subs = new CopyOnWriteArrayList<>();
+        this.pubs = new CopyOnWriteArrayList<>();
+        this.publishes = staged ? new LongAdder() : MetricsRegistry.get().counter(publishesSeries(name));
+    }
+
+    /**
+     * Gets the name of the publish counter series of a topic.
+     *
+     * @param name The name of the topic.
+     * @return The name of the series.
+     */
+    static String publishesSeries(String name) {
+        return MetricsRegistry.series("topic_publishes_total", "topic", name);
+    }
+
+    /**
+     * Gets the name an agent is known by in the metrics, the same as its node in the {@link Graph}. A
+     * {@link ParallelAgent} is known by the name of the agent it wraps.
+     *
+     * @param agent The agent.
+     * @return The name of the agent followed by its identity hash code.
+     */
+    static String metricsName(Agent agent) {
+        Agent named = ParallelAgent.unwrap(agent);
+        return named.getName() + "_" + System.identityHashCode(named);
     }
 
     /**
@@ -40,53 +138,337 @@ public class Topic {
     }
 
     /**
-     * Subscribes an agent to this topic.
+     * Subscribes an agent to this topic, or the {@link ParallelAgent} wrapping it, if any.
      *
      * @param agent The agent to subscribe.
      */
     public void subscribe(Agent agent) {
-        subs.add(agent);
+        agent = TopicWiring.resolve(agent);
+        if (!TopicWiring.record(this, agent, TopicWiring.Kind.SUBSCRIBE)) {
+            subs.add(agent);
+            subsVersion.incrementAndGet();
+            TopicManagerSingleton.get().topologyChanged();
+        }
     }
 
     /**
-     * Unsubscribes an agent from this topic.
+     * Unsubscribes an agent from this topic, or the {@link ParallelAgent} wrapping it, if any.
      *
      * @param agent The agent to unsubscribe.
      */
     public void unsubscribe(Agent agent) {
-        subs.remove(agent);
+        Agent member = TopicWiring.resolve(agent);
+        if (!TopicWiring.record(this, member, TopicWiring.Kind.UNSUBSCRIBE)) {
+            // an agent subscribed before it was wrapped is still subscribed itself
+            if (subs.remove(member) || (member != agent && subs.remove(agent))) {
+                subsVersion.incrementAndGet();
+                TopicManagerSingleton.get().topologyChanged();
+            }
+        }
+    }
+
+    /**
+     * Applies changes recorded by {@link TopicWiring} to the subscribers and publishers of this topic.
+     * Each list is replaced at most twice, removals first. The caller bumps the topology version.
+     *
+     * @param subscribe The agents to subscribe, may be null.
+     * @param unsubscribe The agents to unsubscribe, may be null.
+     * @param addPublishers The publishers to add, may be null.
+     * @param removePublishers The publishers to remove, may be null.
+     */
+    void applyChanges(List<Agent> subscribe, List<Agent> unsubscribe, List<Agent> addPublishers, List<Agent> removePublishers) {
+        TopicWiring.removeEach(subs, unsubscribe);
+        if (subscribe != null) {
+            subs.addAll(subscribe);
+        }
+        subsVersion.incrementAndGet();
+        TopicWiring.removeEach(pubs, removePublishers);
+        if (addPublishers != null) {
+            pubs.addAll(addPublishers);
+        }
     }
 
     /**
      * Publishes a message to all subscribers of this topic.
+     * If the message is published within a {@link PublishBatch} not delivered yet, it is handed to the batch
+     * instead, which publishes it once every topic feeding this one was published.
      *
      * @param msg The message to be published.
      */
     public void publish(Message msg) {
+        PublishBatch batch = PublishBatch.current();
+        if (batch != null && batch.defer(this, msg)) {
+            return;
+        }
+        deliver(msg);
+    }
+
+    /**
+     * Publishes a message to all subscribers of this topic, giving up on it rather than waiting past a timeout.
+     * <p>
+     * The message first takes a publish credit of the {@link TopicManager}, if credits are limited, and is
+     * rejected if none becomes available in time. It is then published as with {@link #publish(Message)}, but
+     * a {@link ParallelAgent} downstream whose queue stays full until the timeout drops the message it is given
+     * instead of blocking this thread. Subscribers that are slow in their own callback are not interrupted.
+     * A message tried while another one is being tried on the same thread is bound by both timeouts and takes
+     * no credit of its own. Within a {@link PublishBatch}, the message is deferred and accepted.
+     * </p>
+     *
+     * @param msg The message to be published.
+     * @param timeout The longest time to wait for a credit and for room in the queues downstream.
+     * @param unit The unit of the timeout.
+     * @return Whether the message was delivered in time, see {@link PublishStatus}.
+     */
+    public PublishStatus tryPublish(Message msg, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        PublishDeadline current = PublishDeadline.current();
+        long outerDeadline = current.nanos;
+        boolean outerMissed = current.missed;
+
+        // Take a credit, unless an outer tried publish of this thread already holds one
+        Semaphore credits = outerDeadline == 0 ? TopicManagerSingleton.get().getPublishCredits() : null;
+        if (credits != null) {
+            boolean acquired;
+            try {
+                acquired = credits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                rejectedPublishes.increment();
+                return PublishStatus.REJECTED;
+            }
+        }
+
+        current.nanos = outerDeadline != 0 ? Math.min(outerDeadline, deadline) : deadline;
+        current.missed = false;
+        try {
+            publish(msg);
+            if (current.missed) {
+                overloadedPublishes.increment();
+                return PublishStatus.OVERLOADED;
+            }
+            return PublishStatus.ACCEPTED;
+        } finally {
+            current.missed |= outerMissed;
+            current.nanos = outerDeadline;
+            if (outerDeadline == 0) {
+                current.missed = false;
+            }
+            if (credits != null) {
+                credits.release();
+            }
+        }
+    }
+
+    /**
+     * Sets the last message and delivers a message to all subscribers of this topic.
+     *
+     * @param msg The message to be delivered.
+     */
+    void deliver(Message msg) {
+        setValue(msg);
+
+        // Record how long a sampled trace took to get here, then deliver within the trace of the message
+        Trace trace = msg.trace;
+        long now = 0;
+        if (trace.sampled) {
+            now = System.nanoTime();
+            PropagationStats.record(msg, this.name, now);
+        }
+        Trace.Context context = Trace.context();
+        Trace outerTrace = context.trace;
+        String outerTopic = context.topic;
+        long outerNanos = context.nanos;
+        context.set(trace, this.name, now);
+        try {
+            callSubscribers(msg);
+        } finally {
+            context.set(outerTrace, outerTopic, outerNanos);
+        }
+    }
+
+    /**
+     * Sets the last message of this topic as if it was published, recording it in the history and the journal
+     * and notifying the listeners, but without delivering it to the subscribers. Used by {@link #deliver} and
+     * for the topics inside a fused chain, see {@link ChainFuser}.
+     *
+     * @param msg The message.
+     */
+    void setValue(Message msg) {
         // Set the last message using the message passed in
+        TopicManager tm = TopicManagerSingleton.get();
         lastMessage = msg;
+        valueVersion = tm.nextValuesVersion();
+
+        // Record the value in the history, if kept
+        TopicHistory history = this.history;
+        if (history != null && !Double.isNaN(msg.asDouble)) {
+            history.record(msg.asDouble);
+        }
 
-        for (Agent agent : subs) {
+        // Append the message to the journal, if enabled
+        MessageJournal journal = tm.getJournal();
+        if (journal != null) {
+            journal.append(this.name, msg);
+        }
+
+        // Notify the listeners of all topics
+        tm.firePublished(this, msg);
+
+        publishes.increment();
+    }
+
+    /**
+     * Calls the callbacks of the subscribers, timing them for one message in {@link #CALLBACK_SAMPLE_RATE}.
+     *
+     * @param msg The message to be delivered.
+     */
+    private void callSubscribers(Message msg) {
+        Map<Agent, ChainFuser.Chain> chains = this.fusedChains;
+        if ((deliveries++ & (CALLBACK_SAMPLE_RATE - 1)) != 0) {
+            if (chains == null) {
+                for (Agent agent : subs) {
+                    agent.callback(this.name, msg);
+                }
+            } else {
+                for (Agent agent : subs) {
+                    call(agent, chains, msg);
+                }
+            }
+            return;
+        }
+
+        // The end of a callback is the start of the next one, so the clock is read once per subscriber
+        CallbackTargets targets = callbackTargets();
+        long start = System.nanoTime();
+        for (int i = 0; i < targets.agents.length; i++) {
+            call(targets.agents[i], chains, msg);
+            long end = System.nanoTime();
+            targets.histograms[i].record(end - start);
+            start = end;
+        }
+    }
+
+    /**
+     * Calls the callback of a subscriber, or runs the fused chain starting at it.
+     *
+     * @param agent The subscriber.
+     * @param chains The fused chains of this topic, may be null.
+     * @param msg The message to be delivered.
+     */
+    private void call(Agent agent, Map<Agent, ChainFuser.Chain> chains, Message msg) {
+        ChainFuser.Chain chain = chains != null ? chains.get(agent) : null;
+        if (chain == null || !chain.run(msg)) {
             agent.callback(this.name, msg);
         }
     }
 
     /**
-     * Adds a publisher to this topic.
+     * Runs the fused chain starting at a parallel agent subscribed to this topic, for a message taken out of the
+     * queue of the agent by its worker, see {@link ChainFuser}.
+     *
+     * @param agent The parallel agent.
+     * @param msg The message.
+     * @return false if no chain starts at the agent or it cannot run now, in which case the wrapped agent must be
+     *         called instead.
+     */
+    boolean runQueuedChain(ParallelAgent agent, Message msg) {
+        Map<Agent, ChainFuser.Chain> chains = this.fusedChains;
+        ChainFuser.Chain chain = chains != null ? chains.get(agent) : null;
+        return chain != null && chain.runQueued(msg);
+    }
+
+    /**
+     * Sets the fused chains starting at subscribers of this topic, see {@link ChainFuser}.
+     *
+     * @param chains The chains by first agent, or null if there are none.
+     */
+    void setFusedChains(Map<Agent, ChainFuser.Chain> chains) {
+        fusedChains = chains;
+    }
+
+    /**
+     * Gets the subscribers with their callback histograms, building them again if the subscribers changed.
+     *
+     * @return The subscribers and histograms.
+     */
+    private CallbackTargets callbackTargets() {
+        long version = subsVersion.get();
+        CallbackTargets targets = callbackTargets;
+        if (targets == null || targets.version != version) {
+            targets = new CallbackTargets(version, subs.toArray(new Agent[0]));
+            callbackTargets = targets;
+        }
+        return targets;
+    }
+
+    /**
+     * Starts keeping a history of the numeric values published to this topic, replacing any existing history.
+     *
+     * @param capacity The maximum number of values kept.
+     * @param maxAgeMillis The maximum age of the values returned by queries in milliseconds, or 0 for no limit.
+     */
+    public void enableHistory(int capacity, long maxAgeMillis) {
+        history = new TopicHistory(capacity, maxAgeMillis);
+    }
+
+    /**
+     * Stops keeping a history of the values published to this topic.
+     */
+    public void disableHistory() {
+        history = null;
+    }
+
+    /**
+     * Gets the history of the numeric values published to this topic.
+     *
+     * @return The history, or null if it is not kept.
+     */
+    public TopicHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Sets the last message of this topic without publishing it to the subscribers.
+     * Used when restoring a {@link Snapshot}.
+     *
+     * @param msg The message to set as the last message.
+     */
+    void restoreLastMessage(Message msg) {
+        if (msg != null) {
+            lastMessage = msg;
+            valueVersion = TopicManagerSingleton.get().nextValuesVersion();
+        }
+    }
+
+    /**
+     * Adds a publisher to this topic, or the {@link ParallelAgent} wrapping it, if any.
      *
      * @param agent The agent to add as a publisher.
      */
     public void addPublisher(Agent agent) {
-        pubs.add(agent);
+        agent = TopicWiring.resolve(agent);
+        if (!TopicWiring.record(this, agent, TopicWiring.Kind.ADD_PUBLISHER)) {
+            pubs.add(agent);
+            TopicManagerSingleton.get().topologyChanged();
+        }
     }
 
     /**
-     * Removes a publisher from this topic.
+     * Removes a publisher from this topic, or the {@link ParallelAgent} wrapping it, if any.
      *
      * @param agent The agent to remove as a publisher.
      */
     public void removePublisher(Agent agent) {
-        pubs.remove(agent);
+        Agent member = TopicWiring.resolve(agent);
+        if (!TopicWiring.record(this, member, TopicWiring.Kind.REMOVE_PUBLISHER)) {
+            // an agent added before it was wrapped is still a publisher itself
+            if (pubs.remove(member) || (member != agent && pubs.remove(agent))) {
+                TopicManagerSingleton.get().topologyChanged();
+            }
+        }
     }
 
     /**
@@ -94,7 +476,7 @@ public class Topic {
      *
      * @return The list of subscribers.
      */
-    public ArrayList<Agent> getSubscribers() {
+    public List<Agent> getSubscribers() {
         return subs;
     }
 
@@ -103,7 +485,7 @@ public class Topic {
      *
      * @return The list of publishers.
      */
-    public ArrayList<Agent> getPublishers() {
+    public List<Agent> getPublishers() {
         return pubs;
     }
 
@@ -115,4 +497,42 @@ public class Topic {
     public Message getLastMessage() {
         return lastMessage;
     }
+
+    /**
+     * Gets the version of the last message of this topic. It is the values version of the
+     * {@link TopicManager} at the time the message was set, so it changes whenever the last message does.
+     *
+     * @return The version of the last message, 0 if no message was published yet.
+     */
+    public long getValueVersion() {
+        return valueVersion;
+    }
+
+    /**
+     * A snapshot of the subscribers of a topic with the histograms their callbacks are timed into.
+     */
+    private static final class CallbackTargets {
+        /** The version of the subscribers the snapshot was taken at. */
+        final long version;
+        /** The subscribers. */
+        final Agent[] agents;
+        /** The callback histogram of each subscriber, owned by the agent it runs. */
+        final LatencyHistogram[] histograms;
+
+        /**
+         * Constructs a CallbackTargets.
+         *
+         * @param version The version of the subscribers.
+         * @param agents The subscribers.
+         */
+        CallbackTargets(long version, Agent[] agents) {
+            this.version = version;
+            this.agents = agents;
+            this.histograms = new LatencyHistogram[agents.length];
+            MetricsRegistry metrics = MetricsRegistry.get();
+            for (int i = 0; i < agents.length; i++) {
+                histograms[i] = metrics.histogramOf(ParallelAgent.unwrap(agents[i]), CALLBACK_SERIES);
+            }
+        }
+    }
 }
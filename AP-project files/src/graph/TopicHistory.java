@@ -0,0 +1,245 @@
+package graph;
+
+/**
+ * A bounded history of the numeric values published to a topic.
+ * <p>
+ * The history keeps the last values in a ring of primitive (time, value) pairs, so its memory cost
+ * is fixed by its capacity. Values older than the maximum age, if one is set, are ignored by queries
+ * and overwritten as new values arrive.
+ * </p>
+ * <p>
+ * Times are wall-clock milliseconds, the clock queries are given in. Queries search the ring by time,
+ * so its times never go back: a time earlier than the last one recorded, as when the clock is set back,
+ * is raised to it.
+ * </p>
+ */
+public class TopicHistory {
+
+    /** The publication times of the values, in milliseconds. */
+    private final long[] times;
+    /** The published values. */
+    private final double[] values;
+    /** The maximum age of the values returned by queries in milliseconds, or 0 for no limit. */
+    private final long maxAgeMillis;
+    /** The index the next value is written at. */
+    private int next = 0;
+    /** The number of values held. */
+    private int size = 0;
+
+    /**
+     * Constructs an empty TopicHistory.
+     *
+     * @param capacity The maximum number of values kept.
+     * @param maxAgeMillis The maximum age of the values returned by queries in milliseconds, or 0 for no limit.
+     */
+    public TopicHistory(int capacity, long maxAgeMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Records a value published now, overwriting the oldest one if the history is full.
+     *
+     * @param value The value.
+     */
+    public synchronized void record(double value) {
+        record(System.currentTimeMillis(), value);
+    }
+
+    /**
+     * Records a value, overwriting the oldest one if the history is full.
+     *
+     * @param timeMillis The publication time of the value, in milliseconds.
+     * @param value The value.
+     */
+    public synchronized void record(long timeMillis, double value) {
+        if (size > 0) {
+            // keep the ring sorted by time
+            timeMillis = Math.max(timeMillis, times[(next + times.length - 1) % times.length]);
+        }
+        times[next] = timeMillis;
+        values[next] = value;
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Gets the values published between two times, oldest first.
+     *
+     * @param fromMillis The start of the range, inclusive.
+     * @param toMillis The end of the range, inclusive.
+     * @return The values in the range.
+     */
+    public synchronized Samples range(long fromMillis, long toMillis) {
+        int first = firstIndexFrom(Math.max(fromMillis, oldestAllowed()));
+        int count = 0;
+        while (first + count < size && timeAt(first + count) <= toMillis) {
+            count++;
+        }
+        Samples samples = new Samples(count);
+        for (int i = 0; i < count; i++) {
+            int slot = slot(first + i);
+            samples.times[i] = times[slot];
+            samples.values[i] = values[slot];
+            samples.min[i] = values[slot];
+            samples.max[i] = values[slot];
+        }
+        return samples;
+    }
+
+    /**
+     * Gets the values published between two times, reduced to at most the given number of points.
+     * The range is split into equal buckets and each non-empty bucket gives one point holding the
+     * mean, minimum and maximum of its values, at the time of the middle of the bucket.
+     *
+     * @param fromMillis The start of the range, inclusive.
+     * @param toMillis The end of the range, inclusive.
+     * @param points The maximum number of points.
+     * @return The downsampled values in the range.
+     */
+    public synchronized Samples downsample(long fromMillis, long toMillis, int points) {
+        if (points <= 0 || toMillis < fromMillis) {
+            return new Samples(0);
+        }
+        double bucketWidth = (double) (toMillis - fromMillis + 1) / points;
+        double[] sum = new double[points];
+        double[] min = new double[points];
+        double[] max = new double[points];
+        int[] count = new int[points];
+
+        for (int i = firstIndexFrom(Math.max(fromMillis, oldestAllowed())); i < size && timeAt(i) <= toMillis; i++) {
+            int bucket = (int) Math.min(points - 1, (timeAt(i) - fromMillis) / bucketWidth);
+            double value = values[slot(i)];
+            if (count[bucket] == 0) {
+                min[bucket] = value;
+                max[bucket] = value;
+            } else {
+                min[bucket] = Math.min(min[bucket], value);
+                max[bucket] = Math.max(max[bucket], value);
+            }
+            sum[bucket] += value;
+            count[bucket]++;
+        }
+
+        int nonEmpty = 0;
+        for (int c : count) {
+            if (c > 0) {
+                nonEmpty++;
+            }
+        }
+        Samples samples = new Samples(nonEmpty);
+        int j = 0;
+        for (int bucket = 0; bucket < points; bucket++) {
+            if (count[bucket] > 0) {
+                samples.times[j] = fromMillis + (long) ((bucket + 0.5) * bucketWidth);
+                samples.values[j] = sum[bucket] / count[bucket];
+                samples.min[j] = min[bucket];
+                samples.max[j] = max[bucket];
+                j++;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Gets the number of values held, including values older than the maximum age.
+     *
+     * @return The number of values.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the oldest time returned by queries.
+     *
+     * @return The oldest allowed time in milliseconds.
+     */
+    private long oldestAllowed() {
+        return maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+    }
+
+    /**
+     * Finds the first value published at or after a time, with a binary search over the ring.
+     * Values are recorded in publication order, so the ring is sorted from its oldest value.
+     *
+     * @param fromMillis The time.
+     * @return The logical index (0 is the oldest value) of the first value at or after the time.
+     */
+    private int firstIndexFrom(long fromMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeAt(mid) < fromMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the time of a value by logical index.
+     *
+     * @param index The logical index, 0 being the oldest value.
+     * @return The publication time.
+     */
+    private long timeAt(int index) {
+        return times[slot(index)];
+    }
+
+    /**
+     * Converts a logical index to an index in the ring arrays.
+     *
+     * @param index The logical index, 0 being the oldest value.
+     * @return The index in the arrays.
+     */
+    private int slot(int index) {
+        int oldest = size < times.length ? 0 : next;
+        return (oldest + index) % times.length;
+    }
+
+    /**
+     * Values returned by a history query, as parallel arrays.
+     * For raw values, min and max are equal to the values.
+     */
+    public static final class Samples {
+        /** The times of the values in milliseconds. */
+        public final long[] times;
+        /** The values, or the mean value of each bucket. */
+        public final double[] values;
+        /** The minimum value of each bucket. */
+        public final double[] min;
+        /** The maximum value of each bucket. */
+        public final double[] max;
+
+        /**
+         * Constructs Samples of the given size.
+         *
+         * @param size The number of values.
+         */
+        Samples(int size) {
+            times = new long[size];
+            values = new double[size];
+            min = new double[size];
+            max = new double[size];
+        }
+
+        /**
+         * Gets the number of values.
+         *
+         * @return The number of values.
+         */
+        public int size() {
+            return times.length;
+        }
+    }
+}
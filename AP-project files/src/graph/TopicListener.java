@@ -0,0 +1,19 @@
+package graph;
+
+/**
+ * The TopicListener interface is notified of every message published to any topic of the
+ * {@link TopicManagerSingleton.TopicManager}, without having to subscribe to each topic.
+ * <p>
+ * Listeners are called synchronously by the publishing thread, so they should return quickly.
+ * </p>
+ */
+public interface TopicListener {
+
+    /**
+     * Called after a message was published to a topic.
+     *
+     * @param topic The topic the message was published to.
+     * @param msg The published message.
+     */
+    void onPublish(Topic topic, Message msg);
+}
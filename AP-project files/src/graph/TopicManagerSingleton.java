@@ -1,6 +1,12 @@
 package graph;
 
+import metrics.MetricsRegistry;
+
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A singleton class for managing topics.
@@ -18,6 +24,37 @@ public class TopicManagerSingleton {
         /** A concurrent hashmap to store topics by name. */
         private ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
 
+        /** The journal every published message is appended to, or null if journaling is disabled. */
+        private volatile MessageJournal journal;
+
+        /** The capacity of the history kept by every topic, or 0 if no history is kept. */
+        private volatile int historyCapacity = 0;
+
+        /** The maximum age of the history kept by every topic in milliseconds, or 0 for no limit. */
+        private volatile long historyMaxAgeMillis = 0;
+
+        /** The listeners notified of every published message. */
+        private final CopyOnWriteArrayList<TopicListener> listeners = new CopyOnWriteArrayList<>();
+
+        /** The version of the topology, bumped whenever a topic, a subscriber or a publisher is added or removed. */
+        private final AtomicLong topologyVersion = new AtomicLong();
+
+        /** The version of the topic values, bumped whenever a message is set on any topic. */
+        private final AtomicLong valuesVersion = new AtomicLong();
+
+        /**
+         * The lock guarding the whole graph: configurations are committed under the write lock, and
+         * messages published from outside the graph (such as HTTP requests) are published under the read lock,
+         * so they never reach a configuration that is half committed.
+         */
+        private final ReentrantReadWriteLock graphLock = new ReentrantReadWriteLock();
+
+        /**
+         * The credits taken by {@link Topic#tryPublish(Message, long, java.util.concurrent.TimeUnit)}, one per
+         * message being tried, or null if any number of messages may be tried at once.
+         */
+        private volatile Semaphore publishCredits;
+
         /** Private constructor to prevent instantiation. */
         private TopicManager() {}
 
@@ -28,7 +65,46 @@ public class TopicManagerSingleton {
          * @return The topic with the specified name.
          */
         public Topic getTopic(String name) {
-            return topics.computeIfAbsent(name, Topic::new);
+            Topic topic = topics.get(name);
+            if (topic != null) {
+                return topic;
+            }
+            // a configuration being loaded only stages its new topics until it is committed
+            Topic staged = TopicWiring.stage(name);
+            return staged != null ? staged : topics.computeIfAbsent(name, this::newTopic);
+        }
+
+        /**
+         * Creates a topic, keeping a history of its values if histories are enabled.
+         *
+         * @param name The name of the topic.
+         * @return The new topic.
+         */
+        private Topic newTopic(String name) {
+            Topic topic = new Topic(name);
+            if (historyCapacity > 0) {
+                topic.enableHistory(historyCapacity, historyMaxAgeMillis);
+            }
+            topologyChanged();
+            return topic;
+        }
+
+        /**
+         * Makes every existing and future topic keep a history of its numeric values.
+         *
+         * @param capacity The maximum number of values kept per topic, or 0 to stop keeping histories.
+         * @param maxAgeMillis The maximum age of the values returned by queries in milliseconds, or 0 for no limit.
+         */
+        public void enableHistory(int capacity, long maxAgeMillis) {
+            historyCapacity = capacity;
+            historyMaxAgeMillis = maxAgeMillis;
+            for (Topic topic : topics.values()) {
+                if (capacity > 0) {
+                    topic.enableHistory(capacity, maxAgeMillis);
+                } else {
+                    topic.disableHistory();
+                }
+            }
         }
 
         /**
@@ -41,10 +117,149 @@ public class TopicManagerSingleton {
         }
 
         /**
-         * Clears all topics from the map.
+         * Clears all topics from the map, and drops their metrics and the metrics of their subscribers.
          */
         public void clear() {
+            MetricsRegistry metrics = MetricsRegistry.get();
+            for (Topic topic : topics.values()) {
+                metrics.remove(Topic.publishesSeries(topic.getName()));
+                for (Agent agent : topic.getSubscribers()) {
+                    metrics.forget(ParallelAgent.unwrap(agent));
+                }
+            }
             topics.clear();
+            PropagationStats.clear();
+            topologyChanged();
+        }
+
+        /**
+         * Removes a topic from the map if no agent subscribes or publishes to it anymore.
+         *
+         * @param name The name of the topic.
+         */
+        public void removeTopicIfUnused(String name) {
+            topics.computeIfPresent(name, (k, topic) -> {
+                if (topic.getSubscribers().isEmpty() && topic.getPublishers().isEmpty()) {
+                    MetricsRegistry.get().remove(Topic.publishesSeries(name));
+                    PropagationStats.remove(name);
+                    topologyChanged();
+                    return null;
+                }
+                return topic;
+            });
+        }
+
+        /**
+         * Gets the lock guarding the whole graph. Publish messages coming from outside the graph under its
+         * read lock; configurations are committed under its write lock.
+         *
+         * @return The graph lock.
+         */
+        public ReentrantReadWriteLock getGraphLock() {
+            return graphLock;
+        }
+
+        /**
+         * Limits the number of messages tried at once with {@link Topic#tryPublish(Message, long, java.util.concurrent.TimeUnit)}.
+         * Subscribers are called on the publishing thread, so this bounds the threads a slow graph can hold,
+         * such as the workers of the HTTP server. Messages already being tried keep their credits.
+         *
+         * @param credits The number of messages tried at once, or 0 for no limit.
+         */
+        public void setPublishCredits(int credits) {
+            publishCredits = credits > 0 ? new Semaphore(credits) : null;
+        }
+
+        /**
+         * Gets the credits taken by tried publishes.
+         *
+         * @return The credits, or null if there is no limit.
+         */
+        Semaphore getPublishCredits() {
+            return publishCredits;
+        }
+
+        /**
+         * Gets the version of the topology, which changes whenever a topic, a subscriber or a publisher
+         * is added or removed.
+         *
+         * @return The topology version.
+         */
+        public long getTopologyVersion() {
+            return topologyVersion.get();
+        }
+
+        /**
+         * Bumps the version of the topology.
+         */
+        void topologyChanged() {
+            topologyVersion.incrementAndGet();
+        }
+
+        /**
+         * Gets the version of the topic values, which changes whenever a message is set on any topic.
+         *
+         * @return The values version.
+         */
+        public long getValuesVersion() {
+            return valuesVersion.get();
+        }
+
+        /**
+         * Bumps the version of the topic values.
+         *
+         * @return The new values version.
+         */
+        long nextValuesVersion() {
+            return valuesVersion.incrementAndGet();
+        }
+
+        /**
+         * Adds a listener notified of every message published to any topic.
+         *
+         * @param listener The listener to add.
+         */
+        public void addListener(TopicListener listener) {
+            listeners.add(listener);
+        }
+
+        /**
+         * Removes a listener added with {@link #addListener(TopicListener)}.
+         *
+         * @param listener The listener to remove.
+         */
+        public void removeListener(TopicListener listener) {
+            listeners.remove(listener);
+        }
+
+        /**
+         * Notifies the listeners that a message was published to a topic.
+         *
+         * @param topic The topic.
+         * @param msg The published message.
+         */
+        void firePublished(Topic topic, Message msg) {
+            for (TopicListener listener : listeners) {
+                listener.onPublish(topic, msg);
+            }
+        }
+
+        /**
+         * Sets the journal every published message is appended to.
+         *
+         * @param journal The journal, or null to disable journaling.
+         */
+        public void setJournal(MessageJournal journal) {
+            this.journal = journal;
+        }
+
+        /**
+         * Gets the journal every published message is appended to.
+         *
+         * @return The journal, or null if journaling is disabled.
+         */
+        public MessageJournal getJournal() {
+            return journal;
         }
 
         /**
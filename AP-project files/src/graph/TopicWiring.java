@@ -0,0 +1,226 @@
+package graph;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records changes to topic subscriptions and publishers instead of applying them right away.
+ * <p>
+ * Agents subscribe to their topics from their constructors, and unsubscribe from their {@code close()}.
+ * When a configuration is loaded, the changes made by those calls are recorded on the calling threads
+ * and committed later, all at once, by whoever started the recording. Topics asked for while recording
+ * that do not exist yet are staged rather than added to the {@link TopicManager}, so nothing of a
+ * configuration being loaded is visible before it is committed.
+ * </p>
+ * <p>
+ * An agent wrapped by a {@link ParallelAgent} is stood for by it: its changes are made to, or recorded for, the
+ * parallel agent, so the topics call the parallel agent. The changes recorded before the agent was wrapped,
+ * from its constructor, are moved to the parallel agent with {@link #resolveAll(List)}.
+ * </p>
+ */
+final class TopicWiring {
+
+    /** The kinds of changes to a topic. */
+    enum Kind { SUBSCRIBE, UNSUBSCRIBE, ADD_PUBLISHER, REMOVE_PUBLISHER }
+
+    /** A recorded change to a topic. */
+    static final class Change {
+        /** The name of the topic. */
+        final String topic;
+        /** The agent subscribed, unsubscribed, added or removed. */
+        final Agent agent;
+        /** The kind of change. */
+        final Kind kind;
+
+        /**
+         * Constructs a Change.
+         *
+         * @param topic The name of the topic.
+         * @param agent The agent.
+         * @param kind The kind of change.
+         */
+        Change(String topic, Agent agent, Kind kind) {
+            this.topic = topic;
+            this.agent = agent;
+            this.kind = kind;
+        }
+    }
+
+    /** The recording of the current thread, or null if the thread is not recording. */
+    private static final ThreadLocal<Recording> recording = new ThreadLocal<>();
+
+    /** The parallel agent standing for every wrapped agent, by wrapped agent. */
+    private static final Map<Agent, Agent> wrappers = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /** Private constructor to prevent instantiation. */
+    private TopicWiring() {}
+
+    /**
+     * Records a change to a topic if the current thread is recording.
+     *
+     * @param topic The topic.
+     * @param agent The agent.
+     * @param kind The kind of change.
+     * @return true if the change was recorded, false if the caller must apply it.
+     */
+    static boolean record(Topic topic, Agent agent, Kind kind) {
+        Recording current = recording.get();
+        if (current == null) {
+            return false;
+        }
+        current.changes.add(new Change(topic.getName(), agent, kind));
+        return true;
+    }
+
+    /**
+     * Has a parallel agent stand for the agent it wraps in the topics from now on.
+     *
+     * @param agent The wrapped agent.
+     * @param wrapper The parallel agent.
+     */
+    static void wrap(Agent agent, Agent wrapper) {
+        wrappers.put(agent, wrapper);
+    }
+
+    /**
+     * Stops having a parallel agent stand for an agent, once the agent is closed.
+     *
+     * @param agent The wrapped agent.
+     */
+    static void unwrap(Agent agent) {
+        wrappers.remove(agent);
+    }
+
+    /**
+     * Gets the agent standing for an agent in the topics.
+     *
+     * @param agent The agent.
+     * @return The parallel agent wrapping it, or the agent itself if it is not wrapped.
+     */
+    static Agent resolve(Agent agent) {
+        Agent wrapper = wrappers.get(agent);
+        return wrapper != null ? wrapper : agent;
+    }
+
+    /**
+     * Moves recorded changes to the parallel agents that wrapped their agents since they were recorded.
+     *
+     * @param changes The changes, in the order they were made.
+     * @return The changes, made by the agents standing for theirs, in the same order.
+     */
+    static List<Change> resolveAll(List<Change> changes) {
+        List<Change> resolved = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            Agent agent = resolve(change.agent);
+            resolved.add(agent == change.agent ? change : new Change(change.topic, agent, change.kind));
+        }
+        return resolved;
+    }
+
+    /**
+     * Gets a staged topic if the current thread is recording. Staged topics only stand for the topics
+     * a configuration will create, changes recorded on them are applied to the real topic on commit.
+     *
+     * @param name The name of the topic.
+     * @return The staged topic, or null if the current thread is not recording.
+     */
+    static Topic stage(String name) {
+        Recording current = recording.get();
+        if (current == null) {
+            return null;
+        }
+        return current.staged.computeIfAbsent(name, k -> new Topic(k, true));
+    }
+
+    /**
+     * Starts recording the topic changes made by the current thread.
+     *
+     * @param staged The topics staged by this recording, shared by all the threads recording the same configuration.
+     */
+    static void startRecording(Map<String, Topic> staged) {
+        recording.set(new Recording(staged));
+    }
+
+    /**
+     * Stops recording the topic changes made by the current thread.
+     *
+     * @return The recorded changes, in the order they were made.
+     */
+    static List<Change> stopRecording() {
+        Recording current = recording.get();
+        recording.remove();
+        return current != null ? current.changes : new ArrayList<>();
+    }
+
+    /**
+     * Applies recorded changes, grouped by topic so each topic list is replaced only a few times.
+     * Topics that do not exist are created. The topology version is bumped once.
+     *
+     * @param changes The changes, in the order they were made.
+     */
+    static void commit(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Map<String, EnumMap<Kind, List<Agent>>> byTopic = new LinkedHashMap<>();
+        for (Change change : changes) {
+            byTopic.computeIfAbsent(change.topic, t -> new EnumMap<>(Kind.class))
+                    .computeIfAbsent(change.kind, k -> new ArrayList<>())
+                    .add(change.agent);
+        }
+        TopicManager tm = TopicManagerSingleton.get();
+        for (Map.Entry<String, EnumMap<Kind, List<Agent>>> entry : byTopic.entrySet()) {
+            EnumMap<Kind, List<Agent>> lists = entry.getValue();
+            tm.getTopic(entry.getKey()).applyChanges(
+                    lists.get(Kind.SUBSCRIBE), lists.get(Kind.UNSUBSCRIBE),
+                    lists.get(Kind.ADD_PUBLISHER), lists.get(Kind.REMOVE_PUBLISHER));
+        }
+        tm.topologyChanged();
+    }
+
+    /**
+     * Removes one occurrence of each of the given agents from a list, in a single replacement of the list.
+     *
+     * @param list The list, replaced as a whole by {@code removeIf}.
+     * @param removed The agents to remove, may be null.
+     */
+    static void removeEach(List<Agent> list, List<Agent> removed) {
+        if (removed == null || removed.isEmpty()) {
+            return;
+        }
+        Map<Agent, int[]> counts = new IdentityHashMap<>();
+        for (Agent agent : removed) {
+            counts.computeIfAbsent(agent, a -> new int[1])[0]++;
+        }
+        list.removeIf(agent -> {
+            int[] count = counts.get(agent);
+            return count != null && count[0]-- > 0;
+        });
+    }
+
+    /**
+     * The changes and staged topics of a recording thread.
+     */
+    private static final class Recording {
+        /** The recorded changes. */
+        final List<Change> changes = new ArrayList<>();
+        /** The staged topics. */
+        final Map<String, Topic> staged;
+
+        /**
+         * Constructs a Recording.
+         *
+         * @param staged The staged topics.
+         */
+        Recording(Map<String, Topic> staged) {
+            this.staged = staged;
+        }
+    }
+}
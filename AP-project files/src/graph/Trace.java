@@ -0,0 +1,150 @@
+package graph;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The causal trace of a value flowing through the graph.
+ * <p>
+ * A message created outside of any callback starts a new trace. A message created while a topic delivers to its
+ * subscribers, such as the result an agent publishes from its callback, belongs to the trace of the message
+ * being delivered and remembers the topic and time of that delivery. The {@link Message} constructor picks
+ * the trace up from the current thread, so agents carry it without any change. {@link ParallelAgent} restores
+ * it on its own thread.
+ * </p>
+ * <p>
+ * One trace in {@link #SAMPLE_RATE} is sampled, at random: only the deliveries of sampled traces read the clock and are
+ * recorded in the {@link PropagationStats}, so following every value costs no more than a thread-local read.
+ * </p>
+ */
+public final class Trace {
+
+    /** One trace in this many is sampled. */
+    public static final int SAMPLE_RATE = 8;
+
+    /** The last trace id given. */
+    private static final AtomicLong lastId = new AtomicLong();
+
+    /** The delivery being made by the current thread. */
+    private static final ThreadLocal<Context> context = ThreadLocal.withInitial(Context::new);
+
+    /** The id of the trace. */
+    public final long id;
+
+    /** Whether the deliveries of the trace are timed. */
+    public final boolean sampled;
+
+    /** The time the trace started, in {@link System#nanoTime()} nanoseconds, or 0 if it is not sampled. */
+    public final long originNanos;
+
+    /** Whether the trace was started by a {@link MessageJournal#replay(long) replay} of the journal. */
+    public final boolean replayed;
+
+    /** The batch whose messages belong to the trace, or null. */
+    final PublishBatch batch;
+
+    /** The first topic the trace was delivered on, set on its first sampled delivery. */
+    private volatile String originTopic;
+
+    /**
+     * Constructs a new trace.
+     *
+     * @param replayed Whether the trace is started by a replay of the journal, in which case it is not sampled.
+     * @param batch The batch whose messages belong to the trace, or null.
+     */
+    private Trace(boolean replayed, PublishBatch batch) {
+        this.id = lastId.incrementAndGet();
+        this.replayed = replayed;
+        this.batch = batch;
+        // Drawn at random rather than from the id, so publishers taking turns are sampled alike
+        this.sampled = !replayed && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+        this.originNanos = sampled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Starts the trace of a message replayed from the journal.
+     *
+     * @return The new trace.
+     */
+    static Trace replay() {
+        return new Trace(true, null);
+    }
+
+    /**
+     * Starts the trace of the messages of a {@link PublishBatch}.
+     *
+     * @param batch The batch.
+     * @return The new trace.
+     */
+    static Trace batch(PublishBatch batch) {
+        return new Trace(false, batch);
+    }
+
+    /**
+     * Gets the first topic the trace was delivered on.
+     *
+     * @return The topic name, or null if the trace is not sampled or was not delivered yet.
+     */
+    public String getOriginTopic() {
+        return originTopic;
+    }
+
+    /**
+     * Sets the first topic the trace was delivered on, unless already set.
+     *
+     * @param topic The topic name.
+     * @return The first topic the trace was delivered on.
+     */
+    String originTopic(String topic) {
+        String origin = originTopic;
+        if (origin == null) {
+            originTopic = topic;
+            origin = topic;
+        }
+        return origin;
+    }
+
+    /**
+     * Gets the delivery being made by the current thread.
+     *
+     * @return The context of the current thread, its trace is null outside of any delivery.
+     */
+    static Context context() {
+        return context.get();
+    }
+
+    /**
+     * The delivery a thread is making, picked up by the messages it creates. It is mutable and saved and
+     * restored around nested deliveries, so delivering never allocates.
+     */
+    static final class Context {
+        /** The trace of the message being delivered, or null outside of any delivery. */
+        Trace trace;
+        /** The topic delivering the message. */
+        String topic;
+        /** The time of the delivery, or 0 if the trace is not sampled. */
+        long nanos;
+
+        /**
+         * Sets the delivery being made.
+         *
+         * @param trace The trace, or null outside of any delivery.
+         * @param topic The topic.
+         * @param nanos The time of the delivery.
+         */
+        void set(Trace trace, String topic, long nanos) {
+            this.trace = trace;
+            this.topic = topic;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Gets the trace of a new message: the trace being delivered, or a new one.
+         *
+         * @return The trace.
+         */
+        Trace traceOfNewMessage() {
+            return trace != null ? trace : new Trace(false, null);
+        }
+    }
+}
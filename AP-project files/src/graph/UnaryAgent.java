@@ -0,0 +1,32 @@
+package graph;
+
+/**
+ * The UnaryAgent interface is implemented by agents that subscribe to a single topic and publish to a single
+ * topic, computing each message they publish from the message they were given. A chain of them can be run
+ * as one operator, see {@link ChainFuser}.
+ */
+public interface UnaryAgent extends Agent {
+
+    /**
+     * Gets the topic the agent subscribes to.
+     *
+     * @return The name of the topic.
+     */
+    String getInputTopic();
+
+    /**
+     * Gets the topic the agent publishes to.
+     *
+     * @return The name of the topic.
+     */
+    String getOutputTopic();
+
+    /**
+     * Does what the callback of the agent does with a message of its input topic, but returns the message it
+     * would publish instead of publishing it.
+     *
+     * @param msg The message of the input topic.
+     * @return The message to publish to the output topic, or null if nothing would be published.
+     */
+    Message evaluate(Message msg);
+}
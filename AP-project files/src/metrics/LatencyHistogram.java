@@ -0,0 +1,263 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, in the style of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: values below 64 have a bucket each, and every power of two above
+ * is split into 32 buckets, so a value is known to about 3% whatever its magnitude. Values are clamped to
+ * {@link #MAX_VALUE}, about 18 minutes in nanoseconds. The buckets of a power of two are only allocated once a
+ * value falls in it, so a histogram of values of a few orders of magnitude takes a few kilobytes. Recording a
+ * value is a few atomic increments and never blocks, so histograms can be recorded to from many threads at once
+ * and read at any time.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /** The number of buckets a power of two is split into, as a power of two. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** The number of buckets a power of two is split into. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The values below this one have a bucket each. */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    /** The highest value counted, higher values are counted as this one. */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    /** The number of buckets. */
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    /** The count of values in each bucket, in segments of {@link #SUB_BUCKETS} buckets allocated on first use. */
+    private final AtomicReferenceArray<AtomicLongArray> counts = new AtomicReferenceArray<>(BUCKETS / SUB_BUCKETS);
+
+    /** The sum of the values recorded. */
+    private final LongAdder sum = new LongAdder();
+
+    /** The highest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value The value, negative values are counted as 0.
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records a value several times, such as a value sampled once every {@code count} events.
+     *
+     * @param value The value, negative values are counted as 0.
+     * @param count The number of times to record it.
+     */
+    public void record(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int index = indexOf(value);
+        segment(index >>> SUB_BUCKET_BITS).addAndGet(index & (SUB_BUCKETS - 1), count);
+        sum.add(value * count);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.getCountAt(i);
+            if (n != 0) {
+                segment(i >>> SUB_BUCKET_BITS).addAndGet(i & (SUB_BUCKETS - 1), n);
+            }
+        }
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Forgets all the values recorded.
+     * Values recorded at the same time may be partly forgotten.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, null);
+        }
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The number of values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += getCountAt(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the sum of the values recorded.
+     *
+     * @return The sum.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets the highest value recorded.
+     *
+     * @return The highest value, or 0 if none was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean, or 0 if none was recorded.
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Gets the value at a percentile: the highest value of the bucket holding it, never above the highest value
+     * recorded.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value, or 0 if none was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = getCountAt(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Gets the number of values at or below each of some bounds, counting a bucket below a bound only if its
+     * highest value is.
+     *
+     * @param bounds The bounds, in increasing order.
+     * @return The number of values at or below each bound, followed by the number of values recorded.
+     */
+    public long[] getCumulativeCounts(long[] bounds) {
+        long[] cumulative = new long[bounds.length + 1];
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = getCountAt(i);
+            if (n == 0) {
+                continue;
+            }
+            while (bound < bounds.length && bucketUpperBound(i) > bounds[bound]) {
+                bound++;
+            }
+            cumulative[bound] += n;
+        }
+        for (int i = 1; i < cumulative.length; i++) {
+            cumulative[i] += cumulative[i - 1];
+        }
+        return cumulative;
+    }
+
+    /**
+     * Gets the number of buckets.
+     *
+     * @return The number of buckets.
+     */
+    public static int getBucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * Gets the number of values in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The number of values.
+     */
+    public long getCountAt(int index) {
+        AtomicLongArray segment = counts.get(index >>> SUB_BUCKET_BITS);
+        return segment != null ? segment.get(index & (SUB_BUCKETS - 1)) : 0;
+    }
+
+    /**
+     * Gets a segment of buckets, allocating it if needed.
+     *
+     * @param index The index of the segment.
+     * @return The segment.
+     */
+    private AtomicLongArray segment(int index) {
+        AtomicLongArray segment = counts.get(index);
+        if (segment == null) {
+            counts.compareAndSet(index, null, new AtomicLongArray(SUB_BUCKETS));
+            segment = counts.get(index);
+        }
+        return segment;
+    }
+
+    /**
+     * Gets the highest value counted in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The highest value.
+     */
+    public static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int octave = (index - LINEAR_LIMIT) / SUB_BUCKETS;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        int shift = octave + 1;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the bucket of a value.
+     *
+     * @param value The value, between 0 and {@link #MAX_VALUE}.
+     * @return The index of the bucket.
+     */
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // Keep the highest SUB_BUCKET_BITS + 1 bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int top = (int) (value >>> shift);
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,207 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of the metrics of the application: counters, gauges and latency histograms.
+ * <p>
+ * Metrics are registered once under the name of their series, in the Prometheus style, such as
+ * {@code topic_publishes_total{topic="A"}} (see {@link #series(String, String, String)}), and the objects
+ * returned are kept by whoever records to them, so recording an event is only an increment of a striped
+ * {@link LongAdder} or a {@link LatencyHistogram#record(long)}. Latencies are recorded in nanoseconds.
+ * </p>
+ * <p>
+ * The registry holds:
+ * </p>
+ * <ul>
+ *     <li>{@code topic_publishes_total{topic}}: the messages published to each topic,</li>
+ *     <li>{@code agent_callback_seconds{agent}}: the time each agent spends in its callback, including the
+ *     topics it publishes to synchronously, sampled by the topics,</li>
+ *     <li>{@code parallel_agent_queue_depth{agent}}, {@code parallel_agent_puts_total{agent}},
+ *     {@code parallel_agent_blocked_put_seconds{agent}} and {@code parallel_agent_dropped_total{agent}}: the queue
+ *     of each parallel agent, the time publishers waited for room in it, and the messages it dropped when it
+ *     stayed full past their deadline,</li>
+ *     <li>{@code publish_backpressure_total{status}}: the tried publishes that were rejected or overloaded a
+ *     queue downstream,</li>
+ *     <li>{@code http_request_seconds{route}}: the time the server took to answer the requests of each route,</li>
+ *     <li>{@code trace_propagation_seconds{source,topic}}: the time values published on a topic take to reach the
+ *     topics downstream, sampled by the traces.</li>
+ * </ul>
+ */
+public final class MetricsRegistry {
+
+    /** The registry of the application. */
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    /** The counters, by series. */
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** The gauges, by series. */
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /** The histograms, by series. */
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /** The histograms registered for an object, by object. */
+    private final ConcurrentHashMap<Object, LatencyHistogram> owned = new ConcurrentHashMap<>();
+
+    /** The series of the histograms registered for an object, by object. */
+    private final ConcurrentHashMap<Object, String> ownedSeries = new ConcurrentHashMap<>();
+
+    /** Private constructor, there is a single registry. */
+    private MetricsRegistry() {}
+
+    /**
+     * Gets the registry of the application.
+     *
+     * @return The registry.
+     */
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the name of a series with a label.
+     *
+     * @param name The name of the metric.
+     * @param label The name of the label.
+     * @param value The value of the label, escaped here.
+     * @return The name of the series, such as {@code name{label="value"}}.
+     */
+    public static String series(String name, String label, String value) {
+        StringBuilder series = new StringBuilder(name.length() + label.length() + value.length() + 5);
+        series.append(name).append('{').append(label).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                series.append('\\').append(c);
+            } else if (c == '\n') {
+                series.append("\\n");
+            } else {
+                series.append(c);
+            }
+        }
+        return series.append("\"}").toString();
+    }
+
+    /**
+     * Builds the name of a series with two labels.
+     *
+     * @param name The name of the metric.
+     * @param label The name of the first label.
+     * @param value The value of the first label, escaped here.
+     * @param label2 The name of the second label.
+     * @param value2 The value of the second label, escaped here.
+     * @return The name of the series, such as {@code name{label="value",label2="value2"}}.
+     */
+    public static String series(String name, String label, String value, String label2, String value2) {
+        String first = series(name, label, value);
+        String second = series("", label2, value2);
+        return first.substring(0, first.length() - 1) + "," + second.substring(1);
+    }
+
+    /**
+     * Gets a counter, registering it if needed.
+     *
+     * @param series The name of the series.
+     * @return The counter.
+     */
+    public LongAdder counter(String series) {
+        LongAdder counter = counters.get(series);
+        return counter != null ? counter : counters.computeIfAbsent(series, s -> new LongAdder());
+    }
+
+    /**
+     * Gets a histogram, registering it if needed.
+     *
+     * @param series The name of the series.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogram(String series) {
+        LatencyHistogram histogram = histograms.get(series);
+        return histogram != null ? histogram : histograms.computeIfAbsent(series, s -> new LatencyHistogram());
+    }
+
+    /**
+     * Gets the histogram of an object, registering it under the series named by the given function if needed.
+     * Used where the object is at hand but its series would have to be built, such as for every callback of an agent.
+     *
+     * @param owner The object, compared by identity unless it overrides equals.
+     * @param series Builds the name of the series of the object.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogramOf(Object owner, Function<Object, String> series) {
+        LatencyHistogram histogram = owned.get(owner);
+        return histogram != null ? histogram : owned.computeIfAbsent(owner, o -> {
+            String name = series.apply(o);
+            ownedSeries.put(o, name);
+            return histogram(name);
+        });
+    }
+
+    /**
+     * Registers a gauge, read whenever the metrics are read.
+     *
+     * @param series The name of the series.
+     * @param gauge The gauge, must be cheap and thread safe.
+     */
+    public void gauge(String series, LongSupplier gauge) {
+        gauges.put(series, gauge);
+    }
+
+    /**
+     * Removes the metrics of a series, whatever their kind.
+     * The histograms registered for an object are removed with {@link #forget(Object)} instead.
+     *
+     * @param series The name of the series.
+     */
+    public void remove(String series) {
+        counters.remove(series);
+        gauges.remove(series);
+        histograms.remove(series);
+    }
+
+    /**
+     * Removes the histogram of an object, registered by {@link #histogramOf(Object, Function)}.
+     *
+     * @param owner The object.
+     */
+    public void forget(Object owner) {
+        owned.remove(owner);
+        String series = ownedSeries.remove(owner);
+        if (series != null) {
+            histograms.remove(series);
+        }
+    }
+
+    /**
+     * Gets the counters.
+     *
+     * @return The counters by series, a live view.
+     */
+    public Map<String, LongAdder> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Gets the gauges.
+     *
+     * @return The gauges by series, a live view.
+     */
+    public Map<String, LongSupplier> getGauges() {
+        return gauges;
+    }
+
+    /**
+     * Gets the histograms.
+     *
+     * @return The histograms by series, a live view.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+}
@@ -0,0 +1,158 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes the metrics of a {@link MetricsRegistry} and of the JVM in the Prometheus text format (version 0.0.4).
+ * <p>
+ * The metrics are read from the concurrent maps of the registry without any lock, so writing them never stalls
+ * the graph; a metric registered or removed meanwhile may or may not be written. Histograms are written with
+ * the fixed {@link #BUCKET_BOUNDS}, in seconds.
+ * </p>
+ */
+public class PrometheusWriter {
+
+    /** The upper bounds of the histogram buckets written, in nanoseconds. */
+    private static final long[] BUCKET_BOUNDS = {
+            1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 500_000L,
+            1_000_000L, 5_000_000L, 10_000_000L, 50_000_000L, 100_000_000L, 500_000_000L,
+            1_000_000_000L, 5_000_000_000L, 10_000_000_000L};
+
+    /** The upper bounds of the histogram buckets, as label values in seconds. */
+    private static final String[] BUCKET_LABELS = new String[BUCKET_BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_BOUNDS[i], 9).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /** Private constructor to prevent instantiation. */
+    private PrometheusWriter() {}
+
+    /**
+     * Writes the metrics of a registry, then the metrics of the JVM.
+     *
+     * @param registry The registry.
+     * @param out The writer.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void write(MetricsRegistry registry, Writer out) throws IOException {
+        for (Map.Entry<String, List<Map.Entry<String, LongAdder>>> family : byFamily(registry.getCounters()).entrySet()) {
+            out.write("# TYPE " + family.getKey() + " counter\n");
+            for (Map.Entry<String, LongAdder> series : family.getValue()) {
+                out.write(series.getKey() + " " + series.getValue().sum() + "\n");
+            }
+        }
+        for (Map.Entry<String, List<Map.Entry<String, LongSupplier>>> family : byFamily(registry.getGauges()).entrySet()) {
+            out.write("# TYPE " + family.getKey() + " gauge\n");
+            for (Map.Entry<String, LongSupplier> series : family.getValue()) {
+                out.write(series.getKey() + " " + series.getValue().getAsLong() + "\n");
+            }
+        }
+        for (Map.Entry<String, List<Map.Entry<String, LatencyHistogram>>> family : byFamily(registry.getHistograms()).entrySet()) {
+            out.write("# TYPE " + family.getKey() + " histogram\n");
+            for (Map.Entry<String, LatencyHistogram> series : family.getValue()) {
+                writeHistogram(out, family.getKey(), labelsOf(series.getKey()), series.getValue());
+            }
+        }
+        writeJvm(out);
+    }
+
+    /**
+     * Writes a histogram: its cumulative buckets, its sum in seconds and its count.
+     *
+     * @param out The writer.
+     * @param name The name of the histogram.
+     * @param labels The labels of the series, without braces, may be empty.
+     * @param histogram The histogram.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeHistogram(Writer out, String name, String labels, LatencyHistogram histogram) throws IOException {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long[] cumulative = histogram.getCumulativeCounts(BUCKET_BOUNDS);
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            out.write(name + "_bucket" + prefix + "le=\"" + BUCKET_LABELS[i] + "\"} " + cumulative[i] + "\n");
+        }
+        long count = cumulative[BUCKET_BOUNDS.length];
+        out.write(name + "_bucket" + prefix + "le=\"+Inf\"} " + count + "\n");
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.write(name + "_sum" + braces + " " + histogram.getSum() / 1e9 + "\n");
+        out.write(name + "_count" + braces + " " + count + "\n");
+    }
+
+    /**
+     * Writes the metrics of the JVM: threads, heap and garbage collections.
+     *
+     * @param out The writer.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeJvm(Writer out) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        out.write("# TYPE jvm_threads_live gauge\njvm_threads_live " + threads.getThreadCount() + "\n");
+        out.write("# TYPE jvm_threads_daemon gauge\njvm_threads_daemon " + threads.getDaemonThreadCount() + "\n");
+        out.write("# TYPE jvm_threads_peak gauge\njvm_threads_peak " + threads.getPeakThreadCount() + "\n");
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        out.write("# TYPE jvm_memory_heap_used_bytes gauge\njvm_memory_heap_used_bytes " + heap.getUsed() + "\n");
+        out.write("# TYPE jvm_memory_heap_committed_bytes gauge\njvm_memory_heap_committed_bytes " + heap.getCommitted() + "\n");
+        out.write("# TYPE jvm_memory_heap_max_bytes gauge\njvm_memory_heap_max_bytes " + heap.getMax() + "\n");
+
+        // The collections and the time spent in them, per collector
+        out.write("# TYPE jvm_gc_collection_seconds summary\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String labels = "{gc=\"" + gc.getName().replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+            out.write("jvm_gc_collection_seconds_count" + labels + " " + Math.max(0, gc.getCollectionCount()) + "\n");
+            out.write("jvm_gc_collection_seconds_sum" + labels + " " + Math.max(0, gc.getCollectionTime()) / 1e3 + "\n");
+        }
+    }
+
+    /**
+     * Groups series by family, the name of the metric before its labels, as the format requires.
+     *
+     * @param metrics The metrics by series.
+     * @param <T> The type of the metrics.
+     * @return The series by family, sorted by family.
+     */
+    private static <T> Map<String, List<Map.Entry<String, T>>> byFamily(Map<String, T> metrics) {
+        Map<String, List<Map.Entry<String, T>>> families = new TreeMap<>();
+        for (Map.Entry<String, T> series : metrics.entrySet()) {
+            families.computeIfAbsent(familyOf(series.getKey()), f -> new ArrayList<>()).add(series);
+        }
+        return families;
+    }
+
+    /**
+     * Gets the family of a series.
+     *
+     * @param series The name of the series.
+     * @return The name before the labels.
+     */
+    private static String familyOf(String series) {
+        int brace = series.indexOf('{');
+        return brace < 0 ? series : series.substring(0, brace);
+    }
+
+    /**
+     * Gets the labels of a series.
+     *
+     * @param series The name of the series.
+     * @return The labels without braces, or an empty string.
+     */
+    private static String labelsOf(String series) {
+        int brace = series.indexOf('{');
+        return brace < 0 ? "" : series.substring(brace + 1, series.length() - 1);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Provides classes for measuring the application.
+ * <p>
+ * This package includes the recorders used to measure the latency of
+ * requests and messages, cheap enough to stay on while the server runs.
+ * </p>
+ */
+package metrics;
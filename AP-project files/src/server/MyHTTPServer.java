@@ -1,18 +1,34 @@
 package server;
 
+import metrics.MetricsRegistry;
 import servlet.Servlet;
+import servlet.StreamingServlet;
+import servlet.WebSocketServlet;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.net.ServerSocket;
 
 /**
  * An HTTP server implementation that manages servlets and handles HTTP requests.
+ * The time taken to answer the requests of each route is recorded in the {@link MetricsRegistry}.
  */
 public class MyHTTPServer extends Thread implements HTTPServer {
 
+    /** How long to wait for more of a request body before parsing what has arrived, in milliseconds. */
+    private static final int BODY_TIMEOUT_MILLIS = 5000;
+
+    /** The largest request body that is read, in bytes. */
+    private static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+
+    /** The most connections streamed at once, see {@link StreamingServlet} and {@link WebSocketServlet}. */
+    private static final int MAX_STREAMS = 256;
+
     /** Map to store GET request servlets by URI. */
     private ConcurrentHashMap<String, Servlet> get_map = new ConcurrentHashMap<>();
 
@@ -25,6 +41,16 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     /** Thread pool to handle client requests. */
     private ExecutorService threadPool;
 
+    /** The threads of the connections kept open after their request was answered, one per connection. */
+    private final ExecutorService streamPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "http-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The connections that may still be streamed. */
+    private final Semaphore streams = new Semaphore(MAX_STREAMS);
+
     /** Server socket to accept client connections. */
     private ServerSocket serverSocket;
 
@@ -119,9 +145,12 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                 try {
                     // Accept a new connection
                     Socket client = serverSocket.accept();
+                    long accepted = System.nanoTime();
 
                     // Each connected client will go through this procedure when it connects to the server
                     threadPool.submit(() -> {
+                        // Whether the connection was passed on to a thread of its own, which closes it
+                        boolean handedOff = false;
                         try {
                             // Delay for receiving the request correctly
                             Thread.sleep(125);
@@ -157,8 +186,25 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                                 }
 
                                 // If servlet is not null, activate the handle() method
-                                if (servlet != null) {
-                                    servlet.handle(ri, client.getOutputStream());
+                                OutputStream out = client.getOutputStream();
+                                if (servlet instanceof WebSocketServlet && isWebSocketUpgrade(ri)) {
+                                    // Answer the handshake here, then serve the WebSocket on a thread of its own
+                                    WebSocketServlet socketServlet = (WebSocketServlet) servlet;
+                                    handedOff = handOff(client, () -> answerHandshake(ri, out),
+                                            () -> socketServlet.onOpen(ri, new WebSocket(client.getInputStream(), out)));
+                                } else if (servlet instanceof StreamingServlet) {
+                                    // Send the headers here, then stream without holding a request thread
+                                    StreamingServlet streamingServlet = (StreamingServlet) servlet;
+                                    handedOff = handOff(client, () -> streamingServlet.handle(ri, out),
+                                            () -> streamingServlet.stream(ri, out));
+                                } else {
+                                    if (servlet != null) {
+                                        servlet.handle(ri, client.getOutputStream());
+                                    }
+                                    // Record the time from accepting the client to answering it
+                                    String route = servlet != null ? ri.getHttpCommand() + " " + longestMatch : "unmatched";
+                                    MetricsRegistry.get().histogram(MetricsRegistry.series("http_request_seconds", "route", route))
+                                            .record(System.nanoTime() - accepted);
                                 }
                             }
                             reader.close();
@@ -167,11 +213,9 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                         } catch (InterruptedException e) {
                             throw new RuntimeException(e);
                         } finally {
-                            // Close the client socket
-                            try {
-                                client.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
+                            // Close the client socket, unless a stream thread owns it now
+                            if (!handedOff) {
+                                closeQuietly(client);
                             }
                         }
                     });
@@ -187,6 +231,95 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         }
     }
 
+    /**
+     * Checks whether a request asks for a WebSocket upgrade.
+     *
+     * @param ri The request.
+     * @return true if the request is a WebSocket handshake.
+     */
+    private static boolean isWebSocketUpgrade(RequestParser.RequestInfo ri) {
+        String upgrade = ri.getHeaders().get("Upgrade");
+        return ri.getHttpCommand().equals("GET")
+                && upgrade != null && upgrade.equalsIgnoreCase("websocket")
+                && ri.getHeaders().get("Sec-WebSocket-Key") != null;
+    }
+
+    /**
+     * Answers a WebSocket handshake.
+     *
+     * @param ri The handshake request.
+     * @param out The output stream of the client socket.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void answerHandshake(RequestParser.RequestInfo ri, OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + WebSocket.acceptKey(ri.getHeaders().get("Sec-WebSocket-Key")) + "\r\n"
+                + "\r\n").getBytes());
+        out.flush();
+    }
+
+    /**
+     * Answers a request whose connection stays open, then serves the connection on a thread of its own.
+     * A client beyond the most connections kept open at once is answered 503.
+     *
+     * @param client The client socket.
+     * @param answer Answers the request, on the calling request thread.
+     * @param serve Serves the connection until it ends, on a thread of its own.
+     * @return true if the connection was passed on, and is closed by the thread serving it.
+     * @throws IOException If an I/O error occurs while answering the request.
+     */
+    private boolean handOff(Socket client, ConnectionTask answer, ConnectionTask serve) throws IOException {
+        if (!streams.tryAcquire()) {
+            Responses.write(client.getOutputStream(), "503 Service Unavailable", "text/plain",
+                    "too many open connections\n".getBytes(StandardCharsets.UTF_8), "Retry-After: 5");
+            return false;
+        }
+        try {
+            answer.run();
+            streamPool.execute(() -> {
+                try {
+                    serve.run();
+                } catch (IOException e) {
+                    // the client disconnected
+                } finally {
+                    streams.release();
+                    closeQuietly(client);
+                }
+            });
+            return true;
+        } catch (IOException | RuntimeException e) {
+            streams.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A step of serving a connection.
+     */
+    private interface ConnectionTask {
+        /**
+         * Runs the step.
+         *
+         * @throws IOException If an I/O error occurs.
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * Closes a client socket, reporting a failure to close it.
+     *
+     * @param client The client socket.
+     */
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Gets a BufferedReader for the specified client socket.
      *
@@ -200,13 +333,64 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         byte[] buffer = new byte[availableBytes];
         int bytesRead = inputStream.read(buffer, 0, availableBytes);
 
+        // A large body may not have fully arrived yet, read the rest announced by Content-Length
+        int missingBytes = missingBodyBytes(buffer, bytesRead);
+        if (missingBytes > 0) {
+            buffer = Arrays.copyOf(buffer, bytesRead + missingBytes);
+            client.setSoTimeout(BODY_TIMEOUT_MILLIS);
+            try {
+                int n;
+                while (bytesRead < buffer.length && (n = inputStream.read(buffer, bytesRead, buffer.length - bytesRead)) != -1) {
+                    bytesRead += n;
+                }
+            } catch (SocketTimeoutException e) {
+                // The client stopped sending, parse what has arrived
+            } finally {
+                client.setSoTimeout(0);
+            }
+        }
+
+        // Decoded as UTF-8 whatever the platform charset, so a body encoded back as UTF-8 is the one sent
         return new BufferedReader(
                 new InputStreamReader(
-                        new ByteArrayInputStream(buffer, 0, bytesRead)
+                        new ByteArrayInputStream(buffer, 0, bytesRead), StandardCharsets.UTF_8
                 )
         );
     }
 
+    /**
+     * Computes how many bytes of the request body announced by the Content-Length header have not been read.
+     *
+     * @param buffer The bytes read so far.
+     * @param length The number of bytes read so far.
+     * @return The number of missing body bytes, or 0 if the headers are incomplete or announce no body.
+     */
+    private static int missingBodyBytes(byte[] buffer, int length) {
+        String head = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+        int headerEnd = head.indexOf("\r\n\r\n");
+        int separator = 4;
+        if (headerEnd < 0) {
+            headerEnd = head.indexOf("\n\n");
+            separator = 2;
+        }
+        if (headerEnd < 0) {
+            return 0;
+        }
+        for (String line : head.substring(0, headerEnd).split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                try {
+                    long contentLength = Long.parseLong(line.substring(colon + 1).trim());
+                    long missing = headerEnd + separator + Math.min(contentLength, MAX_BODY_BYTES) - length;
+                    return (int) Math.max(0, missing);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
     /**
      * Starts the HTTP server, allowing it to begin handling requests.
      */
@@ -221,6 +405,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     public void close() {
         stopServer = true;
         threadPool.shutdownNow();
+        streamPool.shutdownNow();
     }
 
     /**
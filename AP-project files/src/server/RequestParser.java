@@ -1,6 +1,7 @@
 package server;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,6 +11,9 @@ import java.util.Map;
  */
 public class RequestParser {
 
+    /** The largest part of a request body printed with the HTTP command, so the reader can still be reset. */
+    private static final int MAX_PRINTED_BODY = 64 * 1024;
+
     /**
      * Parses an HTTP request from the provided BufferedReader.
      *
@@ -74,6 +78,21 @@ public class RequestParser {
             }
         }
 
+        // A plain (not multipart) POST body, such as a batch of values, is passed on as is,
+        // encoded back as UTF-8, the charset the server decodes requests with
+        String contentType = headers.get("Content-Type");
+        if (httpCommand.equals("POST") && headers.containsKey("Content-Length")
+                && (contentType == null || !contentType.startsWith("multipart/"))) {
+            StringBuilder body = new StringBuilder();
+            char[] chunk = new char[8192];
+            int n;
+            while ((n = reader.read(chunk)) != -1) {
+                body.append(chunk, 0, n);
+            }
+            reader.close();
+            return new RequestInfo(httpCommand, uri, uriParts, parameters, body.toString().getBytes(StandardCharsets.UTF_8), headers);
+        }
+
         // Get the additional settings
         while ((line = reader.readLine()) != null && !line.isEmpty()) {
             if (httpCommand.equals("GET")) {
@@ -164,11 +183,16 @@ public class RequestParser {
             }
         }
 
-        // If Content-Length is found, read that many bytes as the body
+        // If Content-Length is found, read that many bytes as the body (up to the printed limit)
         if (contentLength > -1) {
-            char[] bodyChars = new char[contentLength];
-            copy_of_reader.read(bodyChars, 0, contentLength);
-            headersAndBody.append(new String(bodyChars));
+            char[] bodyChars = new char[Math.min(contentLength, MAX_PRINTED_BODY)];
+            int read = copy_of_reader.read(bodyChars, 0, bodyChars.length);
+            if (read > 0) {
+                headersAndBody.append(bodyChars, 0, read);
+            }
+            if (contentLength > MAX_PRINTED_BODY) {
+                headersAndBody.append("\n... (").append(contentLength - MAX_PRINTED_BODY).append(" more bytes)");
+            }
         }
 
         System.out.println(headersAndBody.toString());
@@ -0,0 +1,181 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the HTTP responses of the servlets, and the JSON and HTML text in them.
+ * <p>
+ * Strings are escaped for JSON so they can also be embedded in a {@code <script>} element of a page: besides
+ * quotes, backslashes and control characters, {@code <} and the line and paragraph separators are written as
+ * {@code \\u} escapes. Numbers that JSON cannot hold, infinities and NaN, are written as {@code null}.
+ * </p>
+ */
+public final class Responses {
+
+    /** The hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Private constructor to prevent instantiation. */
+    private Responses() {}
+
+    /**
+     * Writes a whole response.
+     *
+     * @param toClient The output stream to write to.
+     * @param status The HTTP status line suffix, such as "200 OK".
+     * @param contentType The type of the body.
+     * @param body The body.
+     * @param headers Other headers, such as "Cache-Control: no-cache", written before the content length.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void write(OutputStream toClient, String status, String contentType, byte[] body, String... headers)
+            throws IOException {
+        StringBuilder head = new StringBuilder(96);
+        head.append("HTTP/1.1 ").append(status).append('\n');
+        head.append("Content-Type: ").append(contentType).append('\n');
+        for (String header : headers) {
+            head.append(header).append('\n');
+        }
+        head.append("Content-Length: ").append(body.length).append("\n\n");
+        toClient.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        toClient.write(body);
+        toClient.flush();
+    }
+
+    /**
+     * Writes a JSON response.
+     *
+     * @param toClient The output stream to write to.
+     * @param status The HTTP status line suffix, such as "200 OK".
+     * @param json The JSON body.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void writeJson(OutputStream toClient, String status, String json) throws IOException {
+        write(toClient, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a JSON error response, {@code {"error":"..."}}.
+     *
+     * @param toClient The output stream to write to.
+     * @param status The HTTP status line suffix, such as "400 Bad Request".
+     * @param message The error message.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void writeJsonError(OutputStream toClient, String status, String message) throws IOException {
+        StringBuilder json = new StringBuilder(message.length() + 16).append("{\"error\":");
+        appendJsonString(json, message);
+        writeJson(toClient, status, json.append('}').toString());
+    }
+
+    /**
+     * Appends a JSON string, or null.
+     *
+     * @param json The JSON being built.
+     * @param s The string, may be null.
+     */
+    public static void appendJsonString(StringBuilder json, String s) {
+        if (s == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        appendJsonEscaped(json, s);
+        json.append('"');
+    }
+
+    /**
+     * Writes a JSON string, or null.
+     *
+     * @param out The writer.
+     * @param s The string, may be null.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void writeJsonString(Writer out, String s) throws IOException {
+        if (s == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        if (needsJsonEscape(s)) {
+            StringBuilder escaped = new StringBuilder(s.length() + 16);
+            appendJsonEscaped(escaped, s);
+            out.append(escaped);
+        } else {
+            out.write(s);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Appends a string escaped for a JSON string literal, without the quotes.
+     *
+     * @param json The JSON being built.
+     * @param s The string.
+     */
+    public static void appendJsonEscaped(StringBuilder json, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20 || c == '<' || c == '\u2028' || c == '\u2029') {
+                json.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf])
+                        .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            } else {
+                json.append(c);
+            }
+        }
+    }
+
+    /**
+     * Appends a JSON number, or null if the value is infinite or not a number.
+     *
+     * @param json The JSON being built.
+     * @param value The value.
+     */
+    public static void appendJsonNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else {
+            json.append(value);
+        }
+    }
+
+    /**
+     * Appends a string escaped for HTML text.
+     *
+     * @param html The HTML being built.
+     * @param s The string.
+     */
+    public static void appendHtmlEscaped(StringBuilder html, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': html.append("&lt;"); break;
+                case '>': html.append("&gt;"); break;
+                case '&': html.append("&amp;"); break;
+                case '"': html.append("&quot;"); break;
+                default: html.append(c);
+            }
+        }
+    }
+
+    /**
+     * Tells whether a string has any character escaped in JSON.
+     *
+     * @param s The string.
+     * @return true if it has.
+     */
+    private static boolean needsJsonEscape(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20 || c == '<' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
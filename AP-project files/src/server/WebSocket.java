@@ -0,0 +1,205 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * A server side WebSocket connection (RFC 6455) over the socket of an upgraded HTTP request.
+ * <p>
+ * Messages are read by a single thread with {@link #readText()}, which answers pings and the closing
+ * handshake by itself. It closes the connection with status 1002 on frames the client did not mask and on
+ * control frames that are fragmented or carry more than 125 bytes, and with status 1009 on messages larger
+ * than 1 MiB. Text messages can be sent from any thread.
+ * </p>
+ */
+public class WebSocket {
+
+    /** The GUID appended to the client key to compute the accept key. */
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /** The largest message accepted from a client, in bytes. */
+    private static final int MAX_MESSAGE_SIZE = 1 << 20;
+
+    /** The largest payload of a control frame, in bytes. */
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    /** The frame opcodes. */
+    private static final int CONTINUATION = 0x0, TEXT = 0x1, BINARY = 0x2, CLOSE = 0x8, PING = 0x9, PONG = 0xA;
+
+    /** The stream frames are read from. */
+    private final DataInputStream in;
+    /** The stream frames are written to. */
+    private final OutputStream out;
+    /** Whether a close frame was sent. */
+    private boolean closeSent = false;
+
+    /**
+     * Constructs a WebSocket over the streams of an upgraded connection.
+     *
+     * @param in The input stream of the socket.
+     * @param out The output stream of the socket.
+     */
+    public WebSocket(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new BufferedOutputStream(out);
+    }
+
+    /**
+     * Computes the {@code Sec-WebSocket-Accept} value answering a {@code Sec-WebSocket-Key}.
+     *
+     * @param key The key sent by the client.
+     * @return The accept value.
+     */
+    public static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next text message, answering the control frames received before it.
+     * Binary messages are read as UTF-8 text.
+     *
+     * @return The message, or null when the connection was closed.
+     * @throws IOException If an I/O error occurs or the client violates the protocol.
+     */
+    public String readText() throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean inMessage = false;
+        while (true) {
+            int first;
+            try {
+                first = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            int second = in.readUnsignedByte();
+            if ((second & 0x80) == 0) {
+                // a client must mask every frame it sends
+                close(1002);
+                throw new IOException("unmasked WebSocket frame from the client");
+            }
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+            if ((opcode & 0x08) != 0 && (!fin || length > MAX_CONTROL_PAYLOAD)) {
+                // control frames are small and never fragmented, they may come between the frames of a message
+                close(1002);
+                throw new IOException("invalid WebSocket control frame " + opcode);
+            }
+            if (length < 0 || length + message.size() > MAX_MESSAGE_SIZE) {
+                close(1009);
+                throw new IOException("WebSocket message too large");
+            }
+            byte[] mask = new byte[4];
+            in.readFully(mask);
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+
+            switch (opcode) {
+                case PING:
+                    sendFrame(PONG, payload);
+                    break;
+                case PONG:
+                    break;
+                case CLOSE:
+                    // answer the closing handshake
+                    synchronized (this) {
+                        if (!closeSent) {
+                            sendFrame(CLOSE, payload.length >= 2 ? new byte[] {payload[0], payload[1]} : new byte[0]);
+                            closeSent = true;
+                        }
+                    }
+                    return null;
+                case TEXT:
+                case BINARY:
+                case CONTINUATION:
+                    if ((opcode == CONTINUATION) != inMessage) {
+                        close(1002);
+                        throw new IOException("unexpected WebSocket frame " + opcode);
+                    }
+                    message.write(payload);
+                    inMessage = !fin;
+                    if (fin) {
+                        return message.toString(StandardCharsets.UTF_8);
+                    }
+                    break;
+                default:
+                    close(1002);
+                    throw new IOException("unknown WebSocket opcode " + opcode);
+            }
+        }
+    }
+
+    /**
+     * Sends a text message.
+     *
+     * @param text The message.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void sendText(String text) throws IOException {
+        sendFrame(TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts the closing handshake, if it was not started yet.
+     *
+     * @param code The close status code.
+     * @throws IOException If an I/O error occurs.
+     */
+    public synchronized void close(int code) throws IOException {
+        if (closeSent) {
+            return;
+        }
+        closeSent = true;
+        sendFrame(CLOSE, new byte[] {(byte) (code >> 8), (byte) code});
+    }
+
+    /**
+     * Sends a single unmasked frame.
+     *
+     * @param opcode The opcode of the frame.
+     * @param payload The payload of the frame.
+     * @throws IOException If an I/O error occurs.
+     */
+    private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            long length = payload.length;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (length >>> shift));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+}
@@ -1,8 +1,11 @@
 package servlet;
 
+import graph.Agent;
+import graph.AgentScheduler;
+import graph.ConfigError;
 import graph.GenericConfig;
-import graph.Graph;
 import server.RequestParser;
+import server.Responses;
 import views.HtmlGraphWriter;
 
 import java.io.*;
@@ -13,10 +16,26 @@ import java.util.*;
 /**
  * A servlet class that handles configuration file uploads and generates
  * corresponding HTML graphs.
+ * <p>
+ * Each upload is written to a temporary file of its own, parsed and built off to the side, and swapped in
+ * at once. Only then is the file moved, atomically, to its name under {@code uploads/}. Concurrent uploads
+ * are deployed one after the other, and publishers never see a half built graph. An upload that cannot be
+ * deployed is answered {@code 422 Unprocessable Entity} with the errors found, one per line.
+ * </p>
  */
 public class ConfLoader implements Servlet {
 
-    private PrintWriter clientOut;
+    /** The configuration currently deployed, reconciled with every new upload. */
+    private GenericConfig activeConfig;
+
+    /** The path of the configuration file currently deployed. */
+    private String activeConfigPath;
+
+    /** The scheduler running the parallel agents of the configurations, or null for a thread per agent. */
+    private AgentScheduler scheduler;
+
+    /** The errors found by the last deployment. */
+    private List<ConfigError> lastErrors = Collections.emptyList();
 
     /**
      * Handles the HTTP request, processes the configuration file, and generates
@@ -29,11 +48,8 @@ public class ConfLoader implements Servlet {
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
 
-        // Use a PrintWriter to write the response
-        clientOut = new PrintWriter(toClient);
-
-        // Reset the topics map in the TopicDisplayer servlet
-        TopicDisplayer.resetTopicsAndMessages();
+        // Reset the cached topics display, the topics themselves are reconciled with the new config
+        TopicDisplayer.resetDisplay();
 
         // Get the file name from the parameters
         String fileName = ri.getParameters().get("filename");
@@ -43,60 +59,142 @@ public class ConfLoader implements Servlet {
             fileName = fileName.replace("\"", "");
         }
 
-        // Get the file content from the body
-        String fileContent = new String(ri.getContent(), StandardCharsets.UTF_8);
-
-        Path filePath;
-        // If file was uploaded, save it
-        if (fileName != null) {
-            String currentWorkingDirectory = System.getProperty("user.dir") + "/uploads";
-            Path directoryPath = Paths.get(currentWorkingDirectory);
-            Files.createDirectories(directoryPath);
-            // Save the content as a .conf file
-            filePath = Paths.get(currentWorkingDirectory + "/" + fileName);
-            Files.writeString(filePath, fileContent);
-        } else {
-            System.out.println("No file uploaded.");
-            filePath = null;
+        if (fileName == null) {
+            sendError(toClient, "400 Bad Request", "no file uploaded");
+            return;
         }
+        Path directoryPath = Paths.get(System.getProperty("user.dir"), "uploads");
+        Files.createDirectories(directoryPath);
+        Path target;
+        try {
+            // Keep only the last segment, the upload must stay in the uploads directory
+            Path name = Paths.get(fileName).getFileName();
+            target = name != null ? directoryPath.resolve(name) : null;
+        } catch (InvalidPathException e) {
+            target = null;
+        }
+        if (target == null) {
+            sendError(toClient, "400 Bad Request", "invalid file name: " + fileName);
+            return;
+        }
+        // Write the upload to a temporary file of its own, so concurrent uploads never share a file
+        Path upload = Files.createTempFile(directoryPath, ".upload-", ".tmp");
+        Files.write(upload, ri.getContent());
 
-        // Create graph from config file
-        GenericConfig config = new GenericConfig();
-        config.setConfFile(String.valueOf(filePath));
-        config.create();
-
-        // Create graph
-        Graph graph = new Graph();
-        graph.createFromTopics();
-
-        // Verify that the graph has no cycles
-        if (graph.hasCycles()) {
-            // Send an HTML response to the client that the graph has cycles
-            String path = System.getProperty("user.dir") + "/html_files";
-            String htmlContent = HtmlLoader.readFileToString(new File(path + "/cycles.html"));
-            clientOut.println("HTTP/1.1 200 OK");
-            clientOut.println("Content-Type: text/html");
-            clientOut.println("Connection: close");
-            clientOut.println("Content-Length: " + htmlContent.length());
-            clientOut.println();
-            clientOut.println(htmlContent);
-            clientOut.flush();
+        // Parse and build the new graph off to the side, then swap it in, or tell why it was refused
+        List<ConfigError> errors = deployUpload(upload, target);
+        if (errors != null) {
+            StringBuilder message = new StringBuilder("the configuration was not deployed:");
+            for (ConfigError error : errors) {
+                message.append('\n').append(error);
+            }
+            sendError(toClient, "422 Unprocessable Entity", message.toString());
             return;
         }
 
-        // Create the graph HTML
-        HtmlGraphWriter.getGraphHTML(graph);
-
-        // Change path to the html_files directory
-        String path = System.getProperty("user.dir") + "/html_files";
-        String htmlContent = HtmlLoader.readFileToString(new File(path + "/graph.html"));
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + htmlContent.length());
-        clientOut.println();
-        clientOut.println(htmlContent);
-        clientOut.flush();
+        // Send the page of the deployed graph, rendered in memory and cached until the graph changes
+        Responses.write(toClient, "200 OK", "text/html", HtmlGraphWriter.getGraphPage(), "Connection: close");
+    }
+
+    /**
+     * Writes an error response with a plain text message.
+     *
+     * @param toClient The output stream to write to.
+     * @param status The HTTP status line suffix, such as "400 Bad Request".
+     * @param message The message, one line per error.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void sendError(OutputStream toClient, String status, String message) throws IOException {
+        Responses.write(toClient, status, "text/plain; charset=utf-8",
+                (message + "\n").getBytes(StandardCharsets.UTF_8), "Connection: close");
+    }
+
+    /**
+     * Sets the scheduler that runs the parallel agents of the configurations deployed from now on,
+     * see {@link AgentScheduler}.
+     *
+     * @param scheduler The scheduler, or null to give each parallel agent a thread of its own.
+     */
+    public synchronized void setScheduler(AgentScheduler scheduler) {
+        this.scheduler = scheduler;
+        if (activeConfig != null) {
+            activeConfig.setScheduler(scheduler);
+        }
+    }
+
+    /**
+     * Deploys a configuration file: creates its agents if nothing is deployed yet,
+     * or reconciles the deployed configuration with it.
+     * <p>
+     * Deployments are serialized. The new agents are built off to the side and swapped in at once, see
+     * {@link GenericConfig#reload(String)}; if the file is unreadable or malformed, the deployed configuration
+     * is kept. The errors found are kept until the next deployment, see {@link #getLastErrors()}.
+     * </p>
+     *
+     * @param filePath The path of the configuration file.
+     * @return true if the configuration was deployed.
+     */
+    public synchronized boolean deploy(String filePath) {
+        GenericConfig config = activeConfig;
+        if (config == null) {
+            config = new GenericConfig();
+            config.setScheduler(scheduler);
+        }
+        boolean deployed = config.reload(filePath);
+        lastErrors = config.getErrors();
+        if (deployed) {
+            activeConfig = config;
+            activeConfigPath = filePath;
+        }
+        return deployed;
+    }
+
+    /**
+     * Deploys an uploaded configuration file, then moves it in place of any older upload of the same name.
+     * The file is deleted if it cannot be deployed.
+     *
+     * @param upload The temporary file holding the upload.
+     * @param target The path the upload is kept at once deployed.
+     * @return null if the upload was deployed, else the errors that kept it from being deployed.
+     * @throws IOException If the upload cannot be moved or deleted.
+     */
+    private synchronized List<ConfigError> deployUpload(Path upload, Path target) throws IOException {
+        if (!deploy(upload.toString())) {
+            Files.deleteIfExists(upload);
+            return lastErrors;
+        }
+        Files.move(upload, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        activeConfig.setConfFile(target.toString());
+        activeConfigPath = target.toString();
+        return null;
+    }
+
+    /**
+     * Gets the errors found by the last deployment: the entries left out of a deployed configuration,
+     * or why a configuration was not deployed.
+     *
+     * @return The errors, empty if every entry was deployed.
+     */
+    public synchronized List<ConfigError> getLastErrors() {
+        return lastErrors;
+    }
+
+    /**
+     * Gets the path of the configuration file currently deployed.
+     *
+     * @return The path, or null if no configuration was deployed.
+     */
+    public synchronized String getActiveConfigPath() {
+        return activeConfigPath;
+    }
+
+    /**
+     * Gets the agents of the configuration currently deployed, in the order of the entries of its file.
+     *
+     * @return The agents, empty if no configuration was deployed.
+     */
+    public synchronized List<Agent> getActiveAgents() {
+        return activeConfig != null ? activeConfig.getAgents() : Collections.emptyList();
     }
 
     /**
@@ -107,7 +205,13 @@ public class ConfLoader implements Servlet {
     @Override
     public void close() throws IOException {
         // Any cleanup code can go here
-        clientOut.close();
+        synchronized (this) {
+            if (activeConfig != null) {
+                activeConfig.close();
+                activeConfig = null;
+                activeConfigPath = null;
+            }
+        }
     }
 
     /**
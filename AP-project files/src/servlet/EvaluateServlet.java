@@ -0,0 +1,145 @@
+package servlet;
+
+import graph.BatchEvaluator;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A servlet that evaluates the graph over many rows of inputs, for what-if analysis.
+ * <p>
+ * The body of {@code POST /evaluate?outputs=C,D} is CSV: a header line naming the input topics, then one
+ * line of values per row. The graph is evaluated with a {@link BatchEvaluator}, so nothing is published and
+ * the running graph is left as it was. The response holds a column of values per output topic, all the
+ * topics the graph computes when {@code outputs} is not given:
+ * {@code {"rows":2,"columns":{"C":[3.0,null],"D":[4.0,null]}}}. A row whose values are not numbers gives
+ * null wherever the graph would publish nothing.
+ * </p>
+ */
+public class EvaluateServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by evaluating the graph over the rows in its body.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including the body.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        // Read the header and the rows into columns
+        String body = new String(ri.getContent(), StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        for (String line : body.split("\r?\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            Responses.writeJsonError(toClient, "400 Bad Request", "no header line");
+            return;
+        }
+        String[] header = splitCsv(lines.get(0));
+        double[][] columns = new double[header.length][lines.size() - 1];
+        for (int row = 1; row < lines.size(); row++) {
+            String[] cells = splitCsv(lines.get(row));
+            if (cells.length != header.length) {
+                Responses.writeJsonError(toClient, "400 Bad Request",
+                        "line " + (row + 1) + " has " + cells.length + " values for " + header.length + " topics");
+                return;
+            }
+            for (int i = 0; i < cells.length; i++) {
+                columns[i][row - 1] = parseValue(cells[i]);
+            }
+        }
+        Map<String, double[]> inputs = new LinkedHashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            inputs.put(header[i], columns[i]);
+        }
+
+        // Evaluate, the graph as it is now
+        Map<String, double[]> results;
+        try {
+            BatchEvaluator evaluator = BatchEvaluator.compile();
+            String outputs = ri.getParameters().get("outputs");
+            Collection<String> outputList = outputs != null && !outputs.trim().isEmpty()
+                    ? Arrays.asList(splitCsv(outputs))
+                    : evaluator.getComputedTopics();
+            results = evaluator.evaluate(inputs, outputList);
+        } catch (IllegalStateException e) {
+            Responses.writeJsonError(toClient, "409 Conflict", e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            Responses.writeJsonError(toClient, "400 Bad Request", e.getMessage());
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(64 + results.size() * (lines.size() + 1) * 8);
+        json.append("{\"rows\":").append(lines.size() - 1).append(",\"columns\":{");
+        boolean first = true;
+        for (Map.Entry<String, double[]> result : results.entrySet()) {
+            json.append(first ? "" : ",");
+            first = false;
+            Responses.appendJsonString(json, result.getKey());
+            json.append(":[");
+            double[] column = result.getValue();
+            for (int i = 0; i < column.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                Responses.appendJsonNumber(json, column[i]);
+            }
+            json.append(']');
+        }
+        json.append("}}");
+        Responses.writeJson(toClient, "200 OK", json.toString());
+    }
+
+    /**
+     * Splits a CSV line, trimming the cells.
+     *
+     * @param line The line.
+     * @return The cells.
+     */
+    private static String[] splitCsv(String line) {
+        String[] cells = line.split(",", -1);
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = cells[i].trim();
+        }
+        return cells;
+    }
+
+    /**
+     * Reads a value as a message would, NaN if it is not a number.
+     *
+     * @param cell The cell.
+     * @return The value.
+     */
+    private static double parseValue(String cell) {
+        try {
+            return Double.parseDouble(cell);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,214 @@
+package servlet;
+
+import server.RequestParser;
+import server.Responses;
+import views.GraphLayout;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A servlet that returns parts of the server-side {@link GraphLayout} as JSON, so clients can draw huge graphs
+ * without laying them out or downloading them whole.
+ * <p>
+ * {@code GET /graph/layout} accepts:
+ * </p>
+ * <ul>
+ *     <li>{@code x0, y0, x1, y1}: the nodes inside a viewport, in layout coordinates,</li>
+ *     <li>{@code topic, depth}: the nodes at most {@code depth} edges (default 1) away from a topic,</li>
+ *     <li>{@code detail=clusters}: the clusters only, the agents of each layer grouped by class.</li>
+ * </ul>
+ * <p>
+ * Without a query the whole graph is returned. When more than {@code limit} nodes (default 2000) would be
+ * returned, the clusters overlapping the requested area are returned instead, which is the coarser level of
+ * detail. Nodes are written as {@code {"id","label","class","x","y","cluster"}} and their edges, including the
+ * ones leaving the returned nodes, as {@code [source, target, x1, y1, x2, y2]}. Clusters are written as
+ * {@code {"id","label","class","count","x","y","minX","maxX"}} and their edges as {@code [source, target, count]}.
+ * </p>
+ */
+public class GraphLayoutServlet implements Servlet {
+
+    /** The default largest number of nodes returned before falling back to clusters. */
+    private static final int DEFAULT_LIMIT = 2000;
+
+    /**
+     * Handles an HTTP request by writing the requested part of the layout.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including parameters.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        GraphLayout layout = GraphLayout.current();
+        Map<String, String> params = ri.getParameters();
+
+        int[] nodes;
+        boolean clustersOnly = "clusters".equals(params.get("detail"));
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+            if (params.containsKey("topic")) {
+                int topic = layout.topicNode(params.get("topic"));
+                if (topic < 0) {
+                    Responses.writeJsonError(toClient, "404 Not Found", "no such topic: " + params.get("topic"));
+                    return;
+                }
+                nodes = layout.neighborhood(topic, Integer.parseInt(params.getOrDefault("depth", "1")));
+            } else if (params.containsKey("x0")) {
+                nodes = layout.inViewport(Double.parseDouble(params.get("x0")), Double.parseDouble(params.get("y0")),
+                        Double.parseDouble(params.get("x1")), Double.parseDouble(params.get("y1")));
+            } else {
+                nodes = null;
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            Responses.writeJsonError(toClient, "400 Bad Request", "invalid viewport, depth or limit");
+            return;
+        }
+        int count = nodes != null ? nodes.length : layout.size();
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(toClient, StandardCharsets.UTF_8), 8192);
+        out.write("HTTP/1.1 200 OK\nContent-Type: application/json\nConnection: close\n\n");
+        out.write("{\"version\":" + layout.getVersion()
+                + ",\"layers\":" + layout.layerCount()
+                + ",\"width\":" + layout.maxLayerSize() * GraphLayout.NODE_GAP
+                + ",\"height\":" + layout.layerCount() * GraphLayout.LAYER_GAP
+                + ",\"cycles\":" + layout.hasCycles());
+        if (clustersOnly || count > limit) {
+            writeClusters(out, layout, nodes);
+        } else {
+            writeNodes(out, layout, nodes);
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Writes nodes and their edges.
+     *
+     * @param out The writer.
+     * @param layout The layout.
+     * @param nodes The nodes to write, or null for all of them.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeNodes(Writer out, GraphLayout layout, int[] nodes) throws IOException {
+        int count = nodes != null ? nodes.length : layout.size();
+        boolean[] selected = new boolean[layout.size()];
+        for (int i = 0; i < count; i++) {
+            selected[nodes != null ? nodes[i] : i] = true;
+        }
+
+        out.write(",\"detail\":\"nodes\",\"nodes\":[");
+        for (int i = 0; i < count; i++) {
+            int node = nodes != null ? nodes[i] : i;
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"id\":" + node + ",\"label\":");
+            Responses.writeJsonString(out, layout.getLabel(node));
+            out.write(",\"class\":");
+            Responses.writeJsonString(out, layout.getAgentClass(node));
+            out.write(",\"x\":" + layout.getX(node) + ",\"y\":" + layout.getY(node)
+                    + ",\"cluster\":" + layout.getCluster(node) + "}");
+        }
+
+        // Edges with at least one selected end, with both positions so they can be drawn alone
+        out.write("],\"edges\":[");
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            int node = nodes != null ? nodes[i] : i;
+            for (int target : layout.getTargets(node)) {
+                writeEdge(out, layout, node, target, first);
+                first = false;
+            }
+            for (int source : layout.getSources(node)) {
+                if (!selected[source]) {
+                    writeEdge(out, layout, source, node, first);
+                    first = false;
+                }
+            }
+        }
+        out.write(']');
+    }
+
+    /**
+     * Writes an edge with the positions of its ends.
+     *
+     * @param out The writer.
+     * @param layout The layout.
+     * @param source The source node.
+     * @param target The target node.
+     * @param first Whether this is the first edge written.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeEdge(Writer out, GraphLayout layout, int source, int target, boolean first) throws IOException {
+        out.write(first ? "[" : ",[");
+        out.write(source + "," + target + "," + layout.getX(source) + "," + layout.getY(source)
+                + "," + layout.getX(target) + "," + layout.getY(target) + "]");
+    }
+
+    /**
+     * Writes the clusters of some nodes and the edges between them.
+     *
+     * @param out The writer.
+     * @param layout The layout.
+     * @param nodes The nodes whose clusters are written, or null for all clusters.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeClusters(Writer out, GraphLayout layout, int[] nodes) throws IOException {
+        boolean[] selected = new boolean[layout.getClusters().size()];
+        if (nodes == null) {
+            Arrays.fill(selected, true);
+        } else {
+            for (int node : nodes) {
+                selected[layout.getCluster(node)] = true;
+            }
+        }
+
+        out.write(",\"detail\":\"clusters\",\"clusters\":[");
+        boolean first = true;
+        for (GraphLayout.Cluster cluster : layout.getClusters()) {
+            if (!selected[cluster.index]) {
+                continue;
+            }
+            out.write(first ? "{\"id\":" : ",{\"id\":");
+            out.write(cluster.index + ",\"label\":");
+            Responses.writeJsonString(out, cluster.getLabel());
+            out.write(",\"class\":");
+            Responses.writeJsonString(out, cluster.agentClass);
+            out.write(",\"count\":" + cluster.getCount() + ",\"x\":" + cluster.getX() + ",\"y\":" + cluster.getY()
+                    + ",\"minX\":" + cluster.getMinX() + ",\"maxX\":" + cluster.getMaxX() + "}");
+            first = false;
+        }
+
+        out.write("],\"edges\":[");
+        first = true;
+        for (Map.Entry<Long, Integer> edge : layout.getClusterEdges().entrySet()) {
+            int source = (int) (edge.getKey() >>> 32);
+            int target = (int) (long) edge.getKey();
+            if (!selected[source] && !selected[target]) {
+                continue;
+            }
+            out.write((first ? "[" : ",[") + source + "," + target + "," + edge.getValue() + "]");
+            first = false;
+        }
+        out.write(']');
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,46 @@
+package servlet;
+
+import server.RequestParser;
+import views.HtmlGraphWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A servlet that returns the HTML page of the graph of the current topics and agents.
+ * <p>
+ * The page is the one returned after an upload by {@link ConfLoader}. It is rendered in memory by
+ * {@link HtmlGraphWriter} and only rendered again after the graph changes, so it can be requested often.
+ * </p>
+ */
+public class GraphServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by writing the page of the current graph.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        byte[] html = HtmlGraphWriter.getGraphPage();
+        toClient.write(("HTTP/1.1 200 OK\n"
+                + "Content-Type: text/html\n"
+                + "Connection: close\n"
+                + "Content-Length: " + html.length + "\n\n").getBytes());
+        toClient.write(html);
+        toClient.flush();
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,51 @@
+package servlet;
+
+import metrics.MetricsRegistry;
+import metrics.PrometheusWriter;
+import server.RequestParser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A servlet that returns the metrics of the application for Prometheus.
+ * <p>
+ * {@code GET /metrics} writes the counters, gauges and histograms of the {@link MetricsRegistry} and the
+ * metrics of the JVM in the Prometheus text format, see {@link PrometheusWriter}. The response is streamed,
+ * so the metrics of a huge graph are never held in memory at once.
+ * </p>
+ */
+public class MetricsServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by writing the metrics.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(toClient, StandardCharsets.UTF_8), 8192);
+        out.write("HTTP/1.1 200 OK\n"
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\n"
+                + "Connection: close\n\n");
+        PrometheusWriter.write(MetricsRegistry.get(), out);
+        out.flush();
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
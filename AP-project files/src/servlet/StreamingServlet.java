@@ -0,0 +1,27 @@
+package servlet;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Represents a servlet whose responses stream for as long as the client stays connected, such as
+ * Server-Sent Events.
+ * <p>
+ * The server calls {@link #handle(RequestInfo, java.io.OutputStream)} on one of its request threads to send
+ * the headers, then passes the connection to {@link #stream(RequestInfo, OutputStream)} on a thread of its
+ * own, so open streams never keep other requests waiting. The connection is closed when that method returns.
+ * </p>
+ */
+public interface StreamingServlet extends Servlet {
+
+    /**
+     * Streams the body of the response until the client disconnects or the thread is interrupted.
+     *
+     * @param ri The {@link RequestInfo} of the request.
+     * @param toClient The {@link OutputStream} the headers were written to.
+     * @throws IOException If an I/O error occurs while streaming.
+     */
+    void stream(RequestInfo ri, OutputStream toClient) throws IOException;
+}
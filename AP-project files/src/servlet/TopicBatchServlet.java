@@ -0,0 +1,245 @@
+package servlet;
+
+import graph.Message;
+import graph.PublishBatch;
+import graph.PublishStatus;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A servlet that publishes many values in a single request.
+ * <p>
+ * The body of {@code POST /publish/batch} holds one value per line, either as CSV
+ * ({@code topic,value}) or as a JSON object ({@code {"topic":"A","value":3}}). Only existing topics
+ * are published to. All the values are applied as one {@link PublishBatch}, so every topic, downstream
+ * topics included, publishes once, and a topic listed twice publishes its last value.
+ * </p>
+ * <p>
+ * The response is a small JSON object:
+ * {@code {"applied":2,"unknown":["X"],"invalid":[3],"published":5}}, where {@code applied} counts the
+ * topics set by the request, {@code unknown} lists the topics that do not exist, {@code invalid} lists
+ * the lines that could not be read, and {@code published} counts all the topics published, downstream
+ * topics included. If the batch is not delivered within {@link TopicDisplayer#PUBLISH_TIMEOUT_MILLIS},
+ * the same object is answered with {@code 429 Too Many Requests}.
+ * </p>
+ */
+public class TopicBatchServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by publishing the values in its body.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including the body.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        String body = new String(ri.getContent(), StandardCharsets.UTF_8);
+
+        // Read the pairs, the last value of a topic wins
+        Map<Topic, String> values = new LinkedHashMap<>();
+        Set<String> unknown = new LinkedHashSet<>();
+        StringBuilder invalid = new StringBuilder();
+        String[] lines = body.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] pair = line.startsWith("{") ? parseJsonLine(line) : parseCsvLine(line);
+            if (pair == null) {
+                invalid.append(invalid.length() > 0 ? "," : "").append(i + 1);
+                continue;
+            }
+            Topic topic = TopicManagerSingleton.get().getTopics().get(pair[0]);
+            if (topic == null) {
+                unknown.add(pair[0]);
+            } else {
+                values.remove(topic);
+                values.put(topic, pair[1]);
+            }
+        }
+
+        // Publish everything as one batch, never into a configuration being swapped in
+        ReentrantReadWriteLock graphLock = TopicManagerSingleton.get().getGraphLock();
+        PublishBatch.Result result;
+        graphLock.readLock().lock();
+        try {
+            result = PublishBatch.apply(() -> {
+                for (Map.Entry<Topic, String> entry : values.entrySet()) {
+                    entry.getKey().publish(new Message(entry.getValue()));
+                }
+            }, TopicDisplayer.PUBLISH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } finally {
+            graphLock.readLock().unlock();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"applied\":").append(values.size()).append(",\"unknown\":[");
+        boolean first = true;
+        for (String name : unknown) {
+            json.append(first ? "" : ",");
+            Responses.appendJsonString(json, name);
+            first = false;
+        }
+        json.append("],\"invalid\":[").append(invalid).append("],\"published\":").append(result.published).append('}');
+        if (result.status != PublishStatus.ACCEPTED) {
+            Responses.write(toClient, "429 Too Many Requests", "application/json",
+                    json.toString().getBytes(StandardCharsets.UTF_8), "Retry-After: 1");
+            return;
+        }
+        Responses.writeJson(toClient, "200 OK", json.toString());
+    }
+
+    /**
+     * Reads a {@code topic,value} line.
+     *
+     * @param line The line.
+     * @return The topic name and the value, or null if the line is not a pair.
+     */
+    private static String[] parseCsvLine(String line) {
+        int comma = line.indexOf(',');
+        if (comma <= 0) {
+            return null;
+        }
+        return new String[] {line.substring(0, comma).trim(), line.substring(comma + 1).trim()};
+    }
+
+    /**
+     * Reads a flat JSON object line holding a {@code topic} and a {@code value} member.
+     * The value may be a string or a number.
+     *
+     * @param line The line.
+     * @return The topic name and the value, or null if the line is not such an object.
+     */
+    private static String[] parseJsonLine(String line) {
+        String topic = null;
+        String value = null;
+        int i = 1;
+        int end = line.lastIndexOf('}');
+        if (end < 0) {
+            return null;
+        }
+        while (i < end) {
+            // Member name
+            i = skipSpaces(line, i);
+            if (i >= end) {
+                break;
+            }
+            if (line.charAt(i) != '"') {
+                return null;
+            }
+            StringBuilder name = new StringBuilder();
+            i = readString(line, i, name);
+            i = skipSpaces(line, i);
+            if (i < 0 || i >= end || line.charAt(i) != ':') {
+                return null;
+            }
+            i = skipSpaces(line, i + 1);
+            if (i >= end) {
+                return null;
+            }
+
+            // Member value, a string or a bare literal
+            StringBuilder member = new StringBuilder();
+            if (line.charAt(i) == '"') {
+                i = readString(line, i, member);
+                if (i < 0) {
+                    return null;
+                }
+            } else {
+                while (i < end && line.charAt(i) != ',') {
+                    member.append(line.charAt(i++));
+                }
+            }
+            if (name.toString().equals("topic")) {
+                topic = member.toString().trim();
+            } else if (name.toString().equals("value")) {
+                value = member.toString().trim();
+            }
+
+            i = skipSpaces(line, i);
+            if (i < end && line.charAt(i) == ',') {
+                i++;
+            }
+        }
+        return topic != null && !topic.isEmpty() && value != null ? new String[] {topic, value} : null;
+    }
+
+    /**
+     * Skips spaces.
+     *
+     * @param s The string.
+     * @param i The index to start from, may be negative.
+     * @return The index of the first non-space character, or i if negative.
+     */
+    private static int skipSpaces(String s, int i) {
+        while (i >= 0 && i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads a JSON string literal.
+     *
+     * @param s The string holding the literal.
+     * @param i The index of the opening quote.
+     * @param out Receives the unescaped literal.
+     * @return The index after the closing quote, or -1 if the literal is not terminated.
+     */
+    private static int readString(String s, int i, StringBuilder out) {
+        for (i = i + 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\' && i + 1 < s.length()) {
+                char escaped = s.charAt(++i);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'u':
+                        if (i + 4 >= s.length()) {
+                            return -1;
+                        }
+                        try {
+                            out.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        } catch (NumberFormatException e) {
+                            return -1;
+                        }
+                        i += 4;
+                        break;
+                    default: out.append(escaped);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
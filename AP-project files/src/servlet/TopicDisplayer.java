@@ -1,15 +1,17 @@
 package servlet;
 
 import graph.Message;
+import graph.PublishStatus;
+import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 import server.RequestParser;
-import graph.GenericConfig;
-import graph.Graph;
+import server.Responses;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A servlet that displays and manages topics and their last messages.
@@ -17,18 +19,33 @@ import java.util.concurrent.ConcurrentHashMap;
  * This servlet handles HTTP requests to display topics and their last messages in an HTML table. It also allows publishing
  * messages to specific topics. The servlet uses a singleton instance of the {@link TopicManager} to interact with topics.
  * </p>
+ * <p>
+ * The servlet keeps no per-request state, so concurrent requests do not share any buffer. The HTML table is rendered
+ * once and kept as bytes until the topology or a topic value changes, see
+ * {@link TopicManager#getTopologyVersion()} and {@link TopicManager#getValuesVersion()}.
+ * </p>
+ * <p>
+ * Messages are published with {@link Topic#tryPublish(Message, long, TimeUnit)}, so an overloaded graph answers
+ * {@code 429 Too Many Requests} within {@link #PUBLISH_TIMEOUT_MILLIS} instead of holding the worker thread.
+ * </p>
  */
 public class TopicDisplayer implements Servlet {
-    private static final Map<String, String> topicsAndMessages = new ConcurrentHashMap<>();
-    private PrintWriter clientOut;
-    private static StringBuilder htmlContent = new StringBuilder();
+
+    /** The longest time a publish waits for a credit or for room in the queues downstream, in milliseconds. */
+    static final long PUBLISH_TIMEOUT_MILLIS = 2000;
+
+    /** The last rendered table page, or null if it must be rendered again. */
+    private static volatile Page cachedPage;
+
+    /** The contents of temp.html, or null if not read yet. */
+    private static volatile Page cachedTempHtml;
 
     /**
      * Handles an HTTP request by displaying topics and their last messages, or publishing a message to a specified topic.
      * <p>
-     * If there are topics available, it retrieves and displays the last message of each topic in an HTML table. If the HTTP
-     * request contains a topic name and message, it publishes the message to the specified topic and updates the display.
-     * If no topics are available, it returns a predefined HTML page (temp.html).
+     * If the HTTP request contains the name of an existing topic (as displayed, with a 'T' prefix) and a message, it
+     * publishes the message to the topic and responds with the table of topics and their last messages. Otherwise,
+     * or if no topics are available, it returns a predefined HTML page (temp.html).
      * </p>
      *
      * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including parameters.
@@ -37,137 +54,171 @@ public class TopicDisplayer implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
-        // Initialize the table
         TopicManager tm = TopicManagerSingleton.get();
-        clientOut = new PrintWriter(toClient);
-
-        // Check if there are any topics in the topic manager
-        if (!tm.getTopics().isEmpty()) {
-            // Get all topics and their last messages
-            for (String topicName : tm.getTopics().keySet()) {
-                // Remove the 'T' prefix if present
-                if (topicName.startsWith("T")) {
-                    topicName = topicName.substring(1);
-                }
-                topicsAndMessages.put("T" + topicName, tm.getTopic(topicName).getLastMessage().getContent());
-            }
-
-
-            // Get the topic name and message from the HTTP request
-            Map<String, String> params = ri.getParameters();
-            String topicName = params.get("Topic+name");
-            String message = params.get("Message");
-            // Check if the topic name and message are not null
-            if (topicName == null || message == null) {
-                // check if there was any html content sent to the client
-                if (htmlContent.isEmpty()) {
-                    // Load and send temp.html if no topics are available
-                    loadTempHtml();
-                } else { // if its not, just send the temp html page
-                    // if its not, just send the last html page
-                    sendHtmlResponse();
-                }
-                return;
-            }
-
-
-            // Check if the topic name is in the map
-            Set<String> topicNamesSet = topicsAndMessages.keySet();
-            if (!topicNamesSet.contains(topicName)) {
-                // check if there was any html content sent to the client
-                if (htmlContent.isEmpty()) {
-                    // Load and send temp.html if no topics are available
-                    loadTempHtml();
-                } else {
-                    // if it's not, send the last html page
-                    sendHtmlResponse();
-                }
-            }
-            else {
-                // Publish the message to the topic
-                tm.getTopic(topicName.substring(1)).publish(new Message(message));
-
-                // Update the map with the latest messages
-                for (String topic : topicNamesSet) {
-                    topicsAndMessages.put(topic, tm.getTopic(topic.substring(1)).getLastMessage().getContent());
-                }
-
-                // Generate HTML content for the response
-                htmlContent.append("<html>" +
-                        "<body>" +
-                        "<table border='1'>" +
-                        "<tr><th>Topic Name</th><th>Last Message</th></tr>");
-                for (Map.Entry<String, String> entry : topicsAndMessages.entrySet()) {
-                    htmlContent.append("<tr><td>")
-                            .append(entry.getKey())
-                            .append("</td><td>")
-                            .append(entry.getValue())
-                            .append("</td></tr>");
-                }
-                htmlContent.append("</table>" + "</body></html>");
-
-                // Write the HTTP response
-                sendHtmlResponse();
-
-                // Clear the html content
-                htmlContent.setLength(0);
-            }
+
+        // Get the topic name and message from the HTTP request
+        Map<String, String> params = ri.getParameters();
+        String topicName = params.get("Topic+name");
+        String message = params.get("Message");
+
+        // Topics are displayed with a 'T' prefix
+        Topic topic = null;
+        if (topicName != null && message != null && topicName.startsWith("T")) {
+            topic = tm.getTopics().get(topicName.substring(1));
+        }
+        if (topic == null) {
+            // Load and send temp.html if no topic is published to
+            sendHtmlResponse(toClient, tempHtml());
+            return;
+        }
+
+        // Publish the message to the topic and send the updated table, or tell the client to back off
+        PublishStatus status;
+        tm.getGraphLock().readLock().lock();
+        try {
+            status = topic.tryPublish(new Message(message), PUBLISH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } finally {
+            tm.getGraphLock().readLock().unlock();
         }
-        else {
-            // Load and send temp.html if no topics are available
-            loadTempHtml();
+        if (status != PublishStatus.ACCEPTED) {
+            sendTooManyRequests(toClient, status);
+            return;
         }
+        sendHtmlResponse(toClient, tablePage(tm));
     }
 
-    private void sendHtmlResponse() {
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + htmlContent.length());
-        clientOut.println();
-        clientOut.println(htmlContent);
-        clientOut.flush();
+    /**
+     * Writes an HTML response.
+     *
+     * @param toClient The output stream to write to.
+     * @param html The HTML page, encoded.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void sendHtmlResponse(OutputStream toClient, byte[] html) throws IOException {
+        Responses.write(toClient, "200 OK", "text/html", html, "Connection: close");
     }
 
-    private void loadTempHtml() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        String htmlContent = HtmlLoader.readFileToString(new File(path + "/temp.html"));
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + htmlContent.length());
-        clientOut.println();
-        clientOut.println(htmlContent);
-        clientOut.flush();
+    /**
+     * Writes a 429 response for a publish that was rejected or overloaded the graph.
+     *
+     * @param toClient The output stream to write to.
+     * @param status The status of the publish.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void sendTooManyRequests(OutputStream toClient, PublishStatus status) throws IOException {
+        byte[] body = (status == PublishStatus.REJECTED
+                ? "Too many messages are being published, the message was not published.\n"
+                : "The message was published, but an agent downstream is overloaded and dropped it.\n").getBytes();
+        Responses.write(toClient, "429 Too Many Requests", "text/plain", body, "Retry-After: 1", "Connection: close");
     }
 
     /**
-     * Resets the topics and messages map by clearing it and resetting the {@link TopicManager}.
+     * Gets the table page of the topics and their last messages, rendering it again only if the topology
+     * or a topic value changed since it was last rendered.
+     *
+     * @param tm The topic manager.
+     * @return The HTML page, encoded.
+     */
+    private static byte[] tablePage(TopicManager tm) {
+        // Read the versions before the values, a value set in between only makes the page stale
+        long topologyVersion = tm.getTopologyVersion();
+        long valuesVersion = tm.getValuesVersion();
+        Page page = cachedPage;
+        if (page != null && page.topologyVersion == topologyVersion && page.valuesVersion == valuesVersion) {
+            return page.html;
+        }
+
+        // Generate HTML content for the response
+        StringBuilder html = new StringBuilder(128 + tm.getTopics().size() * 48);
+        html.append("<html><body><table border='1'><tr><th>Topic Name</th><th>Last Message</th></tr>");
+        for (Topic topic : tm.getTopics().values()) {
+            Message last = topic.getLastMessage();
+            html.append("<tr><td>T");
+            Responses.appendHtmlEscaped(html, topic.getName());
+            html.append("</td><td>");
+            Responses.appendHtmlEscaped(html, last != null ? last.getContent() : "");
+            html.append("</td></tr>");
+        }
+        html.append("</table></body></html>");
+
+        page = new Page(topologyVersion, valuesVersion, html.toString().getBytes(StandardCharsets.UTF_8));
+        cachedPage = page;
+        return page.html;
+    }
+
+    /**
+     * Gets the contents of temp.html, reading the file only if it changed since it was last read.
+     *
+     * @return The HTML page, encoded.
+     * @throws IOException If the file cannot be read.
+     */
+    private static byte[] tempHtml() throws IOException {
+        File file = new File(System.getProperty("user.dir") + "/html_files/temp.html");
+        long modified = file.lastModified();
+        Page page = cachedTempHtml;
+        if (page == null || page.topologyVersion != modified) {
+            page = new Page(modified, 0, Files.readAllBytes(file.toPath()));
+            cachedTempHtml = page;
+        }
+        return page.html;
+    }
+
+    /**
+     * Resets the displayed topics and clears the {@link TopicManager}.
      * <p>
      * This method is useful for reinitializing the servlet's state, typically when starting a new session or resetting data.
      * </p>
      */
     public static void resetTopicsAndMessages() {
-        // Reset the map by overwriting it with a new one
-        topicsAndMessages.clear();
-        // clear the html content
-        htmlContent.setLength(0);
+        cachedPage = null;
         TopicManager tm = TopicManagerSingleton.get();
         // clear the graph
         tm.clear();
-
     }
 
     /**
-     * Closes any resources associated with this servlet.
+     * Resets the cached topics display without touching the topics held by the {@link TopicManager}.
      * <p>
-     * This implementation closes the {@link PrintWriter} used to write the HTTP response.
+     * This method is used when a configuration is reloaded, since unchanged topics keep their last messages.
      * </p>
+     */
+    public static void resetDisplay() {
+        cachedPage = null;
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources, responses are written directly to the client stream.
      *
-     * @throws IOException If an I/O error occurs while closing the resource.
+     * @throws IOException Never thrown by this implementation.
      */
     @Override
     public void close() throws IOException {
-        clientOut.close();
+        // No resources to close
+    }
+
+    /**
+     * A rendered page with the versions it was rendered for.
+     */
+    private static final class Page {
+        /** The topology version, or the modification time of a file. */
+        final long topologyVersion;
+        /** The values version. */
+        final long valuesVersion;
+        /** The encoded page. */
+        final byte[] html;
+
+        /**
+         * Constructs a Page.
+         *
+         * @param topologyVersion The topology version, or the modification time of a file.
+         * @param valuesVersion The values version.
+         * @param html The encoded page.
+         */
+        Page(long topologyVersion, long valuesVersion, byte[] html) {
+            this.topologyVersion = topologyVersion;
+            this.valuesVersion = valuesVersion;
+            this.html = html;
+        }
     }
 }
@@ -0,0 +1,191 @@
+package servlet;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A servlet that streams topic updates to the browser as Server-Sent Events.
+ * <p>
+ * The request {@code GET /events?topics=A,B&interval=250} keeps the connection open and pushes a
+ * {@code data: {"topic":"A","value":"..."}} event for every change of the listed topics (all topics
+ * if {@code topics} is omitted). It starts with the last value of every listed topic. Updates are
+ * coalesced: at most one event per topic is sent every {@code interval} milliseconds (250 by default),
+ * carrying the latest value. A comment line is sent when nothing changed for a while, so closed
+ * connections are detected.
+ * </p>
+ * <p>
+ * The headers are sent on one of the server's request threads, then the stream runs on a thread of its own
+ * until the client disconnects, see {@link StreamingServlet}.
+ * </p>
+ */
+public class TopicEventsServlet implements StreamingServlet {
+
+    /** The default minimum time between two flushes of updates, in milliseconds. */
+    private static final long DEFAULT_INTERVAL_MILLIS = 250;
+
+    /** The time without updates after which a keep-alive comment is sent, in milliseconds. */
+    private static final long HEARTBEAT_MILLIS = 15000;
+
+    /**
+     * Handles an HTTP request by sending the headers of the event stream.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request.
+     * @param toClient The {@link OutputStream} to which the headers are written.
+     * @throws IOException If an I/O error occurs while writing the response headers.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        toClient.write(("HTTP/1.1 200 OK\n"
+                + "Content-Type: text/event-stream\n"
+                + "Cache-Control: no-cache\n"
+                + "Connection: keep-alive\n\n").getBytes());
+        toClient.flush();
+    }
+
+    /**
+     * Streams the updates of the requested topics until the client disconnects.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including parameters.
+     * @param toClient The {@link OutputStream} to which the events are written.
+     * @throws IOException Never thrown, a disconnected client ends the stream.
+     */
+    @Override
+    public void stream(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        Set<String> filter = null;
+        if (params.get("topics") != null && !params.get("topics").isEmpty()) {
+            filter = new HashSet<>(Arrays.asList(params.get("topics").split(",")));
+        }
+        long interval = DEFAULT_INTERVAL_MILLIS;
+        try {
+            interval = Math.max(0, Long.parseLong(params.getOrDefault("interval", String.valueOf(DEFAULT_INTERVAL_MILLIS))));
+        } catch (NumberFormatException e) {
+            // keep the default interval
+        }
+
+        OutputStream out = new BufferedOutputStream(toClient);
+        TopicManager tm = TopicManagerSingleton.get();
+        Client client = new Client(filter);
+        tm.addListener(client);
+        try {
+            // start with the current values
+            for (Topic topic : tm.getTopics().values()) {
+                client.onPublish(topic, topic.getLastMessage());
+            }
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Map<String, Message> updates = client.awaitUpdates(HEARTBEAT_MILLIS);
+                if (updates.isEmpty()) {
+                    out.write(": keep-alive\n\n".getBytes());
+                } else {
+                    for (Map.Entry<String, Message> update : updates.entrySet()) {
+                        writeEvent(out, update.getKey(), update.getValue());
+                    }
+                }
+                out.flush();
+                // let updates accumulate before the next flush
+                Thread.sleep(interval);
+            }
+        } catch (InterruptedException e) {
+            // the server is shutting down
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client disconnected
+        } finally {
+            tm.removeListener(client);
+        }
+    }
+
+    /**
+     * Writes a single event.
+     *
+     * @param out The stream to write to.
+     * @param topic The name of the topic.
+     * @param msg The last message of the topic.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeEvent(OutputStream out, String topic, Message msg) throws IOException {
+        StringBuilder event = new StringBuilder(32 + topic.length() + msg.asText.length());
+        event.append("data: {\"topic\":");
+        Responses.appendJsonString(event, topic);
+        event.append(",\"value\":");
+        Responses.appendJsonString(event, msg.asText);
+        event.append("}\n\n");
+        out.write(event.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * Open streams end when their client disconnects or the server shuts down.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+
+    /**
+     * The pending updates of a single connected client, keeping only the latest message per topic.
+     */
+    private static class Client implements TopicListener {
+        /** The names of the topics the client listens to, or null for all topics. */
+        private final Set<String> filter;
+        /** The latest message of every topic changed since the last flush, in order of first change. */
+        private Map<String, Message> pending = new LinkedHashMap<>();
+
+        /**
+         * Constructs a Client.
+         *
+         * @param filter The names of the topics the client listens to, or null for all topics.
+         */
+        Client(Set<String> filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void onPublish(Topic topic, Message msg) {
+            if (filter != null && !filter.contains(topic.getName())) {
+                return;
+            }
+            synchronized (this) {
+                pending.put(topic.getName(), msg);
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until updates are pending and takes them.
+         *
+         * @param timeoutMillis The maximum time to wait.
+         * @return The pending updates, empty if none arrived in time.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        synchronized Map<String, Message> awaitUpdates(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (pending.isEmpty() && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            Map<String, Message> updates = pending;
+            pending = new LinkedHashMap<>();
+            return updates;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package servlet;
+
+import graph.Topic;
+import graph.TopicHistory;
+import graph.TopicManagerSingleton;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * A servlet that returns the recent values of a topic as JSON.
+ * <p>
+ * The request {@code GET /history?topic=A&from=...&to=...&points=...} returns the values published to
+ * topic {@code A} between the {@code from} and {@code to} times (in milliseconds since the epoch,
+ * defaulting to the whole history), reduced to at most {@code points} points if given. Each point is
+ * written as {@code [time, value, min, max]}, with infinite values written as {@code null}. The topic must keep a history, see
+ * {@link graph.TopicManagerSingleton.TopicManager#enableHistory(int, long)}.
+ * </p>
+ */
+public class TopicHistoryServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by writing the history of the requested topic.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including parameters.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        String topicName = params.get("topic");
+        Topic topic = topicName != null ? TopicManagerSingleton.get().getTopics().get(topicName) : null;
+        TopicHistory history = topic != null ? topic.getHistory() : null;
+        if (history == null) {
+            Responses.writeJsonError(toClient, "404 Not Found", "no history for topic");
+            return;
+        }
+
+        long from;
+        long to;
+        int points;
+        try {
+            from = Long.parseLong(params.getOrDefault("from", String.valueOf(Long.MIN_VALUE)));
+            to = Long.parseLong(params.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+            points = Integer.parseInt(params.getOrDefault("points", "0"));
+        } catch (NumberFormatException e) {
+            Responses.writeJsonError(toClient, "400 Bad Request", "invalid from, to or points");
+            return;
+        }
+
+        TopicHistory.Samples samples;
+        if (points > 0) {
+            // downsampling needs a bounded range, so clamp it to the values actually held
+            TopicHistory.Samples raw = history.range(from, to);
+            if (raw.size() == 0) {
+                samples = raw;
+            } else {
+                samples = history.downsample(Math.max(from, raw.times[0]), Math.min(to, raw.times[raw.size() - 1]), points);
+            }
+        } else {
+            samples = history.range(from, to);
+        }
+
+        StringBuilder json = new StringBuilder(32 + samples.size() * 48);
+        json.append("{\"topic\":");
+        Responses.appendJsonString(json, topicName);
+        json.append(",\"points\":[");
+        for (int i = 0; i < samples.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(samples.times[i]).append(',');
+            Responses.appendJsonNumber(json, samples.values[i]);
+            json.append(',');
+            Responses.appendJsonNumber(json, samples.min[i]);
+            json.append(',');
+            Responses.appendJsonNumber(json, samples.max[i]);
+            json.append(']');
+        }
+        json.append("]}");
+        Responses.writeJson(toClient, "200 OK", json.toString());
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
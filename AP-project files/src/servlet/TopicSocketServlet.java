@@ -0,0 +1,220 @@
+package servlet;
+
+import graph.Message;
+import graph.PublishStatus;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser;
+import server.WebSocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WebSocket servlet that lets clients publish to and subscribe to topics over a single connection.
+ * <p>
+ * Every text message holds one or more commands, one per line:
+ * </p>
+ * <ul>
+ *     <li>{@code p <topic> <value>} publishes a value to an existing topic,</li>
+ *     <li>{@code s <topic>} subscribes to a topic ({@code s *} for all topics),</li>
+ *     <li>{@code u <topic>} unsubscribes from a topic ({@code u *} for all topics).</li>
+ * </ul>
+ * <p>
+ * The server sends {@code v <topic> <value>} lines for the subscribed topics, several lines per message
+ * when many topics changed. Updates are coalesced: a topic that changes again before its update is sent
+ * only sends its latest value. Errors are reported with an {@code e <reason>} line. Topic names cannot
+ * contain spaces.
+ * </p>
+ * <p>
+ * Values are published as from the web page, with {@link Topic#tryPublish(Message, long, TimeUnit)}: a
+ * publish that finds the graph overloaded for {@link TopicDisplayer#PUBLISH_TIMEOUT_MILLIS} milliseconds is
+ * reported with an {@code e busy <topic>} line, and the client should send it again later.
+ * </p>
+ * <p>
+ * Each connection is read by a thread the server gives it, plus a thread of its own to send updates.
+ * </p>
+ */
+public class TopicSocketServlet implements WebSocketServlet {
+
+    /**
+     * Serves a WebSocket connection, executing the commands of the client until it disconnects.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} of the upgrade request.
+     * @param socket The WebSocket connection.
+     * @throws IOException If an I/O error occurs while serving the connection.
+     */
+    @Override
+    public void onOpen(RequestParser.RequestInfo ri, WebSocket socket) throws IOException {
+        TopicManager tm = TopicManagerSingleton.get();
+        Connection connection = new Connection(socket);
+        Thread sender = new Thread(connection::sendUpdates, "websocket-sender");
+        sender.setDaemon(true);
+        sender.start();
+        tm.addListener(connection);
+        try {
+            String text;
+            while ((text = socket.readText()) != null) {
+                for (String line : text.split("\n")) {
+                    execute(tm, connection, line.trim());
+                }
+            }
+        } finally {
+            tm.removeListener(connection);
+            sender.interrupt();
+        }
+    }
+
+    /**
+     * Executes a single command of a client.
+     *
+     * @param tm The topic manager.
+     * @param connection The connection of the client.
+     * @param command The command line.
+     * @throws IOException If an error cannot be reported to the client.
+     */
+    private static void execute(TopicManager tm, Connection connection, String command) throws IOException {
+        if (command.isEmpty()) {
+            return;
+        }
+        String[] parts = command.split(" ", 3);
+        switch (parts[0]) {
+            case "p":
+                if (parts.length < 3) {
+                    connection.socket.sendText("e usage: p <topic> <value>");
+                    return;
+                }
+                Topic topic = tm.getTopics().get(parts[1]);
+                if (topic == null) {
+                    connection.socket.sendText("e unknown topic " + parts[1]);
+                    return;
+                }
+                PublishStatus status;
+                tm.getGraphLock().readLock().lock();
+                try {
+                    status = topic.tryPublish(new Message(parts[2]), TopicDisplayer.PUBLISH_TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                } finally {
+                    tm.getGraphLock().readLock().unlock();
+                }
+                if (status != PublishStatus.ACCEPTED) {
+                    connection.socket.sendText("e busy " + parts[1]);
+                }
+                break;
+            case "s":
+                if (parts.length >= 2) {
+                    connection.topics.add(parts[1]);
+                    // start with the current value
+                    Topic subscribed = tm.getTopics().get(parts[1]);
+                    if (subscribed != null) {
+                        connection.onPublish(subscribed, subscribed.getLastMessage());
+                    }
+                }
+                break;
+            case "u":
+                if (parts.length >= 2) {
+                    connection.topics.remove(parts[1]);
+                }
+                break;
+            default:
+                connection.socket.sendText("e unknown command " + parts[0]);
+        }
+    }
+
+    /**
+     * Answers requests that do not ask for a WebSocket upgrade.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        String response = "WebSocket upgrade required";
+        toClient.write("HTTP/1.1 426 Upgrade Required\n".getBytes());
+        toClient.write("Upgrade: websocket\n".getBytes());
+        toClient.write(("Content-Length: " + response.length() + "\n\n").getBytes());
+        toClient.write(response.getBytes());
+        toClient.flush();
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * Open connections end when their client disconnects or the server shuts down.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+
+    /**
+     * The subscriptions and pending updates of a single connection.
+     */
+    private static class Connection implements TopicListener {
+        /** The WebSocket of the client. */
+        private final WebSocket socket;
+        /** The names of the subscribed topics, "*" standing for all topics. */
+        private final Set<String> topics = ConcurrentHashMap.newKeySet();
+        /** The latest message of every subscribed topic changed since the last send. */
+        private Map<String, Message> pending = new LinkedHashMap<>();
+
+        /**
+         * Constructs a Connection.
+         *
+         * @param socket The WebSocket of the client.
+         */
+        Connection(WebSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void onPublish(Topic topic, Message msg) {
+            if (!topics.contains(topic.getName()) && !topics.contains("*")) {
+                return;
+            }
+            synchronized (this) {
+                pending.put(topic.getName(), msg);
+                notifyAll();
+            }
+        }
+
+        /**
+         * Sends the pending updates as they arrive, until the thread is interrupted or the client disconnects.
+         */
+        void sendUpdates() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Map<String, Message> updates;
+                    synchronized (this) {
+                        while (pending.isEmpty()) {
+                            wait();
+                        }
+                        updates = pending;
+                        pending = new LinkedHashMap<>();
+                    }
+                    StringBuilder text = new StringBuilder();
+                    for (Map.Entry<String, Message> update : updates.entrySet()) {
+                        if (text.length() > 0) {
+                            text.append('\n');
+                        }
+                        text.append("v ").append(update.getKey()).append(' ').append(update.getValue().asText);
+                    }
+                    socket.sendText(text.toString());
+                }
+            } catch (InterruptedException e) {
+                // the connection was closed
+            } catch (IOException e) {
+                // the client disconnected
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package servlet;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A servlet that returns the topic values as JSON or plain text, for clients that do not need the HTML table.
+ * <p>
+ * {@code GET /topics} returns every topic with its last value, and {@code GET /topics/{name}} returns a single
+ * topic. The format is JSON unless the request accepts {@code text/plain} but not {@code application/json},
+ * or asks for {@code ?format=text}. Plain text holds one {@code name<TAB>value} line per topic.
+ * </p>
+ * <p>
+ * Every response carries an ETag made of the topology and values versions of the {@link TopicManager}
+ * (or of the topic, for a single topic) and of the format, since JSON and plain text are different
+ * representations of the same values; {@code Vary: Accept} tells caches so as well. A request whose
+ * {@code If-None-Match} header matches the current ETag gets an empty {@code 304 Not Modified} response,
+ * so polling clients only download values that changed.
+ * </p>
+ */
+public class TopicValuesServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by writing the requested topic values.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        TopicManager tm = TopicManagerSingleton.get();
+        boolean json = wantsJson(ri);
+        String[] segments = ri.getUriSegments();
+
+        // A single topic
+        if (segments.length > 1) {
+            String name = URLDecoder.decode(segments[1], StandardCharsets.UTF_8);
+            Topic topic = tm.getTopics().get(name);
+            if (topic == null) {
+                toClient.write("HTTP/1.1 404 Not Found\nContent-Length: 0\n\n".getBytes());
+                toClient.flush();
+                return;
+            }
+            // Read the version before the value, a value set in between only makes the ETag stale
+            String etag = etag(tm.getTopologyVersion(), topic.getValueVersion(), json);
+            if (notModified(ri, etag, toClient)) {
+                return;
+            }
+            Writer out = startResponse(toClient, etag, json);
+            if (json) {
+                writeJsonTopic(out, topic);
+            } else {
+                writeTextTopic(out, topic);
+            }
+            out.flush();
+            return;
+        }
+
+        // All the topics
+        String etag = etag(tm.getTopologyVersion(), tm.getValuesVersion(), json);
+        if (notModified(ri, etag, toClient)) {
+            return;
+        }
+        Writer out = startResponse(toClient, etag, json);
+        if (json) {
+            out.write("{\"topics\":[");
+        }
+        boolean first = true;
+        for (Topic topic : tm.getTopics().values()) {
+            if (json) {
+                if (!first) {
+                    out.write(',');
+                }
+                writeJsonTopic(out, topic);
+            } else {
+                writeTextTopic(out, topic);
+            }
+            first = false;
+        }
+        if (json) {
+            out.write("]}");
+        }
+        out.flush();
+    }
+
+    /**
+     * Checks whether the client asked for JSON rather than plain text.
+     *
+     * @param ri The request.
+     * @return true for JSON.
+     */
+    private static boolean wantsJson(RequestParser.RequestInfo ri) {
+        String format = ri.getParameters().get("format");
+        if (format != null) {
+            return !format.equalsIgnoreCase("text");
+        }
+        String accept = header(ri, "Accept");
+        return accept == null || accept.contains("application/json") || !accept.contains("text/plain");
+    }
+
+    /**
+     * Makes the ETag of a representation of the values.
+     *
+     * @param topologyVersion The topology version.
+     * @param valuesVersion The version of the values.
+     * @param json true for the JSON representation, false for plain text.
+     * @return The quoted ETag.
+     */
+    private static String etag(long topologyVersion, long valuesVersion, boolean json) {
+        return "\"" + topologyVersion + "-" + valuesVersion + (json ? "-json" : "-text") + "\"";
+    }
+
+    /**
+     * Answers with {@code 304 Not Modified} if the client already holds the current version.
+     *
+     * @param ri The request.
+     * @param etag The current ETag.
+     * @param toClient The output stream to write to.
+     * @return true if the response was written.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static boolean notModified(RequestParser.RequestInfo ri, String etag, OutputStream toClient) throws IOException {
+        String ifNoneMatch = header(ri, "If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                toClient.write(("HTTP/1.1 304 Not Modified\nETag: " + etag + "\nVary: Accept\nContent-Length: 0\n\n").getBytes());
+                toClient.flush();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the response headers and returns a writer for the streamed body.
+     * The connection is closed after the response, which ends the body.
+     *
+     * @param toClient The output stream to write to.
+     * @param etag The ETag of the response.
+     * @param json true for a JSON body, false for plain text.
+     * @return The writer for the body.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static Writer startResponse(OutputStream toClient, String etag, boolean json) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(toClient, StandardCharsets.UTF_8), 8192);
+        out.write("HTTP/1.1 200 OK\n");
+        out.write(json ? "Content-Type: application/json\n" : "Content-Type: text/plain; charset=utf-8\n");
+        out.write("Cache-Control: no-cache\n");
+        out.write("ETag: ");
+        out.write(etag);
+        out.write("\nVary: Accept\nConnection: close\n\n");
+        return out;
+    }
+
+    /**
+     * Writes a topic as a JSON object.
+     *
+     * @param out The writer.
+     * @param topic The topic.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeJsonTopic(Writer out, Topic topic) throws IOException {
+        Message msg = topic.getLastMessage();
+        out.write("{\"name\":");
+        Responses.writeJsonString(out, topic.getName());
+        out.write(",\"value\":");
+        Responses.writeJsonString(out, msg == null ? null : msg.asText);
+        out.write(",\"number\":");
+        out.write(msg == null || Double.isNaN(msg.asDouble) || Double.isInfinite(msg.asDouble) ? "null" : Double.toString(msg.asDouble));
+        out.write(",\"subscribers\":");
+        out.write(Integer.toString(topic.getSubscribers().size()));
+        out.write(",\"publishers\":");
+        out.write(Integer.toString(topic.getPublishers().size()));
+        out.write('}');
+    }
+
+    /**
+     * Writes a topic as a {@code name<TAB>value} line.
+     *
+     * @param out The writer.
+     * @param topic The topic.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeTextTopic(Writer out, Topic topic) throws IOException {
+        Message msg = topic.getLastMessage();
+        out.write(topic.getName());
+        out.write('\t');
+        if (msg != null) {
+            out.write(msg.asText);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Gets a request header, ignoring the case of its name.
+     *
+     * @param ri The request.
+     * @param name The header name.
+     * @return The header value, or null if absent.
+     */
+    private static String header(RequestParser.RequestInfo ri, String name) {
+        for (Map.Entry<String, String> entry : ri.getHeaders().entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
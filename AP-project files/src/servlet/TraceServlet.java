@@ -0,0 +1,110 @@
+package servlet;
+
+import graph.PropagationStats;
+import graph.Trace;
+import metrics.LatencyHistogram;
+import server.RequestParser;
+import server.Responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A servlet that returns how long values take to propagate through the graph to a topic, as JSON.
+ * <p>
+ * {@code GET /trace?topic=R3} returns the end-to-end latencies of the values reaching the topic by source topic,
+ * and the critical path to it: the hops, agent by agent, of the path with the highest total mean latency. The
+ * path starts at the {@code source} parameter, or at the source with the highest mean latency. Latencies are
+ * in microseconds, measured on the sampled traces, see {@link Trace} and {@link PropagationStats}.
+ * </p>
+ */
+public class TraceServlet implements Servlet {
+
+    /**
+     * Handles an HTTP request by writing the latencies of a topic.
+     *
+     * @param ri The {@link RequestParser.RequestInfo} object containing details about the HTTP request, including parameters.
+     * @param toClient The {@link OutputStream} to which the HTTP response should be written.
+     * @throws IOException If an I/O error occurs while writing the response.
+     */
+    @Override
+    public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        if (params.get("topic") == null || params.get("topic").isEmpty()) {
+            Responses.writeJsonError(toClient, "400 Bad Request", "missing topic");
+            return;
+        }
+        String topic = URLDecoder.decode(params.get("topic"), StandardCharsets.UTF_8);
+        String source = params.get("source") != null ? URLDecoder.decode(params.get("source"), StandardCharsets.UTF_8) : null;
+
+        // The latencies by source, and the slowest source if none is asked for
+        StringBuilder json = new StringBuilder();
+        json.append("{\"topic\":");
+        Responses.appendJsonString(json, topic);
+        json.append(",\"sampleRate\":").append(Trace.SAMPLE_RATE).append(",\"sources\":[");
+        double slowest = -1;
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : PropagationStats.getPropagation(topic).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            json.append(first ? "{\"source\":" : ",{\"source\":");
+            Responses.appendJsonString(json, entry.getKey());
+            json.append(",\"count\":").append(h.getCount())
+                    .append(",\"meanMicros\":").append(micros(h.getMean()))
+                    .append(",\"p50Micros\":").append(micros(h.getValueAtPercentile(50)))
+                    .append(",\"p99Micros\":").append(micros(h.getValueAtPercentile(99)))
+                    .append(",\"maxMicros\":").append(micros(h.getMax())).append('}');
+            first = false;
+            if (params.get("source") == null && h.getMean() > slowest) {
+                slowest = h.getMean();
+                source = entry.getKey();
+            }
+        }
+        json.append(']');
+
+        // The critical path from that source
+        List<PropagationStats.Hop> path = PropagationStats.criticalPath(source, topic);
+        json.append(",\"criticalPath\":{\"source\":");
+        Responses.appendJsonString(json, source);
+        double total = 0;
+        json.append(",\"hops\":[");
+        first = true;
+        for (PropagationStats.Hop hop : path) {
+            json.append(first ? "{\"from\":" : ",{\"from\":");
+            Responses.appendJsonString(json, hop.getFrom());
+            json.append(",\"to\":");
+            Responses.appendJsonString(json, hop.getTo());
+            json.append(",\"count\":").append(hop.getCount())
+                    .append(",\"meanMicros\":").append(micros(hop.getMeanNanos()))
+                    .append(",\"maxMicros\":").append(micros(hop.getMaxNanos())).append('}');
+            total += hop.getMeanNanos();
+            first = false;
+        }
+        json.append("],\"totalMeanMicros\":").append(micros(total)).append("}}");
+        Responses.writeJson(toClient, "200 OK", json.toString());
+    }
+
+    /**
+     * Converts nanoseconds to microseconds, rounded to a tenth.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in microseconds.
+     */
+    private static double micros(double nanos) {
+        return Math.round(nanos / 100) / 10.0;
+    }
+
+    /**
+     * Closes any resources associated with this servlet.
+     * This servlet does not hold any resources.
+     *
+     * @throws IOException Never thrown by this implementation.
+     */
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
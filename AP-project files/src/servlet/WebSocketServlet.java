@@ -0,0 +1,26 @@
+package servlet;
+
+import server.RequestParser.RequestInfo;
+import server.WebSocket;
+
+import java.io.IOException;
+
+/**
+ * Represents a servlet that serves WebSocket connections.
+ * <p>
+ * When a request for such a servlet asks for a WebSocket upgrade, the server answers the handshake
+ * and passes the connection to {@link #onOpen(RequestInfo, WebSocket)}, on a thread of its own rather
+ * than one of its request threads. The connection is closed when that method returns.
+ * </p>
+ */
+public interface WebSocketServlet extends Servlet {
+
+    /**
+     * Serves an upgraded WebSocket connection until it is closed.
+     *
+     * @param ri The {@link RequestInfo} of the upgrade request.
+     * @param socket The WebSocket connection.
+     * @throws IOException If an I/O error occurs while serving the connection.
+     */
+    void onOpen(RequestInfo ri, WebSocket socket) throws IOException;
+}
@@ -0,0 +1,676 @@
+package views;
+
+import graph.Agent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A layered layout of the graph of topics and agents, computed on the server.
+ * <p>
+ * The layout follows the Sugiyama approach: edges closing a cycle are reversed, every node is put on a layer
+ * below all of its inputs (longest path layering), and the nodes of each layer are ordered by a few barycenter
+ * sweeps to reduce edge crossings. Long edges are not split with dummy nodes, which keeps the layout linear in
+ * the size of the graph. Layer {@code l} is drawn at {@code y = l * LAYER_GAP}, and the nodes of a layer are
+ * {@code NODE_GAP} apart, centered on {@code x = 0}.
+ * </p>
+ * <p>
+ * For a coarser level of detail, the agents of each layer are clustered by class and the topics of each layer
+ * form one cluster. The layout of the current topics is cached by the topology version of the
+ * {@link TopicManager}, see {@link #current()}, and can be queried by viewport or by the neighborhood of a node.
+ * </p>
+ */
+public final class GraphLayout {
+
+    /** The vertical distance between two layers. */
+    public static final double LAYER_GAP = 100;
+
+    /** The horizontal distance between two nodes of a layer. */
+    public static final double NODE_GAP = 60;
+
+    /** The number of barycenter sweeps (each one down then up) ordering the layers. */
+    private static final int SWEEPS = 4;
+
+    /** The layout of the current topics, or null if not computed yet. */
+    private static volatile GraphLayout cached;
+
+    /** The topology version this layout was computed for. */
+    private final long version;
+    /** The label of each node, a 'T' or 'A' prefix followed by the topic or agent name. */
+    private final String[] labels;
+    /** The agent class of each node, or null for topics. */
+    private final String[] classes;
+    /** The outgoing edges of each node. */
+    private final int[][] out;
+    /** The incoming edges of each node. */
+    private final int[][] in;
+    /** The layer of each node. */
+    private final int[] layer;
+    /** The horizontal position of each node. */
+    private final double[] x;
+    /** The nodes of each layer, from left to right. */
+    private final int[][] layers;
+    /** The node of each topic name. */
+    private final Map<String, Integer> topicIndex = new HashMap<>();
+    /** Whether the graph has cycles. */
+    private final boolean cyclic;
+    /** The cluster of each node. */
+    private final int[] clusterOf;
+    /** The clusters. */
+    private final List<Cluster> clusters = new ArrayList<>();
+    /** The number of edges between each pair of clusters, keyed by source and target cluster. */
+    private final Map<Long, Integer> clusterEdges = new LinkedHashMap<>();
+
+    /**
+     * Gets the layout of the current topics and agents, computing it only if the topology changed
+     * since it was last computed.
+     *
+     * @return The layout.
+     */
+    public static GraphLayout current() {
+        TopicManager tm = TopicManagerSingleton.get();
+        // Read the version before the graph, a change in between only makes the layout stale
+        long version = tm.getTopologyVersion();
+        GraphLayout layout = cached;
+        if (layout == null || layout.version != version) {
+            layout = new GraphLayout(version, tm.getTopics().values());
+            cached = layout;
+        }
+        return layout;
+    }
+
+    /**
+     * Computes the layout of the given topics and their agents.
+     *
+     * @param version The topology version of the topics.
+     * @param topicList The topics.
+     */
+    private GraphLayout(long version, Iterable<Topic> topicList) {
+        this.version = version;
+
+        // Sort the topics by name so equal graphs get equal layouts
+        List<Topic> topics = new ArrayList<>();
+        topicList.forEach(topics::add);
+        topics.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        // Every topic and every agent becomes a node
+        List<String> labelList = new ArrayList<>();
+        List<String> classList = new ArrayList<>();
+        Map<Agent, Integer> agentIndex = new IdentityHashMap<>();
+        List<int[]> edges = new ArrayList<>();
+        for (Topic topic : topics) {
+            topicIndex.put(topic.getName(), labelList.size());
+            labelList.add("T" + topic.getName());
+            classList.add(null);
+        }
+        for (Topic topic : topics) {
+            int t = topicIndex.get(topic.getName());
+            for (Agent agent : topic.getSubscribers()) {
+                edges.add(new int[] {t, agentNode(agent, agentIndex, labelList, classList)});
+            }
+            for (Agent agent : topic.getPublishers()) {
+                edges.add(new int[] {agentNode(agent, agentIndex, labelList, classList), t});
+            }
+        }
+        int n = labelList.size();
+        this.labels = labelList.toArray(new String[0]);
+        this.classes = classList.toArray(new String[0]);
+        this.out = adjacency(n, edges, 0, 1);
+        this.in = adjacency(n, edges, 1, 0);
+
+        // Reverse the edges closing a cycle, then layer the nodes
+        boolean[][] reversed = new boolean[n][];
+        this.cyclic = findBackEdges(reversed);
+        this.layer = assignLayers(reversed);
+
+        // Order the layers and place the nodes
+        this.layers = orderLayers();
+        this.x = new double[n];
+        for (int[] nodes : layers) {
+            for (int i = 0; i < nodes.length; i++) {
+                x[nodes[i]] = (i - (nodes.length - 1) / 2.0) * NODE_GAP;
+            }
+        }
+
+        // Cluster the agents of each layer by class, and the topics of each layer together
+        this.clusterOf = new int[n];
+        Map<String, Integer> clusterIndex = new HashMap<>();
+        for (int l = 0; l < layers.length; l++) {
+            for (int node : layers[l]) {
+                String kind = classes[node] != null ? classes[node] : "";
+                Integer c = clusterIndex.get(l + ":" + kind);
+                if (c == null) {
+                    c = clusters.size();
+                    clusterIndex.put(l + ":" + kind, c);
+                    clusters.add(new Cluster(c, l, classes[node]));
+                }
+                clusterOf[node] = c;
+                clusters.get(c).add(x[node]);
+            }
+        }
+        for (int[] edge : edges) {
+            long key = ((long) clusterOf[edge[0]] << 32) | clusterOf[edge[1]];
+            clusterEdges.merge(key, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Gets the node of an agent, adding it if it is new.
+     *
+     * @param agent The agent.
+     * @param agentIndex The node of each agent seen so far.
+     * @param labelList The labels of the nodes so far.
+     * @param classList The agent classes of the nodes so far.
+     * @return The node index.
+     */
+    private static int agentNode(Agent agent, Map<Agent, Integer> agentIndex, List<String> labelList, List<String> classList) {
+        Integer index = agentIndex.get(agent);
+        if (index == null) {
+            index = labelList.size();
+            agentIndex.put(agent, index);
+            labelList.add("A" + agent.getName());
+            classList.add(agent.getClass().getSimpleName());
+        }
+        return index;
+    }
+
+    /**
+     * Builds adjacency arrays from a list of edges.
+     *
+     * @param n The number of nodes.
+     * @param edges The edges, as {source, target} pairs.
+     * @param from The index of the end the arrays are built for.
+     * @param to The index of the other end.
+     * @return The neighbors of each node.
+     */
+    private static int[][] adjacency(int n, List<int[]> edges, int from, int to) {
+        int[] degree = new int[n];
+        for (int[] edge : edges) {
+            degree[edge[from]]++;
+        }
+        int[][] adjacency = new int[n][];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new int[degree[i]];
+        }
+        Arrays.fill(degree, 0);
+        for (int[] edge : edges) {
+            adjacency[edge[from]][degree[edge[from]]++] = edge[to];
+        }
+        return adjacency;
+    }
+
+    /**
+     * Finds the edges closing a cycle with an iterative depth first search.
+     *
+     * @param reversed Receives, for each node, which of its outgoing edges close a cycle.
+     * @return true if the graph has cycles.
+     */
+    private boolean findBackEdges(boolean[][] reversed) {
+        int n = out.length;
+        for (int i = 0; i < n; i++) {
+            reversed[i] = new boolean[out[i].length];
+        }
+        // 0 = not visited, 1 = on the current path, 2 = done
+        byte[] state = new byte[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        boolean found = false;
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            state[root] = 1;
+            while (depth >= 0) {
+                int node = stack[depth];
+                if (next[node] < out[node].length) {
+                    int e = next[node]++;
+                    int target = out[node][e];
+                    if (state[target] == 1) {
+                        reversed[node][e] = true;
+                        found = true;
+                    } else if (state[target] == 0) {
+                        state[target] = 1;
+                        stack[++depth] = target;
+                    }
+                } else {
+                    state[node] = 2;
+                    depth--;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts every node on a layer below all of its inputs, following the edges that do not close a cycle.
+     *
+     * @param reversed Which outgoing edges close a cycle, and are followed backwards.
+     * @return The layer of each node.
+     */
+    private int[] assignLayers(boolean[][] reversed) {
+        int n = out.length;
+        // The acyclic successors of each node
+        List<List<Integer>> successors = new ArrayList<>(n);
+        int[] remaining = new int[n];
+        for (int i = 0; i < n; i++) {
+            successors.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int e = 0; e < out[i].length; e++) {
+                int from = reversed[i][e] ? out[i][e] : i;
+                int to = reversed[i][e] ? i : out[i][e];
+                if (from != to) {
+                    successors.get(from).add(to);
+                    remaining[to]++;
+                }
+            }
+        }
+        int[] layerOf = new int[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (remaining[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int target : successors.get(node)) {
+                layerOf[target] = Math.max(layerOf[target], layerOf[node] + 1);
+                if (--remaining[target] == 0) {
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return layerOf;
+    }
+
+    /**
+     * Orders the nodes of each layer by the mean position of their neighbors, sweeping down then up.
+     *
+     * @return The nodes of each layer, from left to right.
+     */
+    private int[][] orderLayers() {
+        int n = out.length;
+        int layerCount = 0;
+        for (int l : layer) {
+            layerCount = Math.max(layerCount, l + 1);
+        }
+        int[] sizes = new int[layerCount];
+        for (int l : layer) {
+            sizes[l]++;
+        }
+        int[][] ordered = new int[layerCount][];
+        for (int l = 0; l < layerCount; l++) {
+            ordered[l] = new int[sizes[l]];
+        }
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < n; i++) {
+            ordered[layer[i]][sizes[layer[i]]++] = i;
+        }
+
+        double[] position = new double[n];
+        for (int[] nodes : ordered) {
+            for (int i = 0; i < nodes.length; i++) {
+                position[nodes[i]] = i;
+            }
+        }
+        double[] barycenter = new double[n];
+        for (int sweep = 0; sweep < 2 * SWEEPS; sweep++) {
+            boolean down = sweep % 2 == 0;
+            for (int step = 1; step < layerCount; step++) {
+                int l = down ? step : layerCount - 1 - step;
+                int[] nodes = ordered[l];
+                for (int node : nodes) {
+                    int[] neighbors = down ? in[node] : out[node];
+                    double sum = 0;
+                    int count = 0;
+                    for (int neighbor : neighbors) {
+                        if (layer[neighbor] != l) {
+                            sum += position[neighbor];
+                            count++;
+                        }
+                    }
+                    barycenter[node] = count > 0 ? sum / count : position[node];
+                }
+                Integer[] boxed = new Integer[nodes.length];
+                for (int i = 0; i < nodes.length; i++) {
+                    boxed[i] = nodes[i];
+                }
+                Arrays.sort(boxed, (a, b) -> Double.compare(barycenter[a], barycenter[b]));
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = boxed[i];
+                    position[nodes[i]] = i;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Gets the nodes whose position is inside a rectangle, visiting only the layers it crosses.
+     *
+     * @param x0 The left edge.
+     * @param y0 The top edge.
+     * @param x1 The right edge.
+     * @param y1 The bottom edge.
+     * @return The nodes inside the rectangle.
+     */
+    public int[] inViewport(double x0, double y0, double x1, double y1) {
+        int firstLayer = (int) Math.max(0, Math.ceil(y0 / LAYER_GAP));
+        int lastLayer = (int) Math.min(layers.length - 1, Math.floor(y1 / LAYER_GAP));
+        int[] found = new int[16];
+        int count = 0;
+        for (int l = firstLayer; l <= lastLayer; l++) {
+            int[] nodes = layers[l];
+            // The nodes of a layer are sorted by x, find the first one inside
+            int lo = 0;
+            int hi = nodes.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (x[nodes[mid]] < x0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < nodes.length && x[nodes[i]] <= x1; i++) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = nodes[i];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Gets the nodes at most {@code depth} edges away from a node, following edges in both directions.
+     *
+     * @param node The node.
+     * @param depth The largest distance.
+     * @return The nodes, the given node first.
+     */
+    public int[] neighborhood(int node, int depth) {
+        int[] distance = new int[labels.length];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[labels.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = node;
+        distance[node] = 0;
+        while (head < tail) {
+            int current = queue[head++];
+            if (distance[current] == depth) {
+                continue;
+            }
+            for (int[] neighbors : new int[][] {out[current], in[current]}) {
+                for (int neighbor : neighbors) {
+                    if (distance[neighbor] < 0) {
+                        distance[neighbor] = distance[current] + 1;
+                        queue[tail++] = neighbor;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Gets the node of a topic.
+     *
+     * @param topicName The topic name.
+     * @return The node index, or -1 if there is no such topic.
+     */
+    public int topicNode(String topicName) {
+        Integer index = topicIndex.get(topicName);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Gets the number of nodes.
+     *
+     * @return The number of nodes.
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Gets the number of layers.
+     *
+     * @return The number of layers.
+     */
+    public int layerCount() {
+        return layers.length;
+    }
+
+    /**
+     * Gets the largest number of nodes of a layer.
+     *
+     * @return The width of the widest layer, in nodes.
+     */
+    public int maxLayerSize() {
+        int max = 0;
+        for (int[] nodes : layers) {
+            max = Math.max(max, nodes.length);
+        }
+        return max;
+    }
+
+    /**
+     * Gets the label of a node.
+     *
+     * @param node The node index.
+     * @return The label, a 'T' or 'A' prefix followed by the topic or agent name.
+     */
+    public String getLabel(int node) {
+        return labels[node];
+    }
+
+    /**
+     * Gets the agent class of a node.
+     *
+     * @param node The node index.
+     * @return The simple class name of the agent, or null if the node is a topic.
+     */
+    public String getAgentClass(int node) {
+        return classes[node];
+    }
+
+    /**
+     * Gets the horizontal position of a node.
+     *
+     * @param node The node index.
+     * @return The x coordinate.
+     */
+    public double getX(int node) {
+        return x[node];
+    }
+
+    /**
+     * Gets the vertical position of a node.
+     *
+     * @param node The node index.
+     * @return The y coordinate.
+     */
+    public double getY(int node) {
+        return layer[node] * LAYER_GAP;
+    }
+
+    /**
+     * Gets the nodes an edge leads to from a node.
+     *
+     * @param node The node index.
+     * @return The targets of the outgoing edges, not to be modified.
+     */
+    public int[] getTargets(int node) {
+        return out[node];
+    }
+
+    /**
+     * Gets the nodes an edge leads from to a node.
+     *
+     * @param node The node index.
+     * @return The sources of the incoming edges, not to be modified.
+     */
+    public int[] getSources(int node) {
+        return in[node];
+    }
+
+    /**
+     * Gets the cluster of a node.
+     *
+     * @param node The node index.
+     * @return The cluster index.
+     */
+    public int getCluster(int node) {
+        return clusterOf[node];
+    }
+
+    /**
+     * Gets the clusters: the agents of a layer with the same class, or the topics of a layer.
+     *
+     * @return The clusters, indexed by cluster index.
+     */
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Gets the number of edges between each pair of clusters.
+     *
+     * @return The edge counts, keyed by {@code (source << 32) | target}.
+     */
+    public Map<Long, Integer> getClusterEdges() {
+        return clusterEdges;
+    }
+
+    /**
+     * Checks whether the graph has cycles.
+     *
+     * @return true if some edges close a cycle.
+     */
+    public boolean hasCycles() {
+        return cyclic;
+    }
+
+    /**
+     * Gets the topology version this layout was computed for.
+     *
+     * @return The topology version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * A group of nodes of one layer: the agents of one class, or the topics.
+     */
+    public static final class Cluster {
+        /** The cluster index. */
+        public final int index;
+        /** The layer of the nodes. */
+        public final int layer;
+        /** The agent class of the nodes, or null for topics. */
+        public final String agentClass;
+        /** The number of nodes. */
+        private int count;
+        /** The sum of the horizontal positions of the nodes. */
+        private double sumX;
+        /** The smallest horizontal position of the nodes. */
+        private double minX = Double.POSITIVE_INFINITY;
+        /** The largest horizontal position of the nodes. */
+        private double maxX = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Constructs an empty Cluster.
+         *
+         * @param index The cluster index.
+         * @param layer The layer of the nodes.
+         * @param agentClass The agent class of the nodes, or null for topics.
+         */
+        Cluster(int index, int layer, String agentClass) {
+            this.index = index;
+            this.layer = layer;
+            this.agentClass = agentClass;
+        }
+
+        /**
+         * Adds a node to the cluster.
+         *
+         * @param x The horizontal position of the node.
+         */
+        void add(double x) {
+            count++;
+            sumX += x;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+        }
+
+        /**
+         * Gets the label of the cluster, with the same 'T' or 'A' prefix as its nodes.
+         *
+         * @return The label.
+         */
+        public String getLabel() {
+            return agentClass != null ? "A" + agentClass + " x" + count : "T x" + count;
+        }
+
+        /**
+         * Gets the number of nodes.
+         *
+         * @return The number of nodes.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the mean horizontal position of the nodes.
+         *
+         * @return The x coordinate.
+         */
+        public double getX() {
+            return sumX / count;
+        }
+
+        /**
+         * Gets the vertical position of the layer.
+         *
+         * @return The y coordinate.
+         */
+        public double getY() {
+            return layer * LAYER_GAP;
+        }
+
+        /**
+         * Gets the smallest horizontal position of the nodes.
+         *
+         * @return The left edge.
+         */
+        public double getMinX() {
+            return minX;
+        }
+
+        /**
+         * Gets the largest horizontal position of the nodes.
+         *
+         * @return The right edge.
+         */
+        public double getMaxX() {
+            return maxX;
+        }
+    }
+}
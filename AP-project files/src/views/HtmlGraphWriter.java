@@ -1,86 +1,297 @@
 package views;
 
 import configs.Node;
-import graph.GenericConfig;
 import graph.Graph;
-import servlet.HtmlLoader;
+import server.Responses;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 /**
  * A utility class for generating an HTML representation of a graph.
  * <p>
- * This class provides a static method to create an HTML file that visualizes a {@link Graph}. It reads a template HTML file,
- * inserts nodes and edges information into it, and saves the result as a new HTML file.
+ * This class renders a {@link Graph} or a {@link GraphLayout} into the template HTML file (`temp_graph.html`), which
+ * contains placeholders for the nodes and edges. Rendering is done in memory: the template is read once (and again only
+ * when the file changes), and the page of the current topics graph is cached by the topology version of the
+ * {@link graph.TopicManagerSingleton.TopicManager}, so it is only rendered again after the graph changes.
  * </p>
  */
 public class HtmlGraphWriter {
 
+    /** The placeholder of the nodes array in the template. */
+    private static final String NODE_PLACEHOLDER = "NODE_PLACEHOLDER;";
+
+    /** The placeholder of the edges array in the template. */
+    private static final String LINK_PLACEHOLDER = "LINK_PLACEHOLDER;";
+
+    /** The number of nodes above which the page draws clusters instead of nodes. */
+    public static final int LARGE_GRAPH_NODES = 2000;
+
+    /** The width of the drawing area of the template. */
+    private static final double DRAWING_WIDTH = 800;
+
+    /** The height of the drawing area of the template. */
+    private static final double DRAWING_HEIGHT = 600;
+
+    /** The margin kept around the drawing. */
+    private static final double DRAWING_MARGIN = 40;
+
+    /** The template, split around its placeholders, or null if not read yet. */
+    private static volatile Template template;
+
+    /** The page of the current topics graph, or null if not rendered yet. */
+    private static volatile CachedPage cachedPage;
+
     /**
-     * Generates an HTML file representing the given graph.
+     * Gets the HTML page of the graph of the current topics and agents.
      * <p>
-     * This method reads the content of the template HTML file (`temp_graph.html`), which should contain placeholders for nodes
-     * and edges. It then populates these placeholders with the nodes and edges of the provided {@link Graph} object and saves
-     * the resulting HTML content to a new file (`graph.html`).
+     * The page is rendered from the server-side {@link GraphLayout}, only if the topology changed since it was
+     * last rendered. Nodes start at their layout positions, scaled to the drawing area of the template, so the
+     * browser's force simulation starts from a readable layout. Graphs of more than {@link #LARGE_GRAPH_NODES}
+     * nodes are drawn at the cluster level of detail, with fixed positions; their nodes can be fetched by viewport
+     * or neighborhood from the layout API. If the graph has cycles, the page is the predefined `cycles.html` page
+     * instead.
      * </p>
      *
-     * @param g The {@link Graph} object to be visualized in the HTML file.
-     * @throws RuntimeException If an error occurs while reading or writing files.
+     * @return The HTML page, encoded as UTF-8.
+     * @throws IOException If a template file cannot be read.
      */
-    public static void getGraphHTML(Graph g) {
+    public static byte[] getGraphPage() throws IOException {
+        GraphLayout layout = GraphLayout.current();
+        CachedPage page = cachedPage;
+        if (page != null && page.version == layout.getVersion()) {
+            return page.html;
+        }
 
-        // Read the content of the template HTML file
-        String path = System.getProperty("user.dir") + "/html_files";
-        String htmlContent = "";
-        try {
-            htmlContent = HtmlLoader.readFileToString(new File(path + "/temp_graph.html"));
-        } catch (Exception ignored) {
-            // Handle the exception or log the error as needed
+        byte[] html;
+        if (layout.hasCycles()) {
+            html = Files.readAllBytes(Paths.get(htmlFilesPath(), "cycles.html"));
+        } else {
+            html = render(layout);
         }
+        cachedPage = new CachedPage(layout.getVersion(), html);
+        return html;
+    }
+
+    /**
+     * Renders an HTML page from a layout, with nodes placed at their layout positions.
+     *
+     * @param layout The layout.
+     * @return The HTML page, encoded as UTF-8.
+     * @throws IOException If the template file cannot be read.
+     */
+    private static byte[] render(GraphLayout layout) throws IOException {
+        Template t = template();
+        StringBuilder html = new StringBuilder(t.before.length() + t.between.length() + t.after.length()
+                + Math.min(layout.size(), LARGE_GRAPH_NODES) * 96);
+        html.append(t.before);
+
+        // Scale the layout to the drawing area
+        double width = Math.max(1, (layout.maxLayerSize() - 1) * GraphLayout.NODE_GAP);
+        double height = Math.max(1, (layout.layerCount() - 1) * GraphLayout.LAYER_GAP);
+        double scaleX = (DRAWING_WIDTH - 2 * DRAWING_MARGIN) / width;
+        double scaleY = (DRAWING_HEIGHT - 2 * DRAWING_MARGIN) / height;
+
+        html.append("[ ");
+        if (layout.size() <= LARGE_GRAPH_NODES) {
+            for (int i = 0; i < layout.size(); i++) {
+                html.append(i == 0 ? "{id: " : ", {id: ").append(i + 1).append(", label: \"");
+                Responses.appendJsonEscaped(html, layout.getLabel(i));
+                html.append("\", x: ").append(Math.round(DRAWING_WIDTH / 2 + layout.getX(i) * scaleX))
+                        .append(", y: ").append(Math.round(DRAWING_MARGIN + layout.getY(i) * scaleY)).append("}");
+            }
+        } else {
+            boolean first = true;
+            for (GraphLayout.Cluster cluster : layout.getClusters()) {
+                long x = Math.round(DRAWING_WIDTH / 2 + cluster.getX() * scaleX);
+                long y = Math.round(DRAWING_MARGIN + cluster.getY() * scaleY);
+                html.append(first ? "{id: " : ", {id: ").append(cluster.index + 1).append(", label: \"");
+                Responses.appendJsonEscaped(html, cluster.getLabel());
+                html.append("\", x: ").append(x).append(", y: ").append(y)
+                        .append(", fx: ").append(x).append(", fy: ").append(y).append("}");
+                first = false;
+            }
+        }
+        html.append(" ];");
+
+        html.append(t.between);
+
+        html.append("[ ");
+        boolean firstEdge = true;
+        if (layout.size() <= LARGE_GRAPH_NODES) {
+            for (int i = 0; i < layout.size(); i++) {
+                for (int target : layout.getTargets(i)) {
+                    html.append(firstEdge ? "" : ", ").append("{source: ").append(i + 1)
+                            .append(", target: ").append(target + 1).append("}");
+                    firstEdge = false;
+                }
+            }
+        } else {
+            for (Long key : layout.getClusterEdges().keySet()) {
+                html.append(firstEdge ? "" : ", ").append("{source: ").append((int) (key >>> 32) + 1)
+                        .append(", target: ").append((int) (long) key + 1).append("}");
+                firstEdge = false;
+            }
+        }
+        html.append(" ];");
+
+        html.append(t.after);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders an HTML page representing the given graph.
+     *
+     * @param g The {@link Graph} object to be visualized.
+     * @return The HTML page, encoded as UTF-8.
+     * @throws IOException If the template file cannot be read.
+     */
+    public static byte[] render(Graph g) throws IOException {
+        Template t = template();
+        StringBuilder html = new StringBuilder(t.before.length() + t.between.length() + t.after.length() + g.size() * 64);
+        html.append(t.before);
 
         // Build the nodes data in the format required for the HTML file
-        StringBuilder nodes = new StringBuilder();
-        Map<String, Integer> nodeToIndex = new HashMap<>();
-        nodes.append("[ ");
+        Map<Node, Integer> nodeToIndex = new IdentityHashMap<>();
+        html.append("[ ");
         for (int i = 0; i < g.size(); i++) {
             Node node = g.get(i);
-            nodes.append("{id: ").append(i + 1).append(", label: \"").append(node.getName().split("_")[0]).append("\"} ");
+            String name = node.getName();
+            int suffix = name.indexOf('_');
+            html.append("{id: ").append(i + 1).append(", label: \"");
+            Responses.appendJsonEscaped(html, suffix >= 0 ? name.substring(0, suffix) : name);
+            html.append("\"} ");
             if (i != g.size() - 1) {
-                nodes.append(", ");
+                html.append(", ");
             }
-            nodeToIndex.put(node.getName(), i + 1);
+            nodeToIndex.put(node, i + 1);
         }
-        nodes.append("];");
+        html.append("];");
+
+        html.append(t.between);
 
         // Build the edges data in the format required for the HTML file
-        StringBuilder edges = new StringBuilder();
-        edges.append("[ ");
+        html.append("[ ");
         boolean firstEdge = true;
         for (int i = 0; i < g.size(); i++) {
             for (Node node : g.get(i).getEdges()) {
+                Integer index = nodeToIndex.get(node);
+                if (index == null) {
+                    continue;
+                }
                 if (!firstEdge) {
-                    edges.append(", ");
+                    html.append(", ");
                 }
-                int index = nodeToIndex.get(node.getName());
-                edges.append("{source: ").append(i + 1).append(", target: ").append(index).append("}");
+                html.append("{source: ").append(i + 1).append(", target: ").append(index).append("}");
                 firstEdge = false;
             }
         }
-        edges.append(" ];");
+        html.append(" ];");
 
-        // Insert the nodes and edges data into the HTML content
-        htmlContent = htmlContent.replace("NODE_PLACEHOLDER;", nodes);
-        htmlContent = htmlContent.replace("LINK_PLACEHOLDER;", edges);
+        html.append(t.after);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
-        // Save the updated HTML content to a new file
+    /**
+     * Generates an HTML file (`graph.html`) representing the given graph.
+     * <p>
+     * Kept for callers that need the page on disk; serving the page should use {@link #getGraphPage()}.
+     * </p>
+     *
+     * @param g The {@link Graph} object to be visualized in the HTML file.
+     */
+    public static void getGraphHTML(Graph g) {
         try {
-            Files.write(Paths.get(path + "/graph.html"), htmlContent.getBytes());
+            Files.write(Paths.get(htmlFilesPath(), "graph.html"), render(g));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Gets the template, reading it again only if the file changed since it was last read.
+     *
+     * @return The template.
+     * @throws IOException If the template file cannot be read.
+     */
+    private static Template template() throws IOException {
+        File file = new File(htmlFilesPath(), "temp_graph.html");
+        long modified = file.lastModified();
+        Template t = template;
+        if (t == null || t.modified != modified) {
+            t = new Template(modified, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            template = t;
+        }
+        return t;
+    }
+
+    /**
+     * Gets the path of the html_files directory.
+     *
+     * @return The path.
+     */
+    private static String htmlFilesPath() {
+        return System.getProperty("user.dir") + "/html_files";
+    }
+
+    /**
+     * The template split around its placeholders.
+     */
+    private static final class Template {
+        /** The modification time of the template file. */
+        final long modified;
+        /** The text before the nodes placeholder. */
+        final String before;
+        /** The text between the nodes and edges placeholders. */
+        final String between;
+        /** The text after the edges placeholder. */
+        final String after;
+
+        /**
+         * Splits a template around its placeholders. A missing placeholder leaves its part empty.
+         *
+         * @param modified The modification time of the template file.
+         * @param content The template content.
+         */
+        Template(long modified, String content) {
+            this.modified = modified;
+            int nodes = content.indexOf(NODE_PLACEHOLDER);
+            int links = content.indexOf(LINK_PLACEHOLDER, Math.max(nodes, 0));
+            if (nodes < 0 || links < 0) {
+                this.before = content;
+                this.between = "";
+                this.after = "";
+            } else {
+                this.before = content.substring(0, nodes);
+                this.between = content.substring(nodes + NODE_PLACEHOLDER.length(), links);
+                this.after = content.substring(links + LINK_PLACEHOLDER.length());
+            }
+        }
+    }
+
+    /**
+     * A rendered page with the topology version it was rendered for.
+     */
+    private static final class CachedPage {
+        /** The topology version. */
+        final long version;
+        /** The encoded page. */
+        final byte[] html;
+
+        /**
+         * Constructs a CachedPage.
+         *
+         * @param version The topology version.
+         * @param html The encoded page.
+         */
+        CachedPage(long version, byte[] html) {
+            this.version = version;
+            this.html = html;
+        }
+    }
 }
@@ -0,0 +1,341 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small benchmark harness in the spirit of JMH, with no dependencies.
+ * <p>
+ * Throughput benchmarks run an operation in growing batches for a number of warmup iterations, whose
+ * results are thrown away, then for a number of measured iterations. The result is the mean number of
+ * operations per second with its standard deviation over the measured iterations. Latency benchmarks time
+ * single operations and report percentiles. Results computed by an operation should be passed to
+ * {@link #consume(long)} or {@link #consume(Object)} so the JIT cannot remove the work.
+ * </p>
+ * <p>
+ * Results can be saved to a baseline file, one {@code name<TAB>value<TAB>unit} line per benchmark, and
+ * compared to a saved baseline, which is how a run gates a performance regression.
+ * </p>
+ */
+public class BenchmarkHarness {
+
+    /**
+     * An operation measured for throughput.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation a number of times.
+         *
+         * @param times The number of times to run it.
+         * @throws Exception If the operation fails, which fails the benchmark.
+         */
+        void run(long times) throws Exception;
+    }
+
+    /**
+     * An operation measured for latency.
+     */
+    public interface TimedOperation {
+        /**
+         * Runs the operation once.
+         *
+         * @return The latency of the operation, in nanoseconds.
+         * @throws Exception If the operation fails, which fails the benchmark.
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * The result of a benchmark.
+     */
+    public static final class Result {
+        /** The name of the benchmark. */
+        public final String name;
+        /** The measured value. */
+        public final double value;
+        /** The error of the measured value, or 0 if not known. */
+        public final double error;
+        /** The unit of the value. */
+        public final String unit;
+        /** Whether a higher value is better, true for throughput and false for latency. */
+        public final boolean higherIsBetter;
+
+        /**
+         * Constructs a Result.
+         *
+         * @param name The name of the benchmark.
+         * @param value The measured value.
+         * @param error The error of the measured value.
+         * @param unit The unit of the value.
+         * @param higherIsBetter Whether a higher value is better.
+         */
+        Result(String name, double value, double error, String unit, boolean higherIsBetter) {
+            this.name = name;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    /** A sink the JIT cannot prove unused. */
+    private static volatile long sink;
+
+    /** The number of warmup iterations. */
+    private final int warmupIterations;
+
+    /** The number of measured iterations. */
+    private final int iterations;
+
+    /** The duration of an iteration, in milliseconds. */
+    private final long iterationMillis;
+
+    /** Only the benchmarks whose name contains this string run, or all if null. */
+    private final String filter;
+
+    /** The results, in the order the benchmarks ran. */
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Constructs a BenchmarkHarness.
+     *
+     * @param warmupIterations The number of warmup iterations.
+     * @param iterations The number of measured iterations.
+     * @param iterationMillis The duration of an iteration, in milliseconds.
+     * @param filter Only the benchmarks whose name contains this string run, or all if null.
+     */
+    public BenchmarkHarness(int warmupIterations, int iterations, long iterationMillis, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+        this.filter = filter;
+    }
+
+    /**
+     * Keeps a value alive.
+     *
+     * @param value The value.
+     */
+    public static void consume(long value) {
+        sink ^= value;
+    }
+
+    /**
+     * Keeps an object alive.
+     *
+     * @param value The object.
+     */
+    public static void consume(Object value) {
+        sink ^= System.identityHashCode(value);
+    }
+
+    /**
+     * Checks whether a benchmark is selected by the filter.
+     *
+     * @param name The name of the benchmark.
+     * @return true if the benchmark should run.
+     */
+    public boolean selected(String name) {
+        return filter == null || name.contains(filter);
+    }
+
+    /**
+     * Measures the throughput of an operation.
+     *
+     * @param name The name of the benchmark.
+     * @param op The operation.
+     * @return The result, or null if the benchmark is not selected.
+     * @throws Exception If the operation fails.
+     */
+    public Result throughput(String name, Operation op) throws Exception {
+        if (!selected(name)) {
+            return null;
+        }
+        // Warm up, growing the batch so an iteration is not dominated by reading the clock
+        long batch = 1;
+        for (int i = 0; i < warmupIterations; i++) {
+            batch = runIteration(op, batch)[1];
+        }
+
+        double[] rates = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long[] iteration = runIteration(op, batch);
+            rates[i] = iteration[0] * 1e9 / iteration[2];
+            batch = iteration[1];
+        }
+
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate;
+        }
+        mean /= rates.length;
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean);
+        }
+        double error = rates.length > 1 ? Math.sqrt(variance / (rates.length - 1)) : 0;
+        return report(new Result(name, mean, error, "ops/s", true));
+    }
+
+    /**
+     * Runs an operation for one iteration.
+     *
+     * @param op The operation.
+     * @param batch The number of operations to run between two readings of the clock.
+     * @return The number of operations run, the next batch size and the elapsed nanoseconds.
+     * @throws Exception If the operation fails.
+     */
+    private long[] runIteration(Operation op, long batch) throws Exception {
+        long deadline = iterationMillis * 1_000_000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run(batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            // Aim at about a hundred readings of the clock per iteration
+            if (elapsed < deadline / 100) {
+                batch *= 2;
+            }
+        } while (elapsed < deadline);
+        return new long[] {ops, batch, elapsed};
+    }
+
+    /**
+     * Measures the latency of an operation.
+     *
+     * @param name The name of the benchmark, suffixed with the percentile of each result.
+     * @param samples The number of measured samples, as many are taken first to warm up.
+     * @param op The operation.
+     * @return The results, for the 50th, 99th and 99.9th percentiles, or an empty list if the benchmark is not selected.
+     * @throws Exception If the operation fails.
+     */
+    public List<Result> latency(String name, int samples, TimedOperation op) throws Exception {
+        List<Result> percentiles = new ArrayList<>();
+        if (!selected(name)) {
+            return percentiles;
+        }
+        for (int i = 0; i < samples; i++) {
+            consume(op.run());
+        }
+        long[] latencies = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            latencies[i] = op.run();
+        }
+        Arrays.sort(latencies);
+        percentiles.add(report(new Result(name + ".p50", percentile(latencies, 0.50), 0, "ns", false)));
+        percentiles.add(report(new Result(name + ".p99", percentile(latencies, 0.99), 0, "ns", false)));
+        percentiles.add(report(new Result(name + ".p999", percentile(latencies, 0.999), 0, "ns", false)));
+        return percentiles;
+    }
+
+    /**
+     * Gets a percentile of sorted values.
+     *
+     * @param sorted The sorted values.
+     * @param p The percentile, between 0 and 1.
+     * @return The value.
+     */
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Records and prints a result measured elsewhere, so it is saved and compared with the others.
+     *
+     * @param name The name of the benchmark.
+     * @param value The measured value.
+     * @param unit The unit of the value.
+     * @param higherIsBetter Whether a higher value is better.
+     * @return The result.
+     */
+    public Result report(String name, double value, String unit, boolean higherIsBetter) {
+        return report(new Result(name, value, 0, unit, higherIsBetter));
+    }
+
+    /**
+     * Records and prints a result.
+     *
+     * @param result The result.
+     * @return The result.
+     */
+    private Result report(Result result) {
+        results.add(result);
+        if (result.error > 0) {
+            System.out.printf("%-44s %16.1f +- %-11.1f %s%n", result.name, result.value, result.error, result.unit);
+        } else {
+            System.out.printf("%-44s %16.1f %14s %s%n", result.name, result.value, "", result.unit);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the results, in the order the benchmarks ran.
+     *
+     * @return The results.
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Saves the results as a baseline.
+     *
+     * @param file The baseline file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Result result : results) {
+            out.append(result.name).append('\t').append(result.value).append('\t').append(result.unit).append('\n');
+        }
+        Files.write(file, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares the results to a baseline. A throughput lower, or a latency higher, than the baseline by
+     * more than the tolerance is a regression. Benchmarks missing from either side are ignored.
+     *
+     * @param file The baseline file.
+     * @param tolerance The accepted relative difference, 0.1 for 10%.
+     * @return The descriptions of the regressions, empty if there are none.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<String> compare(Path file, double tolerance) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length >= 2) {
+                try {
+                    baseline.put(fields[0], Double.parseDouble(fields[1]));
+                } catch (NumberFormatException e) {
+                    // Skip a malformed line
+                }
+            }
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            Double expected = baseline.get(result.name);
+            if (expected == null || expected <= 0) {
+                continue;
+            }
+            double change = (result.value - expected) / expected;
+            boolean regressed = result.higherIsBetter ? change < -tolerance : change > tolerance;
+            if (regressed) {
+                regressions.add(String.format("%s: %.1f %s, baseline %.1f (%+.1f%%)",
+                        result.name, result.value, result.unit, expected, change * 100));
+            }
+        }
+        return regressions;
+    }
+}
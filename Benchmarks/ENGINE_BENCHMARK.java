@@ -0,0 +1,396 @@
+package graph;
+
+import configs.IncAgent;
+import configs.PlusAgent;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of the publish/subscribe and agent engine.
+ * <p>
+ * Covers {@link Message} construction, {@link Topic#publish(Message)} fan-out, {@link ParallelAgent} throughput
+ * and latency, chains of {@link PlusAgent} and {@link BinOpAgent}, the same chains and a layered graph evaluated
+ * by a {@link BatchEvaluator}, and {@link Graph#createFromTopics()} and {@link Graph#hasCycles()} across graph
+ * sizes.
+ * </p>
+ * <p>
+ * Usage: {@code java -cp bin graph.ENGINE_BENCHMARK [--quick] [--filter name] [--save file]
+ * [--baseline file] [--tolerance 0.1]}. With {@code --baseline}, the run exits with status 1 if a benchmark
+ * regressed by more than the tolerance compared to the saved baseline.
+ * </p>
+ */
+public class ENGINE_BENCHMARK {
+
+    /** The fan-outs of the publish benchmark. */
+    private static final int[] FAN_OUTS = {1, 16, 256};
+
+    /** The lengths of the agent chains. */
+    private static final int[] CHAIN_LENGTHS = {10, 100};
+
+    /** The number of rows given to the batch evaluator at once. */
+    private static final int BATCH_ROWS = 65536;
+
+    /** The numbers of agents of the graph benchmarks. */
+    private static final int[] GRAPH_SIZES = {100, 1000, 4000};
+
+    /** The number of agents per layer of the graph benchmarks. */
+    private static final int GRAPH_WIDTH = 10;
+
+    /** The queue capacity of the parallel agent benchmarks. */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * An agent counting the messages it receives, and when it received the last one.
+     */
+    private static final class CountingAgent implements Agent {
+        /** The number of messages received. */
+        volatile long count;
+        /** The time the last message was received, in nanoseconds. */
+        volatile long lastReceived;
+
+        @Override
+        public String getName() {
+            return "CountingAgent";
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            lastReceived = System.nanoTime();
+            count++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args The command line options.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean quick = false;
+        String filter = null;
+        String save = null;
+        String baseline = null;
+        double tolerance = 0.1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick": quick = true; break;
+                case "--filter": filter = args[++i]; break;
+                case "--save": save = args[++i]; break;
+                case "--baseline": baseline = args[++i]; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        BenchmarkHarness harness = quick
+                ? new BenchmarkHarness(1, 3, 200, filter)
+                : new BenchmarkHarness(3, 5, 1000, filter);
+        TopicManager tm = TopicManagerSingleton.get();
+
+        messageConstruction(harness);
+        publishFanOut(harness, tm);
+        parallelAgent(harness, tm);
+        chains(harness, tm);
+        batches(harness, tm);
+        graphs(harness, tm);
+
+        if (save != null) {
+            harness.save(Paths.get(save));
+        }
+        if (baseline != null) {
+            List<String> regressions = harness.compare(Paths.get(baseline), tolerance);
+            for (String regression : regressions) {
+                System.out.println("REGRESSION " + regression);
+            }
+            System.exit(regressions.isEmpty() ? 0 : 1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Benchmarks the construction of messages.
+     *
+     * @param harness The harness.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void messageConstruction(BenchmarkHarness harness) throws Exception {
+        harness.throughput("message.fromDouble", times -> {
+            for (long i = 0; i < times; i++) {
+                BenchmarkHarness.consume(new Message((double) i));
+            }
+        });
+        harness.throughput("message.fromText", times -> {
+            for (long i = 0; i < times; i++) {
+                BenchmarkHarness.consume(new Message("hello"));
+            }
+        });
+    }
+
+    /**
+     * Benchmarks publishing to a topic with several subscribers.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void publishFanOut(BenchmarkHarness harness, TopicManager tm) throws Exception {
+        for (int fanOut : FAN_OUTS) {
+            tm.clear();
+            Topic topic = tm.getTopic("A");
+            for (int i = 0; i < fanOut; i++) {
+                topic.subscribe(new CountingAgent());
+            }
+            Message msg = new Message(1);
+            harness.throughput("topic.publish.fanout." + fanOut, times -> {
+                for (long i = 0; i < times; i++) {
+                    topic.publish(msg);
+                }
+            });
+        }
+        tm.clear();
+    }
+
+    /**
+     * Benchmarks the throughput and latency of a parallel agent, from the callback to the wrapped agent, with
+     * a thread of its own and run by a worker of an {@link AgentScheduler}.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void parallelAgent(BenchmarkHarness harness, TopicManager tm) throws Exception {
+        CountingAgent inner = new CountingAgent();
+        benchmarkParallelAgent(harness, "parallelAgent", inner, new ParallelAgent(inner, QUEUE_CAPACITY));
+
+        AgentScheduler scheduler = new AgentScheduler(1);
+        try {
+            AgentSpec spec = new AgentSpec(CountingAgent.class.getName(), new String[] {"A"}, new String[0], 1);
+            CountingAgent scheduled = new CountingAgent();
+            benchmarkParallelAgent(harness, "parallelAgent.worker", scheduled,
+                    new ParallelAgent(scheduled, QUEUE_CAPACITY, scheduler.assign(List.of(spec)).get(spec)));
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * Benchmarks the throughput and latency of a parallel agent, then closes it.
+     *
+     * @param harness The harness.
+     * @param name The prefix of the names of the benchmarks.
+     * @param inner The agent wrapped by the parallel agent.
+     * @param agent The parallel agent.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void benchmarkParallelAgent(BenchmarkHarness harness, String name, CountingAgent inner,
+                                               ParallelAgent agent) throws Exception {
+        Message msg = new Message(1);
+        try {
+            harness.throughput(name + ".throughput", times -> {
+                long target = inner.count + times;
+                for (long i = 0; i < times; i++) {
+                    agent.callback("A", msg);
+                }
+                while (inner.count < target) {
+                    Thread.onSpinWait();
+                }
+            });
+            harness.latency(name + ".latency", 20000, () -> {
+                long target = inner.count + 1;
+                long start = System.nanoTime();
+                agent.callback("A", msg);
+                while (inner.count < target) {
+                    Thread.onSpinWait();
+                }
+                return inner.lastReceived - start;
+            });
+        } finally {
+            agent.close();
+        }
+    }
+
+    /**
+     * Benchmarks a value going down a chain of agents, each adding a constant to the previous topic.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void chains(BenchmarkHarness harness, TopicManager tm) throws Exception {
+        for (int length : CHAIN_LENGTHS) {
+            tm.clear();
+            for (int i = 0; i < length; i++) {
+                new PlusAgent(new String[] {"T" + i, "C"}, new String[] {"T" + (i + 1)});
+            }
+            benchmarkChain(harness, tm, "chain.plusAgent." + length);
+
+            tm.clear();
+            for (int i = 0; i < length; i++) {
+                new BinOpAgent("add" + i, "T" + i, "C", "T" + (i + 1), (a, b) -> a + b);
+            }
+            benchmarkChain(harness, tm, "chain.binOpAgent." + length);
+
+            tm.clear();
+            for (int i = 0; i < length; i++) {
+                new IncAgent(new String[] {"T" + i}, new String[] {"T" + (i + 1)});
+            }
+            benchmarkChain(harness, tm, "chain.incAgent." + length);
+            ChainFuser.fuse(tm);
+            benchmarkChain(harness, tm, "chain.incAgent.fused." + length);
+        }
+        tm.clear();
+    }
+
+    /**
+     * Benchmarks publishing to the head of a chain built on topics T0..Tn and the constant topic C.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @param name The name of the benchmark.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void benchmarkChain(BenchmarkHarness harness, TopicManager tm, String name) throws Exception {
+        Topic head = tm.getTopic("T0");
+        tm.getTopic("C").publish(new Message(1));
+        Message msg = new Message(1);
+        harness.throughput(name, times -> {
+            for (long i = 0; i < times; i++) {
+                head.publish(msg);
+            }
+        });
+    }
+
+    /**
+     * Benchmarks evaluating the chains of {@link #chains} and a layered graph over columns of inputs, an operation
+     * being a row, so the chains compare with publishing a value to their head.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void batches(BenchmarkHarness harness, TopicManager tm) throws Exception {
+        for (int length : CHAIN_LENGTHS) {
+            tm.clear();
+            for (int i = 0; i < length; i++) {
+                new PlusAgent(new String[] {"T" + i, "C"}, new String[] {"T" + (i + 1)});
+            }
+            tm.getTopic("C").publish(new Message(1));
+            benchmarkBatch(harness, "batch.plusAgent." + length, new String[] {"T0"}, "T" + length);
+        }
+
+        int size = GRAPH_SIZES[1];
+        buildLayeredGraph(tm, size);
+        String[] sources = new String[GRAPH_WIDTH];
+        for (int column = 0; column < GRAPH_WIDTH; column++) {
+            sources[column] = "L0_" + column;
+        }
+        benchmarkBatch(harness, "batch.layeredGraph." + size, sources, "L" + (size / GRAPH_WIDTH) + "_0");
+        tm.clear();
+    }
+
+    /**
+     * Benchmarks evaluating the current graph over rows of the source topics, {@link #BATCH_ROWS} at a time.
+     *
+     * @param harness The harness.
+     * @param name The name of the benchmark.
+     * @param sources The topics given a column.
+     * @param output The topic returned.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void benchmarkBatch(BenchmarkHarness harness, String name, String[] sources, String output)
+            throws Exception {
+        if (!harness.selected(name)) {
+            return;
+        }
+        BatchEvaluator evaluator = BatchEvaluator.compile();
+        double[] column = new double[BATCH_ROWS];
+        for (int i = 0; i < column.length; i++) {
+            column[i] = i;
+        }
+        List<String> outputs = Collections.singletonList(output);
+        harness.throughput(name, times -> {
+            for (long done = 0; done < times; done += BATCH_ROWS) {
+                int rows = (int) Math.min(BATCH_ROWS, times - done);
+                double[] values = rows == BATCH_ROWS ? column : Arrays.copyOf(column, rows);
+                Map<String, double[]> inputs = new HashMap<>();
+                for (String source : sources) {
+                    inputs.put(source, values);
+                }
+                BenchmarkHarness.consume(evaluator.evaluate(inputs, outputs));
+            }
+        });
+    }
+
+    /**
+     * Benchmarks building a graph from the topics, and looking for cycles, for several sizes.
+     *
+     * @param harness The harness.
+     * @param tm The topic manager.
+     * @throws Exception If a benchmark fails.
+     */
+    private static void graphs(BenchmarkHarness harness, TopicManager tm) throws Exception {
+        for (int size : GRAPH_SIZES) {
+            String build = "graph.createFromTopics." + size;
+            String cycles = "graph.hasCycles." + size;
+            if (!harness.selected(build) && !harness.selected(cycles)) {
+                continue;
+            }
+            buildLayeredGraph(tm, size);
+            harness.throughput(build, times -> {
+                for (long i = 0; i < times; i++) {
+                    Graph g = new Graph();
+                    g.createFromTopics();
+                    BenchmarkHarness.consume(g);
+                }
+            });
+
+            Graph g = new Graph();
+            g.createFromTopics();
+            harness.throughput(cycles, times -> {
+                for (long i = 0; i < times; i++) {
+                    BenchmarkHarness.consume(g.hasCycles() ? 1 : 0);
+                }
+            });
+        }
+        tm.clear();
+    }
+
+    /**
+     * Builds an acyclic graph of agents in layers of {@link #GRAPH_WIDTH}, each agent adding two topics of its
+     * layer into a topic of the next layer.
+     *
+     * @param tm The topic manager.
+     * @param size The number of agents.
+     */
+    private static void buildLayeredGraph(TopicManager tm, int size) {
+        tm.clear();
+        List<Agent> agents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int layer = i / GRAPH_WIDTH;
+            int column = i % GRAPH_WIDTH;
+            agents.add(new PlusAgent(
+                    new String[] {"L" + layer + "_" + column, "L" + layer + "_" + ((column + 1) % GRAPH_WIDTH)},
+                    new String[] {"L" + (layer + 1) + "_" + column}));
+        }
+        BenchmarkHarness.consume(agents);
+    }
+}
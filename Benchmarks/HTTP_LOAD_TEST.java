@@ -0,0 +1,312 @@
+package graph;
+
+import metrics.LatencyHistogram;
+import server.MyHTTPServer;
+import servlet.ConfLoader;
+import servlet.HtmlLoader;
+import servlet.TopicDisplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A load generator for {@link MyHTTPServer} and its servlets.
+ * <p>
+ * Drives {@code GET /publish}, {@code POST /upload} and {@code GET /app/index.html}, one route after the other,
+ * and reports the throughput and the latency percentiles of each. Without {@code --port}, a server with those
+ * servlets is started in this process on a free port (its request logging is silenced) and the configuration
+ * given by {@code --conf} is deployed first, so the run needs nothing but localhost.
+ * </p>
+ * <ul>
+ *     <li>Closed loop ({@code --mode closed}, the default): {@code --concurrency} clients each send a request as
+ *     soon as the previous one is answered.</li>
+ *     <li>Open loop ({@code --mode open}): requests are started at {@code --rate} per second whatever the server
+ *     does, by up to {@code --concurrency} clients. Latency is measured from the time a request was due, so a
+ *     server falling behind shows in the percentiles instead of slowing the load down.</li>
+ * </ul>
+ * <p>
+ * Usage: {@code java -cp bin graph.HTTP_LOAD_TEST [--routes publish,upload,app] [--mode closed|open]
+ * [--concurrency 8] [--rate 50] [--duration 10] [--warmup 2] [--host localhost] [--port 8080] [--topic A]
+ * [--conf config_files/simple.conf] [--save file] [--baseline file] [--tolerance 0.1]}. Results are named
+ * after the route, mode and load, such as {@code http.publish.closed.c8.p99}, so saved reports of runs with the
+ * same options can be compared; with {@code --baseline} the run exits with status 1 on a regression.
+ * </p>
+ */
+public class HTTP_LOAD_TEST {
+
+    /** How long to wait for a response, in milliseconds. */
+    private static final int RESPONSE_TIMEOUT_MILLIS = 30000;
+
+    /** The boundary of the uploaded multipart body. */
+    private static final String BOUNDARY = "----LoadTestBoundary";
+
+    /** The host of the server. */
+    private static String host = "localhost";
+
+    /** The port of the server, or -1 to start one in this process. */
+    private static int port = -1;
+
+    /** The load model, "closed" or "open". */
+    private static String mode = "closed";
+
+    /** The number of clients. */
+    private static int concurrency = 8;
+
+    /** The number of requests started per second in the open loop. */
+    private static double rate = 50;
+
+    /** How long each route is measured, in milliseconds. */
+    private static long durationMillis = 10000;
+
+    /** How long each route is loaded before it is measured, in milliseconds. */
+    private static long warmupMillis = 2000;
+
+    /** The topic published to by the publish route. */
+    private static String topic = "A";
+
+    /** The configuration file deployed first and uploaded by the upload route. */
+    private static String conf = System.getProperty("user.dir") + "/config_files/simple.conf";
+
+    /**
+     * The measurements of a route.
+     */
+    private static final class Measurement {
+        /** The latencies of the successful requests, in nanoseconds. */
+        final LatencyHistogram latencies = new LatencyHistogram();
+        /** The number of failed requests, by status or by error. */
+        final AtomicLong errors = new AtomicLong();
+        /** The number of requests completed, failed ones included. */
+        final AtomicLong completed = new AtomicLong();
+        /** The time the measurement took, in nanoseconds. */
+        long elapsed;
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The command line options.
+     * @throws Exception If the server cannot be started or the report cannot be saved.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] routes = {"publish", "upload", "app"};
+        String save = null;
+        String baseline = null;
+        double tolerance = 0.1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--routes": routes = args[++i].split(","); break;
+                case "--mode": mode = args[++i]; break;
+                case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--duration": durationMillis = (long) (Double.parseDouble(args[++i]) * 1000); break;
+                case "--warmup": warmupMillis = (long) (Double.parseDouble(args[++i]) * 1000); break;
+                case "--host": host = args[++i]; break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--topic": topic = args[++i]; break;
+                case "--conf": conf = args[++i]; break;
+                case "--save": save = args[++i]; break;
+                case "--baseline": baseline = args[++i]; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (!mode.equals("closed") && !mode.equals("open")) {
+            System.err.println("unknown mode " + mode);
+            System.exit(2);
+        }
+
+        // Start a server in this process unless one is given, without its per-request logging
+        PrintStream out = System.out;
+        MyHTTPServer server = null;
+        if (port < 0) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            ConfLoader confLoader = new ConfLoader();
+            confLoader.deploy(conf);
+            server = new MyHTTPServer(port, Math.max(5, concurrency));
+            server.addServlet("GET", "/publish", new TopicDisplayer());
+            server.addServlet("POST", "/upload", confLoader);
+            server.addServlet("GET", "/app/", new HtmlLoader(System.getProperty("user.dir") + "/html_files"));
+            server.start();
+            Thread.sleep(500);
+        }
+
+        byte[] upload = Files.readAllBytes(Paths.get(conf));
+        List<String> names = new ArrayList<>();
+        List<Measurement> measurements = new ArrayList<>();
+        try {
+            for (String route : routes) {
+                System.err.println("load testing " + route + "...");
+                run(route, upload, warmupMillis);
+                names.add("http." + route + "." + (mode.equals("closed") ? "closed.c" + concurrency : "open.r" + (long) rate));
+                measurements.add(run(route, upload, durationMillis));
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            System.setOut(out);
+        }
+
+        // Report, in the same format as the engine benchmarks
+        BenchmarkHarness report = new BenchmarkHarness(0, 0, 0, null);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            Measurement m = measurements.get(i);
+            LatencyHistogram h = m.latencies;
+            report.report(name + ".throughput", m.completed.get() * 1e9 / m.elapsed, "req/s", true);
+            report.report(name + ".errors", m.errors.get(), "req", false);
+            report.report(name + ".p50", h.getValueAtPercentile(50) / 1e3, "us", false);
+            report.report(name + ".p90", h.getValueAtPercentile(90) / 1e3, "us", false);
+            report.report(name + ".p99", h.getValueAtPercentile(99) / 1e3, "us", false);
+            report.report(name + ".p999", h.getValueAtPercentile(99.9) / 1e3, "us", false);
+            report.report(name + ".max", h.getMax() / 1e3, "us", false);
+        }
+        if (save != null) {
+            report.save(Paths.get(save));
+        }
+        if (baseline != null) {
+            List<String> regressions = report.compare(Paths.get(baseline), tolerance);
+            for (String regression : regressions) {
+                System.out.println("REGRESSION " + regression);
+            }
+            System.exit(regressions.isEmpty() ? 0 : 1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Loads a route for a while.
+     *
+     * @param route The route.
+     * @param upload The configuration file uploaded by the upload route.
+     * @param millis How long to load the route, in milliseconds.
+     * @return The measurements.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    private static Measurement run(String route, byte[] upload, long millis) throws InterruptedException {
+        Measurement m = new Measurement();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000L;
+        AtomicLong sequence = new AtomicLong();
+
+        if (mode.equals("closed")) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        send(route, upload, sequence.incrementAndGet(), System.nanoTime(), m);
+                    }
+                });
+            }
+        } else {
+            // Start the requests on schedule, late requests count from when they were due
+            long interval = (long) (1e9 / rate);
+            for (long due = start; due < end; due += interval) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long scheduled = due;
+                clients.submit(() -> send(route, upload, sequence.incrementAndGet(), scheduled, m));
+            }
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(millis + RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            clients.shutdownNow();
+        }
+        m.elapsed = System.nanoTime() - start;
+        return m;
+    }
+
+    /**
+     * Sends a request and records its latency.
+     *
+     * @param route The route.
+     * @param upload The configuration file uploaded by the upload route.
+     * @param n The number of the request.
+     * @param due The time the request was due, in nanoseconds.
+     * @param m The measurements to record to.
+     */
+    private static void send(String route, byte[] upload, long n, long due, Measurement m) {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setSoTimeout(RESPONSE_TIMEOUT_MILLIS);
+            OutputStream toServer = socket.getOutputStream();
+            toServer.write(request(route, upload, n));
+            toServer.flush();
+
+            // Read the whole response, the server closes the connection after it
+            InputStream fromServer = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read = fromServer.read(buffer);
+            String status = read > 0 ? new String(buffer, 0, Math.min(read, 16), StandardCharsets.ISO_8859_1) : "";
+            while (read != -1) {
+                read = fromServer.read(buffer);
+            }
+            long latency = System.nanoTime() - due;
+            if (status.startsWith("HTTP/1.1 200") || status.startsWith("HTTP/1.1 304")) {
+                m.latencies.record(latency);
+            } else {
+                m.errors.incrementAndGet();
+            }
+        } catch (IOException e) {
+            m.errors.incrementAndGet();
+        }
+        m.completed.incrementAndGet();
+    }
+
+    /**
+     * Builds the request of a route.
+     *
+     * @param route The route.
+     * @param upload The configuration file uploaded by the upload route.
+     * @param n The number of the request, published as the value by the publish route.
+     * @return The request.
+     */
+    private static byte[] request(String route, byte[] upload, long n) {
+        switch (route) {
+            case "publish":
+                return ("GET /publish?Topic+name=T" + topic + "&Message=" + n + " HTTP/1.1\n"
+                        + "Host: " + host + "\n\n").getBytes(StandardCharsets.UTF_8);
+            case "app":
+                return ("GET /app/index.html HTTP/1.1\n"
+                        + "Host: " + host + "\n\n").getBytes(StandardCharsets.UTF_8);
+            case "upload":
+                byte[] head = ("--" + BOUNDARY + "\n"
+                        + "Content-Disposition: form-data; name=\"fileInput\"; filename=\"loadtest.conf\"\n"
+                        + "Content-Type: application/octet-stream\n\n").getBytes(StandardCharsets.UTF_8);
+                byte[] tail = ("\n--" + BOUNDARY + "--\n").getBytes(StandardCharsets.UTF_8);
+                byte[] headers = ("POST /upload HTTP/1.1\n"
+                        + "Host: " + host + "\n"
+                        + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\n"
+                        + "Content-Length: " + (head.length + upload.length + tail.length) + "\n\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                byte[] request = new byte[headers.length + head.length + upload.length + tail.length];
+                System.arraycopy(headers, 0, request, 0, headers.length);
+                System.arraycopy(head, 0, request, headers.length, head.length);
+                System.arraycopy(upload, 0, request, headers.length + head.length, upload.length);
+                System.arraycopy(tail, 0, request, headers.length + head.length + upload.length, tail.length);
+                return request;
+            default:
+                throw new IllegalArgumentException("unknown route " + route);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package graph;
+
+import server.RequestParser;
+import servlet.TopicDisplayer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BACKPRESSURE_TESTER {
+
+    /** The capacity of the queue of the parallel agents created by a configuration. */
+    private static final int CAPACITY = 10;
+
+    /** The time the web page waits for room in the queues downstream of a publish, in milliseconds. */
+    private static final long PUBLISH_TIMEOUT_MILLIS = 2000;
+
+    /** Counted down once the agent is stuck in its callback. */
+    static final CountDownLatch entered = new CountDownLatch(1);
+
+    /** Lets the agent out of its callback. */
+    static final CountDownLatch release = new CountDownLatch(1);
+
+    public static class BlockingAgent implements Agent {
+        private final String in;
+
+        public BlockingAgent(String[] subs, String[] pubs) {
+            in = subs[0];
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+        }
+
+        @Override
+        public String getName() {
+            return "BlockingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+        }
+    }
+
+    private static String publish(TopicDisplayer displayer, String topic, String message) throws IOException {
+        String request = "GET /publish?Topic+name=T" + topic + "&Message=" + message + " HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        displayer.handle(ri, response);
+        return response.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        Path file = Files.createTempFile("backpressure", ".conf");
+        Files.write(file, (BlockingAgent.class.getName() + "\nIn\nOut\n").getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(file.toString());
+        gc.create();
+        TopicDisplayer displayer = new TopicDisplayer();
+
+        // the agent gets stuck on a message, and the queue fills up behind it
+        tm.getTopic("In").publish(new Message(0));
+        if (!entered.await(5, TimeUnit.SECONDS)) {
+            System.out.println("the parallel agent was not given the message published to its topic (-10)");
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            tm.getTopic("In").publish(new Message(i));
+        }
+
+        // a publish from the web page gives up on the full queue and tells the client to back off
+        long start = System.nanoTime();
+        String response = publish(displayer, "In", "1");
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!response.startsWith("HTTP/1.1 429") || !response.contains("Retry-After: 1")) {
+            System.out.println("a publish to a full queue was not answered 429 (-10)");
+        }
+        if (waited < PUBLISH_TIMEOUT_MILLIS / 2 || waited > PUBLISH_TIMEOUT_MILLIS * 3) {
+            System.out.println("a publish to a full queue did not wait for the timeout, it waited " + waited + "ms (-10)");
+        }
+
+        // once the agent catches up, publishes are accepted again
+        release.countDown();
+        Thread.sleep(200);
+        response = publish(displayer, "In", "2");
+        if (!response.startsWith("HTTP/1.1 200")) {
+            System.out.println("a publish after the queue emptied was not accepted (-10)");
+        }
+
+        gc.close();
+        tm.clear();
+        Files.delete(file);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,103 @@
+package graph;
+
+import configs.IncAgent;
+import configs.MulAgent;
+import configs.PlusAgent;
+import configs.SubAgent;
+import server.RequestParser;
+import servlet.EvaluateServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class BATCH_EVALUATOR_TESTER {
+
+    /** The number of rows evaluated, more than a block. */
+    private static final int ROWS = BatchEvaluator.BLOCK_ROWS + 100;
+
+    /** The topics computed by the graph. */
+    private static final String[] OUTPUTS = {"C", "D", "E", "F"};
+
+    private static String post(String path, String body) throws IOException {
+        String request = "POST " + path + " HTTP/1.1\nHost: localhost\nContent-Length: " + body.length() + "\n\n" + body;
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        new EvaluateServlet().handle(ri, response);
+        return response.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        new PlusAgent(new String[] {"A", "B"}, new String[] {"C"});
+        new IncAgent(new String[] {"C"}, new String[] {"D"});
+        new MulAgent(new String[] {"D", "B"}, new String[] {"E"});
+        new SubAgent(new String[] {"E", "A"}, new String[] {"F"});
+
+        // the batch gives the values the graph publishes for every row of numbers
+        Random random = new Random(7);
+        double[] a = new double[ROWS];
+        double[] b = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            a[i] = random.nextInt(2000) / 10.0 - 100;
+            b[i] = random.nextInt(2000) / 10.0 - 100;
+        }
+        Map<String, double[]> inputs = new HashMap<>();
+        inputs.put("A", a);
+        inputs.put("B", b);
+        BatchEvaluator evaluator = BatchEvaluator.compile();
+        if (!evaluator.getSourceTopics().equals(new TreeSet<>(Arrays.asList("A", "B")))
+                || !evaluator.getComputedTopics().equals(new TreeSet<>(Arrays.asList(OUTPUTS)))) {
+            System.out.println("the source and computed topics are wrong (-10)");
+        }
+        Map<String, double[]> results = evaluator.evaluate(inputs, Arrays.asList(OUTPUTS));
+        for (int i = 0; i < ROWS; i++) {
+            tm.getTopic("A").publish(new Message(a[i]));
+            tm.getTopic("B").publish(new Message(b[i]));
+            boolean same = true;
+            for (String output : OUTPUTS) {
+                same &= results.get(output)[i] == tm.getTopic(output).getLastMessage().asDouble;
+            }
+            if (!same) {
+                System.out.println("row " + i + " was not evaluated as the graph computes it (-10)");
+                break;
+            }
+        }
+
+        // on purpose, a row that is not a number gives NaN where the graph publishes nothing
+        inputs.put("A", new double[] {Double.NaN});
+        inputs.put("B", new double[] {1});
+        double published = tm.getTopic("F").getLastMessage().asDouble;
+        results = evaluator.evaluate(inputs, Arrays.asList(OUTPUTS));
+        tm.getTopic("A").publish(new Message(Double.NaN));
+        tm.getTopic("B").publish(new Message(1));
+        if (!Double.isNaN(results.get("F")[0]) || tm.getTopic("F").getLastMessage().asDouble != published) {
+            System.out.println("a row that is not a number was not evaluated to NaN (-10)");
+        }
+
+        // the servlet evaluates the rows of its body
+        String response = post("/evaluate?outputs=C,F", "A,B\n1,2\nx,2\n");
+        if (!response.startsWith("HTTP/1.1 200")
+                || !response.contains("{\"rows\":2,\"columns\":{\"C\":[3.0,null],\"F\":[7.0,null]}}")) {
+            System.out.println("the servlet did not evaluate its rows (-10)");
+        }
+        if (!post("/evaluate", "A,B\n1,2\n").contains("\"D\":[4.0]")) {
+            System.out.println("the servlet did not return the computed topics by default (-10)");
+        }
+        if (!post("/evaluate", "A,B\n1\n").startsWith("HTTP/1.1 400")) {
+            System.out.println("a row missing values was not answered 400 (-10)");
+        }
+        if (!post("/evaluate", "A,Nowhere\n1,2\n").startsWith("HTTP/1.1 400")) {
+            System.out.println("an unknown topic was not answered 400 (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
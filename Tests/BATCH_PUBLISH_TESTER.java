@@ -0,0 +1,114 @@
+package graph;
+
+import configs.PlusAgent;
+import server.RequestParser;
+import servlet.TopicBatchServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BATCH_PUBLISH_TESTER {
+
+    public static class RecordingAgent implements Agent {
+        final List<String> calls = new ArrayList<>();
+
+        public RecordingAgent(String... subs) {
+            for (String sub : subs) {
+                TopicManagerSingleton.get().getTopic(sub).subscribe(this);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "RecordingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            calls.add(topic + "=" + msg.asText);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String post(TopicBatchServlet servlet, String body) throws IOException {
+        String request = "POST /publish/batch HTTP/1.1\nHost: localhost\nContent-Length: "
+                + body.getBytes(StandardCharsets.UTF_8).length + "\n\n" + body;
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        new PlusAgent(new String[] {"A", "B"}, new String[] {"C"});
+        RecordingAgent inputs = new RecordingAgent("A", "B");
+        RecordingAgent sum = new RecordingAgent("C");
+        TopicBatchServlet servlet = new TopicBatchServlet();
+
+        // the values are applied as one batch, the last value of a topic winning
+        String response = post(servlet, "A,1\nB,2\nX\"<,3\nbad\n{\"topic\":\"A\",\"value\":4}\n");
+        if (!response.startsWith("HTTP/1.1 200 OK") || !response.contains("Content-Type: application/json")) {
+            System.out.println("the batch was not answered with JSON (-10)");
+        }
+        if (!response.endsWith("{\"applied\":2,\"unknown\":[\"X\\\"\\u003c\"],\"invalid\":[4],\"published\":3}")) {
+            System.out.println("wrong batch response: " + response + " (-10)");
+        }
+
+        // an agent subscribed to several changed topics is called for each of them
+        if (!inputs.calls.equals(Arrays.asList("A=4", "B=2")) && !inputs.calls.equals(Arrays.asList("B=2", "A=4"))) {
+            System.out.println("the agent on the changed topics was called " + inputs.calls + " (-10)");
+        }
+
+        // but a topic downstream of them publishes once, with its last value
+        if (!sum.calls.equals(Arrays.asList("C=6.0"))) {
+            System.out.println("the downstream topic published " + sum.calls + " (-10)");
+        }
+
+        // agents running on threads of their own join the batch too, so the topics downstream publish once
+        Path file = Files.createTempFile("batch", ".conf");
+        Files.write(file, "configs.PlusAgent\nP,Q\nR\nconfigs.IncAgent\nR\nS\n".getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(file.toString());
+        gc.create();
+        RecordingAgent r = new RecordingAgent("R");
+        RecordingAgent s = new RecordingAgent("S");
+        response = post(servlet, "P,1\nQ,2\n");
+        if (!response.endsWith("{\"applied\":2,\"unknown\":[],\"invalid\":[],\"published\":4}")) {
+            System.out.println("wrong response of a batch through parallel agents: " + response + " (-10)");
+        }
+        if (!r.calls.equals(Arrays.asList("R=3.0")) || !s.calls.equals(Arrays.asList("S=4.0"))) {
+            System.out.println("the topics downstream of parallel agents published " + r.calls + " and " + s.calls + " (-10)");
+        }
+
+        // a batch that cannot be published in time tells the client to back off
+        tm.setPublishCredits(1);
+        tm.getPublishCredits().acquireUninterruptibly();
+        response = post(servlet, "P,5\n");
+        if (!response.startsWith("HTTP/1.1 429") || !response.contains("Retry-After: 1")
+                || !response.endsWith("\"published\":0}")) {
+            System.out.println("a batch without publish credits was not answered 429: " + response + " (-10)");
+        }
+        tm.setPublishCredits(0);
+
+        gc.close();
+        Files.delete(file);
+        tm.clear();
+        System.out.println("done");
+    }
+}
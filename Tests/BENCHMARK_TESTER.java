@@ -0,0 +1,71 @@
+package graph;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class BENCHMARK_TESTER {
+
+    /** The number of latency samples. */
+    private static final int SAMPLES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        // a throughput is the mean rate of the measured iterations
+        long[] runs = {0};
+        BenchmarkHarness harness = new BenchmarkHarness(1, 3, 20, null);
+        BenchmarkHarness.Result result = harness.throughput("spin", times -> {
+            for (long i = 0; i < times; i++) {
+                BenchmarkHarness.consume(i);
+            }
+            runs[0] += times;
+        });
+        if (result == null || result.value <= 0 || !result.unit.equals("ops/s") || !result.higherIsBetter || runs[0] == 0) {
+            System.out.println("a throughput was not measured (-10)");
+        }
+
+        // latencies are reported as percentiles of the measured samples, after as many warmup samples
+        long[] next = {0};
+        List<BenchmarkHarness.Result> latencies = harness.latency("wait", SAMPLES, () -> next[0]++ % SAMPLES + 1);
+        if (latencies.size() != 3 || next[0] != 2 * SAMPLES) {
+            System.out.println("the latency samples were not taken (-10)");
+        } else if (latencies.get(0).value != 500 || latencies.get(1).value != 990 || latencies.get(2).value != 999
+                || !latencies.get(0).name.equals("wait.p50") || latencies.get(2).higherIsBetter) {
+            System.out.println("wrong latency percentiles (-10)");
+        }
+
+        // a filter leaves the other benchmarks out
+        BenchmarkHarness filtered = new BenchmarkHarness(1, 1, 10, "wait");
+        if (filtered.throughput("spin", times -> runs[0] = -1) != null || runs[0] < 0
+                || !filtered.latency("spin", 10, () -> 1).isEmpty()) {
+            System.out.println("a benchmark left out by the filter ran (-10)");
+        }
+
+        // a saved baseline gates the regressions, in the direction of each unit
+        BenchmarkHarness baseline = new BenchmarkHarness(1, 1, 10, null);
+        baseline.report("rate", 1000, "ops/s", true);
+        baseline.report("time", 1000, "ns", false);
+        baseline.report("gone", 1000, "ns", false);
+        Path file = Files.createTempFile("baseline", ".tsv");
+        baseline.save(file);
+        Files.write(file, "broken\tline\n".getBytes(), StandardOpenOption.APPEND);
+
+        BenchmarkHarness faster = new BenchmarkHarness(1, 1, 10, null);
+        faster.report("rate", 1500, "ops/s", true);
+        faster.report("time", 500, "ns", false);
+        faster.report("new", 1, "ns", false);
+        if (!faster.compare(file, 0.1).isEmpty()) {
+            System.out.println("an improvement was taken for a regression (-10)");
+        }
+        BenchmarkHarness slower = new BenchmarkHarness(1, 1, 10, null);
+        slower.report("rate", 800, "ops/s", true);
+        slower.report("time", 1050, "ns", false);
+        List<String> regressions = slower.compare(file, 0.1);
+        if (regressions.size() != 1 || !regressions.get(0).startsWith("rate:")) {
+            System.out.println("wrong regressions: " + regressions + " (-10)");
+        }
+
+        Files.delete(file);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,98 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class COMPILED_CONFIG_TESTER {
+
+    /** The offset of the topic count, after the magic number and the version. */
+    private static final int TOPIC_COUNT = 8;
+
+    /** The offset of the class index of the first agent, after the two-topic and the one-class tables. */
+    private static final int FIRST_CLASS = TOPIC_COUNT + (4 + 2 * (4 + 1)) + (4 + 4 + "configs.IncAgent".length()) + 4;
+
+    /** The offset of the second subscription offset of the first agent. */
+    private static final int FIRST_SUB_END = FIRST_CLASS + 4 + 4 + 4;
+
+    /**
+     * Loads a configuration file, and tells whether it was loaded without errors.
+     * Reports anything thrown, a corrupted file must only give errors.
+     */
+    private static boolean load(Path file, String what) {
+        GenericConfig gc = new GenericConfig();
+        try {
+            gc.setConfFile(file.toString());
+            gc.create();
+            return gc.getErrors().isEmpty();
+        } catch (Throwable t) {
+            System.out.println(what + " threw " + t + " (-10)");
+            return false;
+        } finally {
+            gc.close();
+            TopicManagerSingleton.get().clear();
+        }
+    }
+
+    private static Path corrupt(byte[] compiled, int offset, int value) throws IOException {
+        byte[] bytes = compiled.clone();
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Path file = Files.createTempFile(".upload-", ".tmp");
+        Files.write(file, bytes);
+        return file;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path text = Files.createTempFile("compiled", ".conf");
+        Files.write(text, "configs.IncAgent\nA\nB\n".getBytes());
+
+        // a compiled configuration is recognized by its content, whatever its name
+        Path upload = Files.createTempFile(".upload-", ".tmp");
+        CompiledConfig.compile(text, upload);
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(upload.toString());
+        gc.create();
+        if (!gc.getErrors().isEmpty() || TopicManagerSingleton.get().getTopics().get("B") == null) {
+            System.out.println("a compiled configuration not named .confc was not loaded " + gc.getErrors() + " (-10)");
+        }
+        gc.close();
+        TopicManagerSingleton.get().clear();
+        if (!load(text, "a text configuration")) {
+            System.out.println("a text configuration was not loaded (-10)");
+        }
+
+        // counts and indices out of the file are reported, not thrown
+        byte[] compiled = Files.readAllBytes(upload);
+        List<Path> corrupted = Arrays.asList(
+                corrupt(compiled, TOPIC_COUNT, Integer.MAX_VALUE),
+                corrupt(compiled, TOPIC_COUNT, -1),
+                corrupt(compiled, FIRST_CLASS, 5),
+                corrupt(compiled, FIRST_SUB_END, 100),
+                corrupt(compiled, FIRST_SUB_END, -3));
+        for (Path file : corrupted) {
+            if (load(file, "a corrupted count or index")) {
+                System.out.println("a corrupted count or index was loaded (-10)");
+            }
+            Files.delete(file);
+        }
+
+        // no byte of the file, whatever its value, makes the load throw
+        for (int i = 0; i < compiled.length; i++) {
+            byte[] bytes = compiled.clone();
+            bytes[i] = (byte) 0xff;
+            Files.write(upload, bytes);
+            load(upload, "a file with byte " + i + " corrupted");
+        }
+        Files.write(upload, Arrays.copyOf(compiled, compiled.length - 3));
+        if (load(upload, "a truncated file")) {
+            System.out.println("a truncated file was loaded (-10)");
+        }
+
+        Files.delete(text);
+        Files.delete(upload);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,55 @@
+package graph;
+
+import server.RequestParser;
+import servlet.TopicDisplayer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class DISPLAYER_TESTER {
+
+    private static String publish(TopicDisplayer servlet, String topic, String message) throws IOException {
+        String request = "GET /publish?Topic+name=T" + topic + "&Message=" + message + " HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.getTopic("<i>");
+        tm.getTopic("B");
+        TopicDisplayer servlet = new TopicDisplayer();
+
+        // names and values are escaped in the table
+        String page = publish(servlet, "<i>", "<b>\"x\"</b>");
+        if (!page.startsWith("HTTP/1.1 200 OK") || !page.contains("Content-Type: text/html")) {
+            System.out.println("the table was not answered as HTML (-10)");
+        }
+        if (!page.contains("<tr><td>T&lt;i&gt;</td><td>&lt;b&gt;&quot;x&quot;&lt;/b&gt;</td></tr>")) {
+            System.out.println("a topic was not escaped in the table: " + page + " (-10)");
+        }
+        if (page.contains("<b>")) {
+            System.out.println("a value was written into the table as HTML (-10)");
+        }
+
+        // the body is the whole page, as long as announced
+        int body = page.indexOf("\n\n") + 2;
+        String length = "Content-Length: " + (page.getBytes("UTF-8").length - body);
+        if (!page.contains(length) || !page.endsWith("</table></body></html>")) {
+            System.out.println("the page does not match its content length (-10)");
+        }
+
+        // a new value shows up in the table
+        page = publish(servlet, "B", "2");
+        if (!page.contains("<tr><td>TB</td><td>2</td></tr>")) {
+            System.out.println("a published value is missing from the table (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
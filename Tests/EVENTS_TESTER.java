@@ -0,0 +1,102 @@
+package graph;
+
+import server.MyHTTPServer;
+import servlet.TopicEventsServlet;
+import servlet.TopicHistoryServlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EVENTS_TESTER {
+
+    /** The number of request threads of the server. */
+    private static final int THREADS = 2;
+
+    /** The number of event streams opened at once, more than the request threads. */
+    private static final int STREAMS = 4;
+
+    private static Socket open(int port, String path) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\nHost: localhost\n\n").getBytes());
+        out.flush();
+        return socket;
+    }
+
+    /** Reads lines until one contains the text, or returns false once the stream ends or stalls. */
+    private static boolean await(BufferedReader in, String text) throws IOException {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.contains(text)) {
+                    return true;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // nothing came in time
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.enableHistory(16, 0);
+        tm.getTopic("T").publish(new Message(1));
+        MyHTTPServer server = new MyHTTPServer(port, THREADS);
+        server.addServlet("GET", "/events", new TopicEventsServlet());
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        server.start();
+        Thread.sleep(200);
+
+        // more streams than request threads, each one starting with the current values
+        List<Socket> sockets = new ArrayList<>();
+        List<BufferedReader> streams = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            Socket socket = open(port, "/events?topics=T&interval=10");
+            sockets.add(socket);
+            streams.add(new BufferedReader(new InputStreamReader(socket.getInputStream())));
+        }
+        for (BufferedReader stream : streams) {
+            if (!await(stream, "data: {\"topic\":\"T\",\"value\":\"1.0\"}")) {
+                System.out.println("a stream did not start with the current value (-10)");
+                break;
+            }
+        }
+
+        // the request threads are free for other requests while the streams are open
+        try (Socket request = open(port, "/history?topic=T")) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(request.getInputStream()));
+            if (!await(in, "HTTP/1.1 200")) {
+                System.out.println("a request was not answered while streams were open (-10)");
+            }
+        }
+
+        // updates reach every stream, escaped as JSON
+        tm.getTopic("T").publish(new Message("a\"b<c"));
+        for (BufferedReader stream : streams) {
+            if (!await(stream, "\"value\":\"a\\\"b\\u003cc\"")) {
+                System.out.println("a stream did not get an update (-10)");
+                break;
+            }
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+        tm.clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,141 @@
+package graph;
+
+import configs.IncAgent;
+import configs.MulAgent;
+import configs.PlusAgent;
+import configs.SubAgent;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class FACTORY_TESTER {
+
+    /** The number of agents created by the factory registered in the test. */
+    static int created = 0;
+
+    public static class PlainAgent implements Agent {
+        public PlainAgent(String[] subs, String[] pubs) {
+        }
+
+        @Override
+        public String getName() {
+            return "PlainAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static class ServiceFactory implements AgentFactory {
+        @Override
+        public String getAgentClassName() {
+            return "service.Agent";
+        }
+
+        @Override
+        public Agent create(String[] subs, String[] pubs) {
+            return new PlainAgent(subs, pubs);
+        }
+    }
+
+    public static class ShadowingFactory implements AgentFactory {
+        @Override
+        public String getAgentClassName() {
+            return IncAgent.class.getName();
+        }
+
+        @Override
+        public Agent create(String[] subs, String[] pubs) {
+            return new PlainAgent(subs, pubs);
+        }
+    }
+
+    private static String failure(String className) {
+        try {
+            AgentFactoryRegistry.get(className).create(new String[] {"A"}, new String[] {"B"});
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // declare factories as services, seen by the registry when it is first used
+        Path services = Files.createTempDirectory("services");
+        Path file = services.resolve("META-INF/services/" + AgentFactory.class.getName());
+        Files.createDirectories(file.getParent());
+        Files.write(file, (ServiceFactory.class.getName() + "\n" + ShadowingFactory.class.getName() + "\n").getBytes());
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[] {services.toUri().toURL()}, loader));
+
+        // the built-in agents have their factories, with no file to copy next to the classes
+        if (!(AgentFactoryRegistry.get(IncAgent.class.getName()) instanceof IncAgent.Factory)
+                || !(AgentFactoryRegistry.get(PlusAgent.class.getName()) instanceof PlusAgent.Factory)
+                || !(AgentFactoryRegistry.get(SubAgent.class.getName()) instanceof SubAgent.Factory)
+                || !(AgentFactoryRegistry.get(MulAgent.class.getName()) instanceof MulAgent.Factory)) {
+            System.out.println("the factories of the built-in agents are not registered (-10)");
+        }
+        Thread.currentThread().setContextClassLoader(loader);
+
+        // factories declared as services are found, but do not replace the registered ones
+        if (!(AgentFactoryRegistry.get("service.Agent") instanceof ServiceFactory)) {
+            System.out.println("a factory declared as a service was not found (-10)");
+        }
+
+        // other agents are created through their constructor, looked up once
+        AgentFactory plain = AgentFactoryRegistry.get(PlainAgent.class.getName());
+        if (!(plain.create(new String[] {"A"}, new String[] {"B"}) instanceof PlainAgent)) {
+            System.out.println("an agent without a factory was not created by its constructor (-10)");
+        }
+        if (AgentFactoryRegistry.get(PlainAgent.class.getName()) != plain) {
+            System.out.println("the constructor of an agent was looked up again (-10)");
+        }
+
+        // a registered factory replaces the constructor
+        AgentFactoryRegistry.register(new AgentFactory() {
+            @Override
+            public String getAgentClassName() {
+                return PlainAgent.class.getName();
+            }
+
+            @Override
+            public Agent create(String[] subs, String[] pubs) {
+                created++;
+                return new PlainAgent(subs, pubs);
+            }
+        });
+        AgentFactoryRegistry.get(PlainAgent.class.getName()).create(new String[] {"A"}, new String[] {"B"});
+        if (created != 1) {
+            System.out.println("a registered factory was not used (-10)");
+        }
+
+        // classes that cannot be agents are reported on every use
+        String missing = failure("no.such.Agent");
+        if (missing == null || !missing.contains("not found") || failure("no.such.Agent") == null) {
+            System.out.println("a missing class was not reported (-10)");
+        }
+        String notAgent = failure(String.class.getName());
+        if (notAgent == null || !notAgent.contains("does not implement")) {
+            System.out.println("a class that is not an agent was not reported (-10)");
+        }
+
+        Files.delete(file);
+        Files.delete(file.getParent());
+        Files.delete(file.getParent().getParent());
+        Files.delete(services);
+        TopicManagerSingleton.get().clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,144 @@
+package graph;
+
+import metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FUSION_TESTER {
+
+    /** The number of times the agents were called back, rather than run as part of a chain. */
+    static final AtomicInteger callbacks = new AtomicInteger();
+
+    public static class AddAgent implements UnaryAgent {
+        private final String in;
+        private final String out;
+
+        public AddAgent(String in, String out) {
+            this.in = in;
+            this.out = out;
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+            TopicManagerSingleton.get().getTopic(out).addPublisher(this);
+        }
+
+        @Override
+        public String getInputTopic() {
+            return in;
+        }
+
+        @Override
+        public String getOutputTopic() {
+            return out;
+        }
+
+        @Override
+        public Message evaluate(Message msg) {
+            return new Message(msg.asDouble + 1);
+        }
+
+        @Override
+        public String getName() {
+            return "AddAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            callbacks.incrementAndGet();
+            TopicManagerSingleton.get().getTopic(out).publish(evaluate(msg));
+        }
+
+        @Override
+        public void close() {
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+            TopicManagerSingleton.get().getTopic(out).removePublisher(this);
+        }
+    }
+
+    public static class Watcher implements Agent {
+        @Override
+        public String getName() {
+            return "Watcher";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static int fuse(TopicManagerSingleton.TopicManager tm) {
+        tm.getGraphLock().writeLock().lock();
+        try {
+            return ChainFuser.fuse(tm);
+        } finally {
+            tm.getGraphLock().writeLock().unlock();
+        }
+    }
+
+    private static long invalidated() {
+        return MetricsRegistry.get().counter("fused_chains_invalidated_total").sum();
+    }
+
+    public static void main(String[] args) {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        for (int i = 0; i < 4; i++) {
+            new AddAgent("F" + i, "F" + (i + 1));
+        }
+        if (fuse(tm) != 1) {
+            System.out.println("a chain of unary agents was not fused (-10)");
+        }
+
+        // a fused chain runs its agents without calling them back, and sets the topics inside it
+        tm.getTopic("F0").publish(new Message(0));
+        if (callbacks.get() != 0 || tm.getTopic("F4").getLastMessage().asDouble != 4
+                || tm.getTopic("F2").getLastMessage().asDouble != 2) {
+            System.out.println("the fused chain did not run as one operator (-10)");
+        }
+
+        // a change elsewhere in the graph keeps the chain fused
+        Watcher watcher = new Watcher();
+        tm.getTopic("Elsewhere").subscribe(watcher);
+        long before = invalidated();
+        tm.getTopic("F0").publish(new Message(10));
+        if (callbacks.get() != 0 || tm.getTopic("F4").getLastMessage().asDouble != 14) {
+            System.out.println("a change elsewhere in the graph stopped the chain from running fused (-10)");
+        }
+        if (invalidated() != before) {
+            System.out.println("a chain still valid was counted as invalidated (-10)");
+        }
+
+        // a subscriber added inside the chain breaks it, and every agent is called back again
+        tm.getTopic("F2").subscribe(watcher);
+        tm.getTopic("F0").publish(new Message(20));
+        if (callbacks.get() != 4 || tm.getTopic("F4").getLastMessage().asDouble != 24) {
+            System.out.println("a chain broken by a new subscriber still ran fused (-10)");
+        }
+        if (invalidated() != before + 1) {
+            System.out.println("a broken chain was not counted as invalidated (-10)");
+        }
+
+        // fusing again finds the chains left
+        tm.getTopic("F2").unsubscribe(watcher);
+        if (fuse(tm) != 1) {
+            System.out.println("the chain was not fused again once whole (-10)");
+        }
+        callbacks.set(0);
+        tm.getTopic("F0").publish(new Message(30));
+        if (callbacks.get() != 0 || tm.getTopic("F4").getLastMessage().asDouble != 34) {
+            System.out.println("the chain fused again did not run as one operator (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,41 @@
+package graph;
+
+import configs.Node;
+import views.HtmlGraphWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class GRAPH_VIEW_TESTER {
+
+    public static void main(String[] args) throws IOException {
+        // labels are escaped so they cannot end the script of the page or its string literals
+        Graph g = new Graph();
+        Node topic = new Node("T</script>\"a\\b\u2028");
+        Node agent = new Node("Aagent_1");
+        topic.addEdge(agent);
+        g.add(topic);
+        g.add(agent);
+        String page = new String(HtmlGraphWriter.render(g), StandardCharsets.UTF_8);
+        if (!page.contains("{id: 1, label: \"T\\u003c/script>\\\"a\\\\b\\u2028\"}")) {
+            System.out.println("a node label was not escaped for the script of the page (-10)");
+        }
+        if (page.contains("</script>\"")) {
+            System.out.println("a node label ends the script of the page (-10)");
+        }
+        if (!page.contains("{id: 2, label: \"Aagent\"}") || !page.contains("{source: 1, target: 2}")) {
+            System.out.println("the nodes or edges of the graph are missing (-10)");
+        }
+
+        // the page of the current topics escapes their names as well
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.getTopic("<b>");
+        page = new String(HtmlGraphWriter.getGraphPage(), StandardCharsets.UTF_8);
+        if (!page.contains("\\u003cb>") || page.contains("label: \"T<b>")) {
+            System.out.println("a topic name was not escaped in the graph page (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,103 @@
+package graph;
+
+import server.RequestParser;
+import servlet.TopicHistoryServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class HISTORY_TESTER {
+
+    /** The number of threads publishing at once. */
+    private static final int THREADS = 8;
+
+    /** The number of messages each thread publishes. */
+    private static final int MESSAGES = 5000;
+
+    private static String get(String path) throws IOException {
+        String request = "GET " + path + " HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        new TopicHistoryServlet().handle(ri, response);
+        return response.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.enableHistory(THREADS * MESSAGES, 0);
+
+        // values published from many threads at once are recorded in time order
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < MESSAGES; i++) {
+                    tm.getTopic("H").publish(new Message(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        TopicHistory history = tm.getTopic("H").getHistory();
+        TopicHistory.Samples all = history.range(Long.MIN_VALUE, Long.MAX_VALUE);
+        if (all.size() != THREADS * MESSAGES) {
+            System.out.println("the history holds " + all.size() + " values instead of " + THREADS * MESSAGES + " (-10)");
+        }
+        for (int i = 1; i < all.size(); i++) {
+            if (all.times[i] < all.times[i - 1]) {
+                System.out.println("the history times went back under concurrent publishes (-10)");
+                break;
+            }
+        }
+
+        // a range query finds exactly the values in the range
+        long middle = all.times[all.size() / 2];
+        int expected = 0;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.times[i] >= middle) {
+                expected++;
+            }
+        }
+        if (history.range(middle, Long.MAX_VALUE).size() != expected) {
+            System.out.println("a range query missed values of the range (-10)");
+        }
+
+        // a time earlier than the last one recorded does not unsort the history
+        TopicHistory small = new TopicHistory(4, 0);
+        small.record(100, 1);
+        small.record(50, 2);
+        small.record(200, 3);
+        if (small.range(100, 100).size() != 2 || small.range(Long.MIN_VALUE, 99).size() != 0) {
+            System.out.println("a time going back was recorded out of order (-10)");
+        }
+
+        // a value published now is stamped with the wall-clock time queries are given in
+        long before = System.currentTimeMillis();
+        tm.getTopic("N").publish(new Message(1));
+        long after = System.currentTimeMillis();
+        if (tm.getTopic("N").getHistory().range(before, after).size() != 1) {
+            System.out.println("a value published now is not found by the current time (-10)");
+        }
+
+        // infinite values are written as null, the JSON has no number for them
+        tm.getTopic("I").publish(new Message(Double.POSITIVE_INFINITY));
+        tm.getTopic("I").publish(new Message(Double.NEGATIVE_INFINITY));
+        String response = get("/history?topic=I");
+        if (!response.startsWith("HTTP/1.1 200") || response.contains("Infinity")
+                || !response.contains(",null,null,null]")) {
+            System.out.println("infinite values were not written as null (-10)");
+        }
+        if (!get("/history?topic=Missing").startsWith("HTTP/1.1 404")) {
+            System.out.println("a topic without history was not answered 404 (-10)");
+        }
+        if (!get("/history?topic=H&points=x").startsWith("HTTP/1.1 400")) {
+            System.out.println("an invalid number of points was not answered 400 (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
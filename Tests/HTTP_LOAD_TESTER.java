@@ -0,0 +1,111 @@
+package graph;
+
+import metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HTTP_LOAD_TESTER {
+
+    /** The number of threads recording to a histogram at once. */
+    private static final int THREADS = 4;
+
+    /** The number of values each thread records. */
+    private static final int VALUES = 100000;
+
+    /** Runs the load test in its own process, as its main exits, and returns its exit status. */
+    private static int loadTest(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), HTTP_LOAD_TEST.class.getName()));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        return process.waitFor();
+    }
+
+    private static Map<String, Double> readReport(Path file) throws IOException {
+        Map<String, Double> report = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            report.put(fields[0], Double.parseDouble(fields[1]));
+        }
+        return report;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // percentiles are known to a few percent whatever the magnitude of the values
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v * 1000);
+        }
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            double expected = p * 10 * 1000;
+            if (Math.abs(h.getValueAtPercentile(p) - expected) > expected * 0.04) {
+                System.out.println("wrong p" + p + ": " + h.getValueAtPercentile(p) + " (-10)");
+            }
+        }
+        if (h.getCount() != 1000 || h.getMax() != 1000000 || Math.abs(h.getMean() - 500500) > 1) {
+            System.out.println("wrong count, max or mean of a histogram (-10)");
+        }
+        h.record(Long.MAX_VALUE);
+        if (h.getMax() != LatencyHistogram.MAX_VALUE) {
+            System.out.println("a value past the largest one was not clamped (-10)");
+        }
+
+        // values recorded from many threads at once are all counted
+        LatencyHistogram shared = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < VALUES; i++) {
+                    shared.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (shared.getCount() != (long) THREADS * VALUES) {
+            System.out.println("values recorded at once were lost (-10)");
+        }
+
+        // a short closed loop run against a server of its own answers every request
+        Path report = Files.createTempFile("load", ".tsv");
+        if (loadTest("--routes", "publish,app", "--duration", "1", "--warmup", "0.2", "--concurrency", "2",
+                "--save", report.toString()) != 0) {
+            System.out.println("the load test failed (-10)");
+        }
+        Map<String, Double> results = readReport(report);
+        for (String route : new String[] {"publish", "app"}) {
+            String name = "http." + route + ".closed.c2";
+            if (!(results.getOrDefault(name + ".throughput", 0.0) > 0) || results.getOrDefault(name + ".errors", -1.0) != 0
+                    || !(results.getOrDefault(name + ".p99", 0.0) >= results.getOrDefault(name + ".p50", 0.0))
+                    || !(results.getOrDefault(name + ".p50", 0.0) > 0)) {
+                System.out.println("wrong results for the " + route + " route: " + results + " (-10)");
+            }
+        }
+
+        // an open loop run slower than its baseline exits with a failure
+        Files.write(report, "http.publish.open.r20.throughput\t1000000\treq/s\n".getBytes(StandardCharsets.UTF_8));
+        if (loadTest("--routes", "publish", "--mode", "open", "--rate", "20", "--duration", "1", "--warmup", "0",
+                "--baseline", report.toString()) != 1) {
+            System.out.println("a regression against the baseline did not fail the load test (-10)");
+        }
+
+        Files.delete(report);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,194 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class JOURNAL_TESTER {
+
+    /** The number of threads publishing at once. */
+    private static final int THREADS = 4;
+
+    /** The number of messages each thread publishes. */
+    private static final int MESSAGES = 1000;
+
+    /** The size of a segment, small enough for the messages to fill several. */
+    private static final int SEGMENT_SIZE = 16 << 10;
+
+    private static MessageJournal open(Path dir) throws IOException {
+        return new MessageJournal(dir, SEGMENT_SIZE, 1000);
+    }
+
+    private static List<String> readAll(MessageJournal journal) throws IOException {
+        List<String> read = new ArrayList<>();
+        journal.read(0, (topic, msg) -> read.add(topic + "=" + msg.asText));
+        return read;
+    }
+
+    /** Gets the last segment file of the journal directory. */
+    private static Path lastSegment(Path dir) throws IOException {
+        Path last = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.seg")) {
+            for (Path file : stream) {
+                if (last == null || file.compareTo(last) > 0) {
+                    last = file;
+                }
+            }
+        }
+        return last;
+    }
+
+    /** Writes bytes right after the last complete record of a segment, as a crash in the middle of a record would. */
+    private static void tear(Path segment, ByteBuffer partial) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            long position = 0;
+            while (true) {
+                length.clear();
+                channel.read(length, position);
+                int value = length.getInt(0);
+                if (value == 0) {
+                    break;
+                }
+                position += value;
+            }
+            channel.write(partial, position);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        Path dir = Files.createTempDirectory("journal");
+        MessageJournal journal = open(dir);
+        tm.setJournal(journal);
+
+        // messages published at once are all journaled, each thread's in its own order
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String name = "T" + t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < MESSAGES; i++) {
+                    tm.getTopic(name).publish(new Message(name + ":" + i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<String> read = readAll(journal);
+        if (read.size() != THREADS * MESSAGES || journal.getNextSeq() != THREADS * MESSAGES) {
+            System.out.println("messages published at once were not all journaled (-10)");
+        }
+        int[] next = new int[THREADS];
+        for (String record : read) {
+            int t = record.charAt(1) - '0';
+            if (!record.equals("T" + t + "=T" + t + ":" + next[t]++)) {
+                System.out.println("the messages of a thread were journaled out of order (-10)");
+                break;
+            }
+        }
+
+        // publishing does not wait for the journal to be written
+        Thread publisher = new Thread(() -> tm.getTopic("T0").publish(new Message("late")));
+        synchronized (journal) {
+            publisher.start();
+            publisher.join(TimeUnit.SECONDS.toMillis(2));
+            if (publisher.isAlive()) {
+                System.out.println("a publish waited for the lock of the journal (-10)");
+            }
+        }
+        publisher.join();
+        journal.close();
+        tm.setJournal(null);
+        int complete = THREADS * MESSAGES + 1;
+
+        // a record cut short by a crash before its length was written is left out
+        ByteBuffer unsized = ByteBuffer.allocate(Integer.BYTES + 1 + Long.BYTES);
+        unsized.putInt(0).put((byte) 2).putLong(complete).flip();
+        tear(lastSegment(dir), unsized);
+        journal = open(dir);
+        if (readAll(journal).size() != complete || journal.getNextSeq() != complete) {
+            System.out.println("a record without its length was read (-10)");
+        }
+
+        // the journal goes on after the last complete record
+        tm.setJournal(journal);
+        tm.getTopic("S").publish(new Message(7));
+        tm.setJournal(null);
+        read = readAll(journal);
+        if (read.size() != complete + 1 || !read.get(complete).equals("S=7.0")) {
+            System.out.println("a message appended after a crash was not journaled after the others (-10)");
+        }
+
+        // a replay waits for a configuration being deployed
+        tm.clear();
+        Topic source = tm.getTopic("S");
+        AtomicLong last = new AtomicLong();
+        MessageJournal replayed = journal;
+        Thread replay = new Thread(() -> {
+            try {
+                last.set(replayed.replay(complete));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        tm.getGraphLock().writeLock().lock();
+        try {
+            replay.start();
+            Thread.sleep(200);
+            if (source.getLastMessage() != null && source.getLastMessage().asDouble == 7) {
+                System.out.println("a replay went on while a configuration was deployed (-10)");
+            }
+        } finally {
+            tm.getGraphLock().writeLock().unlock();
+        }
+        replay.join();
+        if (last.get() != complete || source.getLastMessage() == null || source.getLastMessage().asDouble != 7) {
+            System.out.println("the journal was not replayed (-10)");
+        }
+
+        // the messages of a replay, and the ones the agents derive from it on their own threads, are not journaled again
+        tm.clear();
+        Path conf = Files.createTempFile("journal", ".conf");
+        Files.write(conf, "configs.IncAgent\nS\nB\n".getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(conf.toString());
+        gc.create();
+        tm.setJournal(journal);
+        journal.replay(complete);
+        Thread.sleep(200);
+        tm.setJournal(null);
+        if (tm.getTopic("B").getLastMessage() == null || tm.getTopic("B").getLastMessage().asDouble != 8) {
+            System.out.println("the agents did not recompute the replayed messages (-10)");
+        }
+        if (readAll(journal).size() != complete + 1) {
+            System.out.println("a replay was journaled again (-10)");
+        }
+        gc.close();
+        Files.delete(conf);
+
+        journal.close();
+        tm.clear();
+        delete(dir);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,66 @@
+package graph;
+
+import configs.IncAgent;
+import server.RequestParser;
+import servlet.GraphLayoutServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class LAYOUT_TESTER {
+
+    private static String get(GraphLayoutServlet servlet, String query) throws IOException {
+        String request = "GET /graph/layout" + query + " HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        new IncAgent(new String[] {"A"}, new String[] {"</script>\"B"});
+        GraphLayoutServlet servlet = new GraphLayoutServlet();
+
+        // labels are escaped as JSON, safe to embed in a page
+        String whole = get(servlet, "");
+        if (!whole.startsWith("HTTP/1.1 200 OK") || !whole.contains("\"detail\":\"nodes\"")) {
+            System.out.println("the whole graph was not returned as nodes (-10)");
+        }
+        if (!whole.contains("\"label\":\"T\\u003c/script>\\\"B\",\"class\":null")) {
+            System.out.println("a topic label was not escaped: " + whole + " (-10)");
+        }
+        if (!whole.contains("\"label\":\"TA\"") || !whole.contains("\"class\":\"IncAgent\"")) {
+            System.out.println("a node of the graph is missing (-10)");
+        }
+
+        // the neighborhood of a topic
+        String near = get(servlet, "?topic=A&depth=1");
+        if (!near.contains("\"label\":\"TA\"") || !near.contains("\"class\":\"IncAgent\"")
+                || near.contains("script")) {
+            System.out.println("wrong neighborhood of a topic: " + near + " (-10)");
+        }
+
+        // errors are JSON objects, with the topic escaped
+        String missing = get(servlet, "?topic=<\"x>");
+        if (!missing.startsWith("HTTP/1.1 404")
+                || !missing.endsWith("{\"error\":\"no such topic: \\u003c\\\"x>\"}")) {
+            System.out.println("wrong answer for a missing topic: " + missing + " (-10)");
+        }
+        String invalid = get(servlet, "?x0=left&y0=0&x1=1&y1=1");
+        if (!invalid.startsWith("HTTP/1.1 400") || !invalid.endsWith("{\"error\":\"invalid viewport, depth or limit\"}")) {
+            System.out.println("wrong answer for an invalid viewport: " + invalid + " (-10)");
+        }
+
+        // the clusters level of detail
+        String clusters = get(servlet, "?detail=clusters");
+        if (!clusters.contains("\"detail\":\"clusters\"") || !clusters.contains("\"label\":\"AIncAgent x1\"")) {
+            System.out.println("wrong clusters: " + clusters + " (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,183 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LIFECYCLE_TESTER {
+
+    /** Lets the stuck agent out of its callback. */
+    static final CountDownLatch release = new CountDownLatch(1);
+
+    /** Whether the new configuration was in when the removed agent was closed. */
+    static volatile Boolean committedBeforeClose;
+
+    /** Whether the removed agent was still subscribed when it was closed. */
+    static volatile Boolean wiredWhenClosed;
+
+    public static class StuckAgent implements Agent {
+        @Override
+        public String getName() {
+            return "StuckAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // stuck on purpose, an interrupt does not get it out
+                try {
+                    release.await();
+                } catch (InterruptedException again) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static class ClosingAgent implements Agent {
+        private final String in;
+
+        public ClosingAgent(String[] subs, String[] pubs) {
+            in = subs[0];
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+        }
+
+        @Override
+        public String getName() {
+            return "ClosingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+            TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+            committedBeforeClose = tm.getTopics().containsKey("D");
+            Topic topic = tm.getTopics().get(in);
+            wiredWhenClosed = topic != null && !topic.getSubscribers().isEmpty();
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+        }
+    }
+
+    public static class FailingAgent implements Agent {
+        public FailingAgent(String[] subs, String[] pubs) {
+            throw new AssertionError("broken agent");
+        }
+
+        @Override
+        public String getName() {
+            return "FailingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+
+        // a thread stuck in its callback is given up on after the timeout and reported as leaked
+        ParallelAgent stuck = new ParallelAgent(new StuckAgent(), 10);
+        stuck.callback("S", new Message(1));
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        List<String> leaked = ParallelAgent.closeAll(Collections.singletonList(stuck),
+                ParallelAgent.ClosePolicy.DISCARD, 300, TimeUnit.MILLISECONDS);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (leaked.size() != 1 || !ParallelAgent.getLeakedThreads().equals(leaked)) {
+            System.out.println("a stuck thread was not reported as leaked (-10)");
+        }
+        if (waited > 2000) {
+            System.out.println("closing a stuck agent waited " + waited + "ms past its timeout (-10)");
+        }
+        release.countDown();
+        Thread.sleep(200);
+        if (!ParallelAgent.getLeakedThreads().isEmpty()) {
+            System.out.println("a thread that stopped is still reported as leaked (-10)");
+        }
+
+        // a removed agent is closed once the new configuration is in, and unwired from it
+        Path first = Files.createTempFile("lifecycle", ".conf");
+        Files.write(first, (ClosingAgent.class.getName() + "\nA\nB\nconfigs.IncAgent\nX\nY\n").getBytes());
+        Path second = Files.createTempFile("lifecycle", ".conf");
+        Files.write(second, "configs.IncAgent\nX\nY\nconfigs.IncAgent\nC\nD\n".getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(first.toString());
+        gc.create();
+        if (!gc.reload(second.toString())) {
+            System.out.println("a valid configuration was not reloaded " + gc.getErrors() + " (-10)");
+        }
+        if (!Boolean.TRUE.equals(committedBeforeClose)) {
+            System.out.println("a removed agent was closed before the new configuration was in (-10)");
+        }
+        if (!Boolean.FALSE.equals(wiredWhenClosed)) {
+            System.out.println("a removed agent was still subscribed when it was closed (-10)");
+        }
+        if (tm.getTopics().containsKey("A")) {
+            System.out.println("the topics of a removed agent were not dropped (-10)");
+        }
+
+        // a construction that fails gives the running agents back, so they are still closed later
+        int threads = Thread.activeCount();
+        Path failing = Files.createTempFile("lifecycle", ".conf");
+        Files.write(failing, ("configs.IncAgent\nX\nY\n" + FailingAgent.class.getName() + "\nE\nF\n").getBytes());
+        if (gc.reload(failing.toString())) {
+            System.out.println("a configuration whose agent failed to construct was reloaded (-10)");
+        }
+        boolean constructionReported = false;
+        for (ConfigError error : gc.getErrors()) {
+            constructionReported |= error.toString().contains("agent construction failed");
+            if (error.toString().contains("multiple of 3")) {
+                System.out.println("a failed construction was reported as a malformed file (-10)");
+            }
+        }
+        if (!constructionReported) {
+            System.out.println("a failed construction was not reported (-10)");
+        }
+        tm.getTopic("X").publish(new Message(41));
+        Thread.sleep(100);
+        if (tm.getTopic("Y").getLastMessage().asDouble != 42) {
+            System.out.println("the running configuration stopped working after a failed reload (-10)");
+        }
+        gc.close();
+        Thread.sleep(100);
+        if (!tm.getTopic("X").getSubscribers().isEmpty() || Thread.activeCount() > threads - 2) {
+            System.out.println("an agent taken over by a failed reload was not closed with the configuration (-10)");
+        }
+
+        tm.clear();
+        Files.delete(first);
+        Files.delete(second);
+        Files.delete(failing);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,90 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LOADER_TESTER {
+
+    /** The number of entries of the large configuration, more than two batches. */
+    private static final int CHAIN = 600;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        int c = Thread.activeCount();
+
+        // a configuration of a single batch is constructed without any extra thread
+        Path small = Files.createTempFile("loader", ".conf");
+        Files.write(small, "configs.PlusAgent\nA,B\nC\nconfigs.IncAgent\nC\nD\n".getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(small.toString());
+        gc.create();
+        if (Thread.activeCount() != c + 2) {
+            System.out.println("a small configuration did not create a thread per agent (-10)");
+        }
+        gc.close();
+        Thread.sleep(100);
+        if (Thread.activeCount() != c) {
+            System.out.println("closing a small configuration left threads running (-10)");
+        }
+        tm.clear();
+
+        // a configuration of several batches is wired in file order, and its loading threads are stopped
+        StringBuilder chain = new StringBuilder();
+        for (int i = 0; i < CHAIN; i++) {
+            chain.append("configs.IncAgent\nT").append(i).append("\nT").append(i + 1).append('\n');
+        }
+        Path large = Files.createTempFile("loader", ".conf");
+        Files.write(large, chain.toString().getBytes());
+        gc = new GenericConfig();
+        gc.setConfFile(large.toString());
+        gc.create();
+        if (!gc.getErrors().isEmpty()) {
+            System.out.println("a valid configuration reported errors " + gc.getErrors() + " (-10)");
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("ConfigLoader-") && thread.isAlive()) {
+                System.out.println("the threads constructing the batches were not stopped (-10)");
+                break;
+            }
+        }
+        if (tm.getTopics().size() != CHAIN + 1) {
+            System.out.println("the configuration did not create the right topics (-10)");
+        }
+        for (int i = 1; i <= CHAIN; i++) {
+            if (tm.getTopic("T" + i).getPublishers().size() != 1) {
+                System.out.println("topic T" + i + " does not have a single publisher (-10)");
+                break;
+            }
+        }
+        tm.getTopic("T0").publish(new Message(0));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tm.getTopic("T" + CHAIN).getLastMessage().asDouble != CHAIN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (tm.getTopic("T" + CHAIN).getLastMessage().asDouble != CHAIN) {
+            System.out.println("the value did not go down the whole chain (-10)");
+        }
+        gc.close();
+        Thread.sleep(200);
+        if (Thread.activeCount() != c) {
+            System.out.println("closing a large configuration left threads running (-10)");
+        }
+        tm.clear();
+
+        // a malformed configuration creates nothing and reports why
+        Path malformed = Files.createTempFile("loader", ".conf");
+        Files.write(malformed, "configs.PlusAgent\nA,B\n".getBytes());
+        gc = new GenericConfig();
+        gc.setConfFile(malformed.toString());
+        gc.create();
+        if (gc.getErrors().isEmpty() || !tm.getTopics().isEmpty()) {
+            System.out.println("a malformed configuration was not rejected (-10)");
+        }
+
+        Files.delete(small);
+        Files.delete(large);
+        Files.delete(malformed);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,110 @@
+package graph;
+
+import configs.Node;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class METRICS_TESTER {
+
+    /** The number of messages published, two rounds of the callback sampling. */
+    private static final int MESSAGES = 2 * Topic.CALLBACK_SAMPLE_RATE;
+
+    /** The number of subscribers added concurrently. */
+    private static final int SUBSCRIBERS = 1000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        MetricsRegistry metrics = MetricsRegistry.get();
+        Path file = Files.createTempFile("metrics", ".conf");
+        Files.write(file, "configs.IncAgent\nA\nB\n".getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(file.toString());
+        gc.create();
+
+        // the queue and the callback of a parallel agent are known by the same agent name, the one of its node
+        String agent = null;
+        for (String series : metrics.getCounters().keySet()) {
+            if (series.startsWith("parallel_agent_puts_total{agent=\"IncAgent_")) {
+                agent = series.substring(series.indexOf('"') + 1, series.lastIndexOf('"'));
+            }
+        }
+        if (agent == null) {
+            System.out.println("the queue of the parallel agent has no metrics (-10)");
+            agent = "";
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            tm.getTopic("A").publish(new Message(i));
+        }
+        Thread.sleep(200);
+        LatencyHistogram callbacks = metrics.getHistograms().get(
+                MetricsRegistry.series("agent_callback_seconds", "agent", agent));
+        if (callbacks == null) {
+            System.out.println("the callbacks are not timed under the name of the queue (-10)");
+        } else if (callbacks.getCount() != MESSAGES / Topic.CALLBACK_SAMPLE_RATE) {
+            System.out.println("the sampled callbacks are not counted once each, count " + callbacks.getCount() + " (-10)");
+        }
+        if (metrics.getGauges().get("agent_callback_sample_rate") == null
+                || metrics.getGauges().get("agent_callback_sample_rate").getAsLong() != Topic.CALLBACK_SAMPLE_RATE) {
+            System.out.println("the sampling rate of the callbacks is not exposed (-10)");
+        }
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        boolean found = false;
+        for (Node node : graph) {
+            found |= node.getName().equals("A" + agent);
+        }
+        if (!found) {
+            System.out.println("the agent node is not named as in the metrics (-10)");
+        }
+        gc.close();
+        tm.clear();
+
+        // subscribers added from many threads are all called by a timed delivery
+        AtomicInteger called = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < SUBSCRIBERS / threads.length; i++) {
+                    tm.getTopic("Z").subscribe(new Agent() {
+                        public String getName() { return "Counter"; }
+                        public void reset() { }
+                        public void callback(String topic, Message msg) { called.incrementAndGet(); }
+                        public void close() { }
+                    });
+                    if (i % 50 == 0) {
+                        tm.getTopic("Z").publish(new Message(i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < Topic.CALLBACK_SAMPLE_RATE; i++) {
+            called.set(0);
+            tm.getTopic("Z").publish(new Message(i));
+            if (called.get() != SUBSCRIBERS) {
+                System.out.println("a delivery missed subscribers added concurrently, called " + called.get() + " (-10)");
+                break;
+            }
+        }
+
+        tm.clear();
+        Files.delete(file);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,109 @@
+package graph;
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import server.RequestParser;
+import servlet.MetricsServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class PROMETHEUS_TESTER {
+
+    /** A sample line: a metric name, optional labels, a space and a value. */
+    private static final Pattern SAMPLE = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*(\\{.*\\})? \\S+");
+
+    private static String scrape() throws IOException {
+        String request = "GET /metrics HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MetricsServlet().handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.counter(MetricsRegistry.series("test_requests_total", "route", "a")).add(3);
+        metrics.counter(MetricsRegistry.series("test_requests_total", "route", "b\"\\")).add(4);
+        metrics.gauge("test_queue_depth", () -> 7);
+        LatencyHistogram h = metrics.histogram(MetricsRegistry.series("test_latency_seconds", "stage", "x"));
+        h.record(2_000);
+        h.record(2_000_000);
+        h.record(20_000_000_000L);
+
+        String response = scrape();
+        if (!response.startsWith("HTTP/1.1 200 OK\nContent-Type: text/plain; version=0.0.4; charset=utf-8\n")) {
+            System.out.println("the metrics were not answered in the Prometheus text format (-10)");
+        }
+        String body = response.substring(response.indexOf("\n\n") + 2);
+
+        // every family is typed once, before its series, which are not split by other families
+        Set<String> typed = new HashSet<>();
+        String family = null;
+        for (String line : body.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+                if (!typed.add(family)) {
+                    System.out.println("the family " + family + " was typed twice (-10)");
+                }
+            } else if (!SAMPLE.matcher(line).matches()) {
+                System.out.println("not a sample line: " + line + " (-10)");
+            } else if (family == null || !line.startsWith(family)) {
+                System.out.println("a sample is outside its family: " + line + " (-10)");
+            } else {
+                try {
+                    Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                } catch (NumberFormatException e) {
+                    System.out.println("not a number: " + line + " (-10)");
+                }
+            }
+        }
+
+        // counters and gauges, with their labels escaped
+        if (!body.contains("# TYPE test_requests_total counter\n")
+                || !body.contains("test_requests_total{route=\"a\"} 3\n")
+                || !body.contains("test_requests_total{route=\"b\\\"\\\\\"} 4\n")) {
+            System.out.println("wrong counters (-10)");
+        }
+        if (!body.contains("# TYPE test_queue_depth gauge\ntest_queue_depth 7\n")) {
+            System.out.println("wrong gauge (-10)");
+        }
+
+        // histograms with cumulative buckets in seconds, the labels of the series kept
+        if (!body.contains("# TYPE test_latency_seconds histogram\n")
+                || !body.contains("test_latency_seconds_bucket{stage=\"x\",le=\"0.000001\"} 0\n")
+                || !body.contains("test_latency_seconds_bucket{stage=\"x\",le=\"0.000005\"} 1\n")
+                || !body.contains("test_latency_seconds_bucket{stage=\"x\",le=\"0.005\"} 2\n")
+                || !body.contains("test_latency_seconds_bucket{stage=\"x\",le=\"10\"} 2\n")
+                || !body.contains("test_latency_seconds_bucket{stage=\"x\",le=\"+Inf\"} 3\n")
+                || !body.contains("test_latency_seconds_count{stage=\"x\"} 3\n")) {
+            System.out.println("wrong histogram buckets (-10)");
+        }
+        String sum = "test_latency_seconds_sum{stage=\"x\"} ";
+        int at = body.indexOf(sum);
+        double seconds = at < 0 ? 0 : Double.parseDouble(body.substring(at + sum.length(), body.indexOf('\n', at)));
+        if (Math.abs(seconds - 20.002002) > 20.002002 * 0.04) {
+            System.out.println("wrong histogram sum: " + seconds + " (-10)");
+        }
+
+        // the metrics of the JVM
+        if (!body.contains("# TYPE jvm_threads_live gauge\n") || !body.contains("# TYPE jvm_memory_heap_used_bytes gauge\n")
+                || !body.contains("# TYPE jvm_gc_collection_seconds summary\n")) {
+            System.out.println("the metrics of the JVM are missing (-10)");
+        }
+
+        // a removed series is no longer written
+        metrics.remove("test_queue_depth");
+        if (scrape().contains("test_queue_depth")) {
+            System.out.println("a removed series was written (-10)");
+        }
+
+        TopicManagerSingleton.get().clear();
+        System.out.println("done");
+    }
+}
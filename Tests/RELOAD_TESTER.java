@@ -0,0 +1,136 @@
+package graph;
+
+import configs.IncAgent;
+import configs.MulAgent;
+import configs.PlusAgent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class RELOAD_TESTER {
+
+    /** The number of reloads going back and forth between two configurations. */
+    private static final int RELOADS = 10;
+
+    public static class ClosingAgent implements Agent {
+        private final String in;
+        volatile boolean closed;
+
+        public ClosingAgent(String[] subs, String[] pubs) {
+            in = subs[0];
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+            TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "ClosingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+        }
+    }
+
+    private static Path write(String conf) throws IOException {
+        Path file = Files.createTempFile("reload", ".conf");
+        Files.write(file, conf.getBytes());
+        return file;
+    }
+
+    /** Finds the agent created for an entry of the configuration, by its class. */
+    private static Agent find(GenericConfig gc, Class<?> type, int occurrence) {
+        for (Agent agent : gc.getAgents()) {
+            Agent inner = ParallelAgent.unwrap(agent);
+            if (type.isInstance(inner) && occurrence-- == 0) {
+                return inner;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        String closing = ClosingAgent.class.getName();
+        Path first = write("configs.IncAgent\nA\nB\nconfigs.PlusAgent\nA,B\nC\n"
+                + closing + "\nK\nL\n" + closing + "\nX\nY\n");
+        Path second = write("configs.IncAgent\nA\nB\nconfigs.MulAgent\nA,B\nD\n" + closing + "\nK\nL\n");
+        Path broken = write("configs.IncAgent\nA\n");
+
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(first.toString());
+        gc.create();
+        tm.getTopic("A").publish(new Message(1));
+        Thread.sleep(200);
+        Agent inc = find(gc, IncAgent.class, 0);
+        ClosingAgent kept = (ClosingAgent) find(gc, ClosingAgent.class, 0);
+        ClosingAgent removed = (ClosingAgent) find(gc, ClosingAgent.class, 1);
+
+        // unchanged entries keep their agents and the values of their topics
+        if (!gc.reload(second.toString())) {
+            System.out.println("a valid configuration was not reloaded (-10)");
+        }
+        if (find(gc, IncAgent.class, 0) != inc || find(gc, ClosingAgent.class, 0) != kept || kept.closed) {
+            System.out.println("the agent of an unchanged entry was replaced (-10)");
+        }
+        if (tm.getTopic("B").getLastMessage().asDouble != 2) {
+            System.out.println("the topic of an unchanged entry lost its value (-10)");
+        }
+
+        // removed entries have their agents closed and their unused topics dropped
+        if (!removed.closed) {
+            System.out.println("the agent of a removed entry was not closed (-10)");
+        }
+        if (tm.getTopics().containsKey("C") || tm.getTopics().containsKey("X") || tm.getTopics().containsKey("Y")) {
+            System.out.println("the topics of a removed entry were not dropped (-10)");
+        }
+
+        // added entries get new agents, running with the kept ones
+        if (find(gc, MulAgent.class, 0) == null || find(gc, PlusAgent.class, 0) != null) {
+            System.out.println("the agents do not match the reloaded configuration (-10)");
+        }
+        tm.getTopic("A").publish(new Message(3));
+        Thread.sleep(200);
+        if (tm.getTopic("D").getLastMessage().asDouble != 12) {
+            System.out.println("an added agent did not compute (-10)");
+        }
+
+        // a malformed file leaves the running configuration as is
+        List<Agent> running = gc.getAgents();
+        if (gc.reload(broken.toString()) || !gc.getAgents().equals(running)) {
+            System.out.println("a malformed configuration replaced the running one (-10)");
+        }
+
+        // reloading back and forth does not leave threads behind
+        gc.reload(first.toString());
+        Thread.sleep(200);
+        int threads = Thread.activeCount();
+        for (int i = 0; i < RELOADS; i++) {
+            gc.reload(second.toString());
+            gc.reload(first.toString());
+        }
+        Thread.sleep(200);
+        if (Thread.activeCount() > threads) {
+            System.out.println("reloading left threads behind (-10)");
+        }
+
+        gc.close();
+        tm.clear();
+        Files.delete(first);
+        Files.delete(second);
+        Files.delete(broken);
+        System.out.println("done");
+    }
+}
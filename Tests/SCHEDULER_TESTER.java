@@ -0,0 +1,268 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SCHEDULER_TESTER {
+
+    /** The number of agents of the chain. */
+    private static final int CHAIN = 8;
+
+    /** The number of messages the flood agent publishes for every message it is given. */
+    private static final int FLOOD = 100;
+
+    /** The capacity of the queue of the parallel agents created by a configuration. */
+    private static final int CAPACITY = 10;
+
+    /** The threads every agent was called on, by output topic. */
+    static final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+
+    public static class ThreadAgent implements Agent {
+        private final String in;
+        private final String out;
+
+        public ThreadAgent(String[] subs, String[] pubs) {
+            in = subs[0];
+            out = pubs[0];
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+            TopicManagerSingleton.get().getTopic(out).addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "ThreadAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            threads.computeIfAbsent(out, k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            TopicManagerSingleton.get().getTopic(out).publish(new Message(msg.asDouble + 1));
+        }
+
+        @Override
+        public void close() {
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+            TopicManagerSingleton.get().getTopic(out).removePublisher(this);
+        }
+    }
+
+    /** Lets the gate agent out of its callback. */
+    static final CountDownLatch gate = new CountDownLatch(1);
+
+    /** The topic the messages the parent agent creates are derived from, or "none". */
+    static final List<String> parents = Collections.synchronizedList(new ArrayList<>());
+
+    /** Lets the slow agent out of its callback. */
+    static final CountDownLatch release = new CountDownLatch(1);
+
+    /** The messages the slow agent was given. */
+    static final AtomicInteger slowCalls = new AtomicInteger();
+
+    public static class GateAgent extends ThreadAgent {
+        public GateAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.callback(topic, msg);
+        }
+    }
+
+    public static class ParentAgent extends ThreadAgent {
+        public ParentAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            String parent = new Message(0).parentTopic;
+            parents.add(parent != null ? parent : "none");
+        }
+    }
+
+    public static class FloodAgent extends ThreadAgent {
+        public FloodAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            for (int i = 0; i < FLOOD; i++) {
+                super.callback(topic, msg);
+            }
+        }
+    }
+
+    public static class SlowAgent extends ThreadAgent {
+        public SlowAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            slowCalls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static GenericConfig create(AgentScheduler scheduler, String conf) throws IOException {
+        Path file = Files.createTempFile("scheduler", ".conf");
+        Files.write(file, conf.getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setScheduler(scheduler);
+        gc.setConfFile(file.toString());
+        gc.create();
+        Files.delete(file);
+        return gc;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+
+        // a connected graph larger than the share of a worker is cut into connected pieces
+        AgentScheduler scheduler = new AgentScheduler(2);
+        List<AgentSpec> specs = new ArrayList<>();
+        for (int i = 0; i < CHAIN; i++) {
+            specs.add(new AgentSpec(ThreadAgent.class.getName(), new String[] {"T" + i}, new String[] {"T" + (i + 1)}, i));
+        }
+        Map<AgentSpec, AgentScheduler.Worker> placed = scheduler.assign(specs);
+        if (new HashSet<>(placed.values()).size() != 2) {
+            System.out.println("a connected graph was not spread over the workers (-10)");
+        }
+        int cuts = 0;
+        for (int i = 1; i < CHAIN; i++) {
+            if (placed.get(specs.get(i)) != placed.get(specs.get(i - 1))) {
+                cuts++;
+            }
+        }
+        if (cuts != 1) {
+            System.out.println("the pieces of a chain are not connected (-10)");
+        }
+
+        // the parallel agents are the subscribers, and run their agents on the workers
+        StringBuilder conf = new StringBuilder();
+        for (int i = 0; i < CHAIN; i++) {
+            conf.append(ThreadAgent.class.getName()).append("\nT").append(i).append("\nT").append(i + 1).append('\n');
+        }
+        Path file = Files.createTempFile("scheduler", ".conf");
+        Files.write(file, conf.toString().getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setScheduler(scheduler);
+        gc.setConfFile(file.toString());
+        gc.create();
+        if (!gc.getErrors().isEmpty()) {
+            System.out.println("a valid configuration reported errors " + gc.getErrors() + " (-10)");
+        }
+        for (int i = 0; i < CHAIN; i++) {
+            if (!(tm.getTopic("T" + i).getSubscribers().get(0) instanceof ParallelAgent)
+                    || !(tm.getTopic("T" + (i + 1)).getPublishers().get(0) instanceof ParallelAgent)) {
+                System.out.println("the wrapped agent is wired to the topics instead of its parallel agent (-10)");
+                break;
+            }
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("ParallelAgent-")) {
+                System.out.println("a scheduled agent has a thread of its own (-10)");
+                break;
+            }
+        }
+        tm.getTopic("T0").publish(new Message(0));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tm.getTopic("T" + CHAIN).getLastMessage().asDouble != CHAIN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (tm.getTopic("T" + CHAIN).getLastMessage().asDouble != CHAIN) {
+            System.out.println("the value did not go down the whole chain (-10)");
+        }
+        Set<String> used = new HashSet<>();
+        for (Set<String> names : threads.values()) {
+            used.addAll(names);
+        }
+        if (threads.size() != CHAIN || used.size() != 2) {
+            System.out.println("the agents did not run on both workers: " + used + " (-10)");
+        }
+        for (String name : used) {
+            if (!name.startsWith("AgentWorker-")) {
+                System.out.println("an agent ran on " + name + " instead of a worker (-10)");
+            }
+        }
+
+        // closing the configuration frees the workers and unwires the parallel agents
+        gc.close();
+        for (AgentScheduler.Worker worker : new HashSet<>(placed.values())) {
+            if (worker.agents.get() != 0) {
+                System.out.println("a closed agent still counts on its worker (-10)");
+            }
+        }
+        if (!tm.getTopics().isEmpty()) {
+            for (Topic topic : tm.getTopics().values()) {
+                if (!topic.getSubscribers().isEmpty() || !topic.getPublishers().isEmpty()) {
+                    System.out.println("a closed agent is still wired to " + topic.getName() + " (-10)");
+                    break;
+                }
+            }
+        }
+        scheduler.close();
+        tm.clear();
+        Files.delete(file);
+
+        // an agent drained on its worker from the callback of another keeps the delivery of its caller
+        AgentScheduler single = new AgentScheduler(1);
+        gc = create(single, GateAgent.class.getName() + "\nG\nB\n" + ParentAgent.class.getName() + "\nB\nC\n");
+        tm.getTopic("G").publish(new Message(0));
+        Thread.sleep(100);
+        tm.getTopic("B").publish(new Message(0));
+        gate.countDown();
+        deadline = System.currentTimeMillis() + 5000;
+        while (parents.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (!parents.equals(Arrays.asList("B", "B"))) {
+            System.out.println("an agent drained from another lost the delivery it was called in: " + parents + " (-10)");
+        }
+        gc.close();
+        single.close();
+        tm.clear();
+
+        // a worker flooding the queue of an agent of another worker is held to the capacity of the queue
+        AgentScheduler pair = new AgentScheduler(2);
+        gc = create(pair, FloodAgent.class.getName() + "\nF\nS\n" + SlowAgent.class.getName() + "\nS\nE\n");
+        tm.getTopic("F").publish(new Message(0));
+        Thread.sleep(200);
+        release.countDown();
+        Thread.sleep(200);
+        if (slowCalls.get() > CAPACITY + 1) {
+            System.out.println("a worker queued " + slowCalls.get() + " messages for another one (-10)");
+        }
+        gc.close();
+        pair.close();
+        tm.clear();
+        System.out.println("done");
+
+    }
+}
@@ -0,0 +1,113 @@
+package graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class SNAPSHOT_TESTER {
+
+    /** The number of agents with the same name and topics. */
+    private static final int ALIKE = 5;
+
+    /** The number of times a configuration is created, saved and restored. */
+    private static final int ROUNDS = 5;
+
+    public static class CounterAgent implements StatefulAgent {
+        int count;
+
+        public CounterAgent(String[] subs, String[] pubs) {
+            TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+            TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "CounterAgent";
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void saveState(DataOutput out) throws IOException {
+            out.writeInt(count);
+        }
+
+        @Override
+        public void restoreState(DataInput in) throws IOException {
+            count = in.readInt();
+        }
+    }
+
+    private static GenericConfig create(Path file) {
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(file.toString());
+        gc.create();
+        return gc;
+    }
+
+    private static CounterAgent counter(List<Agent> agents, int i) {
+        return (CounterAgent) ParallelAgent.unwrap(agents.get(i));
+    }
+
+    public static void main(String[] args) throws IOException {
+        StringBuilder conf = new StringBuilder();
+        for (int i = 0; i < ALIKE; i++) {
+            conf.append(CounterAgent.class.getName()).append("\nIn\nOut\n");
+        }
+        Path file = Files.createTempFile("snapshot", ".conf");
+        Files.write(file, conf.toString().getBytes());
+        Path saved = Files.createTempFile("snapshot", ".snapshot");
+        Files.delete(saved);
+
+        // agents alike get back the state of the agent at the same place in the configuration
+        boolean matched = true;
+        for (int round = 0; round < ROUNDS && matched; round++) {
+            GenericConfig gc = create(file);
+            Snapshot snapshot = new Snapshot(saved);
+            snapshot.setAgentOrder(gc::getAgents);
+            List<Agent> agents = gc.getAgents();
+            for (int i = 0; i < ALIKE; i++) {
+                counter(agents, i).count = 10 * round + i;
+            }
+            snapshot.save(file.toString());
+            gc.close();
+            TopicManagerSingleton.get().clear();
+
+            GenericConfig restored = create(file);
+            snapshot.setAgentOrder(restored::getAgents);
+            if (!snapshot.restore()) {
+                System.out.println("the snapshot was not restored (-10)");
+            }
+            agents = restored.getAgents();
+            for (int i = 0; i < ALIKE; i++) {
+                matched &= counter(agents, i).count == 10 * round + i;
+            }
+            restored.close();
+            TopicManagerSingleton.get().clear();
+        }
+        if (!matched) {
+            System.out.println("agents alike did not get their own state back (-10)");
+        }
+        if (!file.toString().equals(new Snapshot(saved).getConfigPath())) {
+            System.out.println("the snapshot did not record the configuration path (-10)");
+        }
+
+        Files.delete(file);
+        Files.deleteIfExists(saved);
+        System.out.println("done");
+    }
+}
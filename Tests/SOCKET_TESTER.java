@@ -0,0 +1,239 @@
+package graph;
+
+import server.MyHTTPServer;
+import servlet.TopicHistoryServlet;
+import servlet.TopicSocketServlet;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SOCKET_TESTER {
+
+    /** The number of request threads of the server. */
+    private static final int THREADS = 2;
+
+    /** The number of WebSockets opened at once, more than the request threads. */
+    private static final int SOCKETS = 4;
+
+    /** The capacity of the queue of the parallel agents created by a configuration. */
+    private static final int CAPACITY = 10;
+
+    /** Counted down once the agent is stuck in its callback. */
+    static final CountDownLatch entered = new CountDownLatch(1);
+
+    /** Lets the agent out of its callback. */
+    static final CountDownLatch release = new CountDownLatch(1);
+
+    public static class BlockingAgent implements Agent {
+        private final String in;
+
+        public BlockingAgent(String[] subs, String[] pubs) {
+            in = subs[0];
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+        }
+
+        @Override
+        public String getName() {
+            return "BlockingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            TopicManagerSingleton.get().getTopic(in).unsubscribe(this);
+        }
+    }
+
+    /** A client end of a WebSocket. */
+    private static class Client {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(5000);
+            out = socket.getOutputStream();
+            out.write(("GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes());
+            out.flush();
+            in = new DataInputStream(socket.getInputStream());
+            // skip the handshake answer, up to its empty line
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("no handshake answer");
+                }
+                matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        }
+
+        void send(String text, boolean masked) throws IOException {
+            sendFrame(0x81, text.getBytes(StandardCharsets.UTF_8), masked);
+        }
+
+        void sendFrame(int first, byte[] payload, boolean masked) throws IOException {
+            byte[] mask = {1, 2, 3, 4};
+            out.write(first);
+            if (payload.length < 126) {
+                out.write((masked ? 0x80 : 0) | payload.length);
+            } else {
+                out.write((masked ? 0x80 : 0) | 126);
+                out.write(payload.length >>> 8);
+                out.write(payload.length);
+            }
+            if (masked) {
+                out.write(mask);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+            out.write(payload);
+            out.flush();
+        }
+
+        /** Reads frames until a text frame holds the text, returning the frame or null if none came in time. */
+        String await(String text) throws IOException {
+            try {
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0F;
+                    int length = in.readUnsignedByte() & 0x7F;
+                    if (length == 126) {
+                        length = in.readUnsignedShort();
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    String frame = opcode == 0x8 && length >= 2
+                            ? "close " + (((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF))
+                            : new String(payload, StandardCharsets.UTF_8);
+                    if (frame.contains(text)) {
+                        return frame;
+                    }
+                }
+            } catch (SocketTimeoutException | EOFException e) {
+                return null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.enableHistory(16, 0);
+        Path file = Files.createTempFile("socket", ".conf");
+        Files.write(file, (BlockingAgent.class.getName() + "\nIn\nOut\n").getBytes());
+        GenericConfig gc = new GenericConfig();
+        gc.setConfFile(file.toString());
+        gc.create();
+        tm.getTopic("T").publish(new Message(1));
+        MyHTTPServer server = new MyHTTPServer(port, THREADS);
+        server.addServlet("GET", "/ws", new TopicSocketServlet());
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        server.start();
+        Thread.sleep(200);
+
+        // more WebSockets than request threads, each one served
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < SOCKETS; i++) {
+            Client client = new Client(port);
+            client.send("s T", true);
+            clients.add(client);
+        }
+        for (Client client : clients) {
+            if (client.await("v T 1.0") == null) {
+                System.out.println("a WebSocket was not served (-10)");
+                break;
+            }
+        }
+
+        // the request threads are free for other requests while the WebSockets are open
+        try (Socket request = new Socket("localhost", port)) {
+            request.setSoTimeout(5000);
+            request.getOutputStream().write("GET /history?topic=T HTTP/1.1\nHost: localhost\n\n".getBytes());
+            String status;
+            try {
+                status = new BufferedReader(new InputStreamReader(request.getInputStream())).readLine();
+            } catch (SocketTimeoutException e) {
+                status = null;
+            }
+            if (status == null || !status.startsWith("HTTP/1.1 200")) {
+                System.out.println("a request was not answered while WebSockets were open (-10)");
+            }
+        }
+
+        // a publish reaches every subscribed client
+        clients.get(0).send("p T 5", true);
+        for (Client client : clients) {
+            if (client.await("v T 5") == null) {
+                System.out.println("a published value did not reach a client (-10)");
+                break;
+            }
+        }
+
+        // a publish to an overloaded graph gives up after the timeout and tells the client
+        tm.getTopic("In").publish(new Message(0));
+        if (!entered.await(5, TimeUnit.SECONDS)) {
+            System.out.println("the parallel agent was not given the message published to its topic (-10)");
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            tm.getTopic("In").publish(new Message(i));
+        }
+        clients.get(1).send("p In 1", true);
+        if (clients.get(1).await("e busy In") == null) {
+            System.out.println("a publish to a full queue was not reported busy (-10)");
+        }
+        release.countDown();
+
+        // a frame the client did not mask closes the connection as a protocol error
+        clients.get(2).send("s T", false);
+        if (clients.get(2).await("close 1002") == null) {
+            System.out.println("an unmasked frame was not refused with close 1002 (-10)");
+        }
+
+        // so does a control frame larger than 125 bytes
+        clients.get(3).sendFrame(0x89, new byte[126], true);
+        if (clients.get(3).await("close 1002") == null) {
+            System.out.println("an oversized ping was not refused with close 1002 (-10)");
+        }
+
+        for (Client client : clients) {
+            client.socket.close();
+        }
+        server.close();
+        gc.close();
+        tm.clear();
+        Files.delete(file);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,69 @@
+package graph;
+
+import configs.IncAgent;
+import server.RequestParser;
+import servlet.TraceServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class TRACE_TESTER {
+
+    /** The number of messages published, enough for several of them to be sampled. */
+    private static final int MESSAGES = 20 * Trace.SAMPLE_RATE;
+
+    private static String get(TraceServlet servlet, String query) throws IOException {
+        String request = "GET /trace" + query + " HTTP/1.1\nHost: localhost\n\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        String source = "\"<s>";
+        new IncAgent(new String[] {source}, new String[] {"M"});
+        new IncAgent(new String[] {"M"}, new String[] {"R"});
+        for (int i = 0; i < MESSAGES; i++) {
+            tm.getTopic(source).publish(new Message(i));
+        }
+        TraceServlet servlet = new TraceServlet();
+
+        // the latencies by source and the critical path, with the names escaped as JSON
+        String trace = get(servlet, "?topic=R");
+        if (!trace.startsWith("HTTP/1.1 200 OK") || !trace.contains("Content-Type: application/json")) {
+            System.out.println("the trace was not answered with JSON (-10)");
+        }
+        String escaped = "\"\\\"\\u003cs>\"";
+        if (!trace.contains("{\"topic\":\"R\",\"sampleRate\":" + Trace.SAMPLE_RATE + ",\"sources\":[{\"source\":" + escaped)) {
+            System.out.println("the source of the topic is missing or not escaped: " + trace + " (-10)");
+        }
+        if (!trace.contains("\"criticalPath\":{\"source\":" + escaped + ",\"hops\":[{\"from\":" + escaped
+                + ",\"to\":\"M\"") || !trace.contains("{\"from\":\"M\",\"to\":\"R\"")) {
+            System.out.println("wrong critical path: " + trace + " (-10)");
+        }
+
+        // the source can be asked for, URL encoded
+        if (!get(servlet, "?topic=R&source=%22%3Cs%3E").contains("\"criticalPath\":{\"source\":" + escaped)) {
+            System.out.println("the source asked for was not used (-10)");
+        }
+
+        // a topic nothing reached has no sources and no path
+        String none = get(servlet, "?topic=X");
+        if (!none.contains("\"sources\":[],\"criticalPath\":{\"source\":null,\"hops\":[],\"totalMeanMicros\":0.0}}")) {
+            System.out.println("wrong trace of an unreached topic: " + none + " (-10)");
+        }
+
+        // a request without a topic is an error
+        String missing = get(servlet, "");
+        if (!missing.startsWith("HTTP/1.1 400") || !missing.endsWith("{\"error\":\"missing topic\"}")) {
+            System.out.println("a request without a topic was not refused: " + missing + " (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,152 @@
+package graph;
+
+import metrics.MetricsRegistry;
+import server.RequestParser;
+import servlet.ConfLoader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class UPLOAD_TESTER {
+
+    /** The number of configurations deployed while the graph is read. */
+    private static final int DEPLOYS = 40;
+
+    public static class FailingAgent implements Agent {
+        public FailingAgent(String[] subs, String[] pubs) {
+            throw new AssertionError("broken agent");
+        }
+
+        @Override
+        public String getName() {
+            return "FailingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Path write(String conf) throws IOException {
+        Path file = Files.createTempFile("upload", ".conf");
+        Files.write(file, conf.getBytes());
+        return file;
+    }
+
+    private static String upload(ConfLoader loader, String fileName, String conf) throws IOException {
+        String part = "------X\n"
+                + (fileName != null ? "Content-Disposition: form-data; name=\"fileUpload\"; filename=\"" + fileName + "\"\n" : "")
+                + "Content-Type: application/octet-stream\n\n" + conf + "\n------X--\n";
+        String request = "POST /upload HTTP/1.1\nHost: localhost\nContent-Type: multipart/form-data; boundary=----X\n"
+                + "Content-Length: " + part.length() + "\n\n" + part;
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        loader.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        Path small = write("configs.IncAgent\nA\nB\n");
+        Path large = write("configs.IncAgent\nA\nB\nconfigs.IncAgent\nB\nC\nconfigs.PlusAgent\nA,C\nD\n");
+        Path failing = write("configs.IncAgent\nStaged1\nStaged2\n" + FailingAgent.class.getName() + "\nE\nF\n");
+        ConfLoader loader = new ConfLoader();
+        if (!loader.deploy(small.toString())) {
+            System.out.println("a valid configuration was not deployed (-10)");
+        }
+
+        // a load given up on leaves neither topics nor metrics of the topics it staged
+        if (loader.deploy(failing.toString())) {
+            System.out.println("a configuration whose agent failed to construct was deployed (-10)");
+        }
+        if (tm.getTopics().containsKey("Staged1")
+                || MetricsRegistry.get().getCounters().containsKey(Topic.publishesSeries("Staged1"))
+                || MetricsRegistry.get().getCounters().containsKey(Topic.publishesSeries("Staged2"))) {
+            System.out.println("a load given up on left the topics it staged behind (-10)");
+        }
+
+        // the graph is read as one configuration or the other, never half of one
+        Set<String> smallTopics = new HashSet<>(Arrays.asList("A", "B"));
+        Set<String> largeTopics = new HashSet<>(Arrays.asList("A", "B", "C", "D"));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean torn = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                tm.getGraphLock().readLock().lock();
+                try {
+                    Set<String> topics = new HashSet<>(tm.getTopics().keySet());
+                    if (!topics.equals(smallTopics) && !topics.equals(largeTopics)) {
+                        torn.set(true);
+                    }
+                } finally {
+                    tm.getGraphLock().readLock().unlock();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < DEPLOYS; i++) {
+            if (!loader.deploy((i % 2 == 0 ? large : small).toString())) {
+                System.out.println("a valid configuration was not deployed (-10)");
+                break;
+            }
+        }
+        done.set(true);
+        reader.join();
+        if (torn.get()) {
+            System.out.println("the graph was read while a configuration was half swapped in (-10)");
+        }
+
+        // the configuration deployed last runs
+        tm.getTopic("A").publish(new Message(1));
+        Thread.sleep(100);
+        if (tm.getTopic("B").getLastMessage().asDouble != 2 || tm.getTopics().containsKey("C")) {
+            System.out.println("the configuration deployed last is not the one running (-10)");
+        }
+
+        // an upload that cannot be deployed is refused with the errors found, and the running graph is kept
+        String refused = upload(loader, "upload-tester.conf", "configs.IncAgent\nA\n");
+        if (!refused.startsWith("HTTP/1.1 422") || !refused.contains("not a multiple of 3")) {
+            System.out.println("a malformed upload was not refused with its errors: " + refused + " (-10)");
+        }
+        if (!loader.getActiveConfigPath().equals(small.toString())
+                || Files.exists(Paths.get(System.getProperty("user.dir"), "uploads", "upload-tester.conf"))) {
+            System.out.println("a malformed upload replaced the running configuration (-10)");
+        }
+        if (!upload(loader, null, "configs.IncAgent\nA\nB\n").startsWith("HTTP/1.1 400")) {
+            System.out.println("a request without a file was not refused (-10)");
+        }
+
+        // a valid upload is deployed and answered with the page of the graph
+        String deployed = upload(loader, "upload-tester.conf", "configs.IncAgent\nA\nB\n");
+        Path kept = Paths.get(System.getProperty("user.dir"), "uploads", "upload-tester.conf");
+        if (!deployed.startsWith("HTTP/1.1 200 OK") || !deployed.contains("Content-Type: text/html")
+                || !loader.getActiveConfigPath().equals(kept.toString())) {
+            System.out.println("a valid upload was not deployed (-10)");
+        }
+
+        loader.close();
+        tm.clear();
+        Files.deleteIfExists(kept);
+        Files.delete(small);
+        Files.delete(large);
+        Files.delete(failing);
+        System.out.println("done");
+    }
+}
@@ -0,0 +1,82 @@
+package graph;
+
+import server.RequestParser;
+import servlet.TopicValuesServlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class VALUES_TESTER {
+
+    private static String get(TopicValuesServlet servlet, String path, String headers) throws IOException {
+        String request = "GET " + path + " HTTP/1.1\nHost: localhost\n" + headers + "\n";
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(request)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        return out.toString("UTF-8");
+    }
+
+    /** Gets the value of a response header, or null if absent. */
+    private static String header(String response, String name) {
+        for (String line : response.split("\n")) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (line.startsWith(name + ": ")) {
+                return line.substring(name.length() + 2);
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.getTopic("A").publish(new Message("x</script>\"y"));
+        TopicValuesServlet servlet = new TopicValuesServlet();
+
+        // JSON and plain text are told apart by their ETags and by Vary
+        String json = get(servlet, "/topics", "Accept: application/json\n");
+        String text = get(servlet, "/topics", "Accept: text/plain\n");
+        String jsonTag = header(json, "ETag");
+        String textTag = header(text, "ETag");
+        if (jsonTag == null || textTag == null || jsonTag.equals(textTag)) {
+            System.out.println("JSON and plain text have the same ETag (-10)");
+        }
+        if (!"Accept".equals(header(json, "Vary")) || !"Accept".equals(header(text, "Vary"))) {
+            System.out.println("the responses do not vary on Accept (-10)");
+        }
+
+        // a cached representation is only confirmed for the same representation
+        String cached = get(servlet, "/topics", "Accept: text/plain\nIf-None-Match: " + jsonTag + "\n");
+        if (!cached.startsWith("HTTP/1.1 200") || !cached.contains("A\tx</script>\"y")) {
+            System.out.println("the JSON ETag was taken for the plain text (-10)");
+        }
+        String unchanged = get(servlet, "/topics", "Accept: text/plain\nIf-None-Match: " + textTag + "\n");
+        if (!unchanged.startsWith("HTTP/1.1 304") || !"Accept".equals(header(unchanged, "Vary"))) {
+            System.out.println("an unchanged representation was not answered 304 with Vary (-10)");
+        }
+        String single = get(servlet, "/topics/A", "Accept: application/json\n");
+        String singleUnchanged = get(servlet, "/topics/A", "If-None-Match: " + header(single, "ETag") + "\n");
+        String singleText = get(servlet, "/topics/A?format=text", "If-None-Match: " + header(single, "ETag") + "\n");
+        if (!singleUnchanged.startsWith("HTTP/1.1 304") || !singleText.startsWith("HTTP/1.1 200")) {
+            System.out.println("the ETag of a single topic does not name its representation (-10)");
+        }
+
+        // names and values are escaped for JSON, safe to embed in a page
+        if (!single.endsWith("{\"name\":\"A\",\"value\":\"x\\u003c/script>\\\"y\",\"number\":null,"
+                + "\"subscribers\":0,\"publishers\":0}")) {
+            System.out.println("wrong JSON for a topic: " + single + " (-10)");
+        }
+
+        // a new value changes the ETag
+        tm.getTopic("A").publish(new Message(2));
+        if (get(servlet, "/topics", "Accept: text/plain\nIf-None-Match: " + textTag + "\n").startsWith("HTTP/1.1 304")) {
+            System.out.println("a changed value was answered 304 (-10)");
+        }
+
+        tm.clear();
+        System.out.println("done");
+    }
+}